@@ -136,10 +136,8 @@ def updateRoster = { sess, online, jid, i_jid, i_name, i_subscr ->
 //		}
 	} else {
 		// Update offline
-		String rosterStr = repository.getData(jid.getBareJID(), null,
-											  RosterAbstract.ROSTER, null) ?: ""
 		Map<BareJID, RosterElement> roster = new LinkedHashMap<BareJID, RosterElement>()
-		RosterFlat.parseRosterUtil(rosterStr, roster, null)
+		RosterFlat.loadRosterUtil(repository, jid.getBareJID(), roster)
 		if (remove_item) {
 			roster.remove(i_jid.getBareJID())
 			res_report += "Buddy: " + i_jid + " removed"
@@ -147,17 +145,13 @@ def updateRoster = { sess, online, jid, i_jid, i_name, i_subscr ->
 			if (roster.get(i_jid.getBareJID()) == null) {
 				RosterElement rel = new RosterElement(i_jid, i_name, null)
 				rel.setSubscription(RosterAbstract.SubscriptionType.valueOf(i_subscr))
-				roster.put(i_jid, rel)
+				roster.put(i_jid.getBareJID(), rel)
 				res_report += "Buddy: " + i_jid + " added to the roster"
 			} else {
 				res_report += "Buddy: " + i_jid + " already in the roster, skipping"
 			}
 		}
-		StringBuilder sb = new StringBuilder(200)
-		for (RosterElement relem : roster.values()) {
-			sb.append(relem.getRosterElement().toString())
-		}
-		repository.setData(jid.getBareJID(), null, RosterAbstract.ROSTER, sb.toString());
+		RosterFlat.saveRosterItemUtil(repository, jid.getBareJID(), roster, i_jid.getBareJID())
 	}
 }
 
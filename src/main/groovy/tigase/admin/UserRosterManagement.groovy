@@ -180,19 +180,13 @@ class RosterChangesControler {
 		return packets
 	}
 
-	def modifyDbRoster(String ownerJid, modifyFunc) {
+	def modifyDbRoster(String ownerJid, BareJID jid, modifyFunc) {
 		BareJID ownerBareJID = BareJID.bareJIDInstance(ownerJid)
-		String rosterStr = repository.getData(ownerBareJID, null, RosterAbstract.ROSTER, null)
-		rosterStr = (rosterStr == null) ? "" : rosterStr
 		Map<BareJID, RosterElement> roster = new LinkedHashMap<BareJID, RosterElement>()
 
-		RosterFlat.parseRosterUtil(rosterStr, roster, null)
+		RosterFlat.loadRosterUtil(repository, ownerBareJID, roster)
 		modifyFunc(roster)
-		StringBuilder sb = new StringBuilder()
-		for (RosterElement relem : roster.values()) {
-			sb.append(relem.getRosterElement().toString())
-		}
-		repository.setData(ownerBareJID, null, RosterAbstract.ROSTER, sb.toString());
+		RosterFlat.saveRosterItemUtil(repository, ownerBareJID, roster, jid)
 	}
 
 	Queue<Packet> addJidToRoster(ownerJid, jidToAdd, groups, subscriptionType) {
@@ -200,14 +194,14 @@ class RosterChangesControler {
 		JID jidToAddJID = JID.jidInstance(jidToAdd)
 		List<XMPPResourceConnection> activeConnections = getActiveConnections(ownerJid)
 		if (activeConnections.size() == 0) {
-			modifyDbRoster(ownerJid, { roster ->
-				RosterElement userToAdd = roster.get(jidToAdd)
+			modifyDbRoster(ownerJid, jidToAddJID.getBareJID(), { roster ->
+				RosterElement userToAdd = roster.get(jidToAddJID.getBareJID())
 				if (userToAdd == null) {
 					userToAdd = new RosterElement(jidToAddJID, jidToAdd, groups)
 				}
 				userToAdd.setSubscription(subscription(subscriptionType))
 				userToAdd.setGroups(groups)
-				roster.put(jidToAdd, userToAdd)
+				roster.put(jidToAddJID.getBareJID(), userToAdd)
 			})
 			return new LinkedList<Packet>()
 		} else {
@@ -218,12 +212,13 @@ class RosterChangesControler {
 	Queue<Packet> removeJidFromRoster(ownerJid, jidToRemove) {
 		List<XMPPResourceConnection> activeConnections = getActiveConnections(ownerJid)
 		if (activeConnections.size() == 0) {
-			modifyDbRoster(ownerJid, { roster ->
-				RosterElement userToRemove = roster.get(jidToRemove)
+			BareJID jidToRemoveBareJID = BareJID.bareJIDInstance(jidToRemove)
+			modifyDbRoster(ownerJid, jidToRemoveBareJID, { roster ->
+				RosterElement userToRemove = roster.get(jidToRemoveBareJID)
 				if (userToRemove == null) {
 					throw new Exception("User to be deleted is not on roster")
 				}
-				roster.remove(jidToRemove)
+				roster.remove(jidToRemoveBareJID)
 			})
 			return new LinkedList<Packet>()
 		} else {
@@ -146,22 +146,17 @@ try {
 			// Is there a better object to use for synchronization?
 			synchronized (repository) {
 				// Update offline and only on original node
-				String rosterStr = repository.getData(jid.getBareJID(), null, RosterAbstract.ROSTER, null) ?: ""
 				Map<BareJID, RosterElement> roster = new LinkedHashMap<BareJID, RosterElement>()
-				RosterFlat.parseRosterUtil(rosterStr, roster, null)
+				RosterFlat.loadRosterUtil(repository, jid.getBareJID(), roster)
 				if (remove_item) {
 					roster.remove(i_jid.getBareJID())
 				} else {
 					RosterElement rel = new RosterElement(i_jid, i_name, i_groups ? i_groups.split(",") : null)
 					rel.setSubscription(RosterAbstract.SubscriptionType.valueOf(i_subscr))
 					rel.setPersistent(true);
-					roster.put(i_jid, rel)
+					roster.put(i_jid.getBareJID(), rel)
 				}
-				StringBuilder sb = new StringBuilder(200)
-				for (RosterElement relem : roster.values()) {
-					sb.append(relem.getRosterElement().toString())
-				}
-				repository.setData(jid.getBareJID(), null, RosterAbstract.ROSTER, sb.toString());
+				RosterFlat.saveRosterItemUtil(repository, jid.getBareJID(), roster, i_jid.getBareJID())
 			}
 		}
 	}
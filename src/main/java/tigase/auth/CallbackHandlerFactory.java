@@ -18,11 +18,13 @@
 package tigase.auth;
 
 import tigase.auth.callbacks.CallbackHandlerFactoryIfc;
+import tigase.auth.credentials.entries.ScramKeysCache;
 import tigase.auth.impl.PlainCallbackHandler;
 import tigase.auth.impl.ScramCallbackHandler;
 import tigase.auth.mechanisms.*;
 import tigase.db.NonAuthUserRepository;
 import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Inject;
 import tigase.xmpp.XMPPResourceConnection;
 
 import javax.security.auth.callback.CallbackHandler;
@@ -38,6 +40,9 @@ public class CallbackHandlerFactory
 
 	private static final String CALLBACK_HANDLER_KEY = "callbackhandler";
 
+	@Inject(nullAllowed = true)
+	private ScramKeysCache scramKeysCache;
+
 	@Override
 	public CallbackHandler create(String mechanismName, XMPPResourceConnection session, NonAuthUserRepository repo)
 			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
@@ -70,9 +75,17 @@ public class CallbackHandlerFactory
 			((MechanismNameAware) handler).setMechanismName(mechanismName);
 		}
 
+		if (handler instanceof ScramCallbackHandler) {
+			((ScramCallbackHandler) handler).setScramKeysCache(scramKeysCache);
+		}
+
 		return handler;
 	}
 
+	public void setScramKeysCache(ScramKeysCache scramKeysCache) {
+		this.scramKeysCache = scramKeysCache;
+	}
+
 	protected String getHandlerClassname(String mechanismName, XMPPResourceConnection session,
 										 NonAuthUserRepository repo) {
 		switch (mechanismName) {
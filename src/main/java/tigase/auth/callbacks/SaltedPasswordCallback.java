@@ -24,14 +24,26 @@ public class SaltedPasswordCallback
 
 	private static final long serialVersionUID = -4342673378785456908L;
 
+	private byte[] clientKey;
+
 	private String prompt;
 
 	private byte[] saltedPassword;
 
+	private byte[] serverKey;
+
 	public SaltedPasswordCallback(String prompt) {
 		this.prompt = prompt;
 	}
 
+	/**
+	 * @return <code>ClientKey</code> derived from salted password or <code>null</code> if it was not provided and needs
+	 * to be calculated
+	 */
+	public byte[] getClientKey() {
+		return clientKey;
+	}
+
 	/**
 	 * @return the salt
 	 */
@@ -46,4 +58,21 @@ public class SaltedPasswordCallback
 		this.saltedPassword = salt;
 	}
 
+	/**
+	 * @return <code>ServerKey</code> derived from salted password or <code>null</code> if it was not provided and needs
+	 * to be calculated
+	 */
+	public byte[] getServerKey() {
+		return serverKey;
+	}
+
+	/**
+	 * Sets keys already derived from salted password (using default <code>"Client Key"</code> and <code>"Server
+	 * Key"</code> values), so mechanism does not need to calculate them.
+	 */
+	public void setKeys(byte[] clientKey, byte[] serverKey) {
+		this.clientKey = clientKey;
+		this.serverKey = serverKey;
+	}
+
 }
@@ -19,10 +19,12 @@ package tigase.auth.credentials.entries;
 
 import tigase.auth.credentials.Credentials;
 import tigase.auth.mechanisms.AbstractSaslSCRAM;
+import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
 import tigase.util.Base64;
 import tigase.xmpp.jid.BareJID;
 
+import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -39,6 +41,9 @@ public class ScramCredentialsEntry
 	private final int iterations = 4096;
 	private final byte[] salt;
 	private final byte[] saltedPassword;
+	private volatile byte[] clientKey;
+	private volatile ScramKeysCache keysCache;
+	private volatile byte[] serverKey;
 
 	public ScramCredentialsEntry(String algorithm, PlainCredentialsEntry entry)
 			throws NoSuchAlgorithmException, InvalidKeyException {
@@ -68,6 +73,30 @@ public class ScramCredentialsEntry
 		return iterations;
 	}
 
+	/**
+	 * Returns <code>ClientKey</code> derived from salted password. Value is calculated only once for each entry.
+	 */
+	public byte[] getClientKey() throws NoSuchAlgorithmException, InvalidKeyException {
+		byte[] key = clientKey;
+		if (key == null) {
+			key = hmac(AbstractSaslSCRAM.DEFAULT_CLIENT_KEY);
+			clientKey = key;
+		}
+		return key;
+	}
+
+	/**
+	 * Returns <code>ServerKey</code> derived from salted password. Value is calculated only once for each entry.
+	 */
+	public byte[] getServerKey() throws NoSuchAlgorithmException, InvalidKeyException {
+		byte[] key = serverKey;
+		if (key == null) {
+			key = hmac(AbstractSaslSCRAM.DEFAULT_SERVER_KEY);
+			serverKey = key;
+		}
+		return key;
+	}
+
 	@Override
 	public String getMechanism() {
 		return "SCRAM-" + algorithm;
@@ -75,21 +104,40 @@ public class ScramCredentialsEntry
 
 	@Override
 	public boolean verifyPlainPassword(String password) {
+		final ScramKeysCache keysCache = this.keysCache;
+		if (keysCache != null && keysCache.isVerified(this, password)) {
+			return true;
+		}
 		try {
 			byte[] expSaltedPassword = AbstractSaslSCRAM.hi(algorithm, AbstractSaslSCRAM.normalize(password), salt,
 															iterations);
-			return Arrays.equals(this.saltedPassword, expSaltedPassword);
+			boolean result = Arrays.equals(this.saltedPassword, expSaltedPassword);
+			if (result && keysCache != null) {
+				keysCache.verified(this, password);
+			}
+			return result;
 		} catch (InvalidKeyException | NoSuchAlgorithmException ex) {
 			log.log(Level.FINE, "Password comparison failed", ex);
 		}
 		return false;
 	}
 
+	void setKeysCache(ScramKeysCache keysCache) {
+		this.keysCache = keysCache;
+	}
+
+	private byte[] hmac(byte[] data) throws NoSuchAlgorithmException, InvalidKeyException {
+		String hmacAlgorithm = "Hmac" + (algorithm.startsWith("SHA-") ? algorithm.replace("SHA-", "SHA") : algorithm);
+		return AbstractSaslSCRAM.hmac(new SecretKeySpec(saltedPassword, hmacAlgorithm), data);
+	}
+
 	public static class Decoder
 			implements Credentials.Decoder {
 
 		@ConfigField(desc = "Hash algorithm")
 		private String algorithm;
+		@Inject(nullAllowed = true)
+		private ScramKeysCache keysCache;
 		@ConfigField(desc = "Mechanism name")
 		private String name;
 
@@ -137,7 +185,15 @@ public class ScramCredentialsEntry
 				}
 			}
 
-			return newInstance(salt, iterations, saltedPassword);
+			Credentials.Entry entry = newInstance(salt, iterations, saltedPassword);
+			if (entry instanceof ScramCredentialsEntry) {
+				((ScramCredentialsEntry) entry).setKeysCache(keysCache);
+			}
+			return entry;
+		}
+
+		public void setKeysCache(ScramKeysCache keysCache) {
+			this.keysCache = keysCache;
 		}
 
 		protected Credentials.Entry newInstance(byte[] salt, int iterations, byte[] saltedPassword) {
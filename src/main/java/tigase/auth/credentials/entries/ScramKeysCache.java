@@ -0,0 +1,152 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.auth.credentials.entries;
+
+import tigase.auth.mechanisms.AbstractSaslSCRAM;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.kernel.core.Kernel;
+import tigase.util.Base64;
+import tigase.util.cache.SimpleCacheSynchronized;
+import tigase.xmpp.jid.BareJID;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded and time-limited cache of {@link ScramCredentialsEntry} instances with keys derived from plaintext
+ * passwords, so repeated authentication of the same user does not need to repeat PBKDF2 calculation. Derived
+ * <code>ClientKey</code> and <code>ServerKey</code> are kept by cached entries as well.
+ * <br>
+ * Entries are looked up by SHA-256 digest of the password and derivation parameters, so plaintext password is never
+ * used as a key of the cache. Only successfully verified passwords are cached.
+ * <br>
+ * Cache is disabled by default.
+ */
+@Bean(name = "scramKeysCache", parent = Kernel.class, active = true, exportable = true)
+public class ScramKeysCache {
+
+	private static final Logger log = Logger.getLogger(ScramKeysCache.class.getCanonicalName());
+
+	private volatile SimpleCacheSynchronized<String, ScramCredentialsEntry> cache = null;
+	@ConfigField(desc = "Maximal number of cached keys derived from passwords for SCRAM", alias = "scram-keys-cache-size")
+	private int size = 0;
+	@ConfigField(desc = "Time in milliseconds for which keys derived from passwords for SCRAM are cached", alias = "scram-keys-cache-time")
+	private long time = 5 * 60 * 1000;
+
+	/**
+	 * Configures cache.
+	 *
+	 * @param maxSize maximal number of cached entries, <code>0</code> disables the cache
+	 * @param timeLimit time in milliseconds after which cached entry expires
+	 */
+	public synchronized void configure(int maxSize, long timeLimit) {
+		this.size = maxSize;
+		this.time = timeLimit;
+		if (maxSize > 0 && timeLimit > 0) {
+			cache = new SimpleCacheSynchronized<>(maxSize, timeLimit);
+		} else {
+			cache = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return cache != null;
+	}
+
+	public void setSize(int size) {
+		configure(size, time);
+	}
+
+	public void setTime(long time) {
+		configure(size, time);
+	}
+
+	/**
+	 * Returns SCRAM credentials entry for plaintext credentials of the user. Entry is derived from the password only if
+	 * there is no matching entry in the cache.
+	 */
+	public ScramCredentialsEntry getOrCreate(BareJID user, String algorithm, PlainCredentialsEntry entry)
+			throws NoSuchAlgorithmException, InvalidKeyException {
+		final SimpleCacheSynchronized<String, ScramCredentialsEntry> cache = this.cache;
+		if (cache == null) {
+			return new ScramCredentialsEntry(algorithm, entry);
+		}
+
+		final String key = key("plain", String.valueOf(user), algorithm, null, entry.getPassword());
+		ScramCredentialsEntry result = cache.get(key);
+		if (result == null) {
+			result = new ScramCredentialsEntry(algorithm, entry);
+			result.setKeysCache(this);
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if password was already successfully verified against the salted password of the entry.
+	 */
+	boolean isVerified(ScramCredentialsEntry entry, String password) {
+		final SimpleCacheSynchronized<String, ScramCredentialsEntry> cache = this.cache;
+		if (cache == null) {
+			return false;
+		}
+		ScramCredentialsEntry cached = cache.get(verifiedKey(entry, password));
+		return cached != null && Arrays.equals(cached.getSaltedPassword(), entry.getSaltedPassword());
+	}
+
+	void verified(ScramCredentialsEntry entry, String password) {
+		final SimpleCacheSynchronized<String, ScramCredentialsEntry> cache = this.cache;
+		if (cache != null) {
+			cache.put(verifiedKey(entry, password), entry);
+		}
+	}
+
+	private static String verifiedKey(ScramCredentialsEntry entry, String password) {
+		return key("verified", entry.getMechanism(), String.valueOf(entry.getIterations()), entry.getSalt(), password);
+	}
+
+	private static String key(String type, String part1, String part2, byte[] salt, String password) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String part : new String[]{type, part1, part2}) {
+				if (part != null) {
+					byte[] data = part.getBytes(StandardCharsets.UTF_8);
+					digest.update(ByteBuffer.allocate(4).putInt(data.length).array());
+					digest.update(data);
+				}
+			}
+			if (salt != null) {
+				digest.update(ByteBuffer.allocate(4).putInt(salt.length).array());
+				digest.update(salt);
+			}
+			digest.update(AbstractSaslSCRAM.normalize(password));
+			return Base64.encode(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			log.log(Level.WARNING, "Could not calculate key of SCRAM keys cache", ex);
+			throw new RuntimeException(ex);
+		}
+	}
+
+}
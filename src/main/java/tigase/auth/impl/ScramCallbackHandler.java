@@ -25,6 +25,7 @@ import tigase.auth.callbacks.*;
 import tigase.auth.credentials.Credentials;
 import tigase.auth.credentials.entries.PlainCredentialsEntry;
 import tigase.auth.credentials.entries.ScramCredentialsEntry;
+import tigase.auth.credentials.entries.ScramKeysCache;
 import tigase.auth.mechanisms.AbstractSasl;
 import tigase.auth.mechanisms.AbstractSaslSCRAM;
 import tigase.db.AuthRepository;
@@ -60,6 +61,7 @@ public class ScramCallbackHandler
 	private BareJID jid = null;
 	private String mechanismName;
 	private AuthRepository repo;
+	private ScramKeysCache scramKeysCache;
 	private XMPPResourceConnection session;
 	private String credentialId = null;
 
@@ -96,6 +98,10 @@ public class ScramCallbackHandler
 		this.session = session;
 	}
 
+	public void setScramKeysCache(ScramKeysCache scramKeysCache) {
+		this.scramKeysCache = scramKeysCache;
+	}
+
 	protected void handleAuthorizeCallback(AuthorizeCallback authCallback) {
 		String authenId = authCallback.getAuthenticationID();
 
@@ -187,6 +193,11 @@ public class ScramCallbackHandler
 		fetchCredentials();
 		if (credentialsEntry != null) {
 			callback.setSaltedPassword(credentialsEntry.getSaltedPassword());
+			try {
+				callback.setKeys(credentialsEntry.getClientKey(), credentialsEntry.getServerKey());
+			} catch (Exception ex) {
+				log.log(Level.FINEST, "Could not derive keys from salted password, mechanism will calculate them", ex);
+			}
 		} else {
 			callback.setSaltedPassword(null);
 		}
@@ -257,8 +268,10 @@ public class ScramCallbackHandler
 				if (entry instanceof ScramCredentialsEntry) {
 					credentialsEntry = (ScramCredentialsEntry) entry;
 				} else if (entry instanceof PlainCredentialsEntry) {
-					credentialsEntry = new ScramCredentialsEntry(mech.replace("SCRAM-", ""),
-																 (PlainCredentialsEntry) entry);
+					String algorithm = mech.replace("SCRAM-", "");
+					credentialsEntry = scramKeysCache != null
+									   ? scramKeysCache.getOrCreate(jid, algorithm, (PlainCredentialsEntry) entry)
+									   : new ScramCredentialsEntry(algorithm, (PlainCredentialsEntry) entry);
 				}
 
 				loggingInForbidden = !credentials.canLogin();
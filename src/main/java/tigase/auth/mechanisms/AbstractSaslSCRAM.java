@@ -25,6 +25,7 @@ import tigase.util.Base64;
 
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -37,6 +38,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.logging.Level;
@@ -50,8 +52,8 @@ public abstract class AbstractSaslSCRAM
 
 	public static final String TLS_UNIQUE_ID_KEY = "TLS_UNIQUE_ID_KEY";
 	public static final String LOCAL_CERTIFICATE_KEY = "LOCAL_CERTIFICATE_KEY";
-	protected final static byte[] DEFAULT_CLIENT_KEY = "Client Key".getBytes(CHARSET);
-	protected final static byte[] DEFAULT_SERVER_KEY = "Server Key".getBytes(CHARSET);
+	public final static byte[] DEFAULT_CLIENT_KEY = "Client Key".getBytes(CHARSET);
+	public final static byte[] DEFAULT_SERVER_KEY = "Server Key".getBytes(CHARSET);
 	private final static String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
 	private final static Pattern CLIENT_FIRST_MESSAGE = Pattern.compile(
 			"^(?<gs2Header>(?:y|n|p=(?<cbName>[a-zA-z0-9.-]+))," +
@@ -59,6 +61,8 @@ public abstract class AbstractSaslSCRAM
 					"?n=(?<username>(?:[^,\\x00-\\x20\\x2C]|=2C|=3D)+),r=(?<nonce>[^,\\x00-\\x20\\x2C]+)(?:,.*)?)$");
 	private final static Pattern CLIENT_LAST_MESSAGE = Pattern.compile("^(?<withoutProof>c=(?<cb>[a-zA-Z0-9/+=]+)," +
 																			   "(?:r=(?<nonce>[^,\\x00-\\x20\\x2C]+))(?:,.*)?),p=(?<proof>[a-zA-Z0-9/+=]+)$");
+	// Mac instances are reused by the thread to avoid provider lookup on each HMAC calculation
+	private final static ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial(HashMap::new);
 
 	public enum BindType {
 		/**
@@ -95,6 +99,7 @@ public abstract class AbstractSaslSCRAM
 	private Random random = new SecureRandom();
 	private BindType requestedBindType;
 	private byte[] saltedPassword;
+	private byte[] serverKey;
 	private String sfmMessage;
 	private String sfmNonce;
 	private Step step = Step.clientFirstMessage;
@@ -106,34 +111,52 @@ public abstract class AbstractSaslSCRAM
 			algorithm = algorithm.replace("SHA-", "SHA");
 		}
 		final SecretKeySpec k = new SecretKeySpec(password, "Hmac" + algorithm);
+		final Mac mac = mac(k.getAlgorithm());
+		mac.init(k);
 
 		byte[] z = new byte[salt.length + 4];
 		System.arraycopy(salt, 0, z, 0, salt.length);
 		System.arraycopy(new byte[]{0, 0, 0, 1}, 0, z, salt.length, 4);
 
-		byte[] u = hmac(k, z);
+		byte[] u = mac.doFinal(z);
 		byte[] result = new byte[u.length];
 		System.arraycopy(u, 0, result, 0, result.length);
 
-		int i = 1;
-		while (i < iterations) {
-			u = hmac(k, u);
-			for (int j = 0; j < u.length; j++) {
-				result[j] ^= u[j];
+		try {
+			int i = 1;
+			while (i < iterations) {
+				// Mac is reset after doFinal() so the key schedule is reused and u is overwritten in place
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < u.length; j++) {
+					result[j] ^= u[j];
+				}
+				++i;
 			}
-			++i;
+		} catch (ShortBufferException e) {
+			throw new InvalidKeyException("Invalid length of HMAC result", e);
 		}
 
 		return result;
 	}
 
-	protected static byte[] hmac(final SecretKey key, byte[] data)
+	public static byte[] hmac(final SecretKey key, byte[] data)
 			throws NoSuchAlgorithmException, InvalidKeyException {
-		Mac mac = Mac.getInstance(key.getAlgorithm());
+		Mac mac = mac(key.getAlgorithm());
 		mac.init(key);
 		return mac.doFinal(data);
 	}
 
+	private static Mac mac(final String algorithm) throws NoSuchAlgorithmException {
+		final Map<String, Mac> macs = MACS.get();
+		Mac mac = macs.get(algorithm);
+		if (mac == null) {
+			mac = Mac.getInstance(algorithm);
+			macs.put(algorithm, mac);
+		}
+		return mac;
+	}
+
 	public static byte[] normalize(String str) {
 		return str.getBytes(CHARSET);
 	}
@@ -281,7 +304,13 @@ public abstract class AbstractSaslSCRAM
 		this.sfmNonce = cfmNonce + serverNonce;
 
 		this.saltedPassword = pc.getSaltedPassword();
-		this.clientKey = hmac(key(saltedPassword), clientKeyData);
+		if (pc.getClientKey() != null && pc.getServerKey() != null && Arrays.equals(clientKeyData, DEFAULT_CLIENT_KEY) &&
+				Arrays.equals(serverKeyData, DEFAULT_SERVER_KEY)) {
+			this.clientKey = pc.getClientKey();
+			this.serverKey = pc.getServerKey();
+		} else {
+			this.clientKey = hmac(key(saltedPassword), clientKeyData);
+		}
 		this.storedKey = h(clientKey);
 
 		final StringBuilder serverStringMessage = new StringBuilder();
@@ -341,7 +370,9 @@ public abstract class AbstractSaslSCRAM
 											   "SCRAM: " + cfmAuthzid + " is not authorized to act as " + cfmAuthzid);
 		}
 
-		byte[] serverKey = hmac(key(saltedPassword), serverKeyData);
+		if (serverKey == null) {
+			serverKey = hmac(key(saltedPassword), serverKeyData);
+		}
 		byte[] serverSignature = hmac(key(serverKey), authMessage.getBytes(CHARSET));
 
 		final StringBuilder serverStringMessage = new StringBuilder();
@@ -0,0 +1,156 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.xmpp.XMPPIOService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Implementation of ClusterConnectionSelectorIfc which sends packets with priority lower than CLUSTER over the least
+ * loaded connection, based on estimated number of bytes waiting to be written and average write latency of each
+ * connection.
+ * <br>
+ * Packets are grouped in buckets by {@link tigase.cluster.api.ClusterConnectionHandler#hashCodeForPacket(Packet)} and
+ * each bucket is assigned to a connection, so packets of the same user are sent in order. Bucket is moved to other
+ * connection only when all packets added to its current connection were written and the new connection is idle and
+ * has much lower write latency. Packets with priority CLUSTER or higher are sent over separate connections, the same
+ * way as by {@link ClusterConnectionSelector}.
+ * <br>
+ * This class is not registered as a bean by default, it needs to be enabled by setting it as a class of
+ * <code>clusterConnectionSelector</code> bean in the configuration.
+ */
+public class AdaptiveClusterConnectionSelector
+		extends ClusterConnectionSelector {
+
+	// difference of latencies in nanoseconds below which buckets are not moved between connections
+	private static final long MIN_LATENCY_DIFFERENCE = 1000 * 1000;
+
+	private final Map<ClusterConnection, AtomicReferenceArray<XMPPIOService<Object>>> assignments = Collections
+			.synchronizedMap(new WeakHashMap<>());
+	@ConfigField(desc = "Number of buckets of packets assigned to connections", alias = "cluster-selector-buckets")
+	private int buckets = 1024;
+	@ConfigField(desc = "Ratio of write latencies of connections above which bucket is moved to idle connection",
+			alias = "cluster-selector-migration-ratio")
+	private double migrationRatio = 2;
+	private final LongAdder migrations = new LongAdder();
+
+	private static long getOutstandingBytes(XMPPIOService<Object> serv) {
+		if (serv instanceof ClusterIOService) {
+			return ((ClusterIOService) serv).getOutstandingBytes();
+		}
+		return serv.getWaitingPackets().size();
+	}
+
+	private static long getWriteLatency(XMPPIOService<Object> serv) {
+		if (serv instanceof ClusterIOService) {
+			return ((ClusterIOService) serv).getWriteLatency();
+		}
+		return 0;
+	}
+
+	private static boolean isIdle(XMPPIOService<Object> serv) {
+		if (serv instanceof ClusterIOService) {
+			return ((ClusterIOService) serv).isIdle();
+		}
+		return serv.getWaitingPackets().isEmpty();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Connection selector migrations", migrations.sum(), Level.FINE);
+	}
+
+	@Override
+	public XMPPIOService<Object> selectConnection(Packet p, ClusterConnection conn) {
+		if (conn == null) {
+			return null;
+		}
+
+		List<XMPPIOService<Object>> conns = conn.getConnections();
+		int first = conns.size() > sysConns ? sysConns : 0;
+		if (conns.isEmpty() || (first > 0 && p.getPriority() != null &&
+				p.getPriority().ordinal() <= Priority.CLUSTER.ordinal())) {
+			return super.selectConnection(p, conn);
+		}
+
+		AtomicReferenceArray<XMPPIOService<Object>> slots = assignments.computeIfAbsent(conn,
+																						c -> new AtomicReferenceArray<>(
+																								buckets));
+		int bucket = (handler.hashCodeForPacket(p) & Integer.MAX_VALUE) % slots.length();
+		XMPPIOService<Object> current = slots.get(bucket);
+		boolean assigned = current != null && conns.indexOf(current) >= first;
+		if (assigned && !isIdle(current)) {
+			return current;
+		}
+
+		XMPPIOService<Object> target = selectLeastLoaded(conns, first);
+		if (target == null) {
+			return super.selectConnection(p, conn);
+		}
+		if (assigned) {
+			if (target == current || !isIdle(target) || !shouldMigrate(current, target)) {
+				return current;
+			}
+			migrations.increment();
+		}
+		slots.set(bucket, target);
+		return target;
+	}
+
+	private XMPPIOService<Object> selectLeastLoaded(List<XMPPIOService<Object>> conns, int first) {
+		XMPPIOService<Object> result = null;
+		long resultBytes = 0;
+		long resultLatency = 0;
+		for (int i = first; i < conns.size(); i++) {
+			XMPPIOService<Object> serv;
+			try {
+				serv = conns.get(i);
+			} catch (IndexOutOfBoundsException ex) {
+				// connection was removed in the meantime
+				break;
+			}
+			long bytes = getOutstandingBytes(serv);
+			long latency = getWriteLatency(serv);
+			if (result == null || bytes < resultBytes || (bytes == resultBytes && latency < resultLatency)) {
+				result = serv;
+				resultBytes = bytes;
+				resultLatency = latency;
+			}
+		}
+		return result;
+	}
+
+	private boolean shouldMigrate(XMPPIOService<Object> current, XMPPIOService<Object> target) {
+		long currentLatency = getWriteLatency(current);
+		long targetLatency = getWriteLatency(target);
+		return currentLatency - targetLatency > MIN_LATENCY_DIFFERENCE &&
+				currentLatency > migrationRatio * targetLatency;
+	}
+
+}
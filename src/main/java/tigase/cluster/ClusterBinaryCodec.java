@@ -0,0 +1,405 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary format of data sent over cluster connections. Each frame starts with its length encoded as a variable length
+ * integer followed by the frame type and the payload:
+ * <ul>
+ * <li>{@link #FRAME_ELEMENT} - encoded element tree,</li>
+ * <li>{@link #FRAME_XML} - UTF-8 encoded XML data, used for stream level data and for elements with mixed
+ * content.</li>
+ * </ul>
+ * Names of elements and attributes and values of addressing attributes are replaced with references to a dictionary,
+ * which is built separately for each direction of a connection while frames are written and read. Attribute values and
+ * character data are kept in the escaped form, the same as in {@link Element}.
+ */
+class ClusterBinaryCodec {
+
+	static final byte FRAME_ELEMENT = 0;
+	static final byte FRAME_XML = 1;
+	static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+	static final int MAX_DICTIONARY_SIZE = 4096;
+
+	private static final Set<String> DICTIONARY_ATTRIBUTES = new HashSet<>(
+			Arrays.asList("xmlns", "from", "to", "type", "name"));
+	// string reference values, values above are dictionary indexes shifted by REF_DICTIONARY
+	private static final int REF_LITERAL = 0;
+	private static final int REF_NEW_ENTRY = 1;
+	private static final int REF_DICTIONARY = 2;
+
+	/**
+	 * Returns flipped buffer containing frame with XML data.
+	 */
+	static ByteBuffer encodeXml(String data) {
+		byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(varIntSize(bytes.length + 1) + bytes.length + 1);
+		writeVarInt(buffer, bytes.length + 1);
+		buffer.put(FRAME_XML);
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	static boolean hasMixedContent(Element elem) {
+		List<Element> children = elem.getChildren();
+		if (children == null || children.isEmpty()) {
+			return false;
+		}
+		String cdata = elem.getCData();
+		if (cdata != null && !cdata.isEmpty()) {
+			return true;
+		}
+		for (Element child : children) {
+			if (child != null && hasMixedContent(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	static void writeVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads variable length integer.
+	 *
+	 * @return read value or <code>-1</code> if there is not enough data in the buffer
+	 */
+	static int readVarInt(ByteBuffer buffer) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) {
+					throw new IOException("Invalid length in cluster frame");
+				}
+				return value;
+			}
+		}
+		throw new IOException("Invalid length in cluster frame");
+	}
+
+	/**
+	 * Encoder of frames written to a single connection. It should be used by a single thread at a time.
+	 */
+	static class Encoder {
+
+		private final Map<String, Integer> dictionary = new HashMap<>();
+		private ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+		/**
+		 * Returns flipped buffer containing frame with the element. Buffer is not reused by the encoder, so it may be
+		 * kept by the socket if it was not written at once.
+		 */
+		ByteBuffer encode(Element elem) {
+			if (hasMixedContent(elem)) {
+				return encodeXml(elem.toString());
+			}
+			buffer.clear();
+			writeElement(elem);
+			buffer.flip();
+
+			int length = buffer.remaining() + 1;
+			ByteBuffer frame = ByteBuffer.allocate(varIntSize(length) + length);
+			writeVarInt(frame, length);
+			frame.put(FRAME_ELEMENT);
+			frame.put(buffer);
+			frame.flip();
+			return frame;
+		}
+
+		int getDictionarySize() {
+			return dictionary.size();
+		}
+
+		/**
+		 * Sets maximal length of a frame, longer frames are rejected before they are received.
+		 */
+		void setMaxFrameLength(int maxFrameLength) {
+			this.maxFrameLength = maxFrameLength;
+		}
+
+		private void ensureCapacity(int size) {
+			if (buffer.remaining() < size) {
+				ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+				buffer.flip();
+				newBuffer.put(buffer);
+				buffer = newBuffer;
+			}
+		}
+
+		private void writeElement(Element elem) {
+			writeString(elem.getName(), true);
+
+			Map<String, String> attributes = elem.getAttributes();
+			writeInt(attributes == null ? 0 : attributes.size());
+			if (attributes != null) {
+				for (Map.Entry<String, String> e : attributes.entrySet()) {
+					writeString(e.getKey(), true);
+					writeString(e.getValue(), DICTIONARY_ATTRIBUTES.contains(e.getKey()));
+				}
+			}
+
+			String cdata = elem.getCData();
+			if (cdata == null) {
+				writeInt(0);
+			} else {
+				writeInt(1);
+				writeLiteral(cdata);
+			}
+
+			List<Element> children = elem.getChildren();
+			int count = 0;
+			if (children != null) {
+				for (Element child : children) {
+					if (child != null) {
+						count++;
+					}
+				}
+			}
+			writeInt(count);
+			if (count > 0) {
+				for (Element child : children) {
+					if (child != null) {
+						writeElement(child);
+					}
+				}
+			}
+		}
+
+		private void writeInt(int value) {
+			ensureCapacity(5);
+			writeVarInt(buffer, value);
+		}
+
+		private void writeLiteral(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			ensureCapacity(bytes.length);
+			buffer.put(bytes);
+		}
+
+		private void writeString(String value, boolean useDictionary) {
+			if (useDictionary) {
+				Integer idx = dictionary.get(value);
+				if (idx != null) {
+					writeInt(idx + REF_DICTIONARY);
+					return;
+				}
+				if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+					dictionary.put(value, dictionary.size());
+					writeInt(REF_NEW_ENTRY);
+					writeLiteral(value);
+					return;
+				}
+			}
+			writeInt(REF_LITERAL);
+			writeLiteral(value);
+		}
+	}
+
+	/**
+	 * Decoder of frames read from a single connection. It keeps data of incomplete frames until the rest of the frame
+	 * is received. It should be used by a single thread at a time.
+	 */
+	static class Decoder {
+
+		private final List<String> dictionary = new ArrayList<>();
+		private int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+		private ByteBuffer pending = ByteBuffer.allocate(1024);
+
+		/**
+		 * Appends data to the decoder. Data is consumed from the buffer.
+		 */
+		void append(ByteBuffer data) {
+			if (pending.remaining() < data.remaining()) {
+				ByteBuffer newBuffer = ByteBuffer.allocate(
+						Math.max(pending.capacity() * 2, pending.position() + data.remaining()));
+				pending.flip();
+				newBuffer.put(pending);
+				pending = newBuffer;
+			}
+			pending.put(data);
+		}
+
+		int getDictionarySize() {
+			return dictionary.size();
+		}
+
+		/**
+		 * Returns number of bytes waiting for decoding.
+		 */
+		int getPendingBytes() {
+			return pending.position();
+		}
+
+		/**
+		 * Returns next decoded frame.
+		 *
+		 * @return decoded frame or <code>null</code> if there is no complete frame
+		 */
+		Frame next() throws IOException {
+			pending.flip();
+			try {
+				int start = pending.position();
+				int length = readVarInt(pending);
+				if (length > maxFrameLength) {
+					throw new IOException(
+							"Cluster frame of " + length + " bytes exceeds limit of " + maxFrameLength + " bytes");
+				}
+				if (length < 0 || pending.remaining() < length) {
+					pending.position(start);
+					return null;
+				}
+				if (length == 0) {
+					throw new IOException("Empty cluster frame");
+				}
+				int end = pending.position() + length;
+				ByteBuffer frame = pending.duplicate();
+				frame.limit(end);
+				pending.position(end);
+
+				byte type = frame.get();
+				switch (type) {
+					case FRAME_ELEMENT:
+						Element elem = readElement(frame, null);
+						if (frame.hasRemaining()) {
+							throw new IOException("Unexpected data at the end of cluster frame");
+						}
+						return new Frame(elem, null);
+					case FRAME_XML:
+						return new Frame(null, new String(frame.array(), frame.arrayOffset() + frame.position(),
+														  frame.remaining(), StandardCharsets.UTF_8));
+					default:
+						throw new IOException("Unknown cluster frame type: " + type);
+				}
+			} catch (BufferUnderflowException ex) {
+				throw new IOException("Incomplete cluster frame", ex);
+			} finally {
+				pending.compact();
+			}
+		}
+
+		private int readInt(ByteBuffer frame) throws IOException {
+			int value = readVarInt(frame);
+			if (value < 0) {
+				throw new BufferUnderflowException();
+			}
+			return value;
+		}
+
+		private Element readElement(ByteBuffer frame, Element parent) throws IOException {
+			Element elem = new Element(readString(frame));
+			int attributes = readInt(frame);
+			for (int i = 0; i < attributes; i++) {
+				String key = readString(frame);
+				String value = readString(frame);
+				if ("xmlns".equals(key)) {
+					elem.setXMLNS(value);
+				} else {
+					elem.setAttribute(key, value);
+				}
+			}
+			if (elem.getXMLNS() == null && parent != null && parent.getXMLNS() != null) {
+				elem.setDefXMLNS(parent.getXMLNS());
+			}
+			if (readInt(frame) != 0) {
+				elem.setCData(readLiteral(frame));
+			}
+			int children = readInt(frame);
+			for (int i = 0; i < children; i++) {
+				elem.addChild(readElement(frame, elem));
+			}
+			return elem;
+		}
+
+		private String readLiteral(ByteBuffer frame) throws IOException {
+			int length = readInt(frame);
+			if (frame.remaining() < length) {
+				throw new BufferUnderflowException();
+			}
+			String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length,
+									  StandardCharsets.UTF_8);
+			frame.position(frame.position() + length);
+			return value;
+		}
+
+		private String readString(ByteBuffer frame) throws IOException {
+			int ref = readInt(frame);
+			switch (ref) {
+				case REF_LITERAL:
+					return readLiteral(frame);
+				case REF_NEW_ENTRY:
+					if (dictionary.size() >= MAX_DICTIONARY_SIZE) {
+						throw new IOException("Cluster frame dictionary size exceeded");
+					}
+					String value = readLiteral(frame).intern();
+					dictionary.add(value);
+					return value;
+				default:
+					int idx = ref - REF_DICTIONARY;
+					if (idx >= dictionary.size()) {
+						throw new IOException("Unknown cluster frame dictionary reference: " + ref);
+					}
+					return dictionary.get(idx);
+			}
+		}
+	}
+
+	/**
+	 * Decoded frame containing either an element or XML data.
+	 */
+	static final class Frame {
+
+		final Element element;
+		final String xml;
+
+		Frame(Element element, String xml) {
+			this.element = element;
+			this.xml = xml;
+		}
+	}
+
+}
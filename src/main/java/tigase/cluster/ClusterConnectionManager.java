@@ -37,12 +37,14 @@ import tigase.kernel.beans.selector.ClusterModeRequired;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
 import tigase.kernel.core.Kernel;
+import tigase.map.ClusterMapFactory;
 import tigase.net.ConnectionType;
 import tigase.net.SocketType;
 import tigase.server.ConnectionManager;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.ServiceChecker;
+import tigase.stats.Histogram;
 import tigase.stats.MaxDailyCounterQueue;
 import tigase.stats.StatisticsList;
 import tigase.sys.TigaseRuntime;
@@ -65,7 +67,9 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.Deflater;
@@ -89,6 +93,14 @@ public class ClusterConnectionManager
 
 	public static final int CLUSTER_CONNECTIONS_PER_NODE_VAL = 5;
 
+	public static final String BINARY_FORMAT_PROP_KEY = "binary-format";
+
+	public static final String BINARY_MAX_FRAME_LENGTH_PROP_KEY = "binary-max-frame-length";
+
+	public static final String CLUSTER_BATCH_SIZE_PROP_KEY = "cluster-batch-size";
+
+	public static final String CLUSTER_BATCH_FLUSH_INTERVAL_PROP_KEY = "cluster-batch-flush-interval";
+
 	public static final String CLUSTER_CONTR_ID_PROP_KEY = "cluster-controller-id";
 
 	public static final String COMPRESS_STREAM_PROP_KEY = "compress-stream";
@@ -122,6 +134,25 @@ public class ClusterConnectionManager
 	 */
 	public static int ELEMENTS_NUMBER_LIMIT_CLUSTER_PROP_VAL = 100 * 1000;
 
+	@ConfigField(desc = "Interval of writing incomplete batches of cluster packets in ms", alias = CLUSTER_BATCH_FLUSH_INTERVAL_PROP_KEY)
+	private long batchFlushInterval = 10;
+	@ConfigField(desc = "Max number of cluster packets written to a node at once, 0 disables batching", alias = CLUSTER_BATCH_SIZE_PROP_KEY)
+	private int batchSize = 0;
+	private final Map<XMPPIOService<Object>, ClusterPacketBatch> batches = new ConcurrentHashMap<>();
+	private final TimerTask batchFlushTimerTask = new TimerTask() {
+		@Override
+		public void run() {
+			flushBatches();
+		}
+	};
+	private final Histogram batchSizes = new Histogram("Batch size", "packets", 12, Level.FINE);
+	private final LongAdder batchBytesSaved = new LongAdder();
+	private final LongAdder batchedPackets = new LongAdder();
+	private final LongAdder batchesSent = new LongAdder();
+	@ConfigField(desc = "Use binary format on cluster connections if supported by remote node", alias = BINARY_FORMAT_PROP_KEY)
+	private boolean binaryFormat = false;
+	@ConfigField(desc = "Maximal length of a frame received in binary format", alias = BINARY_MAX_FRAME_LENGTH_PROP_KEY)
+	private int binaryMaxFrameLength = ClusterBinaryCodec.DEFAULT_MAX_FRAME_LENGTH;
 	@Inject
 	private ClusterControllerIfc clusterController = null;
 	private tigase.eventbus.EventListener<ClusterInitializedEvent> clusterEventHandler = null;
@@ -324,6 +355,7 @@ public class ClusterConnectionManager
 	@Override
 	public void nodeConnected(String node) {
 		super.nodeConnected(node);
+		updateClusterMapNodes();
 
 		maxNodes.add(getNodesConnectedWithLocal().size());
 		maxNodesWithinLastWeek = maxNodes.getMaxValueInRange(7).orElse(-1);
@@ -340,11 +372,20 @@ public class ClusterConnectionManager
 	@Override
 	public void nodeDisconnected(String node) {
 		super.nodeDisconnected(node);
+		updateClusterMapNodes();
 
 		maxNodes.add(getNodesConnectedWithLocal().size());
 		maxNodesWithinLastWeek = maxNodes.getMaxValueInRange(7).orElse(-1);
 	}
 
+	private void updateClusterMapNodes() {
+		List<String> nodes = new ArrayList<>();
+		for (JID jid : getNodesConnected()) {
+			nodes.add(jid.getDomain());
+		}
+		ClusterMapFactory.get().setClusterNodes(nodes);
+	}
+
 	@Override
 	public int processingInThreads() {
 
@@ -434,6 +475,17 @@ public class ClusterConnectionManager
 					continue;
 				}
 
+				if (ClusterPacketBatch.isBatch(p)) {
+					try {
+						for (Packet packet : ClusterPacketBatch.unwrap(p)) {
+							addOutPacket(packet);
+						}
+					} catch (TigaseStringprepException ex) {
+						log.log(Level.WARNING, "Packet stringprep addressing problem, dropping batch: {0}", p);
+					}
+					continue;
+				}
+
 				// ++packetsReceived;
 				Packet result = p;
 
@@ -458,7 +510,17 @@ public class ClusterConnectionManager
 	public boolean processUndeliveredPacket(Packet packet, Long stamp, String errorMessage) {
 		// readd packet - this may be good as we would retry to send packet
 		// which delivery failed due to IO error
-		addPacket(packet);
+		if (ClusterPacketBatch.isBatch(packet)) {
+			try {
+				for (Packet batched : ClusterPacketBatch.unwrap(packet)) {
+					addPacket(batched);
+				}
+			} catch (TigaseStringprepException ex) {
+				log.log(Level.WARNING, "Packet stringprep addressing problem, dropping batch: {0}", packet);
+			}
+		} else {
+			addPacket(packet);
+		}
 		return true;
 	}
 
@@ -551,6 +613,16 @@ public class ClusterConnectionManager
 				}
 			}
 
+			// packets waiting in the batch are sent over other connections
+			ClusterPacketBatch batch = batches.remove(service);
+			if (batch != null) {
+				synchronized (batch) {
+					for (Packet packet : batch.takeAll()) {
+						addPacket(packet);
+					}
+				}
+			}
+
 			ConnectionType type = service.connectionType();
 
 			if (type == ConnectionType.connect) {
@@ -634,6 +706,10 @@ public class ClusterConnectionManager
 								new Object[]{id, secret, digest, item});
 					}
 
+					if (service instanceof ClusterIOService && ((ClusterIOService) service).isBinaryEnabled()) {
+						return new String[]{"<handshake " + ClusterIOService.BINARY_ATT + "='" +
+													ClusterIOService.BINARY_VERSION + "'>" + digest + "</handshake>"};
+					}
 					return new String[] { "<handshake>" + digest + "</handshake>" };
 				} catch (NoSuchAlgorithmException e) {
 					log.log(Level.SEVERE, "Can not generate digest for pass phrase.", e);
@@ -692,6 +768,15 @@ public class ClusterConnectionManager
 		list.add(getName(), "Average compression ratio", ioStatsGetter.getAverageCompressionRatio(), Level.FINE);
 		list.add(getName(), "Average decompression ratio", ioStatsGetter.getAverageDecompressionRatio(), Level.FINE);
 		list.add(getName(), "Waiting to send", ioStatsGetter.getWaitingToSend(), Level.FINE);
+		list.add(getName(), "Binary format connections", ioStatsGetter.getBinaryConnections(), Level.FINE);
+		if (isBatchingEnabled()) {
+			list.add(getName(), "Batches sent", batchesSent.sum(), Level.FINE);
+			list.add(getName(), "Batched packets", batchedPackets.sum(), Level.FINE);
+			list.add(getName(), "Batching bytes saved", batchBytesSaved.sum(), Level.FINE);
+			batchSizes.getStatistics(getName(), list);
+		}
+		connectionSelector.getStatistics(getName(), list);
+		ClusterMapFactory.get().getStatistics(getName(), list);
 
 		list.add(getName(), "Max daily cluster nodes count in last month", maxNodes, Level.INFO);
 		list.add(getName(), "Max nodes count within last week", maxNodesWithinLastWeek, Level.INFO);
@@ -733,10 +818,15 @@ public class ClusterConnectionManager
 		}
 
 		eventBus.addListener(ClusterInitializedEvent.class, clusterEventHandler);
+
+		if (isBatchingEnabled() && !batchFlushTimerTask.isScheduled()) {
+			addTimerTask(batchFlushTimerTask, batchFlushInterval, batchFlushInterval);
+		}
 	}
 
 	@Override
 	public void stop() {
+		flushBatches();
 		super.stop();
 		eventBus.removeListener(clusterEventHandler);
 		clusterEventHandler = null;
@@ -812,6 +902,9 @@ public class ClusterConnectionManager
 
 		XMPPIOService<Object> serv = connectionSelector.selectConnection(p, conns);
 		if (serv != null) {
+			if (isBatchingEnabled()) {
+				return writePacketToBatch(serv, p);
+			}
 			return super.writePacketToSocket(serv, p);
 		} else {
 			log.log(Level.WARNING, "No cluster connection to send a packet: {0}", p);
@@ -820,6 +913,59 @@ public class ClusterConnectionManager
 		}
 	}
 
+	/**
+	 * Adds cluster packet to the batch of the connection, which is written when it is full or by the flush timer.
+	 * Other packets are written directly after packets waiting in the batch, so the order of packets written to the
+	 * connection is kept.
+	 */
+	protected boolean writePacketToBatch(XMPPIOService<Object> serv, Packet p) {
+		ClusterPacketBatch batch = batches.computeIfAbsent(serv, key -> new ClusterPacketBatch(batchSize));
+		synchronized (batch) {
+			if (p.getElemName() == ClusterElement.CLUSTER_EL_NAME) {
+				if (batch.add(p)) {
+					return writeBatch(serv, batch);
+				}
+				if (serv instanceof ClusterIOService) {
+					((ClusterIOService) serv).setPendingBatchSize(batch.size());
+				}
+				return true;
+			}
+			writeBatch(serv, batch);
+			return super.writePacketToSocket(serv, p);
+		}
+	}
+
+	protected void flushBatches() {
+		for (Map.Entry<XMPPIOService<Object>, ClusterPacketBatch> entry : batches.entrySet()) {
+			ClusterPacketBatch batch = entry.getValue();
+			synchronized (batch) {
+				writeBatch(entry.getKey(), batch);
+			}
+		}
+	}
+
+	private boolean isBatchingEnabled() {
+		return batchSize > 1;
+	}
+
+	private boolean writeBatch(XMPPIOService<Object> serv, ClusterPacketBatch batch) {
+		int size = batch.size();
+		Packet packet = batch.drain();
+		if (packet == null) {
+			return true;
+		}
+		batchSizes.add(size);
+		batchesSent.increment();
+		batchedPackets.add(size);
+		batchBytesSaved.add(batch.getAndResetBytesSaved());
+		boolean result = super.writePacketToSocket(serv, packet);
+		if (serv instanceof ClusterIOService) {
+			// packets were added to the connection, so it may be checked if they were written
+			((ClusterIOService) serv).setPendingBatchSize(0);
+		}
+		return result;
+	}
+
 	@Override
 	protected int[] getDefPlainPorts() {
 		if (repo == null) {
@@ -858,7 +1004,10 @@ public class ClusterConnectionManager
 
 	@Override
 	protected XMPPIOService<Object> getXMPPIOServiceInstance() {
-		return new XMPPIOService<>();
+		ClusterIOService service = new ClusterIOService();
+		service.setBinaryEnabled(binaryFormat);
+		service.setBinaryMaxFrameLength(binaryMaxFrameLength);
+		return service;
 	}
 
 	@Override
@@ -927,7 +1076,11 @@ public class ClusterConnectionManager
 								new Object[]{secret, digest, loc_digest, serv.getSessionData()});
 					}
 					if ((digest != null) && digest.equals(loc_digest)) {
-						Packet resp = Packet.packetInstance(new Element("handshake"), null, null);
+						Element handshake = new Element("handshake");
+						if (serv instanceof ClusterIOService && ((ClusterIOService) serv).isBinaryInput()) {
+							handshake.setAttribute(ClusterIOService.BINARY_ATT, ClusterIOService.BINARY_VERSION);
+						}
+						Packet resp = Packet.packetInstance(handshake, null, null);
 
 						writePacketToSocket(serv, resp);
 						serviceConnected(serv);
@@ -1022,6 +1175,7 @@ public class ClusterConnectionManager
 	private class IOServiceStatisticsGetter
 			implements ServiceChecker<XMPPIOService<Object>> {
 
+		private int binaryConnections = 0;
 		private int clIOQueue = 0;
 		private float compressionRatio = 0f;
 		private int counter = 0;
@@ -1035,6 +1189,9 @@ public class ClusterConnectionManager
 			decompressionRatio += list.getValue("zlibio", "Average decompression rate", -1f);
 			++counter;
 			clIOQueue += service.waitingToSendSize();
+			if (service instanceof ClusterIOService && ((ClusterIOService) service).isBinaryOutput()) {
+				++binaryConnections;
+			}
 		}
 
 		public void reset() {
@@ -1044,6 +1201,7 @@ public class ClusterConnectionManager
 			// any stats in case of the disconnection.
 			// bytesReceived = 0;
 			// bytesSent = 0;
+			binaryConnections = 0;
 			clIOQueue = 0;
 			counter = 0;
 			compressionRatio = 0f;
@@ -1058,6 +1216,10 @@ public class ClusterConnectionManager
 			return decompressionRatio / counter;
 		}
 
+		public int getBinaryConnections() {
+			return binaryConnections;
+		}
+
 		public int getWaitingToSend() {
 			return clIOQueue;
 		}
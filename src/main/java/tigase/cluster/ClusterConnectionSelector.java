@@ -44,9 +44,9 @@ public class ClusterConnectionSelector
 	@ConfigField(desc = "Number of cluster connetions per node", alias = "cluster-connections-per-node")
 	private int allConns = ClusterConnectionManager.CLUSTER_CONNECTIONS_PER_NODE_VAL;
 	@Inject(nullAllowed = true)
-	private ClusterConnectionHandler handler;
+	protected ClusterConnectionHandler handler;
 	@ConfigField(desc = "Number of system connections per node", alias = "cluster-sys-connections-per-node")
-	private int sysConns = 2;
+	protected int sysConns = 2;
 
 	@Override
 	public XMPPIOService<Object> selectConnection(Packet p, ClusterConnection conn) {
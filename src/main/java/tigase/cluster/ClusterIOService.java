@@ -0,0 +1,383 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.net.ConnectionType;
+import tigase.server.Packet;
+import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.xml.ElementSerializer;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPIOService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cluster connection which may switch from XML to binary frames of {@link ClusterBinaryCodec} after the handshake.
+ * <br>
+ * Binary format is offered by the connecting node with the <code>binary</code> attribute of the
+ * <code>handshake</code> element. If the accepting node supports it, it switches reading to binary frames as soon as
+ * the handshake is received and adds the same attribute to the handshake response, after which it writes only binary
+ * frames. The connecting node switches both directions after it receives the response with this attribute. Nodes
+ * which do not know this attribute ignore it, so the connection continues to use XML.
+ * <br>
+ * Connection keeps track of estimated number of bytes of packets waiting to be written and of average time in which
+ * packets are written, which may be used to select the least loaded connection to the node.
+ */
+public class ClusterIOService
+		extends XMPPIOService<Object> {
+
+	public static final String BINARY_ATT = "binary";
+
+	public static final String BINARY_VERSION = "1";
+
+	private static final String HANDSHAKE_EL_NAME = "handshake";
+	private static final byte[] HANDSHAKE_START = ("<" + HANDSHAKE_EL_NAME).getBytes(StandardCharsets.UTF_8);
+	private static final Logger log = Logger.getLogger(ClusterIOService.class.getName());
+	// weight of the last sample in averages of write latency and packet size
+	private static final double LOAD_AVG_WEIGHT = 0.1;
+	private static final int MAX_HANDSHAKE_DATA = 64 * 1024;
+
+	private volatile long avgPacketSize = 0;
+	private boolean binaryEnabled = false;
+	private volatile boolean binaryInput = false;
+	private volatile boolean binaryOutput = false;
+	private final AtomicLong enqueuedPackets = new AtomicLong();
+	private final ClusterBinaryCodec.Decoder frameDecoder = new ClusterBinaryCodec.Decoder();
+	private final ClusterBinaryCodec.Encoder frameEncoder = new ClusterBinaryCodec.Encoder();
+	// data received before the handshake response, which contains an incomplete element
+	private byte[] handshakeData = null;
+	private boolean handshakeReceived = false;
+	private volatile int pendingBatchSize = 0;
+	private final AtomicLong queuedBytes = new AtomicLong();
+	// estimated size and time of adding of each packet waiting to be written
+	private final ConcurrentLinkedQueue<long[]> queuedPackets = new ConcurrentLinkedQueue<>();
+	private volatile long writeLatency = 0;
+	private long writtenPackets = 0;
+
+	static int estimateSize(Element elem) {
+		int size = elem.getName().length() * 2 + 5;
+		Map<String, String> attributes = elem.getAttributes();
+		if (attributes != null) {
+			for (Map.Entry<String, String> e : attributes.entrySet()) {
+				size += e.getKey().length() + e.getValue().length() + 4;
+			}
+		}
+		String cdata = elem.getCData();
+		if (cdata != null) {
+			size += cdata.length();
+		}
+		List<Element> children = elem.getChildren();
+		if (children != null) {
+			for (Element child : children) {
+				if (child != null) {
+					size += estimateSize(child);
+				}
+			}
+		}
+		return size;
+	}
+
+	public boolean isBinaryEnabled() {
+		return binaryEnabled;
+	}
+
+	public void setBinaryEnabled(boolean binaryEnabled) {
+		this.binaryEnabled = binaryEnabled;
+	}
+
+	public boolean isBinaryInput() {
+		return binaryInput;
+	}
+
+	public boolean isBinaryOutput() {
+		return binaryOutput;
+	}
+
+	/**
+	 * Returns estimated number of bytes of packets added to this connection, which were not sent yet.
+	 */
+	public long getOutstandingBytes() {
+		return Math.max(0, queuedBytes.get()) + waitingToSendSize() * avgPacketSize;
+	}
+
+	/**
+	 * Returns average time in nanoseconds between adding packet to this connection and writing it to the socket.
+	 */
+	public long getWriteLatency() {
+		return writeLatency;
+	}
+
+	/**
+	 * Checks if all packets added to this connection were written.
+	 */
+	public boolean isIdle() {
+		return pendingBatchSize == 0 && getWaitingPackets().isEmpty() && queuedBytes.get() <= 0 && !waitingToSend();
+	}
+
+	/**
+	 * Sets number of packets waiting in the batch of this connection, which will be added to this connection later.
+	 */
+	public void setPendingBatchSize(int pendingBatchSize) {
+		this.pendingBatchSize = pendingBatchSize;
+	}
+
+	@Override
+	public void addPacketToSend(Packet packet) {
+		int size = estimateSize(packet.getElement());
+		queuedPackets.offer(new long[]{size, System.nanoTime()});
+		queuedBytes.addAndGet(size);
+		super.addPacketToSend(packet);
+		// counted after the packet is added, so it is never counted as written before it is in the queue
+		enqueuedPackets.incrementAndGet();
+	}
+
+	@Override
+	public void processWaitingPackets() throws IOException {
+		if (!binaryEnabled) {
+			super.processWaitingPackets();
+			packetsWritten();
+			return;
+		}
+
+		Packet packet;
+		while ((packet = getWaitingPackets().peek()) != null) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
+			}
+			if (binaryOutput) {
+				writeBytes(frameEncoder.encode(packet.getElement()));
+			} else {
+				writeBytes(ElementSerializer.toByteBuffer(packet.getElement()));
+				// response to handshake with binary format is the last packet written as XML
+				if (connectionType() == ConnectionType.accept && isBinaryHandshake(packet)) {
+					binaryOutput = true;
+				}
+			}
+			getWaitingPackets().poll();
+		}
+		packetsWritten();
+
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	/**
+	 * Sets maximal length of a binary frame which may be received, connection is closed if longer frame is received.
+	 */
+	public void setBinaryMaxFrameLength(int maxFrameLength) {
+		frameDecoder.setMaxFrameLength(maxFrameLength);
+	}
+
+	@Override
+	protected void addReceivedPacket(Packet packet) {
+		if (binaryEnabled && !binaryInput && connectionType() == ConnectionType.accept &&
+				isBinaryHandshake(packet)) {
+			// connecting node will not send anything before it receives response to the handshake
+			binaryInput = true;
+		}
+		super.addReceivedPacket(packet);
+	}
+
+	@Override
+	protected void writeData(String data) {
+		// stream level data written after switching to binary format is sent in XML frames
+		if (binaryOutput && data != null) {
+			writeBytes(ClusterBinaryCodec.encodeXml(data));
+		} else {
+			super.writeData(data);
+		}
+	}
+
+	@Override
+	protected char[] readData() throws IOException {
+		if (binaryInput) {
+			return readFrames();
+		}
+		if (binaryEnabled && !handshakeReceived && connectionType() == ConnectionType.connect) {
+			return readUntilHandshake();
+		}
+		return super.readData();
+	}
+
+	/**
+	 * Updates statistics of load of this connection with packets which were removed from the queue of waiting
+	 * packets.
+	 */
+	void packetsWritten() {
+		synchronized (queuedPackets) {
+			long written = enqueuedPackets.get() - getWaitingPackets().size();
+			long now = System.nanoTime();
+			long[] item;
+			while (writtenPackets < written && (item = queuedPackets.poll()) != null) {
+				writtenPackets++;
+				queuedBytes.addAndGet(-item[0]);
+				writeLatency += (long) ((now - item[1] - writeLatency) * LOAD_AVG_WEIGHT);
+				avgPacketSize += (long) ((item[0] - avgPacketSize) * LOAD_AVG_WEIGHT);
+			}
+		}
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern, int from) {
+		for (int i = from; i <= data.length - pattern.length; i++) {
+			int j = 0;
+			while (j < pattern.length && data[i + j] == pattern[j]) {
+				j++;
+			}
+			if (j == pattern.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(byte[] data, byte value, int from) {
+		for (int i = from; i < data.length; i++) {
+			if (data[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isBinaryHandshake(Packet packet) {
+		return packet.getElemName() == HANDSHAKE_EL_NAME &&
+				BINARY_VERSION.equals(packet.getAttributeStaticStr(BINARY_ATT));
+	}
+
+	private char[] decodeChars(byte[] data, int offset, int length) throws MalformedInputException {
+		ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+		CharBuffer out = CharBuffer.allocate(length);
+		CoderResult cr = decoder.decode(in, out, false);
+		if (cr.isMalformed()) {
+			throw new MalformedInputException(cr.length());
+		}
+		if (in.hasRemaining()) {
+			partialCharacterBytes = new byte[in.remaining()];
+			in.get(partialCharacterBytes);
+		}
+		out.flip();
+		char[] result = new char[out.remaining()];
+		out.get(result);
+		return result;
+	}
+
+	/**
+	 * Decodes received binary frames. Elements are added to received packets, while XML data is returned to be parsed,
+	 * so remaining frames are decoded in the next call.
+	 */
+	private char[] readFrames() throws IOException {
+		ByteBuffer data;
+		while (isConnected() && (data = readBytes()) != null) {
+			frameDecoder.append(data);
+			data.clear();
+			if (!checkBufferLimit(frameDecoder.getPendingBytes())) {
+				return null;
+			}
+		}
+
+		ClusterBinaryCodec.Frame frame;
+		while ((frame = frameDecoder.next()) != null) {
+			if (frame.xml != null) {
+				return frame.xml.toCharArray();
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Read packet: {1}", new Object[]{toString(), frame.element});
+			}
+			try {
+				addReceivedPacket(Packet.packetInstance(frame.element));
+			} catch (TigaseStringprepException ex) {
+				log.log(Level.INFO, toString() + ", Incorrect to/from JID format for stanza: " + frame.element, ex);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads XML data until response to the handshake is received. Data after the response is decoded as binary frames
+	 * if the accepting node agreed to use them, so the response has to be found in raw bytes before they are decoded.
+	 */
+	private char[] readUntilHandshake() throws IOException {
+		ByteBuffer buffer = readBytes();
+		if (buffer == null) {
+			return null;
+		}
+
+		int offset = handshakeData == null ? 0 : handshakeData.length;
+		byte[] data = handshakeData == null
+					  ? new byte[buffer.remaining()]
+					  : Arrays.copyOf(handshakeData, offset + buffer.remaining());
+		buffer.get(data, offset, buffer.remaining());
+		buffer.clear();
+		handshakeData = null;
+
+		int start = indexOf(data, HANDSHAKE_START, 0);
+		int end = start < 0 ? -1 : indexOf(data, (byte) '>', start);
+		if (end >= 0) {
+			handshakeReceived = true;
+			String response = new String(data, start, end + 1 - start, StandardCharsets.UTF_8);
+			if (!response.contains(BINARY_ATT + "=")) {
+				return decodeChars(data, 0, data.length);
+			}
+			log.log(Level.FINE, "{0}, switching to binary format", toString());
+			binaryInput = true;
+			binaryOutput = true;
+			frameDecoder.append(ByteBuffer.wrap(data, end + 1, data.length - end - 1));
+			return decodeChars(data, 0, end + 1);
+		}
+		if (data.length > MAX_HANDSHAKE_DATA) {
+			handshakeReceived = true;
+			return decodeChars(data, 0, data.length);
+		}
+
+		// incomplete element is kept until more data is received
+		int keep = start;
+		if (keep < 0) {
+			keep = data.length;
+			for (int i = data.length - 1; i >= 0; i--) {
+				if (data[i] == '>') {
+					break;
+				}
+				if (data[i] == '<') {
+					keep = i;
+					break;
+				}
+			}
+		}
+		if (keep < data.length) {
+			handshakeData = Arrays.copyOfRange(data, keep, data.length);
+		}
+		return keep > 0 ? decodeChars(data, 0, keep) : null;
+	}
+
+}
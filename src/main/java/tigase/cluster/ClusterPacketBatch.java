@@ -0,0 +1,162 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Batch of cluster packets waiting to be written to a single cluster connection. Packets are written in the order in
+ * which they were added, wrapped in a single <code>cluster-batch</code> element, so the remote node parses them at
+ * once. Addresses of wrapped packets are omitted if they are the same as addresses of the batch.
+ * <br>
+ * Instances are not thread safe and should be guarded by the caller.
+ */
+class ClusterPacketBatch {
+
+	static final String BATCH_EL_NAME = "cluster-batch";
+
+	private static final String FROM_ATT = "from";
+	private static final String TO_ATT = "to";
+
+	private final int maxSize;
+	private final Queue<Packet> packets = new ArrayDeque<>();
+	private long bytesSaved = 0;
+
+	/**
+	 * Unwraps packets from the batch restoring addresses omitted by {@link #drain()}.
+	 */
+	static Queue<Packet> unwrap(Packet batch) throws TigaseStringprepException {
+		Queue<Packet> result = new ArrayDeque<>();
+		List<Element> children = batch.getElement().getChildren();
+		if (children == null) {
+			return result;
+		}
+		String from = batch.getElement().getAttributeStaticStr(FROM_ATT);
+		String to = batch.getElement().getAttributeStaticStr(TO_ATT);
+		for (Element child : children) {
+			if (from != null && child.getAttributeStaticStr(FROM_ATT) == null) {
+				child.setAttribute(FROM_ATT, from);
+			}
+			if (to != null && child.getAttributeStaticStr(TO_ATT) == null) {
+				child.setAttribute(TO_ATT, to);
+			}
+			result.offer(Packet.packetInstance(child));
+		}
+		return result;
+	}
+
+	static boolean isBatch(Packet packet) {
+		return BATCH_EL_NAME.equals(packet.getElemName());
+	}
+
+	ClusterPacketBatch(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Adds packet to the batch.
+	 *
+	 * @return <code>true</code> if batch is full and should be drained
+	 */
+	boolean add(Packet packet) {
+		packets.offer(packet);
+		return packets.size() >= maxSize;
+	}
+
+	boolean isEmpty() {
+		return packets.isEmpty();
+	}
+
+	int size() {
+		return packets.size();
+	}
+
+	/**
+	 * Removes all packets from the batch without wrapping them.
+	 */
+	Queue<Packet> takeAll() {
+		Queue<Packet> result = new ArrayDeque<>(packets);
+		packets.clear();
+		return result;
+	}
+
+	/**
+	 * Returns number of bytes saved on addresses of wrapped packets reduced by size of the batch element, since last
+	 * call of this method.
+	 */
+	long getAndResetBytesSaved() {
+		long result = bytesSaved;
+		bytesSaved = 0;
+		return result;
+	}
+
+	/**
+	 * Removes all packets from the batch and returns a packet to write. If there is only a single packet in the batch
+	 * it is returned as it is.
+	 *
+	 * @return packet to write or <code>null</code> if the batch is empty
+	 */
+	Packet drain() {
+		if (packets.size() <= 1) {
+			return packets.poll();
+		}
+		Packet first = packets.peek();
+		String from = first.getElement().getAttributeStaticStr(FROM_ATT);
+		String to = first.getElement().getAttributeStaticStr(TO_ATT);
+		Element batchEl = new Element(BATCH_EL_NAME, new String[]{"xmlns"}, new String[]{ClusterConnectionManager.XMLNS});
+		// <cluster-batch xmlns="tigase:cluster"></cluster-batch>
+		bytesSaved -= 2 * BATCH_EL_NAME.length() + ClusterConnectionManager.XMLNS.length() + 14;
+		if (from != null) {
+			batchEl.setAttribute(FROM_ATT, from);
+			bytesSaved -= attributeSize(FROM_ATT, from);
+		}
+		if (to != null) {
+			batchEl.setAttribute(TO_ATT, to);
+			bytesSaved -= attributeSize(TO_ATT, to);
+		}
+
+		Packet packet;
+		while ((packet = packets.poll()) != null) {
+			Element elem = packet.getElement();
+			bytesSaved += omitAttribute(elem, FROM_ATT, from);
+			bytesSaved += omitAttribute(elem, TO_ATT, to);
+			batchEl.addChild(elem);
+		}
+		return Packet.packetInstance(batchEl, first.getStanzaFrom(), first.getStanzaTo());
+	}
+
+	private static int omitAttribute(Element elem, String name, String value) {
+		if (value == null || !value.equals(elem.getAttributeStaticStr(name))) {
+			return 0;
+		}
+		elem.removeAttribute(name);
+		return attributeSize(name, value);
+	}
+
+	private static int attributeSize(String name, String value) {
+		// space, name, '=' and quotes
+		return name.length() + value.length() + 4;
+	}
+
+}
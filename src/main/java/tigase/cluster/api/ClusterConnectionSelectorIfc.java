@@ -19,6 +19,7 @@ package tigase.cluster.api;
 
 import tigase.cluster.ClusterConnection;
 import tigase.server.Packet;
+import tigase.stats.StatisticsList;
 import tigase.xmpp.XMPPIOService;
 
 import java.util.Map;
@@ -36,6 +37,12 @@ public interface ClusterConnectionSelectorIfc {
 	 */
 	XMPPIOService<Object> selectConnection(Packet packet, ClusterConnection conn);
 
+	/**
+	 * Method allows implementation to add its statistics to statistics of cluster connection manager
+	 */
+	default void getStatistics(String compName, StatisticsList list) {
+	}
+
 	void setClusterConnectionHandler(ClusterConnectionHandler handler);
 
 	void setProperties(Map<String, Object> props);
@@ -0,0 +1,102 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+
+/**
+ * Consistent hashing of user JIDs to cluster nodes. Each node is placed on the ring in a number of points (virtual
+ * nodes), so users are evenly distributed between nodes, and after a node is added or removed only users of that
+ * node change their owners.
+ */
+class ConsistentHashRing {
+
+	private final int virtualNodes;
+	private volatile Set<JID> nodes = Collections.emptySet();
+	private volatile NavigableMap<Integer, JID> ring = Collections.emptyNavigableMap();
+
+	/**
+	 * Spreads bits of the hash code, as hash codes of similar strings differ only in lowest bits.
+	 */
+	static int hash(String value) {
+		int h = value.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	ConsistentHashRing(int virtualNodes) {
+		this.virtualNodes = virtualNodes;
+	}
+
+	Set<JID> getNodes() {
+		return nodes;
+	}
+
+	synchronized void setNodes(Collection<JID> nodes) {
+		NavigableMap<Integer, JID> ring = new TreeMap<>();
+		for (JID node : nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				ring.put(hash(node.toString() + "#" + i), node);
+			}
+		}
+		this.ring = ring;
+		this.nodes = Collections.unmodifiableSet(new HashSet<>(nodes));
+	}
+
+	/**
+	 * Returns up to <code>count</code> distinct nodes owning the user, in order of the ring.
+	 */
+	List<JID> getOwners(BareJID user, int count) {
+		NavigableMap<Integer, JID> ring = this.ring;
+		if (ring.isEmpty()) {
+			return Collections.emptyList();
+		}
+		int limit = Math.min(count, nodes.size());
+		List<JID> owners = new ArrayList<>(limit);
+		int hash = hash(user.toString());
+		for (JID node : ring.tailMap(hash, true).values()) {
+			if (owners.size() >= limit) {
+				return owners;
+			}
+			if (!owners.contains(node)) {
+				owners.add(node);
+			}
+		}
+		for (JID node : ring.headMap(hash, false).values()) {
+			if (owners.size() >= limit) {
+				return owners;
+			}
+			if (!owners.contains(node)) {
+				owners.add(node);
+			}
+		}
+		return owners;
+	}
+
+	boolean isOwner(JID node, BareJID user, int count) {
+		return getOwners(user, count).contains(node);
+	}
+
+}
@@ -241,6 +241,26 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 		return params;
 	}
 
+	/**
+	 * Method called when other cluster node notified about a new connection of a user.
+	 *
+	 * @param rec connection record of the remote connection
+	 */
+	protected void handleRemoteUserConnected(ConnectionRecordIfc rec) {
+		// Do nothing
+	}
+
+	/**
+	 * Method called when other cluster node notified about a presence of a user connected to it, including
+	 * <code>unavailable</code> presence sent when the user disconnects.
+	 *
+	 * @param rec connection record of the remote connection
+	 * @param presence presence of the user, may be <code>null</code>
+	 */
+	protected void handleRemoteUserPresence(ConnectionRecordIfc rec, Element presence) {
+		// Do nothing
+	}
+
 	/**
 	 * Method takes the data received from other cluster node and creates a ConnectionRecord with all essential
 	 * connection information. This might be used later to identify user's XMPPResourceConnection or use the clustering
@@ -344,6 +364,8 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 			// Queue<Packet> results = new ArrayDeque<Packet>(10);
 			ConnectionRecordIfc rec = getConnectionRecord(fromNode, data);
 
+			handleRemoteUserConnected(rec);
+
 			// strategy.usersConnected(results, rec);
 			// addOutPackets(results);
 			// There is one more thing....
@@ -403,6 +425,8 @@ public class DefaultClusteringStrategy<E extends ConnectionRecordIfc>
 			XMPPSession session = sm.getXMPPSessions().get(rec.getUserJid().getBareJID());
 			Element elem = packets.poll();
 
+			handleRemoteUserPresence(rec, elem);
+
 			// Notify strategy about presence update
 //    strategy.presenceUpdate(elem, rec);
 			// Update all user's resources with the new presence
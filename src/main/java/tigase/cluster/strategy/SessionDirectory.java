@@ -0,0 +1,102 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Directory of cluster nodes with sessions of users, keyed by bare JID of a user and a resource of a session.
+ * Resources of a user are kept in immutable maps, which are replaced on every change.
+ */
+class SessionDirectory {
+
+	private final ConcurrentHashMap<BareJID, Map<String, JID>> sessions = new ConcurrentHashMap<>();
+
+	void add(JID jid, JID node) {
+		sessions.compute(jid.getBareJID(), (user, resources) -> {
+			Map<String, JID> result = (resources == null) ? new HashMap<>(4) : new HashMap<>(resources);
+			result.put(jid.getResource(), node);
+			return Collections.unmodifiableMap(result);
+		});
+	}
+
+	/**
+	 * Removes session of the user if it is located on the node.
+	 */
+	void remove(JID jid, JID node) {
+		sessions.computeIfPresent(jid.getBareJID(), (user, resources) -> {
+			if (!node.equals(resources.get(jid.getResource()))) {
+				return resources;
+			}
+			Map<String, JID> result = new HashMap<>(resources);
+			result.remove(jid.getResource());
+			return result.isEmpty() ? null : Collections.unmodifiableMap(result);
+		});
+	}
+
+	/**
+	 * Removes all sessions located on the node.
+	 */
+	void removeNode(JID node) {
+		for (BareJID user : sessions.keySet()) {
+			sessions.computeIfPresent(user, (key, resources) -> {
+				if (!resources.containsValue(node)) {
+					return resources;
+				}
+				Map<String, JID> result = new HashMap<>(resources);
+				result.values().removeIf(node::equals);
+				return result.isEmpty() ? null : Collections.unmodifiableMap(result);
+			});
+		}
+	}
+
+	/**
+	 * Removes sessions of users not matching the predicate.
+	 */
+	void retainUsers(Predicate<BareJID> predicate) {
+		sessions.keySet().removeIf(predicate.negate());
+	}
+
+	/**
+	 * Returns nodes with sessions for the JID. If the JID contains a resource of a known session, only a node of this
+	 * session is returned.
+	 */
+	Set<JID> getNodes(JID jid) {
+		Map<String, JID> resources = sessions.get(jid.getBareJID());
+		if (resources == null) {
+			return Collections.emptySet();
+		}
+		if (jid.getResource() != null) {
+			JID node = resources.get(jid.getResource());
+			if (node != null) {
+				return Collections.singleton(node);
+			}
+		}
+		return new HashSet<>(resources.values());
+	}
+
+	int size() {
+		return sessions.size();
+	}
+
+}
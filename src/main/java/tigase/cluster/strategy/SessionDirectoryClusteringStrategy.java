@@ -0,0 +1,358 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import tigase.cluster.api.ClusterCommandException;
+import tigase.cluster.api.CommandListenerAbstract;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.Packet;
+import tigase.server.Presence;
+import tigase.server.Priority;
+import tigase.stats.StatisticsList;
+import tigase.xml.Element;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static tigase.cluster.api.SessionManagerClusteredIfc.SESSION_FOUND_KEY;
+
+/**
+ * Clustering strategy which keeps a directory of cluster nodes with sessions of users, so packets for users without
+ * local session are sent only to nodes with sessions of the user instead of visiting all cluster nodes.
+ * <br>
+ * Directory is partitioned between cluster nodes by consistent hashing of bare JIDs of users, and location of sessions
+ * of a user is kept by <code>directory-replicas</code> nodes (owners of the user). Owners update the directory when
+ * notified by other nodes about connected users and their presences. If this node is not an owner of the user, the
+ * packet is sent to the owner, which relays it to nodes with sessions of the user. If there is no session of the user,
+ * the packet is processed by the first node as a packet for an offline user.
+ * <br>
+ * After a cluster node connects or disconnects, each node sends locations of its sessions to their owners, and for
+ * <code>directory-sync-time</code> packets are forwarded as by {@link DefaultClusteringStrategy}.
+ * <br>
+ * To use it, set class of <code>strategy</code> bean of the session manager to this class.
+ */
+public class SessionDirectoryClusteringStrategy<E extends ConnectionRecordIfc>
+		extends DefaultClusteringStrategy<E> {
+
+	private static final String DIRECTORY_SYNC_CMD = "session-directory-sync-sm-cmd";
+	private static final String JID_ATTR = "jid";
+	private static final Logger log = Logger.getLogger(SessionDirectoryClusteringStrategy.class.getName());
+	private static final String ROUTING_DIRECT = "direct";
+	private static final String ROUTING_KEY = "directory-routing";
+	private static final String ROUTING_RELAY = "relay";
+	private static final String SESSION_EL = "session";
+	private static final int SYNC_BATCH_SIZE = 1000;
+	private static final String TARGETS_KEY = "directory-targets";
+	private static final int VIRTUAL_NODES = 64;
+
+	private final LongAdder broadcastForwards = new LongAdder();
+	private final SessionDirectory directory = new SessionDirectory();
+	@ConfigField(desc = "Number of cluster nodes keeping location of sessions of a user", alias = "directory-replicas")
+	private int directoryReplicas = 2;
+	@ConfigField(desc = "Time in ms after change of cluster nodes during which directory is not used", alias = "directory-sync-time")
+	private long directorySyncTime = 30 * 1000;
+	private volatile long nodesChangedAt = System.currentTimeMillis();
+	private final LongAdder relayedForwards = new LongAdder();
+	private final ConsistentHashRing ring = new ConsistentHashRing(VIRTUAL_NODES);
+	private final LongAdder unicastForwards = new LongAdder();
+
+	public SessionDirectoryClusteringStrategy() {
+		super();
+		addCommandListener(new DirectorySyncCommand(DIRECTORY_SYNC_CMD));
+	}
+
+	@Override
+	public String getInfo() {
+		return "session directory strategy";
+	}
+
+	@Override
+	public List<JID> getNodesForPacketForward(JID fromNode, Set<JID> visitedNodes, Packet packet) {
+		BareJID user = (visitedNodes == null) ? getDirectoryRoutedUser(packet) : null;
+		if (user == null) {
+			List<JID> result = super.getNodesForPacketForward(fromNode, visitedNodes, packet);
+			if (visitedNodes == null && result != null && !result.isEmpty()) {
+				broadcastForwards.increment();
+			}
+			return result;
+		}
+
+		JID local = sm.getComponentId();
+		List<JID> owners = ring.getOwners(user, directoryReplicas);
+		if (!owners.contains(local)) {
+			relayedForwards.increment();
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Sending packet: {0} to owner: {1}", new Object[]{packet, owners.get(0)});
+			}
+			return Collections.singletonList(owners.get(0));
+		}
+
+		List<JID> result = getSessionNodes(packet.getStanzaTo(), Collections.singleton(local));
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Nodes with sessions: {0}, for packet: {1}", new Object[]{result, packet});
+		}
+		if (result.isEmpty()) {
+			return null;
+		}
+		unicastForwards.increment();
+		return result;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		super.getStatistics(compName, list);
+		list.add(comp, prefix + "Directory users", directory.size(), Level.FINE);
+		list.add(comp, prefix + "Broadcast forwards", broadcastForwards.sum(), Level.FINE);
+		list.add(comp, prefix + "Unicast forwards", unicastForwards.sum(), Level.FINE);
+		list.add(comp, prefix + "Relayed forwards", relayedForwards.sum(), Level.FINE);
+	}
+
+	@Override
+	public void handleLocalResourceBind(XMPPResourceConnection conn) {
+		super.handleLocalResourceBind(conn);
+		try {
+			JID jid = conn.getJID();
+			if (isOwner(jid.getBareJID())) {
+				directory.add(jid, sm.getComponentId());
+			}
+		} catch (NotAuthorizedException ex) {
+			log.log(Level.FINEST, "Session not authorized: {0}", conn);
+		}
+	}
+
+	@Override
+	public void handleLocalUserLogout(BareJID userId, XMPPResourceConnection conn) {
+		super.handleLocalUserLogout(userId, conn);
+		try {
+			directory.remove(conn.getJID(), sm.getComponentId());
+		} catch (NotAuthorizedException ex) {
+			log.log(Level.FINEST, "Session not authorized: {0}", conn);
+		}
+	}
+
+	@Override
+	public void nodeConnected(JID node) {
+		super.nodeConnected(node);
+		updateNodes();
+	}
+
+	@Override
+	public void nodeDisconnected(JID node) {
+		super.nodeDisconnected(node);
+		directory.removeNode(node);
+		updateNodes();
+	}
+
+	@Override
+	public boolean sendToNextNode(JID fromNode, Set<JID> visitedNodes, Map<String, String> data, Packet packet) {
+		String routing = (data == null) ? null : data.get(ROUTING_KEY);
+		if (routing == null) {
+			return super.sendToNextNode(fromNode, visitedNodes, data, packet);
+		}
+
+		JID local = sm.getComponentId();
+		if (local.equals(fromNode)) {
+			// packet returned to the first node to be processed as a packet for an offline user
+			return false;
+		}
+
+		List<JID> nodes;
+		if (ROUTING_RELAY.equals(routing)) {
+			Set<JID> excluded = (visitedNodes == null) ? new HashSet<>() : new HashSet<>(visitedNodes);
+			excluded.add(fromNode);
+			nodes = getSessionNodes(packet.getStanzaTo(), excluded);
+			if (!nodes.isEmpty()) {
+				unicastForwards.increment();
+			}
+		} else if ("1".equals(data.get(TARGETS_KEY)) && sm.getXMPPResourceConnection(packet) == null) {
+			// directory was not up to date, and the only session of the user is already closed
+			nodes = Collections.emptyList();
+		} else {
+			return false;
+		}
+
+		Map<String, String> forwardData = new LinkedHashMap<>(data);
+		forwardData.put(ROUTING_KEY, ROUTING_DIRECT);
+		if (nodes.isEmpty()) {
+			if (data.get(SESSION_FOUND_KEY) != null) {
+				return false;
+			}
+			nodes = Collections.singletonList(fromNode);
+		}
+		forwardData.put(TARGETS_KEY, String.valueOf(nodes.size()));
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Sending packet: {0} to nodes: {1}", new Object[]{packet, nodes});
+		}
+		cluster.sendToNodes(PACKET_FORWARD_CMD, forwardData, packet.getElement(), fromNode, visitedNodes,
+							nodes.toArray(new JID[nodes.size()]));
+		return true;
+	}
+
+	@Override
+	protected void handleRemoteUserConnected(ConnectionRecordIfc rec) {
+		if (isOwner(rec.getUserJid().getBareJID())) {
+			directory.add(rec.getUserJid(), rec.getNode());
+		}
+	}
+
+	@Override
+	protected void handleRemoteUserPresence(ConnectionRecordIfc rec, Element presence) {
+		if (presence == null || !isOwner(rec.getUserJid().getBareJID())) {
+			return;
+		}
+		if (StanzaType.unavailable.name().equals(presence.getAttributeStaticStr(Packet.TYPE_ATT))) {
+			directory.remove(rec.getUserJid(), rec.getNode());
+		} else {
+			directory.add(rec.getUserJid(), rec.getNode());
+		}
+	}
+
+	@Override
+	protected Map<String, String> prepareForwardData(Packet packet, XMPPResourceConnection conn, List<JID> toNodes) {
+		Map<String, String> data = super.prepareForwardData(packet, conn, toNodes);
+		BareJID user = getDirectoryRoutedUser(packet);
+		if (user != null) {
+			if (data == null) {
+				data = new LinkedHashMap<>();
+			}
+			if (isOwner(user)) {
+				data.put(ROUTING_KEY, ROUTING_DIRECT);
+				data.put(TARGETS_KEY, String.valueOf(toNodes.size()));
+			} else {
+				data.put(ROUTING_KEY, ROUTING_RELAY);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Returns bare JID of the user if the packet should be routed using the directory or <code>null</code>.
+	 */
+	private BareJID getDirectoryRoutedUser(Packet packet) {
+		if (System.currentTimeMillis() - nodesChangedAt < directorySyncTime ||
+				!ring.getNodes().contains(sm.getComponentId())) {
+			return null;
+		}
+		// presence broadcasts and responses to this node are handled as before
+		if ((packet.getElemName() == Presence.ELEM_NAME) && (packet.getStanzaTo() == null)) {
+			return null;
+		}
+		if (!isSuitableForForward(packet) || isIqResponseToNode(packet)) {
+			return null;
+		}
+		return packet.getStanzaTo().getBareJID();
+	}
+
+	private List<JID> getSessionNodes(JID jid, Set<JID> excluded) {
+		Set<JID> connected = new HashSet<>(getNodesConnected());
+		List<JID> result = new ArrayList<>();
+		for (JID node : directory.getNodes(jid)) {
+			if (!excluded.contains(node) && connected.contains(node)) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	private boolean isOwner(BareJID user) {
+		return ring.isOwner(sm.getComponentId(), user, directoryReplicas);
+	}
+
+	/**
+	 * Recalculates owners of users after a cluster node connected or disconnected. Locations of sessions of users not
+	 * owned anymore are removed and locations of local sessions are sent to their owners.
+	 */
+	private synchronized void updateNodes() {
+		JID local = sm.getComponentId();
+		List<JID> nodes = new ArrayList<>(getNodesConnected());
+		if (!nodes.contains(local)) {
+			nodes.add(local);
+		}
+		ring.setNodes(nodes);
+		nodesChangedAt = System.currentTimeMillis();
+		directory.retainUsers(this::isOwner);
+
+		Map<JID, Queue<Element>> sessionsForOwners = new HashMap<>();
+		Map<JID, XMPPResourceConnection> connections = sm.getXMPPResourceConnections();
+		if (connections != null) {
+			for (XMPPResourceConnection conn : connections.values()) {
+				if (!conn.isAuthorized() || !conn.isResourceSet()) {
+					continue;
+				}
+				try {
+					JID jid = conn.getJID();
+					for (JID owner : ring.getOwners(jid.getBareJID(), directoryReplicas)) {
+						if (owner.equals(local)) {
+							directory.add(jid, local);
+						} else {
+							sessionsForOwners.computeIfAbsent(owner, key -> new ArrayDeque<>())
+									.offer(new Element(SESSION_EL, new String[]{JID_ATTR}, new String[]{jid.toString()}));
+						}
+					}
+				} catch (NotAuthorizedException ex) {
+					log.log(Level.FINEST, "Session not authorized: {0}", conn);
+				}
+			}
+		}
+		sessionsForOwners.forEach((owner, sessions) -> {
+			while (!sessions.isEmpty()) {
+				Queue<Element> batch = new ArrayDeque<>(Math.min(sessions.size(), SYNC_BATCH_SIZE));
+				while (batch.size() < SYNC_BATCH_SIZE && !sessions.isEmpty()) {
+					batch.offer(sessions.poll());
+				}
+				cluster.sendToNodes(DIRECTORY_SYNC_CMD, batch, local, null, owner);
+			}
+		});
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Cluster nodes changed to: {0}, sent sessions to {1} owners",
+					new Object[]{nodes, sessionsForOwners.size()});
+		}
+	}
+
+	private class DirectorySyncCommand
+			extends CommandListenerAbstract {
+
+		public DirectorySyncCommand(String name) {
+			super(name, Priority.CLUSTER);
+		}
+
+		@Override
+		public void executeCommand(JID fromNode, Set<JID> visitedNodes, Map<String, String> data,
+								   Queue<Element> packets) throws ClusterCommandException {
+			if (packets == null) {
+				return;
+			}
+			for (Element session : packets) {
+				JID jid = JID.jidInstanceNS(session.getAttributeStaticStr(JID_ATTR));
+				if (jid != null && isOwner(jid.getBareJID())) {
+					directory.add(jid, fromNode);
+				}
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Received {0} sessions from: {1}", new Object[]{packets.size(), fromNode});
+			}
+		}
+	}
+}
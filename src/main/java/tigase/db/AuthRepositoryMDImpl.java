@@ -46,6 +46,13 @@ public abstract class AuthRepositoryMDImpl
 		super(AuthRepository.class);
 	}
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		AuthRepository repo = (user == null) ? null : getRepo(user.getDomain());
+
+		return (repo != null) ? repo.getExecutor(user) : AuthRepository.super.getExecutor(user);
+	}
+
 	@Override
 	public void addUser(BareJID user, String password) throws TigaseDBException {
 		AuthRepository repo = getRepo(user.getDomain());
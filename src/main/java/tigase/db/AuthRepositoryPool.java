@@ -41,12 +41,29 @@ public class AuthRepositoryPool
 
 	private static final Logger log = Logger.getLogger(AuthRepositoryPool.class.getName());
 
+	private volatile RepositoryExecutor executor = null;
 	private LinkedBlockingQueue<AuthRepository> repoPool = new LinkedBlockingQueue<AuthRepository>();
 
 	public void addRepo(AuthRepository repo) {
 		repoPool.offer(repo);
 	}
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		RepositoryExecutor result = executor;
+		if (result == null) {
+			// all repositories of the pool share the same data source, so there is no need to take one from the
+			// pool to find its executor
+			AuthRepository repo = repoPool.peek();
+			if (repo == null) {
+				return AuthRepository.super.getExecutor(user);
+			}
+			result = repo.getExecutor(user);
+			executor = result;
+		}
+		return result;
+	}
+
 	@Override
 	public void addUser(BareJID user, String password) throws TigaseDBException {
 		AuthRepository repo = takeRepo();
@@ -52,6 +52,7 @@ public class DataRepositoryPool
 
 	// ~--- fields ---------------------------------------------------------------
 	private dbTypes database = null;
+	private RepositoryExecutor executor = null;
 	private CopyOnWriteArrayList<DataRepository> repoPool = new CopyOnWriteArrayList<DataRepository>();
 	private String resource_uri = null;
 
@@ -94,6 +95,18 @@ public class DataRepositoryPool
 		return result;
 	}
 
+	/**
+	 * Returns executor with number of threads equal to the number of connections in the pool.
+	 */
+	@Override
+	public synchronized RepositoryExecutor getExecutor(BareJID user_id) {
+		if (executor == null) {
+			executor = new RepositoryExecutor("db-executor-" + Integer.toHexString(hashCode()),
+											  Math.max(1, repoPool.size()));
+		}
+		return executor;
+	}
+
 	@Override
 	public DataRepository takeRepoHandle(BareJID user_id) {
 		return takeRepo(user_id);
@@ -210,6 +223,13 @@ public class DataRepositoryPool
 	public void getStatistics(String compName, StatisticsList list) {
 		list.add(compName, "uri", getResourceUri(), Level.FINE);
 		list.add(compName, "connections count", repoPool.size(), Level.FINE);
+		RepositoryExecutor executor;
+		synchronized (this) {
+			executor = this.executor;
+		}
+		if (executor != null) {
+			executor.getStatistics(compName, list);
+		}
 		for (DataRepository repo : repoPool) {
 			if (repo instanceof StatisticsProviderIfc) {
 				((StatisticsProviderIfc) repo).getStatistics(compName, list);
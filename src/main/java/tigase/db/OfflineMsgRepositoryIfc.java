@@ -61,6 +61,20 @@ public interface OfflineMsgRepositoryIfc
 	 */
 	Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete) throws UserNotFoundException;
 
+	/**
+	 * Loads all payloads for the given user's {@link JID} from repository. Unlike
+	 * {@link #loadMessagesToJID(XMPPResourceConnection, boolean)} it does not access user session, so it may be called
+	 * from a thread other than the one processing packets of the session.
+	 *
+	 * @param to {@link JID} of the user session for which payloads are loaded
+	 * @param delete boolean parameter controlling whether messages should be removed from repository after they
+	 * retrieved.
+	 *
+	 * @return a {@link Queue} of {@link Element} objects representing stored payloads for the given user's {@link JID}
+	 *
+	 */
+	Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException;
+
 	/**
 	 * Saves the massage to the repository
 	 *
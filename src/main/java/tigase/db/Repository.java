@@ -18,6 +18,7 @@
 package tigase.db;
 
 import tigase.annotations.TigaseDeprecated;
+import tigase.xmpp.jid.BareJID;
 
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -53,6 +54,19 @@ public interface Repository {
 
 	}
 
+	/**
+	 * Returns executor which should be used to call methods of this repository for the user without blocking the
+	 * calling thread. Repositories backed by a pool of database connections should return executor of the pool.
+	 *
+	 * @param user a <code>BareJID</code> value of user ID for which repository will be called, may be
+	 * <code>null</code>.
+	 *
+	 * @return a {@link RepositoryExecutor} instance
+	 */
+	default RepositoryExecutor getExecutor(BareJID user) {
+		return RepositoryExecutor.getDefault();
+	}
+
 	/**
 	 * Meta created to add possibility to retrieve information about implementation of repository (ie. supported
 	 * database URI)
@@ -0,0 +1,155 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import tigase.stats.Histogram;
+import tigase.stats.StatisticsList;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded executor of repository calls, which allows to access a repository without blocking the calling thread.
+ * Number of threads should match number of connections to the database, as only that many calls may be executed
+ * concurrently, and number of waiting calls is limited by the size of the queue. Calls submitted when the queue is
+ * full are failed with {@link TigaseDBException} instead of being queued.
+ * <br>
+ * Execution time of calls (in microseconds) is gathered in a histogram for each operation name.
+ * <br>
+ * Size of the queue is configured with <code>db-executor-queue-size</code> system property (default: 10000).
+ */
+public class RepositoryExecutor {
+
+	// last bucket contains calls longer than 4s
+	private static final int HISTOGRAM_BUCKETS = 24;
+
+	private static final String QUEUE_SIZE_PROP_KEY = "db-executor-queue-size";
+
+	private static final int QUEUE_SIZE = Integer.getInteger(QUEUE_SIZE_PROP_KEY, 10000);
+
+	private static final Logger log = Logger.getLogger(RepositoryExecutor.class.getName());
+
+	private static RepositoryExecutor defaultExecutor = null;
+
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private final String name;
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Returns executor shared by repositories which do not have own executor.
+	 */
+	public static synchronized RepositoryExecutor getDefault() {
+		if (defaultExecutor == null) {
+			defaultExecutor = new RepositoryExecutor("db-executor-default", Runtime.getRuntime().availableProcessors(),
+													 QUEUE_SIZE);
+		}
+		return defaultExecutor;
+	}
+
+	public RepositoryExecutor(String name, int threads) {
+		this(name, threads, QUEUE_SIZE);
+	}
+
+	public RepositoryExecutor(String name, int threads, int queueSize) {
+		this.name = name;
+		final AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+											   new ArrayBlockingQueue<>(queueSize), r -> {
+			Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+		log.log(Level.CONFIG, "created repository executor {0} with {1} threads and queue size {2}",
+				new Object[]{name, threads, queueSize});
+	}
+
+	/**
+	 * Executes call in a thread of the executor.
+	 *
+	 * @param operation name of the operation used to gather execution times
+	 * @param call repository call
+	 *
+	 * @return a stage completed with a result of the call or failed with its exception
+	 */
+	public <T> CompletableFuture<T> submit(String operation, RepositoryCall<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Histogram histogram = histograms.computeIfAbsent(operation, key -> new Histogram(
+				name + "/" + operation + "/Execution time", "us", HISTOGRAM_BUCKETS, Level.FINER));
+		try {
+			executor.execute(() -> {
+				long start = System.nanoTime();
+				try {
+					T result = call.call();
+					histogram.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					future.complete(result);
+				} catch (Throwable ex) {
+					histogram.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			rejected.increment();
+			future.completeExceptionally(new TigaseDBException("Queue of " + name + " is full", ex));
+		}
+		return future;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public Histogram getHistogram(String operation) {
+		return histograms.get(operation);
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, name + "/Queue size", getQueueSize(), Level.FINE);
+		list.add(compName, name + "/Active threads", executor.getActiveCount(), Level.FINER);
+		list.add(compName, name + "/Rejected calls", rejected.sum(), Level.FINE);
+		histograms.values().forEach(histogram -> histogram.getStatistics(compName, list));
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@FunctionalInterface
+	public interface RepositoryCall<T> {
+
+		T call() throws Exception;
+
+	}
+}
@@ -185,6 +185,27 @@ public interface UserRepository
 		return Collections.emptyMap();
 	}
 
+	/**
+	 * <code>getDataLists</code> method returns values of all keys stored in each of given subnodes, loaded at once if
+	 * repository supports it. It is used to retrieve data frequently used by a user session with a single request to
+	 * the repository instead of calling <code>getData</code> or <code>getDataList</code> for each key.
+	 *
+	 * @param user a <code>BareJID</code> value of user ID for which data must be retrieved. User ID consists of user
+	 * name and domain name.
+	 * @param subnodes an array of node paths where data is stored, <code>null</code> denotes root node.
+	 *
+	 * @return a <code>Map</code> with subnode as a key and map of values associated with each key of this subnode (as
+	 * returned by <code>getDataList</code>) as a value or <code>null</code> if repository is not able to load data of
+	 * many nodes at once. Map for a subnode which does not exist is empty.
+	 *
+	 * @throws UserNotFoundException if user id hasn't been found in repository.
+	 * @throws TigaseDBException if database backend error occurs.
+	 */
+	default Map<String, Map<String, String[]>> getDataLists(BareJID user, String[] subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		return null;
+	}
+
 	/**
 	 * <code>getDataList</code> method returns array of values associated with given key or <code>null</code> if given
 	 * key does not exist for given user ID in given node path.
@@ -407,6 +428,28 @@ public interface UserRepository
 	 */
 	void setData(BareJID user, String key, String value) throws UserNotFoundException, TigaseDBException;
 
+	/**
+	 * <code>setDataMap</code> method sets data values for given user ID associated with keys of given map in
+	 * repository under given node path. It is the same as calling <code>setData</code> for each entry of the map, but
+	 * repository may store all of them at once. Exception is thrown if any of values was not stored.
+	 *
+	 * @param user a <code>BareJID</code> value of user ID for which data must be stored. User ID consists of user name
+	 * and domain name.
+	 * @param subnode a <code>String</code> value is a node path where data is stored. Node path has the same form as
+	 * directory path on file system:
+	 * <pre>/root/subnode1/subnode2</pre>.
+	 * @param data a <code>Map</code> of keys and values to be associated with them.
+	 *
+	 * @throws UserNotFoundException if user id hasn't been found in repository.
+	 * @throws TigaseDBException if database backend error occurs.
+	 */
+	default void setDataMap(BareJID user, String subnode, Map<String, String> data)
+			throws UserNotFoundException, TigaseDBException {
+		for (Map.Entry<String, String> entry : data.entrySet()) {
+			setData(user, subnode, entry.getKey(), entry.getValue());
+		}
+	}
+
 	/**
 	 * <code>setDataList</code> method sets list of values for given user associated given key in repository under given
 	 * node path. If there already exist values for given key in given node, all old values are replaced with new
@@ -146,6 +146,28 @@ public abstract class UserRepositoryMDImpl
 		return null;
 	}
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		UserRepository repo = (user == null) ? null : getRepo(user.getDomain());
+
+		return (repo != null) ? repo.getExecutor(user) : UserRepository.super.getExecutor(user);
+	}
+
+	@Override
+	public Map<String, Map<String, String[]>> getDataLists(BareJID user, String[] subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = getRepo(user.getDomain());
+
+		if (repo != null) {
+			return repo.getDataLists(user, subnodes);
+		} else {
+			log.log(Level.WARNING,
+					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
+		}
+
+		return null;
+	}
+
 	@Override
 	public String[] getDataList(BareJID user, String subnode, String key)
 			throws UserNotFoundException, TigaseDBException {
@@ -367,6 +389,19 @@ public abstract class UserRepositoryMDImpl
 		}
 	}
 
+	@Override
+	public void setDataMap(BareJID user, String subnode, Map<String, String> data)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = getRepo(user.getDomain());
+
+		if (repo != null) {
+			repo.setDataMap(user, subnode, data);
+		} else {
+			log.log(Level.WARNING,
+					"Couldn't obtain user repository for domain: " + user.getDomain() + ", not even default one!");
+		}
+	}
+
 	@Override
 	public boolean userExists(BareJID user) {
 		UserRepository repo = getRepo(user.getDomain());
@@ -43,6 +43,7 @@ public class UserRepositoryPool
 	private static final Logger log = Logger.getLogger(UserRepositoryPool.class.getName());
 
 	private IRepoCache<String, Object> cache = null;
+	private volatile RepositoryExecutor executor = null;
 	private LinkedBlockingQueue<UserRepository> repoPool = new LinkedBlockingQueue<UserRepository>();
 
 	@Override
@@ -184,6 +185,39 @@ public class UserRepositoryPool
 		return null;
 	}
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		RepositoryExecutor result = executor;
+		if (result == null) {
+			// all repositories of the pool share the same data source, so there is no need to take one from the
+			// pool to find its executor
+			UserRepository repo = repoPool.peek();
+			if (repo == null) {
+				return UserRepository.super.getExecutor(user);
+			}
+			result = repo.getExecutor(user);
+			executor = result;
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Map<String, String[]>> getDataLists(BareJID user, String[] subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				return repo.getDataLists(user, subnodes);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
+		}
+		return null;
+	}
+
 	@Override
 	public String[] getDataList(BareJID user, String subnode, String key)
 			throws UserNotFoundException, TigaseDBException {
@@ -470,6 +504,24 @@ public class UserRepositoryPool
 		}
 	}
 
+	@Override
+	public void setDataMap(BareJID user, String subnode, Map<String, String> data)
+			throws UserNotFoundException, TigaseDBException {
+		UserRepository repo = takeRepo();
+
+		if (repo != null) {
+			try {
+				repo.setDataMap(user, subnode, data);
+			} finally {
+				addRepo(repo);
+			}
+		} else {
+			log.log(Level.WARNING, "repo is NULL, pool empty? - {0}", repoPool.size());
+		}
+
+		data.forEach((key, value) -> cache.put(user + "/" + subnode + "/" + key, value));
+	}
+
 	public UserRepository takeRepo() {
 		try {
 			return repoPool.take();
@@ -22,6 +22,7 @@ import tigase.kernel.beans.config.ConfigField;
 import tigase.stats.ComponentStatisticsProvider;
 import tigase.stats.StatisticsInvocationHandler;
 import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 
 import java.lang.reflect.Proxy;
 import java.util.Collection;
@@ -117,6 +118,11 @@ public abstract class MDPoolBeanWithStatistics<S extends Repository, T extends M
 		handlers.values().forEach(handler -> {
 			handler.getStatistics(compName, null, list);
 		});
+		repos.forEach((name, repo) -> {
+			if (repo instanceof StatisticsProviderIfc) {
+				((StatisticsProviderIfc) repo).getStatistics(compName + "/" + name, list);
+			}
+		});
 	}
 
 	public void setStatisticsEnabled(boolean value) {
@@ -0,0 +1,138 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.component.exceptions.RepositoryException;
+import tigase.db.DBInitException;
+import tigase.db.DataSource;
+import tigase.db.Repository;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
+import tigase.util.Version;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data source providing access to the embedded log-structured store ({@link SegmentLogStore}).
+ * <br>
+ * URI has following format: <code>embedded://path/to/directory?param=value</code> with following optional
+ * parameters:
+ * <ul>
+ * <li><code>segmentSize</code> - size of a segment file in bytes (default 64MB)</li>
+ * <li><code>compactionRatio</code> - ratio of obsolete data in inactive segments triggering compaction (default
+ * 0.5)</li>
+ * <li><code>syncWrites</code> - if <code>true</code> every change is synced to the disk before it is confirmed,
+ * otherwise changes are synced every second (default false)</li>
+ * <li><code>autoCreateUser</code> - if <code>true</code> user is created on first write of its data (default
+ * false)</li>
+ * </ul>
+ */
+@Repository.Meta(supportedUris = {"embedded://.*"})
+public class EmbeddedDataSource
+		implements DataSource, StatisticsProviderIfc {
+
+	public static final String SCHEME = "embedded://";
+
+	private static final Logger log = Logger.getLogger(EmbeddedDataSource.class.getCanonicalName());
+
+	private static final long DEF_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final double DEF_COMPACTION_RATIO = 0.5;
+
+	private final Map<String, String> params = new HashMap<>();
+	private String resource_uri;
+	private SegmentLogStore store;
+
+	@Override
+	public Optional<Version> getSchemaVersion(String component) {
+		return Optional.empty();
+	}
+
+	@Override
+	public String getResourceUri() {
+		return resource_uri;
+	}
+
+	@Override
+	public void initialize(String uri) throws RepositoryException {
+		initRepository(uri, new HashMap<>());
+	}
+
+	@Override
+	@Deprecated
+	public void initRepository(String uri, Map<String, String> params) throws DBInitException {
+		log.log(Level.FINEST, "Initializing repository, uri: {0}, params: {1}", new Object[]{uri, params});
+		if (!uri.startsWith(SCHEME)) {
+			throw new DBInitException("Unsupported URI " + uri + ", expected " + SCHEME + "path");
+		}
+
+		String path = uri.substring(SCHEME.length());
+		this.params.clear();
+		int idx = path.indexOf('?');
+		if (idx >= 0) {
+			for (String param : path.substring(idx + 1).split("&")) {
+				int eq = param.indexOf('=');
+				if (eq > 0) {
+					this.params.put(param.substring(0, eq), param.substring(eq + 1));
+				}
+			}
+			path = path.substring(0, idx);
+		}
+
+		try {
+			long segmentSize = Long.parseLong(this.params.getOrDefault("segmentSize", String.valueOf(DEF_SEGMENT_SIZE)));
+			double compactionRatio = Double.parseDouble(
+					this.params.getOrDefault("compactionRatio", String.valueOf(DEF_COMPACTION_RATIO)));
+			boolean syncWrites = Boolean.parseBoolean(this.params.get("syncWrites"));
+			if (store != null) {
+				// store needs to be closed before the directory is opened again
+				store.close();
+			}
+			store = new SegmentLogStore(Paths.get(path), segmentSize, compactionRatio, syncWrites);
+			resource_uri = uri;
+		} catch (NumberFormatException | IOException ex) {
+			throw new DBInitException("Could not open embedded store " + uri, ex);
+		}
+	}
+
+	public boolean isAutoCreateUser() {
+		return Boolean.parseBoolean(params.get("autoCreateUser"));
+	}
+
+	public SegmentLogStore getStore() {
+		return store;
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		SegmentLogStore store = this.store;
+		if (store == null) {
+			return;
+		}
+		list.add(compName, "Segments", store.getSegmentsCount(), Level.FINE);
+		list.add(compName, "Size [B]", store.getSize(), Level.FINE);
+		list.add(compName, "Live size [B]", store.getLiveSize(), Level.FINE);
+		list.add(compName, "Compactions", store.getCompactionsCount(), Level.FINER);
+	}
+
+}
@@ -0,0 +1,332 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.db.*;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of <code>UserRepository</code> and <code>AuthRepository</code> storing data in the embedded
+ * log-structured store provided by {@link EmbeddedDataSource}. Unlike {@link tigase.db.xml.XMLRepository} it does not
+ * serialize access to the data and does not rewrite whole database on every change, so it may be used on small
+ * installations which do not want to depend on an external database.
+ * <br>
+ * Passwords are stored in user data in the same way as in <code>XMLRepository</code>.
+ */
+@Repository.Meta(supportedUris = {"embedded://.*"})
+public class EmbeddedRepository
+		implements Repository, DataSourceAware<EmbeddedDataSource>, AuthRepository, UserRepository {
+
+	private static final Logger log = Logger.getLogger(EmbeddedRepository.class.getCanonicalName());
+
+	private AuthRepository auth = null;
+	private boolean autoCreateUser = false;
+	private EmbeddedDataSource dataSource;
+	private SegmentLogStore store = null;
+
+	@Override
+	public void addDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Adding data list, user: {0}, subnode: {1}, key: {2}, list: {3}",
+				new Object[]{user, subnode, key, Arrays.asList(list)});
+		try {
+			store.addValues(user.toString(), subnode, key, list);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			store.addValues(user.toString(), subnode, key, list);
+		}
+	}
+
+	@Override
+	public void addUser(BareJID user) throws UserExistsException, TigaseDBException {
+		log.log(Level.FINEST, "Adding new user, user: {0}", user);
+		store.addUser(user.toString());
+	}
+
+	@Override
+	public void addUser(BareJID user, final String password) throws UserExistsException, TigaseDBException {
+		auth.addUser(user, password);
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key, final String def)
+			throws UserNotFoundException, TigaseDBException {
+		String[] values = getDataList(user, subnode, key);
+		return (values == null || values.length == 0) ? def : values[0];
+	}
+
+	@Override
+	public String getData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		return getData(user, subnode, key, null);
+	}
+
+	@Override
+	public String getData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		return getData(user, null, key, null);
+	}
+
+	@Override
+	public String[] getDataList(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Getting data list, user: {0}, subnode: {1}, key: {2}", new Object[]{user, subnode, key});
+		try {
+			return store.get(user.toString(), subnode, key);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public Map<String, Map<String, String[]>> getDataLists(BareJID user, String[] subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		Map<String, Map<String, String[]>> results = new HashMap<>();
+		for (String subnode : subnodes) {
+			Map<String, String[]> data;
+			try {
+				data = store.getAll(user.toString(), subnode);
+			} catch (UserNotFoundException e) {
+				createUserIfAllowed(user, e);
+				data = null;
+			}
+			results.put(subnode, data == null ? new HashMap<>() : data);
+		}
+		return results;
+	}
+
+	@Override
+	public String[] getKeys(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Getting keys, user: {0}, subnode: {1}", new Object[]{user, subnode});
+		try {
+			return store.getKeys(user.toString(), subnode);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getKeys(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getKeys(user, null);
+	}
+
+	@Override
+	public String getResourceUri() {
+		return dataSource.getResourceUri();
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Getting subnodes, user: {0}, subnode: {1}", new Object[]{user, subnode});
+		try {
+			return store.getSubnodes(user.toString(), subnode);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			return null;
+		}
+	}
+
+	@Override
+	public String[] getSubnodes(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return getSubnodes(user, null);
+	}
+
+	@Override
+	public long getUserUID(BareJID user) throws TigaseDBException {
+		return store.getUserUid(user.toString());
+	}
+
+	@Override
+	public List<BareJID> getUsers() {
+		List<BareJID> result = new ArrayList<>();
+		for (String usr : store.getUsers()) {
+			result.add(BareJID.bareJIDInstanceNS(usr));
+		}
+		return result;
+	}
+
+	@Override
+	public long getUsersCount(String domain) {
+		long res = 0;
+		for (BareJID jid : getUsers()) {
+			if (jid.getDomain().equals(domain)) {
+				++res;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public long getUsersCount() {
+		return store.getUsersCount();
+	}
+
+	@Override
+	@Deprecated
+	public void initRepository(String uri, Map<String, String> params) throws DBInitException {
+		if (store == null) {
+			EmbeddedDataSource dataSource = new EmbeddedDataSource();
+			dataSource.initRepository(uri, params);
+			setDataSource(dataSource);
+		}
+	}
+
+	@Override
+	public void logout(BareJID user) throws UserNotFoundException, TigaseDBException {
+		auth.logout(user);
+	}
+
+	@Override
+	public void loggedIn(BareJID user) throws TigaseDBException {
+		auth.loggedIn(user);
+	}
+
+	@Override
+	public boolean otherAuth(final Map<String, Object> props)
+			throws UserNotFoundException, TigaseDBException, AuthorizationException {
+		return auth.otherAuth(props);
+	}
+
+	@Override
+	public void queryAuth(Map<String, Object> authProps) {
+		auth.queryAuth(authProps);
+	}
+
+	@Override
+	public void removeData(BareJID user, final String subnode, final String key)
+			throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Removing data, user: {0}, subnode: {1}, key: {2}", new Object[]{user, subnode, key});
+		try {
+			store.remove(user.toString(), subnode, key);
+		} catch (UserNotFoundException e) {
+			if (!autoCreateUser) {
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void removeData(BareJID user, final String key) throws UserNotFoundException, TigaseDBException {
+		removeData(user, null, key);
+	}
+
+	@Override
+	public void removeSubnode(BareJID user, final String subnode) throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Removing subnode, user: {0}, subnode: {1}", new Object[]{user, subnode});
+		try {
+			store.removeNode(user.toString(), subnode);
+		} catch (UserNotFoundException e) {
+			if (!autoCreateUser) {
+				throw e;
+			}
+		}
+	}
+
+	@Override
+	public void removeUser(BareJID user) throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Removing user: {0}", user);
+		store.removeUser(user.toString());
+	}
+
+	@Override
+	public void setData(BareJID user, final String subnode, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		setDataList(user, subnode, key, new String[]{value});
+	}
+
+	@Override
+	public void setData(BareJID user, final String key, final String value)
+			throws UserNotFoundException, TigaseDBException {
+		setData(user, null, key, value);
+	}
+
+	@Override
+	public void setDataList(BareJID user, final String subnode, final String key, final String[] list)
+			throws UserNotFoundException, TigaseDBException {
+		log.log(Level.FINEST, "Setting data list, user: {0}, subnode: {1}, key: {2}, value: {3}",
+				new Object[]{user, subnode, key, Arrays.asList(list)});
+		try {
+			store.put(user.toString(), subnode, key, list);
+		} catch (UserNotFoundException e) {
+			createUserIfAllowed(user, e);
+			store.put(user.toString(), subnode, key, list);
+		}
+	}
+
+	@Override
+	public void updatePassword(BareJID user, final String password) throws UserExistsException, TigaseDBException {
+		auth.updatePassword(user, password);
+	}
+
+	@Override
+	public boolean userExists(BareJID user) {
+		return store.userExists(user.toString());
+	}
+
+	@Override
+	public String getPassword(BareJID user) throws UserNotFoundException, TigaseDBException {
+		return auth.getPassword(user);
+	}
+
+	@Override
+	public boolean isUserDisabled(BareJID user) throws UserNotFoundException, TigaseDBException {
+		final String disabled = getData(user, "disabled");
+		return disabled != null && Boolean.parseBoolean(disabled);
+	}
+
+	@Override
+	public void setUserDisabled(BareJID user, Boolean value) throws UserNotFoundException, TigaseDBException {
+		setData(user, "disabled", value.toString());
+	}
+
+	@Override
+	public void setAccountStatus(BareJID user, AccountStatus status) throws TigaseDBException {
+		setData(user, "accountStatus", status.toString());
+	}
+
+	@Override
+	public AccountStatus getAccountStatus(BareJID user) throws TigaseDBException {
+		final String accountStatus = getData(user, "accountStatus");
+		return accountStatus != null ? AccountStatus.valueOf(accountStatus) : AccountStatus.active;
+	}
+
+	@Override
+	public void setDataSource(EmbeddedDataSource dataSource) {
+		this.dataSource = dataSource;
+		autoCreateUser = dataSource.isAutoCreateUser();
+		store = dataSource.getStore();
+		auth = new AuthRepositoryImpl(this);
+	}
+
+	private void createUserIfAllowed(BareJID user, UserNotFoundException e)
+			throws UserNotFoundException, TigaseDBException {
+		if (!autoCreateUser) {
+			throw e;
+		}
+		try {
+			addUser(user);
+		} catch (UserExistsException ex) {
+			// user was created concurrently
+		}
+	}
+}
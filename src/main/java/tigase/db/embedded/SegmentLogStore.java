@@ -0,0 +1,1115 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import tigase.db.TigaseDBException;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded storage of user data based on append-only log split into segment files.
+ * <br>
+ * Every change (adding user, setting value of a key, removing key, node or user) is appended as a record to the
+ * active segment. Each record is prefixed with its length and CRC32 checksum. Location of the current value of each
+ * key of each node of each user is kept in the in-memory hash index, so reading a value requires a single read from
+ * the segment file and none of the operations requires rewriting of existing data.
+ * <br>
+ * When active segment exceeds configured size, a new segment is created. Segments which are not active anymore are
+ * compacted in background when ratio of obsolete records in them exceeds configured threshold. During compaction all
+ * up-to-date records of all inactive segments are copied to a new file, which replaces the newest of compacted
+ * segments, and other compacted segments are removed. Compacted segment starts with a record containing id of the
+ * oldest compacted segment, so if compaction is interrupted before all older segments were removed, they are ignored
+ * and removed during startup instead of replaying records which were removed by compaction.
+ * <br>
+ * On startup all segments are read in order to rebuild the index. If the last segment ends with an incomplete or
+ * corrupted record (ie. due to a crash during write), the segment is truncated to the last valid record.
+ * <br>
+ * Nodes are not stored separately, so a node exists as long as it or any of its subnodes contains at least one key.
+ */
+public class SegmentLogStore
+		implements Closeable {
+
+	private static final Logger log = Logger.getLogger(SegmentLogStore.class.getCanonicalName());
+
+	private static final int MAGIC = 0x54534c31;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String COMPACTION_SUFFIX = ".compact";
+	private static final String LOCK_FILE = "store.lock";
+
+	private static final byte ADD_USER = 1;
+	private static final byte PUT = 2;
+	private static final byte REMOVE_KEY = 3;
+	private static final byte REMOVE_NODE = 4;
+	private static final byte REMOVE_USER = 5;
+	private static final byte COMPACTED = 6;
+
+	private final Object compactionLock = new Object();
+	private final AtomicLong compactions = new AtomicLong();
+	private final double compactionRatio;
+	private final Path directory;
+	private final ScheduledExecutorService executor;
+	private final FileLock fileLock;
+	private final AtomicLong lastUid = new AtomicLong();
+	private final long segmentSize;
+	// segments are replaced during compaction while holding write lock
+	private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	private final boolean syncWrites;
+	private final ConcurrentHashMap<String, UserEntry> users = new ConcurrentHashMap<>();
+	private final Object writeLock = new Object();
+	private volatile Segment active;
+	private volatile boolean closed = false;
+
+	private static String normalizeNode(String node) {
+		if (node == null) {
+			return "";
+		}
+		int start = 0;
+		int end = node.length();
+		while (start < end && node.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && node.charAt(end - 1) == '/') {
+			end--;
+		}
+		return node.substring(start, end);
+	}
+
+	private static boolean isInNode(String path, String node) {
+		return node.isEmpty() || path.equals(node) ||
+				(path.length() > node.length() && path.startsWith(node) && path.charAt(node.length()) == '/');
+	}
+
+	/**
+	 * Opens store in the directory and reads all segments to rebuild the index.
+	 *
+	 * @param directory directory containing segment files, created if it does not exist
+	 * @param segmentSize size of a segment file after which new segment is created
+	 * @param compactionRatio ratio of obsolete data in inactive segments which triggers compaction
+	 * @param syncWrites if <code>true</code> every write is synced to the disk before returning, otherwise changes are
+	 * synced every second
+	 */
+	public SegmentLogStore(Path directory, long segmentSize, double compactionRatio, boolean syncWrites)
+			throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.compactionRatio = compactionRatio;
+		this.syncWrites = syncWrites;
+
+		Files.createDirectories(directory);
+		fileLock = lock(directory.resolve(LOCK_FILE));
+		try {
+			recover();
+		} catch (IOException | RuntimeException ex) {
+			segments.values().forEach(this::closeQuietly);
+			fileLock.channel().close();
+			throw ex;
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "segment-log-store-" + directory.getFileName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (!syncWrites) {
+			executor.scheduleWithFixedDelay(this::sync, 1, 1, TimeUnit.SECONDS);
+		}
+		executor.scheduleWithFixedDelay(this::compactIfNeeded, 10, 10, TimeUnit.SECONDS);
+	}
+
+	public void addUser(String user) throws TigaseDBException {
+		while (true) {
+			UserEntry existing = users.get(user);
+			if (existing != null) {
+				synchronized (existing) {
+					if (!existing.removed) {
+						throw new UserExistsException("User " + user + " already exists.");
+					}
+				}
+				continue;
+			}
+			UserEntry entry = new UserEntry(lastUid.incrementAndGet());
+			synchronized (entry) {
+				if (users.putIfAbsent(user, entry) != null) {
+					continue;
+				}
+				segmentsLock.readLock().lock();
+				try {
+					entry.location.set(append(encode(ADD_USER, user, null, null, null, entry.uid)));
+				} catch (TigaseDBException ex) {
+					entry.removed = true;
+					users.remove(user, entry);
+					throw ex;
+				} finally {
+					segmentsLock.readLock().unlock();
+				}
+				return;
+			}
+		}
+	}
+
+	public boolean userExists(String user) {
+		return users.containsKey(user);
+	}
+
+	/**
+	 * Returns unique id assigned to the user when it was added or <code>-1</code> if user does not exist.
+	 */
+	public long getUserUid(String user) {
+		UserEntry entry = users.get(user);
+		return entry == null ? -1 : entry.uid;
+	}
+
+	public List<String> getUsers() {
+		return new ArrayList<>(users.keySet());
+	}
+
+	public long getUsersCount() {
+		return users.size();
+	}
+
+	public void removeUser(String user) throws TigaseDBException {
+		UserEntry entry = getUserEntry(user);
+		synchronized (entry) {
+			if (entry.removed) {
+				throw new UserNotFoundException("User " + user + " has not been found in repository.");
+			}
+			segmentsLock.readLock().lock();
+			try {
+				Location location = append(encode(REMOVE_USER, user, null, null, null, 0));
+				applyRemoveUser(user, entry);
+				location.markObsolete();
+			} finally {
+				segmentsLock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns values stored for the key or <code>null</code> if key does not exist.
+	 */
+	public String[] get(String user, String node, String key) throws TigaseDBException {
+		UserEntry entry = getUserEntry(user);
+		Map<String, Location> keys = entry.nodes.get(normalizeNode(node));
+		if (keys == null) {
+			return null;
+		}
+		segmentsLock.readLock().lock();
+		try {
+			Location location = keys.get(key);
+			return location == null ? null : read(location).values;
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns values of all keys stored in the node or <code>null</code> if node does not exist.
+	 */
+	public Map<String, String[]> getAll(String user, String node) throws TigaseDBException {
+		UserEntry entry = getUserEntry(user);
+		Map<String, Location> keys = entry.nodes.get(normalizeNode(node));
+		if (keys == null) {
+			return null;
+		}
+		Map<String, String[]> result = new HashMap<>();
+		segmentsLock.readLock().lock();
+		try {
+			for (Map.Entry<String, Location> e : keys.entrySet()) {
+				result.put(e.getKey(), read(e.getValue()).values);
+			}
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns keys stored in the node or <code>null</code> if node does not exist.
+	 */
+	public String[] getKeys(String user, String node) throws TigaseDBException {
+		Map<String, Location> keys = getUserEntry(user).nodes.get(normalizeNode(node));
+		return keys == null ? null : keys.keySet().toArray(new String[0]);
+	}
+
+	/**
+	 * Returns names of direct subnodes of the node or <code>null</code> if node has no subnodes.
+	 */
+	public String[] getSubnodes(String user, String node) throws TigaseDBException {
+		String parent = normalizeNode(node);
+		Set<String> result = new TreeSet<>();
+		for (String path : getUserEntry(user).nodes.keySet()) {
+			if (!path.equals(parent) && isInNode(path, parent)) {
+				String rest = parent.isEmpty() ? path : path.substring(parent.length() + 1);
+				int idx = rest.indexOf('/');
+				result.add(idx < 0 ? rest : rest.substring(0, idx));
+			}
+		}
+		return result.isEmpty() ? null : result.toArray(new String[0]);
+	}
+
+	public void put(String user, String node, String key, String[] values) throws TigaseDBException {
+		String path = normalizeNode(node);
+		UserEntry entry = getUserEntry(user);
+		synchronized (entry) {
+			checkNotRemoved(user, entry);
+			segmentsLock.readLock().lock();
+			try {
+				Location location = append(encode(PUT, user, path, key, values, 0));
+				Location old = entry.nodes.computeIfAbsent(path, p -> new ConcurrentHashMap<>()).put(key, location);
+				if (old != null) {
+					old.markObsolete();
+				}
+			} finally {
+				segmentsLock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Appends values to values already stored for the key.
+	 */
+	public void addValues(String user, String node, String key, String[] values) throws TigaseDBException {
+		UserEntry entry = getUserEntry(user);
+		synchronized (entry) {
+			String[] current = get(user, node, key);
+			if (current == null) {
+				put(user, node, key, values);
+			} else {
+				String[] all = Arrays.copyOf(current, current.length + values.length);
+				System.arraycopy(values, 0, all, current.length, values.length);
+				put(user, node, key, all);
+			}
+		}
+	}
+
+	public void remove(String user, String node, String key) throws TigaseDBException {
+		String path = normalizeNode(node);
+		UserEntry entry = getUserEntry(user);
+		synchronized (entry) {
+			checkNotRemoved(user, entry);
+			Map<String, Location> keys = entry.nodes.get(path);
+			if (keys == null || !keys.containsKey(key)) {
+				return;
+			}
+			segmentsLock.readLock().lock();
+			try {
+				Location location = append(encode(REMOVE_KEY, user, path, key, null, 0));
+				applyRemoveKey(entry, path, key);
+				location.markObsolete();
+			} finally {
+				segmentsLock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Removes node with all its subnodes.
+	 */
+	public void removeNode(String user, String node) throws TigaseDBException {
+		String path = normalizeNode(node);
+		UserEntry entry = getUserEntry(user);
+		synchronized (entry) {
+			checkNotRemoved(user, entry);
+			if (entry.nodes.keySet().stream().noneMatch(p -> isInNode(p, path))) {
+				return;
+			}
+			segmentsLock.readLock().lock();
+			try {
+				Location location = append(encode(REMOVE_NODE, user, path, null, null, 0));
+				applyRemoveNode(entry, path);
+				location.markObsolete();
+			} finally {
+				segmentsLock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Compacts all inactive segments, copying up-to-date records to a new segment file.
+	 */
+	public void compact() throws IOException {
+		synchronized (compactionLock) {
+			List<Segment> toCompact;
+			synchronized (writeLock) {
+				toCompact = new ArrayList<>(segments.headMap(active.id).values());
+			}
+			if (toCompact.isEmpty()) {
+				return;
+			}
+
+			long start = System.currentTimeMillis();
+			Segment target = toCompact.get(toCompact.size() - 1);
+			Path tmp = directory.resolve(segmentFileName(target.id) + COMPACTION_SUFFIX);
+			List<Moved> moved = new ArrayList<>();
+			long size;
+			int markerSize;
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+													StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+				writeFully(out, magic, 0);
+				// marks segments older than the target as replaced by this segment
+				ByteBuffer marker = toRecord(encode(COMPACTED, "", null, null, null, toCompact.get(0).id));
+				markerSize = marker.remaining();
+				writeFully(out, marker, 4);
+				size = 4 + markerSize;
+				for (Segment segment : toCompact) {
+					size = copyLiveRecords(segment, out, size, moved);
+				}
+				out.force(true);
+			}
+
+			segmentsLock.writeLock().lock();
+			try {
+				if (closed) {
+					Files.deleteIfExists(tmp);
+					return;
+				}
+				Path file = directory.resolve(segmentFileName(target.id));
+				for (Segment segment : toCompact) {
+					segment.channel.close();
+				}
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Segment compacted = new Segment(target.id, FileChannel.open(file, StandardOpenOption.READ), size);
+				compacted.liveBytes.set(size - 4 - markerSize);
+				for (Moved m : moved) {
+					Location location = new Location(compacted, m.offset, m.old.size);
+					if (!m.replace(location)) {
+						location.markObsolete();
+					}
+				}
+				for (Segment segment : toCompact) {
+					if (segment != target) {
+						segments.remove(segment.id);
+						Files.deleteIfExists(directory.resolve(segmentFileName(segment.id)));
+					}
+				}
+				segments.put(compacted.id, compacted);
+			} finally {
+				segmentsLock.writeLock().unlock();
+			}
+			compactions.incrementAndGet();
+			log.log(Level.FINE, "Compacted {0} segments of {1} in {2}ms, {3} records moved",
+					new Object[]{toCompact.size(), directory, System.currentTimeMillis() - start, moved.size()});
+		}
+	}
+
+	public long getCompactionsCount() {
+		return compactions.get();
+	}
+
+	public int getSegmentsCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Returns size of all segments in bytes.
+	 */
+	public long getSize() {
+		return segments.values().stream().mapToLong(s -> s.size).sum();
+	}
+
+	/**
+	 * Returns size of up-to-date records in all segments in bytes.
+	 */
+	public long getLiveSize() {
+		return segments.values().stream().mapToLong(s -> s.liveBytes.get()).sum();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// interrupting thread would close channels used by it
+		executor.shutdown();
+		segmentsLock.writeLock().lock();
+		try {
+			synchronized (writeLock) {
+				for (Segment segment : segments.values()) {
+					if (segment == active) {
+						segment.channel.force(true);
+					}
+					segment.channel.close();
+				}
+			}
+			fileLock.channel().close();
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+	}
+
+	private static FileLock lock(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock = channel.tryLock();
+			if (lock != null) {
+				return lock;
+			}
+		} catch (OverlappingFileLockException ex) {
+			// locked by this JVM
+		}
+		channel.close();
+		throw new IOException("Store " + file.getParent() + " is already in use");
+	}
+
+	private void closeQuietly(Segment segment) {
+		try {
+			segment.channel.close();
+		} catch (IOException ex) {
+			log.log(Level.FINEST, "Could not close segment " + segment.id, ex);
+		}
+	}
+
+	private void sync() {
+		try {
+			Segment segment;
+			synchronized (writeLock) {
+				segment = active;
+			}
+			if (segment.dirty) {
+				segment.dirty = false;
+				segment.channel.force(false);
+			}
+		} catch (IOException ex) {
+			log.log(Level.WARNING, "Could not sync segment in " + directory, ex);
+		}
+	}
+
+	private void compactIfNeeded() {
+		try {
+			long size = 0;
+			long live = 0;
+			for (Segment segment : segments.headMap(active.id).values()) {
+				size += segment.size;
+				live += segment.liveBytes.get();
+			}
+			if (size > 0 && (size - live) >= size * compactionRatio) {
+				compact();
+			}
+		} catch (Throwable ex) {
+			log.log(Level.WARNING, "Could not compact segments in " + directory, ex);
+		}
+	}
+
+	private void checkNotRemoved(String user, UserEntry entry) throws UserNotFoundException {
+		if (entry.removed) {
+			throw new UserNotFoundException("User " + user + " has not been found in repository.");
+		}
+	}
+
+	private UserEntry getUserEntry(String user) throws UserNotFoundException {
+		UserEntry entry = users.get(user);
+		if (entry == null) {
+			throw new UserNotFoundException("User " + user + " has not been found in repository.");
+		}
+		return entry;
+	}
+
+	private void applyRemoveKey(UserEntry entry, String path, String key) {
+		Map<String, Location> keys = entry.nodes.get(path);
+		if (keys != null) {
+			Location old = keys.remove(key);
+			if (old != null) {
+				old.markObsolete();
+			}
+			if (keys.isEmpty()) {
+				entry.nodes.remove(path);
+			}
+		}
+	}
+
+	private void applyRemoveNode(UserEntry entry, String path) {
+		Iterator<Map.Entry<String, ConcurrentHashMap<String, Location>>> it = entry.nodes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, ConcurrentHashMap<String, Location>> e = it.next();
+			if (isInNode(e.getKey(), path)) {
+				e.getValue().values().forEach(Location::markObsolete);
+				it.remove();
+			}
+		}
+	}
+
+	private void applyRemoveUser(String user, UserEntry entry) {
+		entry.removed = true;
+		users.remove(user, entry);
+		applyRemoveNode(entry, "");
+		Location location = entry.location.get();
+		if (location != null) {
+			location.markObsolete();
+		}
+	}
+
+	private static ByteBuffer toRecord(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+		buf.flip();
+		return buf;
+	}
+
+	private Location append(byte[] payload) throws TigaseDBException {
+		ByteBuffer buf = toRecord(payload);
+		synchronized (writeLock) {
+			if (closed) {
+				throw new TigaseDBException("Store " + directory + " is closed");
+			}
+			try {
+				if (active.size + buf.remaining() > segmentSize && active.size > 4) {
+					rollSegment();
+				}
+				Segment segment = active;
+				long offset = segment.size;
+				writeFully(segment.channel, buf, offset);
+				segment.size = offset + buf.capacity();
+				segment.liveBytes.addAndGet(buf.capacity());
+				if (syncWrites) {
+					segment.channel.force(false);
+				} else {
+					segment.dirty = true;
+				}
+				return new Location(segment, offset, buf.capacity());
+			} catch (IOException ex) {
+				throw new TigaseDBException("Could not write to " + directory, ex);
+			}
+		}
+	}
+
+	private void rollSegment() throws IOException {
+		active.channel.force(true);
+		active.dirty = false;
+		active = createSegment(active.id + 1);
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		Path file = directory.resolve(segmentFileName(id));
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+											   StandardOpenOption.WRITE);
+		writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+		Segment segment = new Segment(id, channel, 4);
+		segments.put(id, segment);
+		return segment;
+	}
+
+	private Record read(Location location) throws TigaseDBException {
+		try {
+			ByteBuffer buf = ByteBuffer.allocate(location.size);
+			readFully(location.segment.channel, buf, location.offset);
+			return decode(buf.array(), RECORD_HEADER_SIZE, location.size - RECORD_HEADER_SIZE);
+		} catch (IOException ex) {
+			throw new TigaseDBException("Could not read from " + directory, ex);
+		}
+	}
+
+	private long copyLiveRecords(Segment segment, FileChannel out, long position, List<Moved> moved)
+			throws IOException {
+		try (RecordReader reader = new RecordReader(segment.channel, segment.size)) {
+			while (reader.next()) {
+				Moved m = null;
+				Record record = reader.record;
+				UserEntry entry = users.get(record.user);
+				if (entry == null) {
+					continue;
+				}
+				switch (record.type) {
+					case ADD_USER:
+						if (isAt(entry.location.get(), segment, reader.offset)) {
+							m = new Moved(entry, null, null, entry.location.get(), position);
+						}
+						break;
+					case PUT:
+						Map<String, Location> keys = entry.nodes.get(record.node);
+						Location location = keys == null ? null : keys.get(record.key);
+						if (isAt(location, segment, reader.offset)) {
+							m = new Moved(entry, record.node, record.key, location, position);
+						}
+						break;
+					default:
+						// removals are not needed as all removed records are in compacted segments
+						break;
+				}
+				if (m != null) {
+					ByteBuffer buf = ByteBuffer.allocate(reader.size);
+					readFully(segment.channel, buf, reader.offset);
+					buf.flip();
+					writeFully(out, buf, position);
+					position += reader.size;
+					moved.add(m);
+				}
+			}
+		}
+		return position;
+	}
+
+	private boolean isAt(Location location, Segment segment, long offset) {
+		return location != null && location.segment == segment && location.offset == offset;
+	}
+
+	private void recover() throws IOException {
+		List<Integer> ids = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(COMPACTION_SUFFIX)) {
+					// compaction was interrupted before replacing segments
+					Files.delete(file);
+				} else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					ids.add(Integer.parseInt(
+							name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		Collections.sort(ids);
+		removeSupersededSegments(ids);
+
+		long start = System.currentTimeMillis();
+		long records = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			boolean last = i == ids.size() - 1;
+			Path file = directory.resolve(segmentFileName(ids.get(i)));
+			FileChannel channel = last
+								  ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+								  : FileChannel.open(file, StandardOpenOption.READ);
+			Segment segment = new Segment(ids.get(i), channel, channel.size());
+			segments.put(segment.id, segment);
+			if (last && segment.size < 4) {
+				// crash right after the segment was created
+				writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+				segment.size = 4;
+				continue;
+			}
+
+			long valid = 4;
+			try (RecordReader reader = new RecordReader(channel, channel.size())) {
+				if (!reader.checkMagic()) {
+					throw new IOException("File " + file + " is not a valid segment file");
+				}
+				while (reader.next()) {
+					segment.liveBytes.addAndGet(reader.size);
+					replay(reader.record, new Location(segment, reader.offset, reader.size));
+					valid = reader.offset + reader.size;
+					records++;
+				}
+				if (reader.corrupted) {
+					if (last) {
+						log.log(Level.WARNING, "Segment {0} ends with incomplete record at {1}, truncating to {1}",
+								new Object[]{file, valid});
+						channel.truncate(valid);
+						channel.force(true);
+						segment.size = valid;
+					} else {
+						log.log(Level.SEVERE, "Segment {0} is corrupted at {1}, remaining records are ignored",
+								new Object[]{file, valid});
+					}
+				}
+			}
+		}
+
+		if (ids.isEmpty()) {
+			active = createSegment(0);
+		} else {
+			active = segments.lastEntry().getValue();
+		}
+		log.log(Level.CONFIG, "Loaded {0} records of {1} users from {2} segments of {3} in {4}ms",
+				new Object[]{records, users.size(), ids.size(), directory, System.currentTimeMillis() - start});
+	}
+
+	/**
+	 * Removes segments which were replaced by a compacted segment, but were not removed as compaction was
+	 * interrupted.
+	 */
+	private void removeSupersededSegments(List<Integer> ids) throws IOException {
+		int superseded = Integer.MAX_VALUE;
+		for (int i = ids.size() - 1; i >= 0; i--) {
+			int id = ids.get(i);
+			Path file = directory.resolve(segmentFileName(id));
+			if (id >= superseded) {
+				log.log(Level.WARNING, "Removing segment {0} replaced by compacted segment", file);
+				Files.delete(file);
+				ids.remove(i);
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				 RecordReader reader = new RecordReader(channel, channel.size())) {
+				if (reader.checkMagic() && reader.next() && reader.record.type == COMPACTED) {
+					superseded = (int) reader.record.uid;
+				}
+			}
+		}
+	}
+
+	private void replay(Record record, Location location) {
+		UserEntry entry = users.get(record.user);
+		switch (record.type) {
+			case ADD_USER:
+				if (entry != null) {
+					applyRemoveUser(record.user, entry);
+				}
+				entry = new UserEntry(record.uid);
+				entry.location.set(location);
+				users.put(record.user, entry);
+				lastUid.accumulateAndGet(record.uid, Math::max);
+				return;
+			case PUT:
+				if (entry == null) {
+					entry = new UserEntry(lastUid.incrementAndGet());
+					users.put(record.user, entry);
+				}
+				Location old = entry.nodes.computeIfAbsent(record.node, p -> new ConcurrentHashMap<>())
+						.put(record.key, location);
+				if (old != null) {
+					old.markObsolete();
+				}
+				return;
+			case REMOVE_KEY:
+				if (entry != null) {
+					applyRemoveKey(entry, record.node, record.key);
+				}
+				break;
+			case REMOVE_NODE:
+				if (entry != null) {
+					applyRemoveNode(entry, record.node);
+				}
+				break;
+			case REMOVE_USER:
+				if (entry != null) {
+					applyRemoveUser(record.user, entry);
+				}
+				break;
+			default:
+				break;
+		}
+		location.markObsolete();
+	}
+
+	private static String segmentFileName(int id) {
+		return String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int read = channel.read(buf, position);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			position += read;
+		}
+	}
+
+	private static byte[] encode(byte type, String user, String node, String key, String[] values, long uid) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(type);
+			writeString(out, user);
+			switch (type) {
+				case ADD_USER:
+					out.writeLong(uid);
+					break;
+				case PUT:
+					writeString(out, node);
+					writeString(out, key);
+					out.writeInt(values.length);
+					for (String value : values) {
+						writeString(out, value);
+					}
+					break;
+				case REMOVE_KEY:
+					writeString(out, node);
+					writeString(out, key);
+					break;
+				case REMOVE_NODE:
+					writeString(out, node);
+					break;
+				case COMPACTED:
+					// id of the oldest compacted segment
+					out.writeLong(uid);
+					break;
+				default:
+					break;
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static Record decode(byte[] data, int offset, int length) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+		Record record = new Record();
+		record.type = in.readByte();
+		record.user = readString(in);
+		switch (record.type) {
+			case ADD_USER:
+				record.uid = in.readLong();
+				break;
+			case PUT:
+				record.node = readString(in);
+				record.key = readString(in);
+				record.values = new String[in.readInt()];
+				for (int i = 0; i < record.values.length; i++) {
+					record.values[i] = readString(in);
+				}
+				break;
+			case REMOVE_KEY:
+				record.node = readString(in);
+				record.key = readString(in);
+				break;
+			case REMOVE_NODE:
+				record.node = readString(in);
+				break;
+			case REMOVE_USER:
+				break;
+			case COMPACTED:
+				record.uid = in.readLong();
+				break;
+			default:
+				throw new IOException("Unknown record type " + record.type);
+		}
+		return record;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static class Segment {
+
+		private final FileChannel channel;
+		private final int id;
+		private final AtomicLong liveBytes = new AtomicLong();
+		private volatile boolean dirty;
+		private volatile long size;
+
+		private Segment(int id, FileChannel channel, long size) {
+			this.id = id;
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+
+	private static class Location {
+
+		private final long offset;
+		private final Segment segment;
+		private final int size;
+
+		private Location(Segment segment, long offset, int size) {
+			this.segment = segment;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		private void markObsolete() {
+			segment.liveBytes.addAndGet(-size);
+		}
+	}
+
+	private static class UserEntry {
+
+		private final ConcurrentHashMap<String, ConcurrentHashMap<String, Location>> nodes = new ConcurrentHashMap<>();
+		private final long uid;
+		// location of the record which added the user
+		private final AtomicReference<Location> location = new AtomicReference<>();
+		private volatile boolean removed = false;
+
+		private UserEntry(long uid) {
+			this.uid = uid;
+		}
+	}
+
+	private static class Record {
+
+		private String key;
+		private String node;
+		private byte type;
+		private long uid;
+		private String user;
+		private String[] values;
+	}
+
+	private static class Moved {
+
+		private final UserEntry entry;
+		private final String key;
+		private final String node;
+		private final long offset;
+		private final Location old;
+
+		private Moved(UserEntry entry, String node, String key, Location old, long offset) {
+			this.entry = entry;
+			this.node = node;
+			this.key = key;
+			this.old = old;
+			this.offset = offset;
+		}
+
+		private boolean replace(Location location) {
+			if (entry.removed) {
+				return false;
+			}
+			if (key == null) {
+				return entry.location.compareAndSet(old, location);
+			}
+			ConcurrentHashMap<String, Location> keys = entry.nodes.get(node);
+			return keys != null && keys.replace(key, old, location);
+		}
+	}
+
+	/**
+	 * Reads records of a segment sequentially, verifying their checksums.
+	 */
+	private static class RecordReader
+			implements Closeable {
+
+		private final FileChannel channel;
+		private final long limit;
+		private boolean corrupted = false;
+		private long offset = -1;
+		private long position = 4;
+		private Record record;
+		private int size;
+		private final InputStream in;
+
+		private RecordReader(FileChannel channel, long limit) {
+			this.channel = channel;
+			this.limit = limit;
+			this.in = new BufferedInputStream(new InputStream() {
+				private long pos = 4;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (pos >= RecordReader.this.limit) {
+						return -1;
+					}
+					len = (int) Math.min(len, RecordReader.this.limit - pos);
+					int read = RecordReader.this.channel.read(ByteBuffer.wrap(b, off, len), pos);
+					if (read > 0) {
+						pos += read;
+					}
+					return read;
+				}
+			}, 64 * 1024);
+		}
+
+		private boolean checkMagic() throws IOException {
+			if (limit < 4) {
+				return false;
+			}
+			ByteBuffer buf = ByteBuffer.allocate(4);
+			readFully(channel, buf, 0);
+			return buf.getInt(0) == MAGIC;
+		}
+
+		private boolean next() throws IOException {
+			if (position + RECORD_HEADER_SIZE > limit) {
+				corrupted = position < limit;
+				return false;
+			}
+			DataInputStream data = new DataInputStream(in);
+			int length = data.readInt();
+			int crc = data.readInt();
+			if (length <= 0 || position + RECORD_HEADER_SIZE + length > limit) {
+				corrupted = true;
+				return false;
+			}
+			byte[] payload = new byte[length];
+			data.readFully(payload);
+			CRC32 checksum = new CRC32();
+			checksum.update(payload);
+			if ((int) checksum.getValue() != crc) {
+				corrupted = true;
+				return false;
+			}
+			try {
+				record = decode(payload, 0, length);
+			} catch (IOException ex) {
+				corrupted = true;
+				return false;
+			}
+			offset = position;
+			size = RECORD_HEADER_SIZE + length;
+			position += size;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+}
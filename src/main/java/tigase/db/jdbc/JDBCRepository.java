@@ -19,12 +19,19 @@ package tigase.db.jdbc;
 
 import tigase.db.*;
 import tigase.db.util.RepositoryVersionAware;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
 import tigase.util.cache.SimpleCache;
 import tigase.xmpp.jid.BareJID;
 
 import java.io.StringReader;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,7 +46,8 @@ import java.util.logging.Logger;
 @Repository.Meta(supportedUris = {"jdbc:[^:]+:.*"})
 @Repository.SchemaId(id = Schema.SERVER_SCHEMA_ID, name = Schema.SERVER_SCHEMA_NAME)
 public class JDBCRepository
-		implements AuthRepository, UserRepository, DataSourceAware<DataRepository>, RepositoryVersionAware {
+		implements AuthRepository, UserRepository, DataSourceAware<DataRepository>, RepositoryVersionAware,
+				   StatisticsProviderIfc, UnregisterAware {
 
 	public static final String CURRENT_DB_SCHEMA_VER = "8.0.0";
 
@@ -90,6 +98,17 @@ public class JDBCRepository
 
 	private static final String UPDATE_LAST_LOGIN_QUERY =
 			"update " + DEF_USERS_TBL + " set last_login=? where user_id=?";
+	private static final String ROOT_NODE_QUERY =
+			"select nid from " + DEF_NODES_TBL + " where (uid = ?) AND (parent_nid is null) AND (node = '" +
+					DEF_ROOT_NODE + "')";
+	private static final String NODE_PATH_QUERY_KEY = "node-path-query-";
+	// maximal number of path segments resolved by a single query
+	private static final int MAX_NODE_PATH_QUERY_DEPTH = 4;
+	private static final String USER_NODES_QUERY =
+			"select nid, parent_nid, node from " + DEF_NODES_TBL + " where (uid = ?)";
+	// maximal number of nodes which data is loaded by a single query
+	private static final int MAX_DATA_FOR_NODES_QUERY_NODES = 8;
+	private static final String DATA_FOR_NODES_QUERY = buildDataForNodesQuery(MAX_DATA_FOR_NODES_QUERY_NODES);
 
 	// ~--- fields ---------------------------------------------------------------
 	private AuthRepository auth = null;
@@ -98,10 +117,22 @@ public class JDBCRepository
 	private IRepoCache<String, Object> cache = null;
 	private DataRepository data_repo = null;
 	private String get_users_query = null;
+	private NodePathCache nodesCache = null;
+	@ConfigField(desc = "Maximal number of users for which identifiers of nodes are cached", alias = "nodes-cache-size")
+	private int nodesCacheSize = 10000;
+	private WriteBehindBuffer writeBehind = null;
+	@ConfigField(desc = "Delay of writing updates of user data to the database in ms (0 - disabled)", alias = "write-behind-delay")
+	private long writeBehindDelay = 0;
+	private ScheduledExecutorService writeBehindExecutor = null;
+	@ConfigField(desc = "Maximal number of pending updates of user data", alias = "write-behind-max-pending")
+	private int writeBehindMaxPending = 10000;
+	@ConfigField(desc = "Maximal delay of retrying of failed updates of user data in ms", alias = "write-behind-max-retry-delay")
+	private long writeBehindMaxRetryDelay = 60 * 1000;
 
 	@Override
 	public void addDataList(BareJID user_id, final String subnode, final String key, final String[] list)
 			throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
 		try {
 			addDataList(null, user_id, subnode, key, list);
 		} catch (SQLException ex) {
@@ -126,6 +157,13 @@ public class JDBCRepository
 	@Override
 	public String getData(BareJID user_id, final String subnode, final String key, final String def)
 			throws UserNotFoundException, TigaseDBException {
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind != null) {
+			WriteBehindBuffer.Write write = writeBehind.get(user_id, subnode, key);
+			if (write != null) {
+				return write.isRemoval() ? def : write.value;
+			}
+		}
 
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
@@ -182,6 +220,7 @@ public class JDBCRepository
 	@Override
 	public Map<String, String> getDataMap(BareJID user_id, String subnode)
 			throws TigaseDBException {
+		flushWrites(user_id);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 			
@@ -238,9 +277,44 @@ public class JDBCRepository
 		}
 	}
 
+	@Override
+	public Map<String, Map<String, String[]>> getDataLists(BareJID user_id, String[] subnodes)
+			throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
+		try {
+			long uid = getUserUID(null, user_id, autoCreateUser);
+			Map<String, Long> nids = getNodesNIDs(uid, subnodes);
+			Map<Long, Map<String, List<String>>> data = getDataForNodes(user_id, new LinkedHashSet<>(nids.values()));
+			Map<String, Map<String, String[]>> results = new HashMap<>();
+
+			for (String subnode : subnodes) {
+				Map<String, String[]> node_data = new HashMap<>();
+				Long nid = nids.get(subnode);
+				Map<String, List<String>> values = (nid == null) ? null : data.get(nid);
+
+				if (values != null) {
+					for (Map.Entry<String, List<String>> e : values.entrySet()) {
+						node_data.put(e.getKey(), e.getValue().toArray(new String[e.getValue().size()]));
+					}
+				}
+				results.put(subnode, node_data);
+			}
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Loaded data of nodes: {0} for user: {1}, found nids: {2}",
+						new Object[]{Arrays.toString(subnodes), user_id, nids});
+			}
+
+			return results;
+		} catch (SQLException e) {
+			throw new TigaseDBException("Error getting data of nodes: " + Arrays.toString(subnodes) + " for: " + user_id,
+										e);
+		}
+	}
+
 	@Override
 	public String[] getDataList(BareJID user_id, final String subnode, final String key)
 			throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
 
 		// String[] cache_res = (String[])cache.get(user_id+"/"+subnode+"/"+key);
 		// if (cache_res != null) {
@@ -292,7 +366,7 @@ public class JDBCRepository
 
 	@Override
 	public String[] getKeys(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
-
+		flushWrites(user_id);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 
@@ -327,13 +401,44 @@ public class JDBCRepository
 		return getKeys(user_id, null);
 	}
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		return data_repo.getExecutor(user);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		stopWriteBehind();
+	}
+
 	@Override
 	public String getResourceUri() {
 		return data_repo.getResourceUri();
 	}
 
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		NodePathCache nodesCache = this.nodesCache;
+		if (nodesCache != null) {
+			long hits = nodesCache.getHits();
+			long total = hits + nodesCache.getMisses();
+			list.add(compName, "Nodes cache hits", hits, Level.FINE);
+			list.add(compName, "Nodes cache misses", total - hits, Level.FINE);
+			list.add(compName, "Nodes cache hit rate", total > 0 ? (hits * 100f) / total : 0f, Level.FINE);
+			list.add(compName, "Nodes queries saved", nodesCache.getSavedQueries(), Level.FINE);
+		}
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind != null) {
+			list.add(compName, "Write-behind pending updates", writeBehind.size(), Level.FINE);
+			list.add(compName, "Write-behind coalesced updates", writeBehind.getCoalesced(), Level.FINE);
+			list.add(compName, "Write-behind written updates", writeBehind.getFlushed(), Level.FINE);
+			list.add(compName, "Write-behind failed updates", writeBehind.getFailed(), Level.FINE);
+		}
+	}
+
 	@Override
 	public String[] getSubnodes(BareJID user_id, final String subnode) throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
 		try {
 			long nid = getNodeNID(null, user_id, subnode);
 			if (nid > 0) {
@@ -469,6 +574,7 @@ public class JDBCRepository
 
 	@Override
 	public void setDataSource(DataRepository dataSource) throws DBInitException {
+		stopWriteBehind();
 		data_repo = dataSource;
 
 		String connection_str = data_repo.getResourceUri();
@@ -479,8 +585,10 @@ public class JDBCRepository
 			if (connection_str.contains("cacheRepo=off")) {
 				log.fine("Disabling cache.");
 				cache = new RepoNoCache();
+				nodesCache = null;
 			} else {
 				cache = new RepoCache(10000, 60 * 1000);
+				nodesCache = nodesCacheSize > 0 ? new NodePathCache(nodesCacheSize, 60 * 1000) : null;
 			}
 			data_repo.initPreparedStatement(GET_USER_DB_UID_QUERY, GET_USER_DB_UID_QUERY);
 			data_repo.initPreparedStatement(GET_USERS_COUNT_QUERY, GET_USERS_COUNT_QUERY);
@@ -502,7 +610,16 @@ public class JDBCRepository
 			data_repo.initPreparedStatement(REMOVE_KEY_DATA_QUERY, REMOVE_KEY_DATA_QUERY);
 			data_repo.initPreparedStatement(UPDATE_PAIRS_QUERY, UPDATE_PAIRS_QUERY);
 			data_repo.initPreparedStatement(UPDATE_LAST_LOGIN_QUERY, UPDATE_LAST_LOGIN_QUERY);
+			data_repo.initPreparedStatement(ROOT_NODE_QUERY, ROOT_NODE_QUERY);
+			data_repo.initPreparedStatement(USER_NODES_QUERY, USER_NODES_QUERY);
+			data_repo.initPreparedStatement(DATA_FOR_NODES_QUERY, DATA_FOR_NODES_QUERY);
+			for (int depth = 1; depth <= MAX_NODE_PATH_QUERY_DEPTH; depth++) {
+				data_repo.initPreparedStatement(NODE_PATH_QUERY_KEY + depth, buildNodeQuery(depth));
+			}
 			auth = new AuthRepositoryImpl(this);
+			if (writeBehindDelay > 0) {
+				startWriteBehind();
+			}
 
 			// initRepo();
 			log.log(Level.INFO, "Initialized database connection: {0}", connection_str);
@@ -555,6 +672,9 @@ public class JDBCRepository
 	@Override
 	public void removeData(BareJID user_id, final String subnode, final String key)
 			throws UserNotFoundException, TigaseDBException {
+		if (writeBehind(user_id, subnode, key, null)) {
+			return;
+		}
 		removeData(null, user_id, subnode, key);
 	}
 
@@ -570,6 +690,7 @@ public class JDBCRepository
 		if (subnode == null) {
 			return;
 		}    // end of if (subnode == null)
+		flushWrites(user_id);
 		try {
 			String[] subnodes = getSubnodes(user_id, subnode);
 			if (subnodes != null && subnodes.length > 0) {
@@ -577,11 +698,14 @@ public class JDBCRepository
 					removeSubnode(user_id, subnode + "/" + innerSubNode);
 				}
 			}
-			long nid = getNodeNID(null, user_id, subnode);
+			long uid = getUserUID(null, user_id, autoCreateUser);
+			long nid = getNodeNID(null, uid, subnode);
 
 			if (nid > 0) {
 				deleteSubnode(null, nid);
-				cache.remove(user_id + "/" + subnode);
+				if (nodesCache != null) {
+					nodesCache.removeSubtree(uid, NodePathCache.normalize(subnode));
+				}
 			}
 		} catch (SQLException e) {
 			throw new TigaseDBException("Error getting subnodes list.", e);
@@ -597,8 +721,10 @@ public class JDBCRepository
 	 */
 	@Override
 	public void removeUser(BareJID user_id) throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
 		Statement stmt = null;
 		String query = null;
+		long uid = -1;
 
 		if (log.isLoggable(Level.FINEST)) {
 			log.log(Level.FINEST, "Removing user: {0}", user_id);
@@ -607,7 +733,7 @@ public class JDBCRepository
 			stmt = data_repo.createStatement(user_id);
 
 			// Get user account uid
-			long uid = getUserUID(null, user_id, autoCreateUser);
+			uid = getUserUID(null, user_id, autoCreateUser);
 
 			// Remove all user enrties from pairs table
 			query = "delete from " + DEF_PAIRS_TBL + " where uid = " + uid;
@@ -630,6 +756,9 @@ public class JDBCRepository
 			data_repo.release(stmt, null);
 			stmt = null;
 			cache.remove(user_id.toString());
+			if (nodesCache != null && uid > 0) {
+				nodesCache.removeUser(uid);
+			}
 
 			// cache.clear();
 		}
@@ -638,6 +767,9 @@ public class JDBCRepository
 	@Override
 	public void setData(BareJID user_id, final String subnode, final String key, final String value)
 			throws UserNotFoundException, TigaseDBException {
+		if (value != null && writeBehind(user_id, subnode, key, value)) {
+			return;
+		}
 		long uid = -2;
 		long nid = -2;
 		DataRepository repo = data_repo.takeRepoHandle(user_id);
@@ -697,9 +829,66 @@ public class JDBCRepository
 		setData(user_id, null, key, value);
 	}
 
+	@Override
+	public void setDataMap(BareJID user_id, final String subnode, final Map<String, String> data)
+			throws UserNotFoundException, TigaseDBException {
+		if (data.isEmpty()) {
+			return;
+		}
+		// pending updates of the same keys would overwrite values stored below
+		flushWrites(user_id);
+
+		DataRepository repo = data_repo.takeRepoHandle(user_id);
+
+		synchronized (repo) {
+			try {
+				long uid = getUserUID(repo, user_id, autoCreateUser);
+				long nid = getNodeNID(repo, uid, subnode);
+				if (nid < 0) {
+					try {
+						nid = createNodePath(repo, user_id, subnode);
+					} catch (SQLException e) {
+						// node could be created by other cluster node in the meantime
+						nid = getNodeNID(repo, uid, subnode);
+					}
+				}
+
+				PreparedStatement update_pairs_sp = repo.getPreparedStatement(user_id, UPDATE_PAIRS_QUERY);
+				synchronized (update_pairs_sp) {
+					for (Map.Entry<String, String> entry : data.entrySet()) {
+						update_pairs_sp.setLong(1, nid);
+						update_pairs_sp.setLong(2, uid);
+						update_pairs_sp.setString(3, entry.getKey());
+						switch (data_repo.getDatabaseType()) {
+							case derby:
+								// see setData() for the reason of using character stream for DerbyDB
+								update_pairs_sp.setCharacterStream(4, new StringReader(entry.getValue()));
+								break;
+							default:
+								update_pairs_sp.setString(4, entry.getValue());
+						}
+						update_pairs_sp.addBatch();
+					}
+					try {
+						update_pairs_sp.executeBatch();
+					} finally {
+						update_pairs_sp.clearBatch();
+					}
+				}
+			} catch (SQLException e) {
+				throw new TigaseDBException(
+						"Error setting data, user_id: " + user_id + ", subnode: " + subnode + ", keys: " +
+								data.keySet(), e);
+			} finally {
+				data_repo.releaseRepoHandle(repo);
+			}
+		}
+	}
+
 	@Override
 	public void setDataList(BareJID user_id, final String subnode, final String key, final String[] list)
 			throws UserNotFoundException, TigaseDBException {
+		flushWrites(user_id);
 
 		// Transactions may not yet work properly but at least let's make sure
 		// both calls below are executed exclusively on the same DB connection
@@ -878,6 +1067,215 @@ public class JDBCRepository
 		}
 	}
 
+	private synchronized void startWriteBehind() {
+		writeBehind = new WriteBehindBuffer(writeBehindMaxPending, writeBehindDelay, writeBehindMaxRetryDelay);
+		writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "jdbc-write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writeBehindExecutor.scheduleWithFixedDelay(this::flushPendingWrites, writeBehindDelay, writeBehindDelay,
+												   TimeUnit.MILLISECONDS);
+		log.log(Level.CONFIG, "Enabled write-behind of user data with delay {0}ms and up to {1} pending updates",
+				new Object[]{writeBehindDelay, writeBehindMaxPending});
+	}
+
+	/**
+	 * Stops writing of updates in the background and writes all pending updates to the database.
+	 */
+	private synchronized void stopWriteBehind() {
+		if (writeBehindExecutor != null) {
+			writeBehindExecutor.shutdown();
+			writeBehindExecutor = null;
+		}
+		if (writeBehind != null) {
+			flushWrites();
+			if (writeBehind.size() > 0) {
+				log.log(Level.SEVERE, "Could not write {0} pending updates of user data",
+						new Object[]{writeBehind.size()});
+			}
+			writeBehind = null;
+		}
+	}
+
+	/**
+	 * Adds update of user data to the write-behind buffer.
+	 *
+	 * @param value new value or <code>null</code> if key should be removed
+	 *
+	 * @return <code>false</code> if update was not buffered and should be written directly
+	 */
+	private boolean writeBehind(BareJID user_id, String subnode, String key, String value)
+			throws UserNotFoundException, TigaseDBException {
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind == null || key == null) {
+			return false;
+		}
+		long uid;
+		try {
+			uid = getUserUID(null, user_id, autoCreateUser);
+		} catch (SQLException ex) {
+			throw new TigaseDBException("Error getting user uid for: " + user_id, ex);
+		}
+		if (writeBehind.put(user_id, uid, subnode, key, value)) {
+			return true;
+		}
+		// buffer is full, so this update is written directly and pending updates as soon as possible
+		ScheduledExecutorService executor = writeBehindExecutor;
+		if (executor != null) {
+			executor.execute(this::flushPendingWrites);
+		}
+		return false;
+	}
+
+	/**
+	 * Writes pending updates, unless retry of writing of failed updates is delayed.
+	 */
+	private void flushPendingWrites() {
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind == null) {
+			return;
+		}
+		try {
+			writeBehind.flushPending(this::writePendingUpdates);
+		} catch (Throwable ex) {
+			log.log(Level.WARNING, "Error writing pending updates of user data", ex);
+		}
+	}
+
+	private void flushWrites() {
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind == null) {
+			return;
+		}
+		try {
+			writeBehind.flush(null, this::writePendingUpdates);
+		} catch (Throwable ex) {
+			log.log(Level.WARNING, "Error writing pending updates of user data", ex);
+		}
+	}
+
+	/**
+	 * Writes pending updates of the user, so they are visible to methods reading data directly from the database.
+	 */
+	private void flushWrites(BareJID user_id) {
+		WriteBehindBuffer writeBehind = this.writeBehind;
+		if (writeBehind != null && writeBehind.hasPending(user_id)) {
+			writeBehind.flush(user_id, this::writePendingUpdates);
+		}
+	}
+
+	/**
+	 * Writes pending updates in batches using the same connections as would be used for direct updates.
+	 *
+	 * @return updates which were not written due to an error and should be retried
+	 */
+	private List<WriteBehindBuffer.Write> writePendingUpdates(List<WriteBehindBuffer.Write> writes) {
+		Map<DataRepository, List<WriteBehindBuffer.Write>> writesByRepo = new IdentityHashMap<>();
+		for (WriteBehindBuffer.Write write : writes) {
+			writesByRepo.computeIfAbsent(data_repo.takeRepoHandle(write.user), repo -> new ArrayList<>())
+					.add(write);
+		}
+		List<WriteBehindBuffer.Write> failed = new ArrayList<>();
+		writesByRepo.forEach((repo, repoWrites) -> writePendingUpdates(repo, repoWrites, failed));
+		return failed;
+	}
+
+	private void writePendingUpdates(DataRepository repo, List<WriteBehindBuffer.Write> writes,
+									 List<WriteBehindBuffer.Write> failed) {
+		synchronized (repo) {
+			List<WriteBehindBuffer.Write> updates = new ArrayList<>();
+			List<WriteBehindBuffer.Write> removals = new ArrayList<>();
+			try {
+				List<Long> updatesNids = new ArrayList<>();
+				List<Long> removalsNids = new ArrayList<>();
+				for (WriteBehindBuffer.Write write : writes) {
+					try {
+						long nid = getNodeNID(repo, write.uid, write.subnode);
+						if (write.isRemoval()) {
+							if (nid > 0) {
+								removals.add(write);
+								removalsNids.add(nid);
+							}
+							continue;
+						}
+						if (nid < 0) {
+							try {
+								nid = createNodePath(repo, write.user, write.subnode);
+							} catch (SQLException e) {
+								// node could be created by other cluster node in the meantime
+								nid = getNodeNID(repo, write.uid, write.subnode);
+							}
+						}
+						updates.add(write);
+						updatesNids.add(nid);
+					} catch (SQLException e) {
+						log.log(Level.WARNING,
+								"Error writing data, user_id: " + write.user + ", subnode: " + write.subnode +
+										", key: " + write.key + ", will retry", e);
+						failed.add(write);
+					} catch (UserNotFoundException e) {
+						// user was removed, so there is no need to retry
+						log.log(Level.FINE,
+								"Skipping write of data of removed user, user_id: " + write.user + ", subnode: " +
+										write.subnode + ", key: " + write.key, e);
+					}
+				}
+
+				if (!updates.isEmpty()) {
+					PreparedStatement update_pairs_sp = repo.getPreparedStatement(updates.get(0).user,
+																				   UPDATE_PAIRS_QUERY);
+					synchronized (update_pairs_sp) {
+						for (int i = 0; i < updates.size(); i++) {
+							WriteBehindBuffer.Write write = updates.get(i);
+							update_pairs_sp.setLong(1, updatesNids.get(i));
+							update_pairs_sp.setLong(2, write.uid);
+							update_pairs_sp.setString(3, write.key);
+							switch (data_repo.getDatabaseType()) {
+								case derby:
+									// see setData() for the reason of using character stream for DerbyDB
+									update_pairs_sp.setCharacterStream(4, new StringReader(write.value));
+									break;
+								default:
+									update_pairs_sp.setString(4, write.value);
+							}
+							update_pairs_sp.addBatch();
+						}
+						try {
+							update_pairs_sp.executeBatch();
+						} finally {
+							update_pairs_sp.clearBatch();
+						}
+					}
+				}
+				if (!removals.isEmpty()) {
+					PreparedStatement remove_key_data_st = repo.getPreparedStatement(removals.get(0).user,
+																					 REMOVE_KEY_DATA_QUERY);
+					synchronized (remove_key_data_st) {
+						for (int i = 0; i < removals.size(); i++) {
+							remove_key_data_st.setLong(1, removalsNids.get(i));
+							remove_key_data_st.setString(2, removals.get(i).key);
+							remove_key_data_st.addBatch();
+						}
+						try {
+							remove_key_data_st.executeBatch();
+						} finally {
+							remove_key_data_st.clearBatch();
+						}
+					}
+				}
+			} catch (SQLException e) {
+				log.log(Level.WARNING, "Error writing " + writes.size() + " pending updates of user data, will retry",
+						e);
+				// writing of updates is idempotent, so all of them are retried
+				failed.addAll(updates);
+				failed.addAll(removals);
+			} finally {
+				data_repo.releaseRepoHandle(repo);
+			}
+		}
+	}
+
 	private long addNode(DataRepository repo, long uid, long parent_nid, String node_name) throws SQLException {
 		ResultSet rs = null;
 		PreparedStatement node_add_sp = null;
@@ -981,28 +1379,52 @@ public class JDBCRepository
 		return uid;
 	}
 
-	private String buildNodeQuery(long uid, String node_path) {
-		String query = "select nid as nid1 from " + DEF_NODES_TBL + " where (uid = " + uid + ")" +
-				" AND (parent_nid is null)" + " AND (node = '" + DEF_ROOT_NODE + "')";
+	/**
+	 * Builds query resolving identifiers of <code>depth</code> nodes of a path starting at the parent node. Query
+	 * parameters are <code>nid</code> of the parent node followed by names of nodes, and result columns are
+	 * identifiers of nodes from the deepest one.
+	 */
+	private static String buildNodeQuery(int depth) {
+		String query = "select nid as nid1 from " + DEF_NODES_TBL + " where (parent_nid = ?) AND (node = ?)";
+		String columns = "nid1";
+
+		for (int cnt = 2; cnt <= depth; cnt++) {
+			query = "select nid as nid" + cnt + ", " + columns + " from " + DEF_NODES_TBL + ", (" + query + ") nodes" +
+					(cnt - 1) + " where (parent_nid = nid" + (cnt - 1) + ")" + " AND (node = ?)";
+			columns = "nid" + cnt + ", " + columns;
+		}
 
-		if (node_path == null) {
-			return query;
-		} else {
-			StringTokenizer strtok = new StringTokenizer(node_path, "/", false);
-			int cnt = 1;
-			String subquery = query;
+		return query;
+	}
+
+	/**
+	 * Builds query loading all pairs of <code>count</code> nodes. Query parameters are identifiers of nodes and result
+	 * columns are <code>nid</code>, key and value.
+	 */
+	private static String buildDataForNodesQuery(int count) {
+		StringBuilder sb = new StringBuilder("select nid, pkey, pval from " + DEF_PAIRS_TBL + " where nid in (?");
 
-			while (strtok.hasMoreTokens()) {
-				String token = strtok.nextToken();
+		for (int i = 1; i < count; i++) {
+			sb.append(", ?");
+		}
+		sb.append(")");
 
-				++cnt;
-				subquery = "select nid as nid" + cnt + ", node as node" + cnt + " from " + DEF_NODES_TBL + ", (" +
-						subquery + ") nodes" + (cnt - 1) + " where (parent_nid = nid" + (cnt - 1) + ")" +
-						" AND (node = '" + token + "')";
-			}    // end of while (strtok.hasMoreTokens())
+		return sb.toString();
+	}
 
-			return subquery;
-		}      // end of else
+	private static int getNodeQueriesCount(int depth) {
+		return 1 + (depth + MAX_NODE_PATH_QUERY_DEPTH - 1) / MAX_NODE_PATH_QUERY_DEPTH;
+	}
+
+	private static String getNodePathPrefix(String[] segments, int length) {
+		if (length == 0) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(segments[0]);
+		for (int i = 1; i < length; i++) {
+			sb.append('/').append(segments[i]);
+		}
+		return sb.toString();
 	}
 
 	private long createNodePath(DataRepository repo, BareJID user_id, String node_path)
@@ -1062,72 +1484,317 @@ public class JDBCRepository
 		}
 	}
 
+	/**
+	 * Resolves <code>nid</code> of the node path. Identifiers of the path and of its prefixes are cached, and only
+	 * nodes below the longest cached prefix are resolved from the database.
+	 */
 	private long getNodeNID(DataRepository repo, long uid, String node_path)
 			throws SQLException, UserNotFoundException {
-		String query = buildNodeQuery(uid, node_path);
-
-		if (log.isLoggable(Level.FINEST)) {
-			log.finest(query);
+		final String path = NodePathCache.normalize(node_path);
+		final NodePathCache nodesCache = this.nodesCache;
+		final String[] segments = path.isEmpty() ? new String[0] : path.split("/");
+		long version = 0;
+
+		if (nodesCache != null) {
+			Long cached = nodesCache.get(uid, path);
+			if (cached != null) {
+				nodesCache.addSavedQueries(getNodeQueriesCount(segments.length));
+				return cached;
+			}
+			version = nodesCache.getVersion();
 		}
 
-		Statement stmt = null;
-		ResultSet rs = null;
 		long nid = -1;
-
-		try {
-			if (repo == null) {
-				stmt = data_repo.createStatement(null);
-			} else {
-				stmt = repo.createStatement(null);
+		int resolved = 0;
+		int queries = 0;
+
+		if (nodesCache != null) {
+			for (int i = segments.length - 1; i >= 0; i--) {
+				Long cached = nodesCache.peek(uid, getNodePathPrefix(segments, i));
+				if (cached != null) {
+					nid = cached;
+					resolved = i;
+					break;
+				}
 			}
-			rs = stmt.executeQuery(query);
-			if (rs.next()) {
-				nid = rs.getLong(1);
-			} else {
-				nid = -1;
-			}    // end of if (isnext) else
+		}
+
+		if (nid <= 0) {
+			nid = getRootNID(repo, uid);
+			++queries;
 			if (nid <= 0) {
-				if (node_path == null) {
+				if (segments.length == 0) {
 					log.info("Missing root node, database upgrade or bug in the code? Adding missing " +
 									 "root node now.");
 
 					// OK
-					nid = addNode(repo, uid, -1, "root");
+					nid = addNode(repo, uid, -1, DEF_ROOT_NODE);
 				} else {
 					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Missing nid for node path: {0} and uid: {1}",
+						log.log(Level.FINEST, "Missing root node for node path: {0} and uid: {1}",
 								new Object[]{node_path, uid});
 					}
 				}
 			}
+			if (nid <= 0) {
+				return -1;
+			}
+			if (nodesCache != null) {
+				nodesCache.put(uid, "", nid, version);
+			}
+		}
 
-			return nid;
-		} finally {
-			data_repo.release(stmt, rs);
-			stmt = null;
-			rs = null;
+		while (resolved < segments.length) {
+			int depth = Math.min(MAX_NODE_PATH_QUERY_DEPTH, segments.length - resolved);
+			long[] nids = getNodesNIDs(repo, nid, segments, resolved, depth);
+			++queries;
+
+			if (nids == null) {
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Missing nid for node path: {0} and uid: {1}", new Object[]{node_path, uid});
+				}
+				return -1;
+			}
+			for (long subnode_nid : nids) {
+				++resolved;
+				if (nodesCache != null) {
+					nodesCache.put(uid, getNodePathPrefix(segments, resolved), subnode_nid, version);
+				}
+			}
+			nid = nids[depth - 1];
 		}
+
+		if (nodesCache != null) {
+			nodesCache.addSavedQueries(getNodeQueriesCount(segments.length) - queries);
+		}
+
+		return nid;
 	}
 
 	private long getNodeNID(DataRepository repo, BareJID user_id, String node_path)
 			throws SQLException, UserNotFoundException {
-		Long cache_res = (Long) cache.get(user_id + "/" + node_path);
-
-		if (cache_res != null) {
-			return cache_res.longValue();
-		}    // end of if (result != null)
 
 		// OK
 		long uid = getUserUID(repo, user_id, autoCreateUser);
 
 		// OK
-		long result = getNodeNID(repo, uid, node_path);
+		return getNodeNID(repo, uid, node_path);
+	}
 
-		if (result > 0) {
-			cache.put(user_id + "/" + node_path, Long.valueOf(result));
-		}    // end of if (result > 0)
+	/**
+	 * Returns identifiers of <code>depth</code> nodes from <code>segments</code> starting at <code>offset</code> or
+	 * <code>null</code> if any of nodes does not exist.
+	 */
+	private long[] getNodesNIDs(DataRepository repo, long parent_nid, String[] segments, int offset, int depth)
+			throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement node_path_st = null;
 
-		return result;
+		if (repo == null) {
+			node_path_st = data_repo.getPreparedStatement(null, NODE_PATH_QUERY_KEY + depth);
+		} else {
+			node_path_st = repo.getPreparedStatement(null, NODE_PATH_QUERY_KEY + depth);
+		}
+		synchronized (node_path_st) {
+			try {
+				node_path_st.setLong(1, parent_nid);
+				for (int i = 0; i < depth; i++) {
+					node_path_st.setString(i + 2, segments[offset + i]);
+				}
+				rs = node_path_st.executeQuery();
+				if (rs.next()) {
+					long[] result = new long[depth];
+					for (int i = 0; i < depth; i++) {
+						result[i] = rs.getLong(depth - i);
+					}
+					return result;
+				} else {
+					return null;
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+	}
+
+	/**
+	 * Returns identifiers of existing nodes from <code>subnodes</code>. If any of nodes is not cached, all nodes of
+	 * the user are loaded with a single query and cached.
+	 */
+	private Map<String, Long> getNodesNIDs(long uid, String[] subnodes) throws SQLException {
+		final NodePathCache nodesCache = this.nodesCache;
+		Map<String, Long> results = new HashMap<>();
+
+		if (nodesCache != null) {
+			for (String subnode : subnodes) {
+				Long nid = nodesCache.get(uid, NodePathCache.normalize(subnode));
+				if (nid == null) {
+					break;
+				}
+				results.put(subnode, nid);
+			}
+			if (results.size() == subnodes.length) {
+				return results;
+			}
+			results.clear();
+		}
+
+		long version = (nodesCache != null) ? nodesCache.getVersion() : 0;
+		Map<String, Long> paths = getUserNodes(uid);
+
+		if (nodesCache != null) {
+			for (Map.Entry<String, Long> e : paths.entrySet()) {
+				nodesCache.put(uid, e.getKey(), e.getValue(), version);
+			}
+		}
+		for (String subnode : subnodes) {
+			Long nid = paths.get(NodePathCache.normalize(subnode));
+			if (nid != null) {
+				results.put(subnode, nid);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns identifiers of all nodes of the user by their normalized paths.
+	 */
+	private Map<String, Long> getUserNodes(long uid) throws SQLException {
+		Map<Long, Long> parents = new HashMap<>();
+		Map<Long, String> names = new HashMap<>();
+		Map<Long, String> paths = new HashMap<>();
+		ResultSet rs = null;
+		PreparedStatement user_nodes_st = data_repo.getPreparedStatement(null, USER_NODES_QUERY);
+
+		synchronized (user_nodes_st) {
+			try {
+				user_nodes_st.setLong(1, uid);
+				rs = user_nodes_st.executeQuery();
+				while (rs.next()) {
+					long nid = rs.getLong(1);
+					long parent_nid = rs.getLong(2);
+					boolean root = rs.wasNull();
+					String node = rs.getString(3);
+
+					if (root) {
+						if (DEF_ROOT_NODE.equals(node)) {
+							paths.put(nid, "");
+						}
+					} else {
+						parents.put(nid, parent_nid);
+						names.put(nid, node);
+					}
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
+
+		Map<String, Long> results = new HashMap<>();
+
+		if (paths.isEmpty()) {
+			return results;
+		}
+		for (Long nid : names.keySet()) {
+			getNodePath(nid, parents, names, paths);
+		}
+		for (Map.Entry<Long, String> e : paths.entrySet()) {
+			if (e.getValue() != null) {
+				results.put(e.getValue(), e.getKey());
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Calculates path of the node from paths of its ancestors and stores it in <code>paths</code>. Path of a node not
+	 * connected to the root node is <code>null</code>.
+	 */
+	private static String getNodePath(Long nid, Map<Long, Long> parents, Map<Long, String> names,
+									  Map<Long, String> paths) {
+		Deque<Long> branch = new ArrayDeque<>();
+		Long current = nid;
+		String path = null;
+
+		while (current != null && !paths.containsKey(current) && branch.size() <= names.size()) {
+			branch.push(current);
+			current = parents.get(current);
+		}
+		if (current != null) {
+			path = paths.get(current);
+		}
+		while (!branch.isEmpty()) {
+			Long node = branch.pop();
+			if (path != null) {
+				path = path.isEmpty() ? names.get(node) : (path + "/" + names.get(node));
+			}
+			paths.put(node, path);
+		}
+
+		return paths.get(nid);
+	}
+
+	/**
+	 * Returns all values stored in given nodes grouped by node identifier and key.
+	 */
+	private Map<Long, Map<String, List<String>>> getDataForNodes(BareJID user_id, Collection<Long> nids)
+			throws SQLException {
+		Map<Long, Map<String, List<String>>> results = new HashMap<>();
+		Long[] ids = nids.toArray(new Long[nids.size()]);
+
+		for (int offset = 0; offset < ids.length; offset += MAX_DATA_FOR_NODES_QUERY_NODES) {
+			ResultSet rs = null;
+			PreparedStatement data_for_nodes_st = data_repo.getPreparedStatement(user_id, DATA_FOR_NODES_QUERY);
+
+			synchronized (data_for_nodes_st) {
+				try {
+					// unused parameters are filled with the last identifier
+					for (int i = 0; i < MAX_DATA_FOR_NODES_QUERY_NODES; i++) {
+						data_for_nodes_st.setLong(i + 1, ids[Math.min(offset + i, ids.length - 1)]);
+					}
+					rs = data_for_nodes_st.executeQuery();
+					while (rs.next()) {
+						long nid = rs.getLong(1);
+						String key = rs.getString(2);
+						String value = rs.getString(3);
+
+						results.computeIfAbsent(nid, k -> new HashMap<>())
+								.computeIfAbsent(key, k -> new ArrayList<>())
+								.add(value);
+					}
+				} finally {
+					data_repo.release(null, rs);
+				}
+			}
+		}
+
+		return results;
+	}
+
+	private long getRootNID(DataRepository repo, long uid) throws SQLException {
+		ResultSet rs = null;
+		PreparedStatement root_node_st = null;
+
+		if (repo == null) {
+			root_node_st = data_repo.getPreparedStatement(null, ROOT_NODE_QUERY);
+		} else {
+			root_node_st = repo.getPreparedStatement(null, ROOT_NODE_QUERY);
+		}
+		synchronized (root_node_st) {
+			try {
+				root_node_st.setLong(1, uid);
+				rs = root_node_st.executeQuery();
+				if (rs.next()) {
+					return rs.getLong(1);
+				} else {
+					return -1;
+				}
+			} finally {
+				data_repo.release(null, rs);
+			}
+		}
 	}
 
 	private long getUserUID(DataRepository repo, BareJID user_id) throws SQLException {
@@ -0,0 +1,157 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import tigase.util.cache.SimpleCache;
+
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of node identifiers (<code>nid</code>) of user nodes, keyed by user <code>uid</code> and node path.
+ * Number of cached users is limited and nodes of a user are evicted together.
+ * <br>
+ * Every removal increases version of the cache, so identifiers resolved from the database before the removal are
+ * not cached if the removal happened while they were resolved.
+ */
+class NodePathCache {
+
+	private final SimpleCache<Long, Map<String, Long>> cache;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder savedQueries = new LongAdder();
+	private final AtomicLong version = new AtomicLong();
+
+	/**
+	 * Returns node path in a form used as a key of the cache, <code>null</code> (root node) is converted to an empty
+	 * string.
+	 */
+	static String normalize(String node_path) {
+		if (node_path == null) {
+			return "";
+		}
+		StringTokenizer strtok = new StringTokenizer(node_path, "/", false);
+		if (strtok.countTokens() == 1) {
+			return strtok.nextToken();
+		}
+		StringBuilder sb = new StringBuilder(node_path.length());
+		while (strtok.hasMoreTokens()) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(strtok.nextToken());
+		}
+		return sb.toString();
+	}
+
+	NodePathCache(int maxUsers, long cacheTime) {
+		this.cache = new SimpleCache<>(maxUsers, cacheTime);
+	}
+
+	/**
+	 * Returns cached node identifier or <code>null</code>.
+	 *
+	 * @param node_path normalized node path
+	 */
+	Long get(long uid, String node_path) {
+		Long nid = peek(uid, node_path);
+		if (nid == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return nid;
+	}
+
+	/**
+	 * Returns cached node identifier without updating hits and misses counters.
+	 */
+	Long peek(long uid, String node_path) {
+		Map<String, Long> nodes;
+		synchronized (cache) {
+			nodes = cache.get(uid);
+		}
+		return nodes == null ? null : nodes.get(node_path);
+	}
+
+	/**
+	 * Caches node identifier if no node was removed since <code>version</code> was retrieved.
+	 */
+	void put(long uid, String node_path, long nid, long version) {
+		synchronized (cache) {
+			if (this.version.get() != version) {
+				return;
+			}
+			Map<String, Long> nodes = cache.get(uid);
+			if (nodes == null) {
+				nodes = new ConcurrentHashMap<>();
+				cache.put(uid, nodes);
+			}
+			nodes.put(node_path, nid);
+		}
+	}
+
+	/**
+	 * Removes node and all its subnodes.
+	 *
+	 * @param node_path normalized node path
+	 */
+	void removeSubtree(long uid, String node_path) {
+		synchronized (cache) {
+			version.incrementAndGet();
+			Map<String, Long> nodes = cache.get(uid);
+			if (nodes != null && node_path.isEmpty()) {
+				cache.remove(uid);
+			} else if (nodes != null) {
+				String prefix = node_path + "/";
+				nodes.keySet().removeIf(path -> path.equals(node_path) || path.startsWith(prefix));
+			}
+		}
+	}
+
+	void removeUser(long uid) {
+		synchronized (cache) {
+			version.incrementAndGet();
+			cache.remove(uid);
+		}
+	}
+
+	void addSavedQueries(int queries) {
+		savedQueries.add(queries);
+	}
+
+	long getVersion() {
+		return version.get();
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	long getSavedQueries() {
+		return savedQueries.sum();
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded buffer of pending updates of user data, which coalesces updates of the same user, node and key. Buffered
+ * updates are kept until they are written to the database, so they may be returned to readers while written.
+ * <br>
+ * Writes are serialized by {@link #flush(BareJID, Flusher)}, so an update of a key is never overwritten by an older
+ * update of the same key. Updates which could not be written are kept in the buffer (unless replaced by a newer update
+ * of the same key) and retried with an exponential backoff.
+ */
+class WriteBehindBuffer {
+
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final Object flushLock = new Object();
+	private final LongAdder flushed = new LongAdder();
+	private final long maxRetryDelay;
+	private final int maxPending;
+	private final Map<BareJID, Map<NodeKey, Write>> pending = new HashMap<>();
+	private final long retryDelay;
+	// guarded by flushLock
+	private int failures = 0;
+	private volatile long retryTime = 0;
+	private int size = 0;
+
+	WriteBehindBuffer(int maxPending) {
+		this(maxPending, 0, 0);
+	}
+
+	/**
+	 * @param retryDelay delay in ms of the first retry of writing updates after failure, doubled after each next
+	 * failure
+	 * @param maxRetryDelay maximal delay in ms of retry of writing updates
+	 */
+	WriteBehindBuffer(int maxPending, long retryDelay, long maxRetryDelay) {
+		this.maxPending = maxPending;
+		this.retryDelay = retryDelay;
+		this.maxRetryDelay = maxRetryDelay;
+	}
+
+	/**
+	 * Adds update to the buffer, replacing pending update of the same key.
+	 *
+	 * @param value new value or <code>null</code> if key should be removed
+	 *
+	 * @return <code>false</code> if buffer is full and update should be written directly
+	 */
+	synchronized boolean put(BareJID user, long uid, String subnode, String key, String value) {
+		NodeKey nodeKey = new NodeKey(NodePathCache.normalize(subnode), key);
+		Map<NodeKey, Write> writes = pending.get(user);
+		if (writes != null && writes.containsKey(nodeKey)) {
+			writes.put(nodeKey, new Write(user, uid, subnode, key, value));
+			coalesced.increment();
+			return true;
+		}
+		if (size >= maxPending) {
+			return false;
+		}
+		if (writes == null) {
+			writes = new LinkedHashMap<>();
+			pending.put(user, writes);
+		}
+		writes.put(nodeKey, new Write(user, uid, subnode, key, value));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Returns pending update of the key or <code>null</code> if there is no such update.
+	 */
+	synchronized Write get(BareJID user, String subnode, String key) {
+		Map<NodeKey, Write> writes = pending.get(user);
+		return writes == null ? null : writes.get(new NodeKey(NodePathCache.normalize(subnode), key));
+	}
+
+	synchronized boolean hasPending(BareJID user) {
+		return pending.containsKey(user);
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	boolean isFull() {
+		return size() >= maxPending;
+	}
+
+	long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	long getFailed() {
+		return failed.sum();
+	}
+
+	long getFlushed() {
+		return flushed.sum();
+	}
+
+	/**
+	 * Writes pending updates of all users, unless writing of updates failed recently and retry is delayed.
+	 */
+	void flushPending(Flusher flusher) {
+		if (System.currentTimeMillis() < retryTime) {
+			return;
+		}
+		flush(null, flusher);
+	}
+
+	/**
+	 * Writes pending updates of the user or of all users if <code>user</code> is <code>null</code>. Updates are
+	 * removed from the buffer after they are written. Updates returned by the flusher as failed, or all updates if it
+	 * has thrown an exception, are kept in the buffer to be written again.
+	 */
+	void flush(BareJID user, Flusher flusher) {
+		synchronized (flushLock) {
+			List<Write> writes = snapshot(user);
+			if (writes.isEmpty()) {
+				return;
+			}
+			Collection<Write> failedWrites = writes;
+			try {
+				failedWrites = flusher.flush(writes);
+			} finally {
+				List<Write> written = writes;
+				if (!failedWrites.isEmpty()) {
+					Set<Write> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+					failedSet.addAll(failedWrites);
+					written = new ArrayList<>(writes.size());
+					for (Write write : writes) {
+						if (!failedSet.contains(write)) {
+							written.add(write);
+						}
+					}
+				}
+				remove(written);
+				flushed.add(written.size());
+				updateRetryTime(writes.size() - written.size());
+			}
+		}
+	}
+
+	private void updateRetryTime(int failedWrites) {
+		if (failedWrites == 0) {
+			failures = 0;
+			retryTime = 0;
+			return;
+		}
+		failed.add(failedWrites);
+		failures++;
+		long delay = retryDelay << Math.min(failures - 1, 20);
+		retryTime = System.currentTimeMillis() + Math.min(delay, maxRetryDelay);
+	}
+
+	private synchronized List<Write> snapshot(BareJID user) {
+		List<Write> result = new ArrayList<>();
+		if (user != null) {
+			Map<NodeKey, Write> writes = pending.get(user);
+			if (writes != null) {
+				result.addAll(writes.values());
+			}
+		} else {
+			pending.values().forEach(writes -> result.addAll(writes.values()));
+		}
+		return result;
+	}
+
+	private synchronized void remove(List<Write> writes) {
+		for (Write write : writes) {
+			Map<NodeKey, Write> userWrites = pending.get(write.user);
+			if (userWrites == null) {
+				continue;
+			}
+			// update could be replaced by a newer one while it was written
+			if (userWrites.remove(new NodeKey(NodePathCache.normalize(write.subnode), write.key), write)) {
+				size--;
+				if (userWrites.isEmpty()) {
+					pending.remove(write.user);
+				}
+			}
+		}
+	}
+
+	@FunctionalInterface
+	interface Flusher {
+
+		/**
+		 * Writes updates.
+		 *
+		 * @return updates which were not written and should be retried
+		 */
+		Collection<Write> flush(List<Write> writes);
+
+	}
+
+	static final class Write {
+
+		final String key;
+		final String subnode;
+		final long uid;
+		final BareJID user;
+		/**
+		 * New value or <code>null</code> for removal of the key
+		 */
+		final String value;
+
+		Write(BareJID user, long uid, String subnode, String key, String value) {
+			this.user = user;
+			this.uid = uid;
+			this.subnode = subnode;
+			this.key = key;
+			this.value = value;
+		}
+
+		boolean isRemoval() {
+			return value == null;
+		}
+	}
+
+	private static final class NodeKey {
+
+		private final String key;
+		private final String node;
+
+		NodeKey(String node, String key) {
+			this.node = node;
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof NodeKey)) {
+				return false;
+			}
+			NodeKey other = (NodeKey) o;
+			return node.equals(other.node) && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * node.hashCode() + key.hashCode();
+		}
+	}
+}
@@ -71,6 +71,11 @@ public class XMLMsgRepository
 		return loadMessagesToJID(null, session, delete, null);
 	}
 
+	@Override
+	public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+		return loadMessages(to.getBareJID(), delete);
+	}
+
 	@Override
 	public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 			throws UserNotFoundException {
@@ -98,9 +103,22 @@ public class XMLMsgRepository
 	@Override
 	public Queue<Element> loadMessagesToJID(List<String> db_ids, XMPPResourceConnection session, boolean delete,
 											OfflineMessagesProcessor proc) throws UserNotFoundException {
-		BareJID user = null;
 		try {
-			user = session.getBareJID();
+			return loadMessages(session.getBareJID(), delete);
+		} catch (NotAuthorizedException e) {
+			log.log(Level.WARNING, "Session not authorized yet!", e);
+		}
+		return null;
+	}
+
+	@Override
+	public int deleteMessagesToJID(List<String> db_ids, XMPPResourceConnection session) throws UserNotFoundException {
+		Queue<Element> msgs = loadMessagesToJID(null, session, true, null);
+		return msgs == null ? 0 : msgs.size();
+	}
+
+	private Queue<Element> loadMessages(BareJID user, boolean delete) throws UserNotFoundException {
+		try {
 			String[] msgs = xmldb.getDataList(user.toString(), "offline", "messages");
 			if (msgs != null) {
 				if (delete) {
@@ -119,20 +137,12 @@ public class XMLMsgRepository
 
 				return domHandler.getParsedElements();
 			}
-		} catch (NotAuthorizedException e) {
-			log.log(Level.WARNING, "Session not authorized yet!", e);
 		} catch (NodeNotFoundException e) {
 			throw new UserNotFoundException("User not found " + user, e);
 		}
 		return null;
 	}
 
-	@Override
-	public int deleteMessagesToJID(List<String> db_ids, XMPPResourceConnection session) throws UserNotFoundException {
-		Queue<Element> msgs = loadMessagesToJID(null, session, true, null);
-		return msgs == null ? 0 : msgs.size();
-	}
-
 	@Override
 	protected void loadExpiredQueue(int max) {
 		// nothing to do
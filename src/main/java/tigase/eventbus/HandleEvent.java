@@ -52,4 +52,10 @@ public @interface HandleEvent {
 	}
 
 	Type filter() default Type.all;
+
+	/**
+	 * Marks handler as cheap and non-blocking. Such handler is called directly by the thread firing the event instead
+	 * of being passed to the event bus executor.
+	 */
+	boolean inline() default false;
 }
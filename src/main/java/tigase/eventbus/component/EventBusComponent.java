@@ -27,6 +27,7 @@ import tigase.component.modules.impl.XmppPingModule;
 import tigase.eventbus.EventBusFactory;
 import tigase.eventbus.component.stores.Affiliation;
 import tigase.eventbus.component.stores.AffiliationStore;
+import tigase.eventbus.impl.EventBusImplementation;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.selector.ConfigType;
 import tigase.kernel.beans.selector.ConfigTypeEnum;
@@ -65,6 +66,9 @@ public class EventBusComponent
 	@Override
 	public void getStatistics(StatisticsList list) {
 		super.getStatistics(list);
+		if (EventBusFactory.getInstance() instanceof EventBusImplementation) {
+			((EventBusImplementation) EventBusFactory.getInstance()).getStatistics(getName(), list);
+		}
 	}
 
 	@Override
@@ -24,12 +24,13 @@ import tigase.eventbus.component.stores.Subscription;
 import tigase.eventbus.component.stores.SubscriptionStore;
 import tigase.eventbus.impl.AbstractHandler;
 import tigase.eventbus.impl.EventBusImplementation;
-import tigase.eventbus.impl.EventBusSerializer;
 import tigase.eventbus.impl.EventName;
+import tigase.eventbus.impl.MethodHandleEventBusSerializer;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Initializable;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
 import tigase.server.Packet;
 import tigase.server.Permissions;
 import tigase.util.stringprep.TigaseStringprepException;
@@ -48,9 +49,11 @@ public class EventPublisherModule
 	public final static String ID = "publisher";
 	@Inject
 	private EventBusComponent component;
+	@ConfigField(desc = "Use compact encoding for events sent only to cluster nodes")
+	private boolean compactEncoding = false;
 	@Inject(nullAllowed = false, bean = "localEventBus")
 	private EventBusImplementation localEventBus;
-	private EventBusSerializer serializer = new EventBusSerializer();
+	private MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
 	@Inject
 	private SubscriptionStore subscriptionStore;
 	private final AbstractHandler firedEventHandler = new AbstractHandler(null, null) {
@@ -166,7 +169,10 @@ public class EventPublisherModule
 			return;
 		}
 
-		Element eventElement = serializer.serialize(event);
+		// compact encoding is understood only by other cluster nodes
+		boolean compact = compactEncoding && subscribers.stream().allMatch(Subscription::isInClusterSubscription);
+
+		Element eventElement = serializer.serialize(event, compact);
 		eventElement.setAttribute("serialized", "true");
 
 		publishEvent(packageName, eventName, eventElement, subscribers);
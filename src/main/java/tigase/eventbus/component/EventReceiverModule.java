@@ -25,8 +25,8 @@ import tigase.eventbus.component.stores.AffiliationStore;
 import tigase.eventbus.component.stores.Subscription;
 import tigase.eventbus.component.stores.SubscriptionStore;
 import tigase.eventbus.impl.EventBusImplementation;
-import tigase.eventbus.impl.EventBusSerializer;
 import tigase.eventbus.impl.EventName;
+import tigase.eventbus.impl.MethodHandleEventBusSerializer;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.server.Packet;
@@ -55,7 +55,7 @@ public class EventReceiverModule
 
 	@Inject(nullAllowed = false, bean = "localEventBus")
 	private EventBusImplementation localEventBus;
-	private EventBusSerializer serializer = new EventBusSerializer();
+	private MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
 	@Inject
 	private SubscriptionStore subscriptionStore;
 
@@ -117,7 +117,11 @@ public class EventReceiverModule
 						it.remove();
 					}
 				}
-				eventPublisherModule.publishEvent(eventName.getPackage(), eventName.getName(), event, subscribers);
+				if (!subscribers.isEmpty()) {
+					// external subscribers do not understand compact encoding
+					eventPublisherModule.publishEvent(eventName.getPackage(), eventName.getName(),
+													  serializer.expand(event), subscribers);
+				}
 			}
 		}
 	}
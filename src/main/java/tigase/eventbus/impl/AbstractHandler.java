@@ -54,6 +54,13 @@ public abstract class AbstractHandler {
 		return packageName;
 	}
 
+	/**
+	 * Returns <code>true</code> if handler is cheap and may be called directly by the thread firing the event.
+	 */
+	public boolean isInline() {
+		return false;
+	}
+
 	public abstract Type getRequiredEventType();
 
 }
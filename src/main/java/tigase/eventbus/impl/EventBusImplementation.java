@@ -18,10 +18,13 @@
 package tigase.eventbus.impl;
 
 import tigase.eventbus.*;
+import tigase.stats.Histogram;
+import tigase.stats.StatisticsList;
 import tigase.xml.Element;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,16 +32,27 @@ public class EventBusImplementation
 		implements EventBus {
 
 	private static final Logger log = Logger.getLogger(EventBusImplementation.class.getName());
+	// limit of cached entries as names of XML events may come from remote nodes
+	private static final int MAX_RESOLVED_HANDLERS_CACHE_SIZE = 1000;
+	private final AtomicLong firedEvents = new AtomicLong(0);
+	private final Histogram dispatchLatency = new Histogram("Dispatch latency", "us", 16, Level.FINE);
+	private final AtomicLong inlineDispatches = new AtomicLong(0);
 	private final EventsNameMap<AbstractHandler> listeners = new EventsNameMap<>();
 	private final ReflectEventListenerHandlerFactory reflectEventListenerFactory = new ReflectEventListenerHandlerFactory();
 	private final ReflectEventRoutedTransientFillerFactory reflectEventRoutedTransientFillerFactory = new ReflectEventRoutedTransientFillerFactory();
 	private final ReflectEventRoutingSelectorFactory reflectEventRoutingSelectorFactory = new ReflectEventRoutingSelectorFactory();
 	private final EventsRegistrar registrar = new EventsRegistrar();
 	private final Map<Class<?>, Set<EventRoutedTransientFiller>> routedTransientFillers = new ConcurrentHashMap<>();
+	private final AtomicLong resolvedHandlersCacheHits = new AtomicLong(0);
 	private final Map<Class<?>, EventRoutingSelector> routingSelectors = new ConcurrentHashMap<>();
-	private final Serializer serializer = new EventBusSerializer();
+	private final Serializer serializer = new MethodHandleEventBusSerializer();
 	private boolean acceptOnlyRegisteredEvents = false;
 	private Executor executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+	/**
+	 * Handlers resolved for event class or for full name of XML event. Map is replaced with a new one on every change
+	 * of registered handlers, so lists resolved concurrently from an old state will not be visible.
+	 */
+	private volatile Map<Object, List<AbstractHandler>> resolvedHandlers = new ConcurrentHashMap<>();
 	private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
 	public EventBusImplementation() {
@@ -52,6 +66,7 @@ public class EventBusImplementation
 
 	public void addHandler(AbstractHandler listenerHandler) {
 		listeners.put(listenerHandler.getPackageName(), listenerHandler.getEventName(), listenerHandler);
+		invalidateResolvedHandlers();
 	}
 
 	public <T> void addListener(Class<T> eventClass, tigase.eventbus.EventListener<T> listener) {
@@ -95,19 +110,15 @@ public class EventBusImplementation
 
 	public void fire(Object event, Object source, boolean remotelyGeneratedEvent) {
 		try {
-			HashSet<AbstractHandler> listeners;
+			firedEvents.incrementAndGet();
 			if (event instanceof Element) {
-				String eventFullName = ((Element) event).getName();
-				int i = eventFullName.lastIndexOf(".");
-				final String packageName = i >= 0 ? eventFullName.substring(0, i) : "";
-				final String eventName = eventFullName.substring(i + 1);
-				checkIfEventIsRegistered(eventFullName);
-				listeners = getListenersForEvent(packageName, eventName);
+				checkIfEventIsRegistered(((Element) event).getName());
 			} else {
 				checkIfEventIsRegistered(event.getClass().getName());
-				listeners = getListenersForEvent(event.getClass());
 			}
 
+			Collection<AbstractHandler> listeners = getResolvedListenersForEvent(event);
+
 			doFireThreadPerHandler(event, source, remotelyGeneratedEvent, listeners);
 		} catch (Exception e) {
 			log.log(Level.WARNING, "Problem on firing event", e);
@@ -166,6 +177,17 @@ public class EventBusImplementation
 		return serializer;
 	}
 
+	public void getStatistics(String compName, StatisticsList list) {
+		if (!list.checkLevel(Level.FINE)) {
+			return;
+		}
+		list.add(compName, "Fired events", firedEvents.get(), Level.FINE);
+		list.add(compName, "Listeners resolution cache hits", resolvedHandlersCacheHits.get(), Level.FINE);
+		list.add(compName, "Listeners resolution cache size", resolvedHandlers.size(), Level.FINEST);
+		list.add(compName, "Inline dispatched handlers", inlineDispatches.get(), Level.FINE);
+		dispatchLatency.getStatistics(compName, list);
+	}
+
 	public boolean isAcceptOnlyRegisteredEvents() {
 		return acceptOnlyRegisteredEvents;
 	}
@@ -207,6 +229,7 @@ public class EventBusImplementation
 
 	public void removeHandler(AbstractHandler listenerHandler) {
 		listeners.delete(listenerHandler);
+		invalidateResolvedHandlers();
 	}
 
 	public <T> void removeListener(EventSourceListener<T> listener) {
@@ -280,8 +303,38 @@ public class EventBusImplementation
 		return result;
 	}
 
+	/**
+	 * Returns handlers for the event from cache or resolves and caches them if they were not resolved yet.
+	 */
+	Collection<AbstractHandler> getResolvedListenersForEvent(final Object event) {
+		final Map<Object, List<AbstractHandler>> cache = resolvedHandlers;
+		final Object key = event instanceof Element ? ((Element) event).getName() : event.getClass();
+
+		List<AbstractHandler> result = cache.get(key);
+		if (result != null) {
+			resolvedHandlersCacheHits.incrementAndGet();
+			return result;
+		}
+
+		if (key instanceof String) {
+			String eventFullName = (String) key;
+			int i = eventFullName.lastIndexOf(".");
+			final String packageName = i >= 0 ? eventFullName.substring(0, i) : "";
+			final String eventName = eventFullName.substring(i + 1);
+			result = new ArrayList<>(getListenersForEvent(packageName, eventName));
+		} else {
+			result = new ArrayList<>(getListenersForEvent((Class<?>) key));
+		}
+		result = Collections.unmodifiableList(result);
+
+		if (cache.size() < MAX_RESOLVED_HANDLERS_CACHE_SIZE) {
+			cache.put(key, result);
+		}
+		return result;
+	}
+
 	protected void doFireThreadPerHandler(final Object event, final Object source, boolean remotelyGeneratedEvent,
-										  HashSet<AbstractHandler> handlers) {
+										  Collection<AbstractHandler> handlers) {
 		Element eventConverted = null;
 		for (AbstractHandler listenerHandler : handlers) {
 			Object eventObject;
@@ -301,19 +354,31 @@ public class EventBusImplementation
 				eventObject = event;
 			}
 
+			if (listenerHandler.isInline()) {
+				inlineDispatches.incrementAndGet();
+				dispatch(listenerHandler, event, eventObject, source, remotelyGeneratedEvent);
+				continue;
+			}
+
+			final long queuedAt = System.nanoTime();
 			Runnable task = () -> {
-				try {
-					listenerHandler.dispatch(eventObject, source, remotelyGeneratedEvent);
-				} catch (Throwable e) {
-					log.log(Level.WARNING,
-							"Exception during execution of event: " + event.getClass().getCanonicalName(), e);
-				}
+				dispatchLatency.add((System.nanoTime() - queuedAt) / 1000);
+				dispatch(listenerHandler, event, eventObject, source, remotelyGeneratedEvent);
 			};
 
 			executor.execute(task);
 		}
 	}
 
+	private void dispatch(AbstractHandler listenerHandler, Object event, Object eventObject, Object source,
+						  boolean remotelyGeneratedEvent) {
+		try {
+			listenerHandler.dispatch(eventObject, source, remotelyGeneratedEvent);
+		} catch (Throwable e) {
+			log.log(Level.WARNING, "Exception during execution of event: " + event.getClass().getCanonicalName(), e);
+		}
+	}
+
 	private void checkIfEventIsRegistered(final String eventName) throws EventBusException {
 		if (!registrar.isRegistered(eventName)) {
 			if (this.acceptOnlyRegisteredEvents) {
@@ -332,6 +397,10 @@ public class EventBusImplementation
 		result.addAll(listeners.get(packageName, null));
 	}
 
+	private void invalidateResolvedHandlers() {
+		resolvedHandlers = new ConcurrentHashMap<>();
+	}
+
 	private void fireListenerAddedEvent(String packageName, String eventName) {
 		ListenerAddedEvent event = new ListenerAddedEvent();
 		event.setEventName(eventName);
@@ -0,0 +1,312 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.impl;
+
+import tigase.kernel.BeanUtils;
+import tigase.kernel.DefaultTypesConverter;
+import tigase.kernel.TypesConverter;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serializer producing the same XML as {@link EventBusSerializer}, but field metadata and accessors ({@link
+ * MethodHandle}s for getters, setters or fields) are prepared only once for each event class and cached.
+ * <br>
+ * If accessors for a class cannot be prepared, {@link EventBusSerializer} is used for this class.
+ * <br>
+ * Serializer supports optional compact encoding, in which values of non-XML fields are stored as attributes of the
+ * event element instead of separate child elements. Compact encoding is marked with <code>compact</code> attribute, so
+ * it may be decoded by this serializer, but not by {@link EventBusSerializer}.
+ */
+public class MethodHandleEventBusSerializer
+		implements Serializer {
+
+	public static final String COMPACT_ATTR = "compact";
+
+	private static final Logger log = Logger.getLogger(MethodHandleEventBusSerializer.class.getName());
+	// names of attributes used by event bus, fields with those names are always encoded as child elements
+	private static final Set<String> RESERVED_ATTRIBUTES = new HashSet<>(
+			Arrays.asList("xmlns", COMPACT_ATTR, "serialized", "remote", "local"));
+	// limit of cached entries as names of XML events may come from remote nodes
+	private static final int MAX_CACHED_NAMES = 1000;
+
+	private final EventBusSerializer fallback = new EventBusSerializer();
+	private final Map<Class<?>, EventClass> eventClasses = new ConcurrentHashMap<>();
+	private final Map<String, EventClass> eventClassesByName = new ConcurrentHashMap<>();
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	private TypesConverter typesConverter = new DefaultTypesConverter();
+
+	/**
+	 * Checks if event element was encoded using compact encoding.
+	 */
+	public static boolean isCompact(Element element) {
+		return "true".equals(element.getAttributeStaticStr(COMPACT_ATTR));
+	}
+
+	@Override
+	public <T> T deserialize(final Element element) {
+		final EventClass eventClass = getEventClass(element.getName());
+		if (eventClass == null) {
+			return null;
+		}
+		if (eventClass.constructor == null) {
+			return fallback.deserialize(element);
+		}
+
+		final boolean compact = isCompact(element);
+		final Object result;
+		try {
+			result = eventClass.constructor.invoke();
+		} catch (Throwable caught) {
+			log.log(Level.WARNING, "Error while deserializing", caught);
+			return null;
+		}
+
+		for (final FieldAccessor f : eventClass.fields) {
+			String encoded = null;
+			Element v = null;
+			if (compact && f.attribute) {
+				encoded = element.getAttributeStaticStr(f.name);
+			}
+			if (encoded == null) {
+				v = element.getChild(f.name);
+				if (v == null) {
+					continue;
+				}
+			}
+
+			final Object value;
+			if (f.element) {
+				List<Element> children = v.getChildren();
+				value = (children != null && children.size() > 0) ? children.get(0) : null;
+			} else {
+				value = typesConverter.convert(XMLUtils.unescape(encoded != null ? encoded : v.getCData()), f.type,
+											   f.genericType);
+			}
+
+			try {
+				f.setter.invoke(result, value);
+			} catch (Throwable caught) {
+				log.log(Level.WARNING, "Error while deserializing", caught);
+			}
+		}
+		return (T) result;
+	}
+
+	/**
+	 * Converts event in compact encoding to the standard encoding understood by {@link EventBusSerializer} and
+	 * external subscribers. Attributes used by the event bus are preserved.
+	 *
+	 * @return event in the standard encoding or the same element if it was not in compact encoding or could not be
+	 * decoded.
+	 */
+	public Element expand(final Element element) {
+		if (!isCompact(element)) {
+			return element;
+		}
+		Object event = deserialize(element);
+		if (event == null) {
+			return element;
+		}
+		Element result = serialize(event);
+		for (String attr : RESERVED_ATTRIBUTES) {
+			String value = element.getAttributeStaticStr(attr);
+			if (value != null && !COMPACT_ATTR.equals(attr)) {
+				result.setAttribute(attr, value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Element serialize(final Object object) {
+		return serialize(object, false);
+	}
+
+	/**
+	 * Serializes event.
+	 *
+	 * @param object event to serialize
+	 * @param compact if <code>true</code>, values of non-XML fields will be stored as attributes
+	 */
+	public Element serialize(final Object object, final boolean compact) {
+		final Class<?> cls = object.getClass();
+		final EventClass eventClass = getEventClass(cls);
+		if (eventClass.fields == null) {
+			return fallback.serialize(object);
+		}
+
+		final Element e = new Element(cls.getName());
+		if (compact) {
+			e.setAttribute(COMPACT_ATTR, "true");
+		}
+
+		for (final FieldAccessor f : eventClass.fields) {
+			final Object value;
+			try {
+				value = f.getter.invoke(object);
+			} catch (Throwable caught) {
+				log.log(Level.WARNING, "Error while serializing", caught);
+				continue;
+			}
+
+			if (value == null) {
+				continue;
+			}
+
+			if (f.element) {
+				Element v = new Element(f.name);
+				v.addChild((Element) value);
+				e.addChild(v);
+			} else {
+				String x = XMLUtils.escape(typesConverter.toString(value));
+				if (compact && f.attribute) {
+					e.setAttribute(f.name, x);
+				} else {
+					Element v = new Element(f.name);
+					v.setCData(x);
+					e.addChild(v);
+				}
+			}
+		}
+
+		return e;
+	}
+
+	private EventClass getEventClass(final String className) {
+		EventClass eventClass = eventClassesByName.get(className);
+		if (eventClass == null) {
+			try {
+				eventClass = getEventClass(Class.forName(className));
+			} catch (ClassNotFoundException e) {
+				eventClass = EventClass.NOT_FOUND;
+			}
+			if (eventClassesByName.size() < MAX_CACHED_NAMES) {
+				eventClassesByName.put(className, eventClass);
+			}
+		}
+		return eventClass == EventClass.NOT_FOUND ? null : eventClass;
+	}
+
+	private EventClass getEventClass(final Class<?> cls) {
+		return eventClasses.computeIfAbsent(cls, this::prepareEventClass);
+	}
+
+	private MethodHandle prepareConstructor(final Class<?> cls) {
+		try {
+			Constructor<?> constructor = cls.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return lookup.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException | RuntimeException e) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Cannot prepare constructor of " + cls + ", using reflection", e);
+			}
+			return null;
+		}
+	}
+
+	private EventClass prepareEventClass(final Class<?> cls) {
+		try {
+			List<FieldAccessor> fields = new ArrayList<>();
+			for (final Field f : BeanUtils.getAllFields(cls)) {
+				final int modifiers = f.getModifiers();
+				if (Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers) || Modifier.isStatic(modifiers)) {
+					continue;
+				}
+				fields.add(new FieldAccessor(f, prepareGetter(f), prepareSetter(f)));
+			}
+			return new EventClass(prepareConstructor(cls), fields.toArray(new FieldAccessor[fields.size()]));
+		} catch (IllegalAccessException | RuntimeException e) {
+			log.log(Level.FINE, "Cannot prepare accessors of " + cls + ", using reflection", e);
+			return new EventClass(null, null);
+		}
+	}
+
+	private MethodHandle prepareGetter(final Field f) throws IllegalAccessException {
+		final Method getter = BeanUtils.prepareGetterMethod(f);
+		final MethodHandle handle;
+		if (getter != null) {
+			getter.setAccessible(true);
+			handle = lookup.unreflect(getter);
+		} else {
+			f.setAccessible(true);
+			handle = lookup.unreflectGetter(f);
+		}
+		return handle.asType(MethodType.methodType(Object.class, Object.class));
+	}
+
+	private MethodHandle prepareSetter(final Field f) throws IllegalAccessException {
+		final Method setter = BeanUtils.prepareSetterMethod(f);
+		final MethodHandle handle;
+		if (setter != null) {
+			setter.setAccessible(true);
+			handle = lookup.unreflect(setter);
+		} else {
+			f.setAccessible(true);
+			handle = lookup.unreflectSetter(f);
+		}
+		return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+	}
+
+	private static class EventClass {
+
+		private static final EventClass NOT_FOUND = new EventClass(null, null);
+
+		private final MethodHandle constructor;
+		private final FieldAccessor[] fields;
+
+		private EventClass(MethodHandle constructor, FieldAccessor[] fields) {
+			this.constructor = constructor;
+			this.fields = fields;
+		}
+	}
+
+	private static class FieldAccessor {
+
+		private final boolean attribute;
+		private final boolean element;
+		private final Type genericType;
+		private final MethodHandle getter;
+		private final String name;
+		private final MethodHandle setter;
+		private final Class<?> type;
+
+		private FieldAccessor(Field field, MethodHandle getter, MethodHandle setter) {
+			this.name = field.getName().intern();
+			this.type = field.getType();
+			this.genericType = field.getGenericType();
+			this.element = Element.class.isAssignableFrom(type);
+			this.attribute = !element && !RESERVED_ATTRIBUTES.contains(name);
+			this.getter = getter;
+			this.setter = setter;
+		}
+	}
+}
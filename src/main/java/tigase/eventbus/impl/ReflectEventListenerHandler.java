@@ -27,11 +27,18 @@ public class ReflectEventListenerHandler
 	protected final Object consumerObject;
 	protected final HandleEvent.Type filter;
 	protected final Method handlerMethod;
+	protected final boolean inline;
 
 	public ReflectEventListenerHandler(HandleEvent.Type filter, final String packageName, final String eventName,
 									   Object consumerObject, Method handlerMethod) {
+		this(filter, false, packageName, eventName, consumerObject, handlerMethod);
+	}
+
+	public ReflectEventListenerHandler(HandleEvent.Type filter, boolean inline, final String packageName,
+									   final String eventName, Object consumerObject, Method handlerMethod) {
 		super(packageName, eventName);
 		this.filter = filter;
+		this.inline = inline;
 		this.consumerObject = consumerObject;
 		this.handlerMethod = handlerMethod;
 	}
@@ -73,6 +80,11 @@ public class ReflectEventListenerHandler
 		return Type.object;
 	}
 
+	@Override
+	public boolean isInline() {
+		return inline;
+	}
+
 	@Override
 	public int hashCode() {
 		int result = consumerObject.hashCode();
@@ -41,16 +41,16 @@ public class ReflectEventListenerHandlerFactory {
 		ReflectEventListenerHandler handler;
 		switch (method.getParameterCount()) {
 			case 1:
-				handler = new ReflectEventListenerHandler(annotation.filter(), packageName, eventName, consumer,
-														  method);
+				handler = new ReflectEventListenerHandler(annotation.filter(), annotation.inline(), packageName,
+														  eventName, consumer, method);
 				break;
 			case 2:
 				final Class sourPar = method.getParameters()[1].getType();
 				if (!sourPar.equals(Object.class)) {
 					throw new RegistrationException("Second parameter (event source) must be Object type.");
 				}
-				handler = new ReflectEventSourceListenerHandler(annotation.filter(), packageName, eventName, consumer,
-																method);
+				handler = new ReflectEventSourceListenerHandler(annotation.filter(), annotation.inline(), packageName,
+																eventName, consumer, method);
 				break;
 			default:
 				throw new RegistrationException("Handler method must have exactly one parameter!");
@@ -0,0 +1,287 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import tigase.kernel.beans.config.ConfigField;
+import tigase.server.BasicComponent;
+import tigase.stats.ComponentStatisticsProvider;
+import tigase.stats.StatisticsCollector;
+import tigase.stats.StatisticsList;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared pool of network buffers used by connections instead of allocating new buffers for each read, write or
+ * resize of a buffer.
+ * <br>
+ * Buffers are grouped in size classes being powers of 2, from {@link #MIN_CLASS_SIZE} to {@link #MAX_CLASS_SIZE}
+ * bytes, and capacity of a buffer returned by {@link #acquire(int)} is rounded up to the size of the class. Buffers
+ * bigger than the biggest class are not pooled.
+ * <br>
+ * Shared pool is configured by {@link Bean} with following properties:
+ * <ul>
+ * <li><code>max-size</code> (alias <code>buffer-pool-max-size</code>) - maximal number of bytes kept in the pool,
+ * <code>0</code> disables pooling (default: 64MB)</li>
+ * <li><code>direct</code> (alias <code>buffer-pool-direct</code>) - if <code>true</code> direct (off-heap) buffers
+ * are used (default: <code>false</code>)</li>
+ * </ul>
+ * A buffer may be released to the pool only once and only if it is not referenced anymore by its owner. Buffers
+ * which were acquired but never released are reported as outstanding bytes.
+ */
+public class ByteBufferPool {
+
+	public static final int MAX_CLASS_SIZE = 1024 * 1024;
+
+	public static final int MIN_CLASS_SIZE = 512;
+
+	public static final String DIRECT_PROP_KEY = "buffer-pool-direct";
+
+	public static final long MAX_SIZE_PROP_VAL = 64 * 1024 * 1024;
+
+	public static final String MAX_SIZE_PROP_KEY = "buffer-pool-max-size";
+
+	private static final Logger log = Logger.getLogger(ByteBufferPool.class.getName());
+
+	private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+
+	private static final ByteBufferPool instance = new ByteBufferPool(MAX_SIZE_PROP_VAL, false);
+
+	private volatile SizeClass[] classes;
+	private volatile boolean direct;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final AtomicLong outstandingBytes = new AtomicLong();
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	public static ByteBufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns capacity of a buffer which would be returned for requested size.
+	 */
+	public static int capacityFor(int size) {
+		if (size <= MIN_CLASS_SIZE) {
+			return MIN_CLASS_SIZE;
+		}
+		if (size > MAX_CLASS_SIZE) {
+			return size;
+		}
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+
+	private static int classIndex(int capacity) {
+		return Integer.numberOfTrailingZeros(capacity) - MIN_CLASS_SHIFT;
+	}
+
+	public ByteBufferPool(long maxPooledBytes, boolean direct) {
+		configure(maxPooledBytes, direct);
+	}
+
+	/**
+	 * Changes size and type of buffers kept in the pool. Buffers pooled so far are dropped, while buffers already
+	 * acquired may still be released and are pooled only if they match new configuration.
+	 */
+	public synchronized void configure(long maxPooledBytes, boolean direct) {
+		int count = classIndex(MAX_CLASS_SIZE) + 1;
+		SizeClass[] classes = new SizeClass[count];
+		for (int i = 0; i < count; i++) {
+			int capacity = MIN_CLASS_SIZE << i;
+			// each class may use the same part of the pool, but at least one buffer is kept for each class
+			int maxBuffers = (int) Math.min(Integer.MAX_VALUE, Math.max(maxPooledBytes > 0 ? 1 : 0,
+																		maxPooledBytes / count / capacity));
+			classes[i] = new SizeClass(maxBuffers);
+		}
+		this.direct = direct;
+		this.classes = classes;
+		pooledBytes.set(0);
+		log.log(Level.CONFIG, "using {0} buffer pool with max size {1} bytes",
+				new Object[]{direct ? "direct" : "heap", maxPooledBytes});
+	}
+
+	/**
+	 * Returns cleared buffer with capacity not smaller than requested size and default byte order.
+	 */
+	public ByteBuffer acquire(int size) {
+		final int capacity = capacityFor(size);
+		ByteBuffer buffer = null;
+		final boolean direct = this.direct;
+		if (capacity <= MAX_CLASS_SIZE) {
+			SizeClass sizeClass = classes[classIndex(capacity)];
+			buffer = sizeClass.poll();
+			if (buffer != null) {
+				pooledBytes.addAndGet(-capacity);
+			}
+		}
+		if (buffer == null) {
+			misses.increment();
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		} else {
+			hits.increment();
+		}
+		outstandingBytes.addAndGet(capacity);
+		return buffer;
+	}
+
+	/**
+	 * Returns buffer acquired from this pool back to the pool. Buffer cannot be used by the caller after this call.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		final int capacity = buffer.capacity();
+		outstandingBytes.addAndGet(-capacity);
+		if (capacity < MIN_CLASS_SIZE || capacity > MAX_CLASS_SIZE || Integer.bitCount(capacity) != 1 ||
+				buffer.isDirect() != direct || buffer.isReadOnly()) {
+			return;
+		}
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if (classes[classIndex(capacity)].offer(buffer)) {
+			pooledBytes.addAndGet(capacity);
+		}
+	}
+
+	/**
+	 * Marks buffer acquired from this pool as not used anymore without returning it to the pool. It should be used
+	 * instead of {@link #release(ByteBuffer)} if buffer may still be referenced by someone else.
+	 */
+	public void discard(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		outstandingBytes.addAndGet(-buffer.capacity());
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		list.add(compName, "Buffer pool hits", hits.sum(), Level.FINE);
+		list.add(compName, "Buffer pool misses", misses.sum(), Level.FINE);
+		list.add(compName, "Buffer pool outstanding bytes", outstandingBytes.get(), Level.FINE);
+		list.add(compName, "Buffer pool pooled bytes", pooledBytes.get(), Level.FINER);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getOutstandingBytes() {
+		return outstandingBytes.get();
+	}
+
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	private static class SizeClass {
+
+		private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		private final int maxBuffers;
+		private final AtomicInteger size = new AtomicInteger();
+
+		private SizeClass(int maxBuffers) {
+			this.maxBuffers = maxBuffers;
+		}
+
+		private boolean offer(ByteBuffer buffer) {
+			if (size.incrementAndGet() > maxBuffers) {
+				size.decrementAndGet();
+				return false;
+			}
+			buffers.offer(buffer);
+			return true;
+		}
+
+		private ByteBuffer poll() {
+			ByteBuffer buffer = buffers.poll();
+			if (buffer != null) {
+				size.decrementAndGet();
+			}
+			return buffer;
+		}
+	}
+
+	/**
+	 * Bean applying configuration to the shared instance of the pool and reporting its statistics once, by the
+	 * statistics component.
+	 */
+	@tigase.kernel.beans.Bean(name = "bufferPool", exportable = true, active = true)
+	public static class Bean
+			implements ComponentStatisticsProvider {
+
+		@ConfigField(desc = "Use direct buffers", alias = DIRECT_PROP_KEY)
+		private boolean direct = false;
+		@ConfigField(desc = "Max size of pooled buffers in bytes", alias = MAX_SIZE_PROP_KEY)
+		private long maxSize = MAX_SIZE_PROP_VAL;
+
+		public Bean() {
+
+		}
+
+		public void setDirect(boolean direct) {
+			this.direct = direct;
+			instance.configure(maxSize, direct);
+		}
+
+		public void setMaxSize(long maxSize) {
+			this.maxSize = maxSize;
+			instance.configure(maxSize, direct);
+		}
+
+		@Override
+		public boolean belongsTo(Class<? extends BasicComponent> component) {
+			return StatisticsCollector.class.isAssignableFrom(component);
+		}
+
+		@Override
+		public void everyHour() {
+
+		}
+
+		@Override
+		public void everyMinute() {
+
+		}
+
+		@Override
+		public void everySecond() {
+
+		}
+
+		@Override
+		public void getStatistics(String compName, StatisticsList list) {
+			instance.getStatistics(compName, list);
+		}
+	}
+}
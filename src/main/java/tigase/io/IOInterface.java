@@ -70,5 +70,34 @@ public interface IOInterface {
 
 	void setLogId(String logId);
 
+	/**
+	 * Writes buffer acquired from the {@link ByteBufferPool} and takes ownership of it. Buffer is returned to the
+	 * pool as soon as no data from it is waiting to be sent, so it cannot be used by the caller after this call.
+	 * <br>
+	 * Default implementation does not know if buffer is still referenced after the write, so it never returns it
+	 * to the pool.
+	 */
+	default int writePooled(final ByteBuffer buff) throws IOException {
+		try {
+			return write(buff);
+		} finally {
+			ByteBufferPool.getInstance().discard(buff);
+		}
+	}
+
+	/**
+	 * Returns internal buffers which do not contain any pending data to the {@link ByteBufferPool}. Buffers are
+	 * acquired again when they are needed.
+	 */
+	default void releaseBuffers() {
+	}
+
+	/**
+	 * Returns number of bytes of internal buffers kept by this instance, excluding data waiting to be sent.
+	 */
+	default long getRetainedBufferBytes() {
+		return 0;
+	}
+
 }    // IOInterface
 
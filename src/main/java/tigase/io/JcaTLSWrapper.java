@@ -324,12 +324,13 @@ public class JcaTLSWrapper
 			log.log(Level.FINER, "{0}, Resizing tlsInput to {1} bytes", new Object[]{debugId, newSize});
 		}
 
-		ByteBuffer bb = ByteBuffer.allocate(newSize);
+		ByteBuffer bb = ByteBufferPool.getInstance().acquire(newSize);
 
 		// bb.clear();
 		bb.order(app.order());
 		app.flip();
 		bb.put(app);
+		ByteBufferPool.getInstance().release(app);
 
 		return bb;
 
@@ -25,7 +25,10 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +51,9 @@ public class SocketIO
 	private static final boolean DEBUG_SOCKET_OVERFLOW = Boolean.getBoolean("socket-overflow-debug");
 	private static final Level LOG_SOCKET_OVERFLOW_LEVEL = DEBUG_SOCKET_OVERFLOW ? Level.INFO : Level.FINEST;
 
+	private static final ByteBufferPool pool = ByteBufferPool.getInstance();
+
+	private final Set<ByteBuffer> pooledToSend = Collections.newSetFromMap(new IdentityHashMap<>());
 	private long buffOverflow = 0;
 	private int bytesRead = 0;
 	private long bytesReceived = 0;
@@ -217,6 +223,13 @@ public class SocketIO
 		// log.warning("Stop called.");
 		// }
 		channel.close();
+		// buffers may still be used by a thread writing data, so they are not returned to the pool
+		synchronized (pooledToSend) {
+			for (ByteBuffer buff : pooledToSend) {
+				pool.discard(buff);
+			}
+			pooledToSend.clear();
+		}
 	}
 
 	@Override
@@ -253,6 +266,7 @@ public class SocketIO
 						new Object[]{buff.remaining(), toString()});
 			}
 			if (!dataToSend.offer(buff)) {
+				releasePooled(buff);
 				++buffOverflow;
 				++totalBuffOverflow;
 				if (log.isLoggable(LOG_SOCKET_OVERFLOW_LEVEL)) {
@@ -295,6 +309,7 @@ public class SocketIO
 
 			if (!dataBuffer.hasRemaining()) {
 				dataToSend.poll();
+				releasePooled(dataBuffer);
 			} else {
 				break;
 			}
@@ -313,8 +328,31 @@ public class SocketIO
 		return result;
 	}
 
+	@Override
+	public int writePooled(final ByteBuffer buff) throws IOException {
+		if (buff != null && buff.hasRemaining()) {
+			synchronized (pooledToSend) {
+				pooledToSend.add(buff);
+			}
+			return write(buff);
+		} else {
+			pool.release(buff);
+			return write(null);
+		}
+	}
+
 	@Override
 	public void setLogId(String logId) {
 		this.logId = logId + " ";
 	}
+
+	private void releasePooled(ByteBuffer buff) {
+		boolean pooled;
+		synchronized (pooledToSend) {
+			pooled = pooledToSend.remove(buff);
+		}
+		if (pooled) {
+			pool.release(buff);
+		}
+	}
 }    // SocketIO
@@ -46,8 +46,14 @@ public class TLSIO
 
 	private static final Logger log = Logger.getLogger(TLSIO.class.getName());
 
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+	private static final ByteBufferPool pool = ByteBufferPool.getInstance();
+
 	private IOInterface io = null;
 
+	private ByteOrder order;
+
 	/**
 	 * <code>tlsInput</code> buffer keeps data decoded from tlsWrapper.
 	 */
@@ -74,8 +80,8 @@ public class TLSIO
 		io = ioi;
 		tlsWrapper = wrapper;
 		tlsWrapper.setDebugId(toString());
-		tlsInput = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
-		tlsInput.order(order);
+		this.order = order;
+		acquireInputBuffer();
 
 		if (log.isLoggable(Level.FINER)) {
 			log.log(Level.FINER, "TLS Socket created: {0}", io.toString());
@@ -86,7 +92,7 @@ public class TLSIO
 				log.finer("TLS - client mode, starting handshaking now...");
 			}
 
-			write(ByteBuffer.allocate(0));
+			write(EMPTY_BUFFER);
 		} // end of if (tlsWrapper.isClientMode())
 	}
 
@@ -175,16 +181,14 @@ public class TLSIO
 
 			return decodeData(tmpBuffer);
 		} else {
-			if (tlsInput.capacity() > tlsWrapper.getAppBuffSize() && tlsInput.capacity() == tlsInput.remaining()) {
+			if (tlsInput != null && tlsInput.capacity() > ByteBufferPool.capacityFor(tlsWrapper.getAppBuffSize()) &&
+					tlsInput.capacity() == tlsInput.remaining()) {
 				if (log.isLoggable(Level.FINE)) {
 					log.log(Level.FINE, "Resizing tlsInput to {0} bytes, capacity: {1}, remaining: {2}; IO: {3}",
 							new Object[]{tlsWrapper.getAppBuffSize(), tlsInput.capacity(), tlsInput.remaining(), toString()});
 				}
-				ByteBuffer bb = ByteBuffer.allocate(tlsWrapper.getAppBuffSize());
-
-				bb.order(tlsInput.order());
-
-				tlsInput = bb;
+				pool.release(tlsInput);
+				acquireInputBuffer();
 			}
 			return null;
 		} // end of else
@@ -233,7 +237,7 @@ public class TLSIO
 		while (((stat == TLSStatus.NEED_WRITE) || (stat == TLSStatus.NEED_READ)) && (++loop_cnt < max_loop_runs)) {
 			switch (stat) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0), loop_cnt);
+					writeBuff(EMPTY_BUFFER, loop_cnt);
 
 					break;
 
@@ -254,7 +258,7 @@ public class TLSIO
 					// I wonder if some real data can be read from the socket here (and we
 					// would
 					// loose the data) or this is just TLS stuff here.....
-					ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+					readNetBuffer();
 
 					break;
 
@@ -323,6 +327,31 @@ public class TLSIO
 		io.setLogId(logId);
 	}
 
+	@Override
+	public int writePooled(ByteBuffer buff) throws IOException {
+		// data is wrapped to separate buffers, so passed buffer is not referenced after the write
+		try {
+			return write(buff);
+		} finally {
+			pool.release(buff);
+		}
+	}
+
+	@Override
+	public void releaseBuffers() {
+		if (tlsInput != null && tlsInput.position() == 0 && tlsInput.limit() == tlsInput.capacity()) {
+			pool.release(tlsInput);
+			tlsInput = null;
+		}
+		io.releaseBuffers();
+	}
+
+	@Override
+	public long getRetainedBufferBytes() {
+		ByteBuffer input = tlsInput;
+		return (input == null ? 0 : input.capacity()) + io.getRetainedBufferBytes();
+	}
+
 	public void processHandshake(byte[] data) throws IOException {
 		decodeData(ByteBuffer.wrap(data));
 	}
@@ -331,6 +360,10 @@ public class TLSIO
 		TLSStatus stat = null;
 		boolean continueLoop = true;
 
+		if (tlsInput == null) {
+			acquireInputBuffer();
+		}
+
 		// input.flip();
 		// do_loop:
 		do {
@@ -367,7 +400,7 @@ public class TLSIO
 			// }// end of if (input.hasRemaining())
 			switch (tlsWrapper.getStatus()) {
 				case NEED_WRITE:
-					writeBuff(ByteBuffer.allocate(0), 0);
+					writeBuff(EMPTY_BUFFER, 0);
 
 					break;
 
@@ -455,25 +488,27 @@ public class TLSIO
 				// I wonder if some real data can be read from the socket here (and we
 				// would
 				// loose the data) or this is just TLS stuff here.....
-				ByteBuffer rbuff = read(ByteBuffer.allocate(tlsWrapper.getNetBuffSize()));
+				readNetBuffer();
 				if ((!TLS_WAIT_FOR_HANDSHAKE_NOT_READY) && loop_cnt > 2 && tlsWrapper.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP &&
 						tlsWrapper.getStatus() == TLSStatus.NEED_READ) {
 					throw new IOException("TLS handshake not established!");
 				}
 			}
 
-			ByteBuffer tlsOutput = ByteBuffer.allocate(tlsWrapper.getNetBuffSize());
+			ByteBuffer tlsOutput = pool.acquire(tlsWrapper.getNetBuffSize());
 
 			// Not sure if this is really needed, I guess not...
 			tlsOutput.clear();
 			tlsWrapper.wrap(buff, tlsOutput);
 
 			if (tlsWrapper.getStatus() == TLSStatus.CLOSED) {
+				pool.release(tlsOutput);
 				throw new EOFException("Socket has been closed.");
 			} // end of if (tlsWrapper.getStatus() == TLSStatus.CLOSED)
 
 			tlsOutput.flip();
-			wr = io.write(tlsOutput);
+			// buffer is returned to the pool by underlying IO when all data from it is sent
+			wr = io.writePooled(tlsOutput);
 			result += wr;
 
 			if (log.isLoggable(Level.FINER)) {
@@ -498,9 +533,23 @@ public class TLSIO
 						new Object[]{buff.remaining(), buff.capacity(), loop_cnt, max_loop_runs, toString(), String.valueOf(tlsWrapper)});
 			}
 
-			writeBuff(ByteBuffer.allocate(0), ++loop_cnt);
+			writeBuff(EMPTY_BUFFER, ++loop_cnt);
 		} // end of if ()
 
 		return result;
 	}
+
+	private void acquireInputBuffer() {
+		tlsInput = pool.acquire(tlsWrapper.getAppBuffSize());
+		tlsInput.order(order);
+	}
+
+	private void readNetBuffer() throws IOException {
+		ByteBuffer netBuffer = pool.acquire(tlsWrapper.getNetBuffSize());
+		try {
+			read(netBuffer);
+		} finally {
+			pool.release(netBuffer);
+		}
+	}
 } // TLSIO
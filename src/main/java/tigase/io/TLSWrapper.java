@@ -55,6 +55,13 @@ public interface TLSWrapper {
 
 	void setDebugId(String id);
 
+	/**
+	 * Decodes data from <code>net</code> buffer into <code>app</code> buffer. If <code>app</code> buffer is too small,
+	 * a bigger buffer is acquired from {@link ByteBufferPool} and returned, and <code>app</code> buffer is released
+	 * to the pool, so it cannot be used by the caller anymore.
+	 *
+	 * @return buffer with decoded data
+	 */
 	ByteBuffer unwrap(ByteBuffer net, ByteBuffer app) throws SSLException;
 
 	boolean wantClientAuth();
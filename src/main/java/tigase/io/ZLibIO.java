@@ -19,15 +19,20 @@ package tigase.io;
 
 import tigase.stats.StatisticsList;
 import tigase.util.IOListener;
-import tigase.util.ZLibWrapper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import java.util.logging.Logger;
 
 /**
+ * Compression layer of the connection. Compressed and decompressed data is kept in buffers acquired from the
+ * {@link ByteBufferPool}.
+ * <br>
  * Created: Jul 29, 2009 11:58:02 AM
  *
  * @author <a href="mailto:artur.hefczyc@tigase.org">Artur Hefczyc</a>
@@ -38,13 +43,21 @@ public class ZLibIO
 	public static final String ZLIB_CAPS = "zlib-caps";
 
 	private static Logger log = Logger.getLogger(ZLibIO.class.getName());
-
+	private static final ByteBufferPool pool = ByteBufferPool.getInstance();
+
+	private final Deflater deflater;
+	private final Inflater inflater = new Inflater();
+	private long compressedIn = 0;
+	private long compressedOut = 0;
+	private long decompressedIn = 0;
+	private long decompressedOut = 0;
 	private IOInterface io = null;
-	private ZLibWrapper zlib = null;
+	private IOListener listener = null;
+	private ByteBuffer zlibInput = null;
 
 	public ZLibIO(final IOInterface ioi, final int level) {
 		this.io = ioi;
-		zlib = new ZLibWrapper();
+		deflater = new Deflater(level);
 	}
 
 	@Override
@@ -103,10 +116,10 @@ public class ZLibIO
 			io.getStatistics(list, reset);
 		}
 
-		if (zlib != null) {
-			list.add("zlibio", "Average compression rate", zlib.averageCompressionRate(), Level.FINE);
-			list.add("zlibio", "Average decompression rate", zlib.averageDecompressionRate(), Level.FINE);
-		}
+		list.add("zlibio", "Average compression rate",
+				 compressedIn > 0 ? (float) compressedOut / compressedIn : 0f, Level.FINE);
+		list.add("zlibio", "Average decompression rate",
+				 decompressedIn > 0 ? (float) decompressedOut / decompressedIn : 0f, Level.FINE);
 	}
 
 	@Override
@@ -123,14 +136,13 @@ public class ZLibIO
 	public ByteBuffer read(ByteBuffer buff) throws IOException {
 		ByteBuffer tmpBuffer = io.read(buff);
 
-		if (io.bytesRead() > 0) {
-			ByteBuffer decompressed_buff = zlib.decompress(tmpBuffer);
+		if (io.bytesRead() > 0 && tmpBuffer != null) {
+			ByteBuffer decompressed_buff = decompress(tmpBuffer);
 
 			// The buffer is reused to it needs to be cleared before it can be
 			// used again.
 			tmpBuffer.clear();
 
-			// System.out.println("Decompression rate: " + zlib.lastDecompressionRate());
 			return decompressed_buff;
 		}
 
@@ -144,7 +156,8 @@ public class ZLibIO
 		}
 
 		io.stop();
-		zlib.end();
+		deflater.end();
+		inflater.end();
 	}
 
 	@Override
@@ -172,10 +185,20 @@ public class ZLibIO
 			log.log(Level.FINER, "ZLIB - Writing data, remaining: {0}", buff.remaining());
 		}
 
-		ByteBuffer compressed_buff = zlib.compress(buff);
+		ByteBuffer compressed_buff = compress(buff);
 
-		// System.out.println("Compression rate: " + zlib.lastCompressionRate());
-		return io.write(compressed_buff);
+		// compressed buffer is returned to the pool by underlying IO when all data from it is sent
+		return io.writePooled(compressed_buff);
+	}
+
+	@Override
+	public int writePooled(ByteBuffer buff) throws IOException {
+		// data is compressed to separate buffer, so passed buffer is not referenced after the write
+		try {
+			return write(buff);
+		} finally {
+			pool.release(buff);
+		}
 	}
 
 	@Override
@@ -183,8 +206,115 @@ public class ZLibIO
 		io.setLogId(logId);
 	}
 
+	@Override
+	public void releaseBuffers() {
+		if (zlibInput != null && zlibInput.position() == 0 && zlibInput.limit() == zlibInput.capacity()) {
+			pool.release(zlibInput);
+			zlibInput = null;
+		}
+		io.releaseBuffers();
+	}
+
+	@Override
+	public long getRetainedBufferBytes() {
+		ByteBuffer input = zlibInput;
+		return (input == null ? 0 : input.capacity()) + io.getRetainedBufferBytes();
+	}
+
 	public void setIOListener(IOListener listener) {
-		zlib.setIOListener(listener);
+		this.listener = listener;
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer result = pool.acquire(buffer.capacity() * 2);
+		buffer.flip();
+		result.put(buffer);
+		pool.release(buffer);
+		return result;
+	}
+
+	private static byte[] getInput(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return data;
+	}
+
+	private ByteBuffer compress(ByteBuffer buff) {
+		int size = buff.remaining();
+		if (buff.hasArray()) {
+			deflater.setInput(buff.array(), buff.arrayOffset() + buff.position(), size);
+			buff.position(buff.limit());
+		} else {
+			deflater.setInput(getInput(buff));
+		}
+
+		ByteBuffer output = pool.acquire(size / 2 + 64);
+		while (true) {
+			int space = output.remaining();
+			int res;
+			if (output.hasArray()) {
+				res = deflater.deflate(output.array(), output.arrayOffset() + output.position(), space,
+									   Deflater.SYNC_FLUSH);
+				output.position(output.position() + res);
+			} else {
+				byte[] data = new byte[space];
+				res = deflater.deflate(data, 0, space, Deflater.SYNC_FLUSH);
+				output.put(data, 0, res);
+			}
+			// all data is flushed if deflater has not filled whole output buffer
+			if (res < space) {
+				break;
+			}
+			output = grow(output);
+		}
+		output.flip();
+		compressedIn += size;
+		compressedOut += output.remaining();
+		return output;
+	}
+
+	private ByteBuffer decompress(ByteBuffer buff) throws IOException {
+		int size = buff.remaining();
+		if (buff.hasArray()) {
+			inflater.setInput(buff.array(), buff.arrayOffset() + buff.position(), size);
+			buff.position(buff.limit());
+		} else {
+			inflater.setInput(getInput(buff));
+		}
+
+		if (zlibInput == null) {
+			zlibInput = pool.acquire(size * 2);
+		} else {
+			zlibInput.clear();
+		}
+		try {
+			while (!inflater.needsInput() && !inflater.finished()) {
+				if (!zlibInput.hasRemaining()) {
+					if (listener != null && !listener.checkBufferLimit(zlibInput.capacity() * 2)) {
+						throw new IOException("Input buffer size limit exceeded");
+					}
+					zlibInput = grow(zlibInput);
+				}
+				if (zlibInput.hasArray()) {
+					int res = inflater.inflate(zlibInput.array(), zlibInput.arrayOffset() + zlibInput.position(),
+											   zlibInput.remaining());
+					zlibInput.position(zlibInput.position() + res);
+				} else {
+					byte[] data = new byte[zlibInput.remaining()];
+					int res = inflater.inflate(data);
+					zlibInput.put(data, 0, res);
+				}
+				if (inflater.needsDictionary()) {
+					throw new IOException("Compressed data requires preset dictionary");
+				}
+			}
+		} catch (DataFormatException ex) {
+			throw new IOException("Invalid compressed data", ex);
+		}
+		zlibInput.flip();
+		decompressedIn += size;
+		decompressedOut += zlibInput.remaining();
+		return zlibInput;
 	}
 }
 
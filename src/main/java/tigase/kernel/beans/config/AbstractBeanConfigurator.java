@@ -563,7 +563,11 @@ public abstract class AbstractBeanConfigurator
 					}
 				}
 
-				if (!tigase.util.reflection.ClassUtilBean.getInstance().getAllClasses().contains(clazz)) {
+				// class set explicitly in the configuration was already loaded, other classes need to be available
+				if (cfg.getClazzName() == null &&
+						!tigase.util.reflection.ClassUtilBean.getInstance().getAllClasses().contains(clazz)) {
+					log.log(Level.CONFIG, "class {0} of bean {1} is not available, skipping registration of a bean",
+							new Object[]{clazz.getName(), cfg.getBeanName()});
 					continue;
 				}
 
@@ -748,14 +752,18 @@ public abstract class AbstractBeanConfigurator
 				.getBeanConfigs()
 				.stream()
 				.filter(bc -> bc.getSource() != BeanConfig.Source.hardcoded)
-				.filter(bc -> !classes.contains(bc.getClazz()))
+				.filter(bc -> !isClassAvailable(classes, bc))
 				.filter(bc -> {
 					String name = bc.getClazz().getCanonicalName();
 					return (!name.startsWith("java.")) && (!name.startsWith("javax.")) &&
 							(!name.startsWith("com.sun."));
 				})
 				.collect(Collectors.toSet());
-		toRemove.forEach(bc -> kernel.unregister(bc.getBeanName()));
+		toRemove.forEach(bc -> {
+			log.log(Level.CONFIG, "class {0} of bean {1} is no longer available, unregistering bean",
+					new Object[]{bc.getClazz().getName(), bc.getBeanName()});
+			kernel.unregister(bc.getBeanName());
+		});
 
 		for (String name : kernel.getNamesOf(Kernel.class)) {
 			Kernel subkernel = kernel.getInstance(name);
@@ -767,6 +775,25 @@ public abstract class AbstractBeanConfigurator
 		}
 	}
 
+	/**
+	 * Method checks if class of a bean is still available. Classes loaded using index of beans are only a subset of all
+	 * classes, so classes of beans set explicitly in the configuration are looked up by name.
+	 */
+	private static boolean isClassAvailable(Set<Class<?>> classes, BeanConfig bc) {
+		Class<?> clazz = bc.getClazz();
+		if (classes.contains(clazz)) {
+			return true;
+		}
+		if (bc.getSource() != BeanConfig.Source.configuration) {
+			return false;
+		}
+		try {
+			return ModulesManagerImpl.getInstance().forName(clazz.getName()) == clazz;
+		} catch (ClassNotFoundException ex) {
+			return false;
+		}
+	}
+
 	protected void refreshConfiguration_updateConfiguration(Kernel kernel) {
 		Set<BeanConfig> toReconfigure = kernel.getDependencyManager()
 				.getBeanConfigs()
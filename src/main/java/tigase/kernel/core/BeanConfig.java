@@ -60,12 +60,13 @@ public class BeanConfig {
 	private String beanInstanceName = null;
 	private boolean exportable;
 	private BeanConfig factory;
+	private long initializationTime = -1;
 	private Kernel kernel;
 	private boolean pinned = true;
 	private Set<BeanConfig> registeredBeans = new HashSet<>();
 	private Set<BeanConfig> registeredBy = new HashSet<>();
 	private Source source = Source.hardcoded;
-	private State state;
+	private volatile State state;
 
 	BeanConfig(String id, Class<?> clazz) {
 		super();
@@ -149,6 +150,20 @@ public class BeanConfig {
 		this.kernel = kernel;
 	}
 
+	/**
+	 * Returns time spent on creation, configuration and initialization of this bean, excluding time spent on
+	 * initialization of its dependencies.
+	 *
+	 * @return time in nanoseconds or <code>-1</code> if bean was not initialized yet.
+	 */
+	public long getInitializationTime() {
+		return initializationTime;
+	}
+
+	void setInitializationTime(long initializationTime) {
+		this.initializationTime = initializationTime;
+	}
+
 	/**
 	 * Returns state of bean.
 	 *
@@ -51,6 +51,7 @@ public class BeanConfigBuilder {
 	private Object beanInstance;
 	private Class<?> clazz;
 	private BeanConfig factoryBeanConfig;
+	private boolean locked;
 
 	BeanConfigBuilder(Kernel kernel, DependencyManager dependencyManager, String beanName) {
 		this.kernel = kernel;
@@ -105,7 +106,7 @@ public class BeanConfigBuilder {
 		if (beanConfig == null) {
 			log.warning("Bean " + clazz +
 								" cannot be registered, because Kernel cannot create configuration for this bean.");
-			kernel.currentlyUsedConfigBuilder = null;
+			kernel.finishRegistration();
 			return null;
 		}
 
@@ -190,8 +191,16 @@ public class BeanConfigBuilder {
 		return this;
 	}
 
+	boolean isLocked() {
+		return locked;
+	}
+
+	void setLocked(boolean locked) {
+		this.locked = locked;
+	}
+
 	protected void throwException(KernelException e) {
-		kernel.currentlyUsedConfigBuilder = null;
+		kernel.finishRegistration();
 		throw e;
 	}
 
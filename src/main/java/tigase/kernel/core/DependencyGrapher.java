@@ -19,10 +19,12 @@ package tigase.kernel.core;
 
 import tigase.kernel.core.Kernel.DelegatedBeanConfig;
 
-import java.util.HashSet;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Creates graph of beans dependency in <a href="www.graphviz.org">Graphviz</a> format.
+ * Creates graph of beans dependency in <a href="www.graphviz.org">Graphviz</a> format. Graph contains also time of
+ * initialization of each bean, which is also available as a separate report.
  */
 public class DependencyGrapher {
 
@@ -59,6 +61,27 @@ public class DependencyGrapher {
 		return sb.toString();
 	}
 
+	/**
+	 * Returns list of initialized beans (from this Kernel and all child Kernels) sorted by time spent on their
+	 * initialization, excluding time spent on initialization of their dependencies.
+	 *
+	 * @return report.
+	 */
+	public String getInitializationReport() {
+		List<BeanConfig> beanConfigs = new ArrayList<>();
+		collectInitializedBeans(beanConfigs, Collections.newSetFromMap(new IdentityHashMap<>()), kernel);
+		beanConfigs.sort(Comparator.comparingLong(BeanConfig::getInitializationTime).reversed());
+
+		long total = 0;
+		StringBuilder sb = new StringBuilder();
+		for (BeanConfig bc : beanConfigs) {
+			total += bc.getInitializationTime();
+			sb.append(String.format(Locale.ROOT, "%10.3f ms  %s.%s (%s)%n", toMillis(bc.getInitializationTime()),
+									bc.getKernel().getName(), bc.getBeanName(), bc.getClazz().getName()));
+		}
+		return String.format(Locale.ROOT, "Initialization time of %d beans: %.3f ms%n", beanConfigs.size(), toMillis(total)) + sb;
+	}
+
 	public Kernel getKernel() {
 		return kernel;
 	}
@@ -95,6 +118,12 @@ public class DependencyGrapher {
 						.append("(")
 						.append(bc.getClazz().getName())
 						.append(")");
+				if (bc.getInitializationTime() >= 0) {
+					structureSB.append("\\n")
+							.append("init: ")
+							.append(String.format(Locale.ROOT, "%.3f", toMillis(bc.getInitializationTime())))
+							.append(" ms");
+				}
 				structureSB.append("}\"");
 			}
 			structureSB.append("];\n");
@@ -175,6 +204,27 @@ public class DependencyGrapher {
 
 	}
 
+	private static double toMillis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private void collectInitializedBeans(List<BeanConfig> result, Set<Kernel> visited, Kernel kernel) {
+		if (!visited.add(kernel)) {
+			return;
+		}
+		final DependencyManager dependencyManager = kernel.getDependencyManager();
+		for (BeanConfig bc : dependencyManager.getBeanConfigs()) {
+			if (!(bc instanceof DelegatedBeanConfig) && bc.getInitializationTime() >= 0) {
+				result.add(bc);
+			}
+		}
+		for (BeanConfig kc : dependencyManager.getBeanConfigs(Kernel.class, null, null)) {
+			if (kc.getState() == BeanConfig.State.initialized) {
+				collectInitializedBeans(result, visited, kernel.getInstance(kc.getBeanName()));
+			}
+		}
+	}
+
 	private BeanConfig findDelegateIn(BeanConfig dBean, DependencyManager dependencyManager) {
 		for (BeanConfig bc : dependencyManager.getBeanConfigs()) {
 			if (bc instanceof DelegatedBeanConfig) {
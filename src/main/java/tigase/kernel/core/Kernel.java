@@ -29,6 +29,7 @@ import tigase.util.reflection.ReflectionHelper;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -44,8 +45,10 @@ public class Kernel {
 	protected final static Logger log = Logger.getLogger(Kernel.class.getName());
 
 	private static final ThreadLocal<DelayedDependencyInjectionQueue> DELAYED_DEPENDENCY_INJECTION = new ThreadLocal<>();
+	// time spent in nested initialization of beans and waiting for dependencies, excluded from initialization time
+	private static final ThreadLocal<long[]> EXCLUDED_INITIALIZATION_TIME = ThreadLocal.withInitial(() -> new long[1]);
 
-	private final Map<String, Object> beanInstances = new HashMap<>();
+	private final Map<String, Object> beanInstances = new ConcurrentHashMap<>();
 
 	private final DependencyManager dependencyManager = new DependencyManager();
 
@@ -65,6 +68,39 @@ public class Kernel {
 									  ? ((DelegatedBeanConfig) tmpBC).original
 									  : tmpBC;
 
+		boolean locked = ParallelBeanInitializer.lock();
+		ParallelBeanInitializer initializer = locked ? ParallelBeanInitializer.current() : null;
+		boolean acquired = false;
+		try {
+			if (initializer != null && beanConfig.getState() != State.initialized) {
+				acquired = initializer.acquire(beanConfig);
+			}
+			boolean alreadyInitialized = beanConfig.getState() == State.initialized;
+			long[] excluded = EXCLUDED_INITIALIZATION_TIME.get();
+			long excludedBefore = excluded[0];
+			long start = System.nanoTime();
+			boolean completed = false;
+			try {
+				initBean(tmpBC, beanConfig, createdBeansConfig, deep, initializer);
+				completed = true;
+			} finally {
+				long time = System.nanoTime() - start;
+				if (completed && !alreadyInitialized) {
+					beanConfig.setInitializationTime(time - (excluded[0] - excludedBefore));
+				}
+				excluded[0] = excludedBefore + time;
+			}
+		} finally {
+			if (acquired) {
+				initializer.release(beanConfig);
+			}
+			ParallelBeanInitializer.unlock(locked);
+		}
+	}
+
+	private void initBean(BeanConfig tmpBC, BeanConfig beanConfig, Set<BeanConfig> createdBeansConfig, int deep,
+						  ParallelBeanInitializer initializer)
+			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException {
 		if (log.isLoggable(Level.CONFIG)) {
 			log.log(Level.CONFIG, "[{0}] Initialising bean, config: {1}, createdBeansConfigs={2}, deep={3}",
 					new Object[]{tmpBC.getBeanName(), tmpBC, createdBeansConfig.size(), deep});
@@ -127,13 +163,23 @@ public class Kernel {
 
 			beanConfig.getKernel().finishDependecyDelayedInjection(queue);
 
+			if (initializer != null) {
+				EXCLUDED_INITIALIZATION_TIME.get()[0] += initializer.initializeDependencies(beanConfig.getKernel(),
+																						  beanConfig);
+			}
+
 			for (final Dependency dep : beanConfig.getFieldDependencies().values()) {
 				beanConfig.getKernel().injectDependencies(bean, dep, createdBeansConfig, deep, false);
 			}
 
 			// there is no need to wait to initialize parent beans, it there any?
 			if (bean instanceof Initializable && beanConfig.getState() != State.initialized) {
-				((Initializable) bean).initialize();
+				if (initializer != null) {
+					// other beans may be initialized while this bean is initializing
+					ParallelBeanInitializer.runUnlocked(((Initializable) bean)::initialize);
+				} else {
+					((Initializable) bean).initialize();
+				}
 			}
 		} catch (Throwable ex) {
 			if (beanConfig.getState() == State.instanceCreated) {
@@ -195,55 +241,60 @@ public class Kernel {
 	}
 
 	public void gc() {
-		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "Start GC for unused beans.");
-		}
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Start GC for unused beans.");
+			}
 
-		dependencyManager.getBeanConfigs()
-				.stream()
-				.filter(beanConfig -> beanConfig.getState() == State.instanceCreated)
-				.forEach(beanConfig -> {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Removing instance of unused bean " + beanConfig.getBeanName());
-					}
-					beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
-					beanConfig.setState(State.registered);
-				});
-
-		int count;
-		do {
-			Collection<BeanConfig> injectedBeans = gc_getInjectedBeans();
-			Collection<BeanConfig> bcs = dependencyManager.getBeanConfigs();
-			count = 0;
-			for (BeanConfig bc : bcs) {
-				if (bc.getState() == State.initialized && !bc.isPinned() && !injectedBeans.contains(bc)) {
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Removing instance of unused bean " + bc.getBeanName());
-					}
-					bc.setState(State.registered);
-					Object i = bc.getKernel().beanInstances.remove(bc.getBeanInstanceName());
-					fireUnregisterAware(i);
-					if (i instanceof RegistrarBean) {
-						((RegistrarBean) i).unregister(bc.getKernel());
+			dependencyManager.getBeanConfigs()
+					.stream()
+					.filter(beanConfig -> beanConfig.getState() == State.instanceCreated)
+					.forEach(beanConfig -> {
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "Removing instance of unused bean " + beanConfig.getBeanName());
+						}
+						beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
+						beanConfig.setState(State.registered);
+					});
+
+			int count;
+			do {
+				Collection<BeanConfig> injectedBeans = gc_getInjectedBeans();
+				Collection<BeanConfig> bcs = dependencyManager.getBeanConfigs();
+				count = 0;
+				for (BeanConfig bc : bcs) {
+					if (bc.getState() == State.initialized && !bc.isPinned() && !injectedBeans.contains(bc)) {
+						if (log.isLoggable(Level.FINEST)) {
+							log.log(Level.FINEST, "Removing instance of unused bean " + bc.getBeanName());
+						}
+						bc.setState(State.registered);
+						Object i = bc.getKernel().beanInstances.remove(bc.getBeanInstanceName());
+						fireUnregisterAware(i);
+						if (i instanceof RegistrarBean) {
+							((RegistrarBean) i).unregister(bc.getKernel());
+						}
+						++count;
 					}
-					++count;
 				}
-			}
-		} while (count > 0);
+			} while (count > 0);
 
-		dependencyManager.getBeanConfigs()
-				.stream()
-				.filter(beanConfig -> Kernel.class.isAssignableFrom(beanConfig.getClazz()) &&
-						beanConfig.getState() == State.initialized)
-				.forEach(new Consumer<BeanConfig>() {
-					@Override
-					public void accept(BeanConfig beanConfig) {
-						Kernel k = getInstance(beanConfig);
-						if (k != Kernel.this) {
-							k.gc();
+			dependencyManager.getBeanConfigs()
+					.stream()
+					.filter(beanConfig -> Kernel.class.isAssignableFrom(beanConfig.getClazz()) &&
+							beanConfig.getState() == State.initialized)
+					.forEach(new Consumer<BeanConfig>() {
+						@Override
+						public void accept(BeanConfig beanConfig) {
+							Kernel k = getInstance(beanConfig);
+							if (k != Kernel.this) {
+								k.gc();
+							}
 						}
-					}
-				});
+					});
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
+		}
 	}
 
 	/**
@@ -283,34 +334,39 @@ public class Kernel {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> T getInstance(String beanName) {
-		BeanConfig bc = dependencyManager.getBeanConfig(beanName);
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			BeanConfig bc = dependencyManager.getBeanConfig(beanName);
 
-		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "[{0}] Creating instance of bean ''{1}'': config={2}, parent={3}, state={4}",
-					new Object[]{getName(), beanName, bc, parent, (bc != null ? bc.getState() : "n/a")});
-		}
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "[{0}] Creating instance of bean ''{1}'': config={2}, parent={3}, state={4}",
+						new Object[]{getName(), beanName, bc, parent, (bc != null ? bc.getState() : "n/a")});
+			}
 
-		if (bc == null && parent != null && parent.isBeanClassRegistered(beanName)) {
-			return parent.getInstance(beanName);
-		}
+			if (bc == null && parent != null && parent.isBeanClassRegistered(beanName)) {
+				return parent.getInstance(beanName);
+			}
 
-		if (bc == null) {
-			throw new KernelException("Unknown bean '" + beanName + "'.");
-		}
+			if (bc == null) {
+				throw new KernelException("Unknown bean '" + beanName + "'.");
+			}
 
-		if (bc.getState() != State.initialized) {
-			try {
-				bc.getKernel().initBean(bc, new HashSet<BeanConfig>(), 0);
-			} catch (Exception e) {
-				log.log(Level.SEVERE, "Exception getting instance", e);
-				throw new KernelException(e);
+			if (bc.getState() != State.initialized) {
+				try {
+					bc.getKernel().initBean(bc, new HashSet<BeanConfig>(), 0);
+				} catch (Exception e) {
+					log.log(Level.SEVERE, "Exception getting instance", e);
+					throw new KernelException(e);
+				}
+				injectIfRequired(bc);
 			}
-			injectIfRequired(bc);
-		}
 
-		Object result = bc.getKernel().getInstance(bc);
+			Object result = bc.getKernel().getInstance(bc);
 
-		return (T) result;
+			return (T) result;
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
+		}
 	}
 
 	/**
@@ -364,9 +420,14 @@ public class Kernel {
 	 * Register links for bean of the passed name.
 	 */
 	public void registerLinks(String beanName) {
-		Link l = this.registeredLinks.get(beanName);
-		if (l != null) {
-			lnInternal(l.exportingBeanName, l.destinationKernel, l.destinationName);
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			Link l = this.registeredLinks.get(beanName);
+			if (l != null) {
+				lnInternal(l.exportingBeanName, l.destinationKernel, l.destinationName);
+			}
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
 		}
 	}
 
@@ -458,14 +519,19 @@ public class Kernel {
 	 * @param destinationName name of bean in destination Kernel.
 	 */
 	public void ln(String exportingBeanName, Kernel destinationKernel, String destinationName) {
-		Link link = new Link();
-		link.exportingBeanName = exportingBeanName;
-		link.destinationKernel = destinationKernel;
-		link.destinationName = destinationName;
-		this.registeredLinks.put(exportingBeanName, link);
-
-		BeanConfig dbc = lnInternal(exportingBeanName, destinationKernel, destinationName);
-		//destinationKernel.injectIfRequired(dbc);
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			Link link = new Link();
+			link.exportingBeanName = exportingBeanName;
+			link.destinationKernel = destinationKernel;
+			link.destinationName = destinationName;
+			this.registeredLinks.put(exportingBeanName, link);
+
+			BeanConfig dbc = lnInternal(exportingBeanName, destinationKernel, destinationName);
+			//destinationKernel.injectIfRequired(dbc);
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
+		}
 	}
 
 	/**
@@ -483,18 +549,12 @@ public class Kernel {
 	 * @return {@link BeanConfigBuilder config builder} what allows to finish bean registering.
 	 */
 	public BeanConfigBuilder registerBean(Class<?> beanClass) {
-		if (currentlyUsedConfigBuilder != null) {
-			throw new KernelException(
-					"Registration of bean '" + currentlyUsedConfigBuilder.getBeanName() + "' is not finished yet!");
-		}
-
 		Bean annotation = beanClass.getAnnotation(Bean.class);
 		if (annotation == null || annotation.name() == null || annotation.name().isEmpty()) {
 			throw new KernelException("Name of bean class " + beanClass.getName() + " is not defined.");
 		}
 
-		BeanConfigBuilder builder = new BeanConfigBuilder(this, dependencyManager, annotation.name());
-		this.currentlyUsedConfigBuilder = builder;
+		BeanConfigBuilder builder = startRegistration(annotation.name());
 		builder.asClass(beanClass);
 		builder.setActive(annotation.active());
 		if (annotation.exportable()) {
@@ -522,15 +582,34 @@ public class Kernel {
 	 * @return {@link BeanConfigBuilder config builder} what allows to finish bean registering.
 	 */
 	public BeanConfigBuilder registerBean(String beanName) {
+		return startRegistration(beanName);
+	}
+
+	/**
+	 * Creates config builder for a bean. If parallel initialization of beans is in progress, lock of kernels is held
+	 * until registration of the bean is finished.
+	 */
+	private BeanConfigBuilder startRegistration(String beanName) {
+		boolean locked = ParallelBeanInitializer.lock();
 		if (currentlyUsedConfigBuilder != null) {
-			throw new KernelException(
-					"Registration of bean '" + currentlyUsedConfigBuilder.getBeanName() + "' is not finished yet!");
+			String unfinishedBeanName = currentlyUsedConfigBuilder.getBeanName();
+			ParallelBeanInitializer.unlock(locked);
+			throw new KernelException("Registration of bean '" + unfinishedBeanName + "' is not finished yet!");
 		}
 		BeanConfigBuilder builder = new BeanConfigBuilder(this, dependencyManager, beanName);
+		builder.setLocked(locked);
 		this.currentlyUsedConfigBuilder = builder;
 		return builder;
 	}
 
+	void finishRegistration() {
+		BeanConfigBuilder builder = currentlyUsedConfigBuilder;
+		currentlyUsedConfigBuilder = null;
+		if (builder != null) {
+			ParallelBeanInitializer.unlock(builder.isLocked());
+		}
+	}
+
 	/**
 	 * Calling this method instructs Kernel to delay dependency injection until
 	 * <code>finishDependecyDelayedInjection()</code> method is called.
@@ -573,62 +652,67 @@ public class Kernel {
 	 * @param value new state of a bean
 	 */
 	public void setBeanActive(String beanName, boolean value) {
-		BeanConfig beanConfig = dependencyManager.getBeanConfig(beanName);
-
-		if (beanConfig == null) {
-			throw new KernelException("Unknown bean '" + beanName + "'.");
-		}
-
-		while (beanConfig instanceof DelegatedBeanConfig) {
-			beanConfig = ((DelegatedBeanConfig) beanConfig).getOriginal();
-		}
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			BeanConfig beanConfig = dependencyManager.getBeanConfig(beanName);
 
-		if (beanConfig.getKernel() != this) {
-			if (RegistrarBean.class.isAssignableFrom(beanConfig.getClazz()) &&
-					(beanConfig.getState() == State.initialized || beanConfig.getState() == State.instanceCreated)) {
-				beanConfig.getKernel().setBeanActive("service", value);
-			} else {
-				beanConfig.getKernel().setBeanActive(beanConfig.getBeanName(), value);
+			if (beanConfig == null) {
+				throw new KernelException("Unknown bean '" + beanName + "'.");
 			}
-			return;
-		}
 
-		if (value && beanConfig.getState() == State.inactive) {
-			// activing bean
-			if (log.isLoggable(Level.FINER)) {
-				log.finer("[" + getName() + "] Making bean " + beanName + " active");
+			while (beanConfig instanceof DelegatedBeanConfig) {
+				beanConfig = ((DelegatedBeanConfig) beanConfig).getOriginal();
 			}
-			beanConfig.setState(State.registered);
-			try {
-				injectIfRequired(beanConfig);
-			} catch (KernelException e) {
-				log.fine("Cannot initialize " + beanConfig.getBeanName() + ". Leaving in state " +
-								 beanConfig.getState());
+
+			if (beanConfig.getKernel() != this) {
+				if (RegistrarBean.class.isAssignableFrom(beanConfig.getClazz()) &&
+						(beanConfig.getState() == State.initialized || beanConfig.getState() == State.instanceCreated)) {
+					beanConfig.getKernel().setBeanActive("service", value);
+				} else {
+					beanConfig.getKernel().setBeanActive(beanConfig.getBeanName(), value);
+				}
+				return;
 			}
-		}
-		if (!value && beanConfig.getState() != State.inactive) {
-			// deactiving bean
-			if (log.isLoggable(Level.FINER)) {
-				log.finer("[" + getName() + "] Making bean " + beanName + " inactive");
+
+			if (value && beanConfig.getState() == State.inactive) {
+				// activing bean
+				if (log.isLoggable(Level.FINER)) {
+					log.finer("[" + getName() + "] Making bean " + beanName + " active");
+				}
+				beanConfig.setState(State.registered);
+				try {
+					injectIfRequired(beanConfig);
+				} catch (KernelException e) {
+					log.fine("Cannot initialize " + beanConfig.getBeanName() + ". Leaving in state " +
+									 beanConfig.getState());
+				}
 			}
-			try {
-				if (beanConfig instanceof DelegatedBeanConfig) {
-					beanConfig = ((DelegatedBeanConfig) beanConfig).getOriginal();
+			if (!value && beanConfig.getState() != State.inactive) {
+				// deactiving bean
+				if (log.isLoggable(Level.FINER)) {
+					log.finer("[" + getName() + "] Making bean " + beanName + " inactive");
 				}
-				Object i = beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
-				fireUnregisterAware(i);
-				if (i instanceof RegistrarBean) {
-					((RegistrarBean) i).unregister(beanConfig.getKernel());
-					Kernel parent = beanConfig.getKernel().getParent();
-					parent.unregister(beanConfig.getBeanName() + "#KERNEL");
-					beanConfig.setKernel(parent);
-					beanConfig.setBeanInstanceName(null);
+				try {
+					if (beanConfig instanceof DelegatedBeanConfig) {
+						beanConfig = ((DelegatedBeanConfig) beanConfig).getOriginal();
+					}
+					Object i = beanConfig.getKernel().beanInstances.remove(beanConfig.getBeanInstanceName());
+					fireUnregisterAware(i);
+					if (i instanceof RegistrarBean) {
+						((RegistrarBean) i).unregister(beanConfig.getKernel());
+						Kernel parent = beanConfig.getKernel().getParent();
+						parent.unregister(beanConfig.getBeanName() + "#KERNEL");
+						beanConfig.setKernel(parent);
+						beanConfig.setBeanInstanceName(null);
+					}
+					beanConfig.setState(State.inactive);
+					beanConfig.getKernel().unloadInjectedBean(beanConfig);
+				} catch (Exception e) {
+					throw new KernelException("Can''t unload bean " + beanName + " from depenent beans", e);
 				}
-				beanConfig.setState(State.inactive);
-				beanConfig.getKernel().unloadInjectedBean(beanConfig);
-			} catch (Exception e) {
-				throw new KernelException("Can''t unload bean " + beanName + " from depenent beans", e);
 			}
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
 		}
 	}
 
@@ -710,94 +794,97 @@ public class Kernel {
 	 * @param beanName name of bean to be removed.
 	 */
 	public void unregister(final String beanName) {
-		if (log.isLoggable(Level.FINER)) {
-			log.finer("[" + getName() + "] Unregistering bean " + beanName);
-		}
-		BeanConfig unregisteredBeanConfig = dependencyManager.getBeanConfig(beanName);
-		// bean can be unregistered already
-		if (unregisteredBeanConfig == null) {
-			return;
-		}
-
-		if (!(unregisteredBeanConfig instanceof DelegatedBeanConfig) && unregisteredBeanConfig.getKernel() != this) {
-			if (!RegistrarBean.class.isAssignableFrom(unregisteredBeanConfig.getClazz())) {
-				unregisteredBeanConfig.getKernel().unregister(beanName);
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			if (log.isLoggable(Level.FINER)) {
+				log.finer("[" + getName() + "] Unregistering bean " + beanName);
+			}
+			BeanConfig unregisteredBeanConfig = dependencyManager.getBeanConfig(beanName);
+			// bean can be unregistered already
+			if (unregisteredBeanConfig == null) {
 				return;
 			}
-		}
 
-		Map<Kernel, ArrayList<BeanConfig>> lklklk = new HashMap<>();
-		getDependencyManager().getBeanConfigs(Kernel.class, null, null)
-				.stream()
-				.filter(beanConfig -> beanConfig.getState() == State.initialized)
-				.map(new Function<BeanConfig, Kernel>() {
-					@Override
-					public Kernel apply(BeanConfig beanConfig) {
-						return getInstance(beanConfig);
-					}
-				})
-				.forEach(kernel -> {
-					Collection<Dependency> links = kernel.getDependencyManager()
-							.getDependenciesTo(unregisteredBeanConfig);
-					ArrayList<BeanConfig> toRemove = new ArrayList<BeanConfig>();
-					for (Dependency link : links) {
-						BeanConfig[] bc = kernel.getDependencyManager().getBeanConfig(link);
-						toRemove.addAll(Arrays.asList(bc));
-					}
+			if (!(unregisteredBeanConfig instanceof DelegatedBeanConfig) && unregisteredBeanConfig.getKernel() != this) {
+				if (!RegistrarBean.class.isAssignableFrom(unregisteredBeanConfig.getClazz())) {
+					unregisteredBeanConfig.getKernel().unregister(beanName);
+					return;
+				}
+			}
+
+			Map<Kernel, ArrayList<BeanConfig>> lklklk = new HashMap<>();
+			getDependencyManager().getBeanConfigs(Kernel.class, null, null)
+					.stream()
+					.filter(beanConfig -> beanConfig.getState() == State.initialized)
+					.map(new Function<BeanConfig, Kernel>() {
+						@Override
+						public Kernel apply(BeanConfig beanConfig) {
+							return getInstance(beanConfig);
+						}
+					})
+					.forEach(kernel -> {
+						Collection<Dependency> links = kernel.getDependencyManager()
+								.getDependenciesTo(unregisteredBeanConfig);
+						ArrayList<BeanConfig> toRemove = new ArrayList<BeanConfig>();
+						for (Dependency link : links) {
+							BeanConfig[] bc = kernel.getDependencyManager().getBeanConfig(link);
+							toRemove.addAll(Arrays.asList(bc));
+						}
 
-					lklklk.put(kernel, toRemove);
-				});
+						lklklk.put(kernel, toRemove);
+					});
 
-		unregisterInt(beanName);
-		try {
-			unloadInjectedBean(unregisteredBeanConfig);
-		} catch (Exception e) {
-//			e.printStackTrace();
-			log.log(Level.SEVERE, "Exception during unregistering", e);
-			throw new KernelException("Can''t unload bean " + beanName + " from depenent beans", e);
-		} finally {
-			dependencyManager.unregister(beanName);
-		}
+			unregisterInt(beanName);
+			try {
+				unloadInjectedBean(unregisteredBeanConfig);
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Exception during unregistering", e);
+				throw new KernelException("Can''t unload bean " + beanName + " from depenent beans", e);
+			} finally {
+				dependencyManager.unregister(beanName);
+			}
 
-		getDependencyManager().getBeanConfigs(Kernel.class, null, null)
-				.stream()
-				.filter(beanConfig -> beanConfig.getState() == State.initialized)
-				.map(new Function<BeanConfig, Kernel>() {
-					@Override
-					public Kernel apply(BeanConfig beanConfig) {
-						return getInstance(beanConfig);
-					}
-				})
-				.forEach(kernel -> {
-					BeanConfig[] links = kernel.getDependencyManager().findDelegationTo(unregisteredBeanConfig);
+			getDependencyManager().getBeanConfigs(Kernel.class, null, null)
+					.stream()
+					.filter(beanConfig -> beanConfig.getState() == State.initialized)
+					.map(new Function<BeanConfig, Kernel>() {
+						@Override
+						public Kernel apply(BeanConfig beanConfig) {
+							return getInstance(beanConfig);
+						}
+					})
+					.forEach(kernel -> {
+						BeanConfig[] links = kernel.getDependencyManager().findDelegationTo(unregisteredBeanConfig);
+						for (BeanConfig link : links) {
+							kernel.unregister(link.getBeanName());
+						}
+					});
+
+			if (parent != null) {
+				BeanConfig[] links = parent.getDependencyManager().findDelegationTo(unregisteredBeanConfig);
+				if (links != null) {
 					for (BeanConfig link : links) {
-						kernel.unregister(link.getBeanName());
+						parent.unregister(link.getBeanName());
 					}
-				});
-
-		if (parent != null) {
-			BeanConfig[] links = parent.getDependencyManager().findDelegationTo(unregisteredBeanConfig);
-			if (links != null) {
-				for (BeanConfig link : links) {
-					parent.unregister(link.getBeanName());
 				}
-			}
 
-		}
+			}
 
-		for (Map.Entry<Kernel, ArrayList<BeanConfig>> en : lklklk.entrySet()) {
-			Kernel kernel = en.getKey();
-			for (BeanConfig beanConfig : en.getValue()) {
-				try {
-					kernel.unloadInjectedBean(beanConfig);
-				} catch (Exception e) {
-//					e.printStackTrace();
-					log.log(Level.SEVERE, "Exception during un-registering", e);
-					throw new KernelException(
-							"Can''t unload bean " + beanConfig.getBeanName() + " from depenent beans in kernel " +
-									kernel.getName(), e);
+			for (Map.Entry<Kernel, ArrayList<BeanConfig>> en : lklklk.entrySet()) {
+				Kernel kernel = en.getKey();
+				for (BeanConfig beanConfig : en.getValue()) {
+					try {
+						kernel.unloadInjectedBean(beanConfig);
+					} catch (Exception e) {
+						log.log(Level.SEVERE, "Exception during un-registering", e);
+						throw new KernelException(
+								"Can''t unload bean " + beanConfig.getBeanName() + " from depenent beans in kernel " +
+										kernel.getName(), e);
+					}
 				}
 			}
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
 		}
 	}
 
@@ -994,114 +1081,123 @@ public class Kernel {
 	}
 
 	protected void injectIfRequired(final BeanConfig beanConfig) {
+		boolean locked = ParallelBeanInitializer.lock();
 		try {
-			if (!isThereSomethingWaitingFor(beanConfig)) {
-				// nothing is waiting for this bean. Skipping initialization.
-				return;
-			}
-			Collection<Dependency> dps = dependencyManager.getDependenciesTo(beanConfig);
-
-			for (Dependency dep : dps) {
-				BeanConfig depbc = dep.getBeanConfig();
-
-				if (depbc.getState() != State.initialized && depbc.getState() != State.inactive) {
-					//depbc.getState() != State.inactive && depbc.getState() != State.instanceCreated
-					//if (isThereSomethingWaitingFor(depbc)) {
-					try {
-						if (depbc.getState() != State.instanceCreated) {
-							initBean(depbc, new HashSet<BeanConfig>(), 0);
-						}
-						injectIfRequired(depbc);
-					} catch (Exception e) {
-						log.log(Level.SEVERE, "Exception injecting bean if required", e);
-					}
-					//}
+			try {
+				if (!isThereSomethingWaitingFor(beanConfig)) {
+					// nothing is waiting for this bean. Skipping initialization.
+					return;
 				}
+				Collection<Dependency> dps = dependencyManager.getDependenciesTo(beanConfig);
+
+				for (Dependency dep : dps) {
+					BeanConfig depbc = dep.getBeanConfig();
 
-				if (depbc.getState() == State.initialized) {
-					if (beanConfig.getState() != State.initialized) {
+					if (depbc.getState() != State.initialized && depbc.getState() != State.inactive) {
+						//depbc.getState() != State.inactive && depbc.getState() != State.instanceCreated
+						//if (isThereSomethingWaitingFor(depbc)) {
 						try {
-							initBean(beanConfig, new HashSet<BeanConfig>(), 0);
+							if (depbc.getState() != State.instanceCreated) {
+								initBean(depbc, new HashSet<BeanConfig>(), 0);
+							}
+							injectIfRequired(depbc);
 						} catch (Exception e) {
-							// cannot initialize beanconfig -- skipping injecting
 							log.log(Level.SEVERE, "Exception injecting bean if required", e);
-							return;
 						}
+						//}
 					}
-					Object bean = depbc.getKernel().getInstance(depbc);
 
-					injectDependencies(bean, dep, new HashSet<BeanConfig>(), 0, false);
+					if (depbc.getState() == State.initialized) {
+						if (beanConfig.getState() != State.initialized) {
+							try {
+								initBean(beanConfig, new HashSet<BeanConfig>(), 0);
+							} catch (Exception e) {
+								// cannot initialize beanconfig -- skipping injecting
+								log.log(Level.SEVERE, "Exception injecting bean if required", e);
+								return;
+							}
+						}
+						Object bean = depbc.getKernel().getInstance(depbc);
+
+						injectDependencies(bean, dep, new HashSet<BeanConfig>(), 0, false);
+					}
 				}
-			}
-			if (beanConfig.isExportable()) {
-				getDependencyManager().getBeanConfigs()
-						.stream()
-						.filter(bc -> Kernel.class.isAssignableFrom(bc.getClazz()) &&
-								bc.getState() == State.initialized)
-						.map(p -> (Kernel) getInstance(p))
-						.filter(k -> !k.equals(Kernel.this))
-						.forEach(k -> {
-							k.injectIfRequired(beanConfig);
-						});
+				if (beanConfig.isExportable()) {
+					getDependencyManager().getBeanConfigs()
+							.stream()
+							.filter(bc -> Kernel.class.isAssignableFrom(bc.getClazz()) &&
+									bc.getState() == State.initialized)
+							.map(p -> (Kernel) getInstance(p))
+							.filter(k -> !k.equals(Kernel.this))
+							.forEach(k -> {
+								k.injectIfRequired(beanConfig);
+							});
 
+				}
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Exception", e);
+				throw new KernelException("Can''t inject bean " + beanConfig + " to dependend beans.", e);
 			}
-		} catch (Exception e) {
-//			e.printStackTrace();
-			log.log(Level.SEVERE, "Exception", e);
-			throw new KernelException("Can''t inject bean " + beanConfig + " to dependend beans.", e);
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
 		}
 	}
 
 	protected BeanConfig registerBean(BeanConfig beanConfig, BeanConfig factoryBeanConfig, Object beanInstance) {
-		BeanConfig parent = null;
-		if (beanConfig.getSource() == BeanConfig.Source.annotation && !beanConfig.getRegisteredBy().isEmpty()) {
-			BeanConfig bc = dependencyManager.getBeanConfig(beanConfig.getBeanName());
-			parent = beanConfig.getRegisteredBy().iterator().next();
-			if (bc != null && bc.getClazz().equals(beanConfig.getClazz())) {
-				bc.addRegisteredBy(parent);
-				parent.addRegisteredBean(bc);
-				currentlyUsedConfigBuilder = null;
-				return bc;
+		boolean locked = ParallelBeanInitializer.lock();
+		try {
+			BeanConfig parent = null;
+			if (beanConfig.getSource() == BeanConfig.Source.annotation && !beanConfig.getRegisteredBy().isEmpty()) {
+				BeanConfig bc = dependencyManager.getBeanConfig(beanConfig.getBeanName());
+				parent = beanConfig.getRegisteredBy().iterator().next();
+				if (bc != null && bc.getClazz().equals(beanConfig.getClazz())) {
+					bc.addRegisteredBy(parent);
+					parent.addRegisteredBean(bc);
+					finishRegistration();
+					return bc;
+				}
 			}
-		}
 
-		if (factoryBeanConfig != null) {
-			factoryBeanConfig.setPinned(beanConfig.isPinned());
-			factoryBeanConfig.setState(beanConfig.getState());
-			unregisterInt(factoryBeanConfig.getBeanName());
-			dependencyManager.register(factoryBeanConfig);
-		}
+			if (factoryBeanConfig != null) {
+				factoryBeanConfig.setPinned(beanConfig.isPinned());
+				factoryBeanConfig.setState(beanConfig.getState());
+				unregisterInt(factoryBeanConfig.getBeanName());
+				dependencyManager.register(factoryBeanConfig);
+			}
 
-		BeanConfig oldBeanConfig = dependencyManager.getBeanConfig(beanConfig.getBeanName());
-		Collection<Dependency> oldDeps =
-				oldBeanConfig == null ? null : dependencyManager.getDependenciesTo(oldBeanConfig);
+			BeanConfig oldBeanConfig = dependencyManager.getBeanConfig(beanConfig.getBeanName());
+			Collection<Dependency> oldDeps =
+					oldBeanConfig == null ? null : dependencyManager.getDependenciesTo(oldBeanConfig);
 
-		unregisterInt(beanConfig.getBeanName());
-		dependencyManager.register(beanConfig);
-		if (parent != null) {
-			parent.addRegisteredBean(beanConfig);
-		}
+			unregisterInt(beanConfig.getBeanName());
+			dependencyManager.register(beanConfig);
+			if (parent != null) {
+				parent.addRegisteredBean(beanConfig);
+			}
 
-		if (beanInstance != null) {
-			putBeanInstance(beanConfig, beanInstance);
-			beanConfig.setState(State.initialized);
-		}
+			if (beanInstance != null) {
+				putBeanInstance(beanConfig, beanInstance);
+				beanConfig.setState(State.initialized);
+			}
 
-		Collection<Dependency> deps = dependencyManager.getDependenciesTo(beanConfig);
-		if (oldDeps != null) {
-			deps.addAll(oldDeps.stream().filter(od -> {
-				Field f = od.getField();
-				return !deps.stream().anyMatch(nd -> nd.getField().equals(f));
-			}).collect(Collectors.toSet()));
-		}
+			Collection<Dependency> deps = dependencyManager.getDependenciesTo(beanConfig);
+			if (oldDeps != null) {
+				deps.addAll(oldDeps.stream().filter(od -> {
+					Field f = od.getField();
+					return !deps.stream().anyMatch(nd -> nd.getField().equals(f));
+				}).collect(Collectors.toSet()));
+			}
 
-		currentlyUsedConfigBuilder = null;
+			finishRegistration();
 
-		if (!queueForDelayedDependencyInjection(deps)) {
-			injectDependencies(deps);
-		}
+			if (!queueForDelayedDependencyInjection(deps)) {
+				injectDependencies(deps);
+			}
 
-		return beanConfig;
+			return beanConfig;
+		} finally {
+			ParallelBeanInitializer.unlock(locked);
+		}
 	}
 
 	private Object createNewInstance(BeanConfig beanConfig) {
@@ -1504,6 +1600,11 @@ public class Kernel {
 			return original;
 		}
 
+		@Override
+		public long getInitializationTime() {
+			return original.getInitializationTime();
+		}
+
 		@Override
 		public State getState() {
 			return original.getState();
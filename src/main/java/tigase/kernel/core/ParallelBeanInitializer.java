@@ -0,0 +1,344 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel.core;
+
+import tigase.kernel.KernelException;
+import tigase.kernel.core.BeanConfig.State;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Initializes beans concurrently using dependency graph of beans. <br> Each of the requested beans is initialized in a
+ * separate task executed by a fork-join pool. If a bean being initialized depends on more than one bean which is not
+ * created yet, then those dependencies are initialized in separate tasks, so independent subtrees of the dependency
+ * graph are initialized concurrently. Dependent bean is configured, injected and initialized only after all its
+ * dependencies are initialized.
+ * <br>
+ * Kernel is not thread-safe, so while any parallel initialization is in progress, all changes of any kernel are done
+ * while holding a single lock. Lock is released only while {@link tigase.kernel.beans.Initializable#initialize()} of a
+ * bean is executed and while waiting for dependencies, so most of the concurrency comes from initialization of beans
+ * (ie. opening connection pools, loading data from repositories).
+ * <br>
+ * If bean is required by more than one task, only one task initializes it and other tasks wait for it. Waiting for a
+ * bean which would result in a deadlock (caused by cyclic dependencies) is skipped and bean is used in the same way as
+ * during sequential initialization.
+ */
+public class ParallelBeanInitializer {
+
+	private static final Logger log = Logger.getLogger(ParallelBeanInitializer.class.getCanonicalName());
+
+	private static final ThreadLocal<ParallelBeanInitializer> CURRENT = new ThreadLocal<>();
+	private static final ReentrantLock LOCK = new ReentrantLock();
+	private static final Condition COMPLETED = LOCK.newCondition();
+	private static final Object SCHEDULED = new Object();
+	// owners of beans being initialized, guarded by LOCK
+	private static final Map<BeanConfig, Object> initializing = new IdentityHashMap<>();
+	private static int sessions = 0;
+	// beans for which threads are waiting, guarded by LOCK
+	private static final Map<Thread, Collection<BeanConfig>> waiting = new HashMap<>();
+
+	private final ForkJoinPool pool;
+
+	static ParallelBeanInitializer current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Acquires lock of kernels if parallel initialization is in progress.
+	 *
+	 * @return <code>true</code> if lock was acquired and needs to be released
+	 */
+	static boolean lock() {
+		synchronized (ParallelBeanInitializer.class) {
+			if (sessions == 0 && !LOCK.isHeldByCurrentThread()) {
+				return false;
+			}
+		}
+		LOCK.lock();
+		return true;
+	}
+
+	static void unlock(boolean locked) {
+		if (locked) {
+			LOCK.unlock();
+		}
+	}
+
+	/**
+	 * Executes task after releasing lock of kernels (if it is held by current thread) and acquires it again.
+	 */
+	static void runUnlocked(Runnable task) {
+		int holds = LOCK.getHoldCount();
+		for (int i = 0; i < holds; i++) {
+			LOCK.unlock();
+		}
+		try {
+			task.run();
+		} finally {
+			for (int i = 0; i < holds; i++) {
+				LOCK.lock();
+			}
+		}
+	}
+
+	public ParallelBeanInitializer() {
+		this(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+	}
+
+	public ParallelBeanInitializer(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("kernel-init-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+	}
+
+	/**
+	 * Initializes passed beans concurrently and waits until all of them are initialized. If initialization of any of
+	 * beans failed, exception thrown during initialization of the first of them (in order of passed list) is thrown
+	 * with exceptions of other failed beans added as suppressed exceptions.
+	 *
+	 * @param beanConfigs list of beans to initialize
+	 */
+	public void initialize(List<BeanConfig> beanConfigs) throws KernelException {
+		if (LOCK.isHeldByCurrentThread() || CURRENT.get() != null) {
+			throw new KernelException("Parallel initialization cannot be started during initialization of beans");
+		}
+
+		List<BeanConfig> toInitialize = new ArrayList<>();
+		Set<BeanConfig> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (BeanConfig bc : beanConfigs) {
+			BeanConfig original = unwrap(bc);
+			if (original.getState() != State.initialized && original.getState() != State.inactive &&
+					unique.add(original)) {
+				toInitialize.add(original);
+			}
+		}
+
+		synchronized (ParallelBeanInitializer.class) {
+			sessions++;
+		}
+		CURRENT.set(this);
+		try {
+			Throwable[] errors = new Throwable[toInitialize.size()];
+			CountDownLatch latch = new CountDownLatch(toInitialize.size());
+			for (int i = 0; i < toInitialize.size(); i++) {
+				final int idx = i;
+				final BeanConfig bc = toInitialize.get(i);
+				final Kernel kernel = bc.getKernel();
+				pool.execute(() -> {
+					CURRENT.set(this);
+					try {
+						kernel.getInstance(bc.getBeanName());
+					} catch (Throwable ex) {
+						errors[idx] = ex;
+					} finally {
+						CURRENT.remove();
+						latch.countDown();
+					}
+				});
+			}
+			try {
+				latch.await();
+			} catch (InterruptedException ex) {
+				throw new KernelException("Interrupted while waiting for initialization of beans", ex);
+			}
+
+			KernelException result = null;
+			for (int i = 0; i < errors.length; i++) {
+				if (errors[i] == null) {
+					continue;
+				}
+				if (result == null) {
+					result = errors[i] instanceof KernelException
+							 ? (KernelException) errors[i]
+							 : new KernelException("Could not initialize bean " + toInitialize.get(i).getBeanName(),
+												   errors[i]);
+				} else {
+					result.addSuppressed(errors[i]);
+				}
+			}
+			if (result != null) {
+				throw result;
+			}
+		} finally {
+			CURRENT.remove();
+			synchronized (ParallelBeanInitializer.class) {
+				sessions--;
+			}
+		}
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static BeanConfig unwrap(BeanConfig bc) {
+		while (bc instanceof Kernel.DelegatedBeanConfig) {
+			bc = ((Kernel.DelegatedBeanConfig) bc).getOriginal();
+		}
+		return bc;
+	}
+
+	/**
+	 * Marks bean as being initialized by current thread. If bean is initialized by other thread, waits until its
+	 * initialization is finished. Must be called while holding lock of kernels.
+	 *
+	 * @return <code>true</code> if bean was marked as being initialized by current thread and {@link
+	 * #release(BeanConfig)} needs to be called
+	 */
+	boolean acquire(BeanConfig bc) {
+		Thread current = Thread.currentThread();
+		while (true) {
+			Object owner = initializing.get(bc);
+			if (owner == null) {
+				initializing.put(bc, current);
+				return true;
+			}
+			if (owner == current || wouldDeadlock(Collections.singleton(bc))) {
+				return false;
+			}
+			await(Collections.singleton(bc), () -> initializing.containsKey(bc));
+		}
+	}
+
+	void release(BeanConfig bc) {
+		initializing.remove(bc);
+		COMPLETED.signalAll();
+	}
+
+	/**
+	 * Initializes dependencies of a bean which are not created yet in separate tasks, and waits until they and
+	 * dependencies being initialized by other threads are initialized. Must be called while holding lock of kernels.
+	 *
+	 * @param kernel kernel used to resolve dependencies of the bean
+	 * @param beanConfig bean which dependencies should be initialized
+	 *
+	 * @return time spent waiting for dependencies in nanoseconds
+	 */
+	long initializeDependencies(Kernel kernel, BeanConfig beanConfig) {
+		List<BeanConfig> toSchedule = new ArrayList<>();
+		Set<BeanConfig> toAwait = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Dependency dep : beanConfig.getFieldDependencies().values()) {
+			for (BeanConfig dbc : kernel.getDependencyManager().getBeanConfig(dep)) {
+				if (dbc == null) {
+					continue;
+				}
+				dbc = unwrap(dbc);
+				Object owner = initializing.get(dbc);
+				if (owner != null) {
+					if (owner != Thread.currentThread()) {
+						toAwait.add(dbc);
+					}
+				} else if (dbc.getState() == State.registered && !toSchedule.contains(dbc)) {
+					toSchedule.add(dbc);
+				}
+			}
+		}
+
+		// there is no point in initializing single bean in a separate task
+		if (toSchedule.size() > 1) {
+			for (BeanConfig dbc : toSchedule) {
+				initializing.put(dbc, SCHEDULED);
+				toAwait.add(dbc);
+				final Kernel dependencyKernel = dbc.getKernel();
+				pool.execute(() -> initializeScheduled(dependencyKernel, dbc));
+			}
+		}
+
+		if (toAwait.isEmpty() || wouldDeadlock(toAwait)) {
+			return 0;
+		}
+		long start = System.nanoTime();
+		await(toAwait, () -> toAwait.stream().anyMatch(initializing::containsKey));
+		return System.nanoTime() - start;
+	}
+
+	private void initializeScheduled(Kernel kernel, BeanConfig bc) {
+		CURRENT.set(this);
+		LOCK.lock();
+		try {
+			initializing.put(bc, Thread.currentThread());
+			if (bc.getState() != State.initialized) {
+				kernel.initBean(bc, new HashSet<>(), 0);
+			}
+		} catch (Throwable ex) {
+			// failure will be reported when dependent bean will try to initialize this bean again
+			log.log(Level.FINE, "Could not initialize bean " + bc.getBeanName(), ex);
+		} finally {
+			release(bc);
+			LOCK.unlock();
+			CURRENT.remove();
+		}
+	}
+
+	private void await(Collection<BeanConfig> beans, BooleanSupplier condition) {
+		Thread current = Thread.currentThread();
+		waiting.put(current, beans);
+		try {
+			ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					if (condition.getAsBoolean()) {
+						COMPLETED.await();
+					}
+					return isReleasable();
+				}
+
+				@Override
+				public boolean isReleasable() {
+					return !condition.getAsBoolean();
+				}
+			});
+		} catch (InterruptedException ex) {
+			throw new KernelException("Interrupted while waiting for initialization of beans " + beans, ex);
+		} finally {
+			waiting.remove(current);
+		}
+	}
+
+	/**
+	 * Checks if waiting for passed beans would result in a deadlock, ie. thread initializing one of those beans is
+	 * (directly or not) waiting for a bean initialized by current thread.
+	 */
+	private boolean wouldDeadlock(Collection<BeanConfig> beans) {
+		Thread current = Thread.currentThread();
+		Set<Object> visited = new HashSet<>();
+		Deque<BeanConfig> toCheck = new ArrayDeque<>(beans);
+		BeanConfig bc;
+		while ((bc = toCheck.poll()) != null) {
+			Object owner = initializing.get(bc);
+			if (owner == current) {
+				return true;
+			}
+			if (owner instanceof Thread && visited.add(owner)) {
+				toCheck.addAll(waiting.getOrDefault(owner, Collections.emptySet()));
+			}
+		}
+		return false;
+	}
+
+}
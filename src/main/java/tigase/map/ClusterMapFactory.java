@@ -23,57 +23,110 @@ import tigase.eventbus.HandleEvent;
 import tigase.eventbus.impl.EventName;
 import tigase.kernel.DefaultTypesConverter;
 import tigase.kernel.TypesConverter;
+import tigase.stats.StatisticsList;
+import tigase.util.dns.DNSResolverFactory;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Factory of maps distributed over all cluster nodes.
+ * <br>
+ * Changes of a map are collected and sent to other nodes as versioned delta batches, flushed after
+ * {@link #DELTA_FLUSH_INTERVAL} or when {@link #DELTA_MAX_SIZE} changes are collected. Node which creates a map
+ * requests its snapshot from other nodes, which is sent in chunks of {@link #SNAPSHOT_CHUNK_SIZE} entries with
+ * {@link #SNAPSHOT_CHUNK_DELAY} between chunks. Every {@link #CHECKSUM_INTERVAL} each node sends checksums of its
+ * maps, so a node which has different content than other node in consecutive checks requests a snapshot from it.
+ * <br>
+ * Each node announces support of delta replication to other nodes. Until all connected cluster nodes announced it,
+ * every change is sent also as a separate event, as by previous versions, so nodes which do not support delta
+ * replication are kept in sync during a rolling upgrade.
+ */
 public class ClusterMapFactory {
 
+	static final int CHECKSUM_MISMATCHES_LIMIT = 2;
+	static final long CHECKSUM_INTERVAL = 60 * 1000;
+	static final long DELTA_FLUSH_INTERVAL = 10;
+	static final int DELTA_MAX_SIZE = 100;
+	static final int SNAPSHOT_CHUNK_SIZE = 100;
+	static final long SNAPSHOT_CHUNK_DELAY = 10;
+	static final long SNAPSHOT_TIMEOUT = 60 * 1000;
+
+	private final static String CLEAR_EL_NAME = "clear";
+	private final static String ENTRY_EL_NAME = "entry";
+	private final static String KEY_ATT = "k";
 	private final static EventName NEWMAP_EVENT_NAME = new EventName(NewMapCreatedEvent.class);
+	private final static String PUT_EL_NAME = "put";
+	private final static String REMOVE_EL_NAME = "remove";
+	private final static String VALUE_ATT = "v";
 	private static ClusterMapFactory instance;
 	private final Logger log = Logger.getLogger(this.getClass().getName());
+	// other cluster nodes connected to this node
+	private final Set<String> clusterNodes = ConcurrentHashMap.newKeySet();
+	// cluster nodes which announced support of delta replication
+	private final Set<String> deltaNodes = ConcurrentHashMap.newKeySet();
 	private final ConcurrentHashMap<String, DMap> maps = new ConcurrentHashMap<>();
+	private final String nodeId = UUID.randomUUID().toString();
 	private final TypesConverter typesConverter = new DefaultTypesConverter();
 	private EventBus eventBus;
 	private final DMap.DMapListener mapListener = new DMap.DMapListener() {
 		@Override
 		public void onClear(DMap map) {
-			MapClearEvent event = new MapClearEvent();
-			event.setUid(map.getUid());
-			eventBus.fire(event);
+			addChange(map, new Element(CLEAR_EL_NAME));
+			if (isLegacyReplicationNeeded()) {
+				MapClearEvent event = new MapClearEvent();
+				event.setUid(map.uid);
+				event.setOrigin(nodeId);
+				eventBus.fire(event);
+			}
 		}
 
 		@Override
 		public void onPut(DMap map, Object key, Object value) {
-			ElementAddEvent event = new ElementAddEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			event.setValue(typesConverter.toString(value));
-			eventBus.fire(event);
+			addChange(map, createEntry(PUT_EL_NAME, key, value));
+			if (isLegacyReplicationNeeded()) {
+				fireElementAdd(map.uid, key, value, nodeId);
+			}
 		}
 
 		@Override
 		public void onPutAll(DMap map, Map<?, ?> m) {
+			boolean legacy = isLegacyReplicationNeeded();
 			for (Map.Entry<?, ?> en : m.entrySet()) {
-				ElementAddEvent event = new ElementAddEvent();
-				event.setUid(map.getUid());
-				event.setKey(typesConverter.toString(en.getKey()));
-				event.setValue(typesConverter.toString(en.getValue()));
-				eventBus.fire(event);
+				addChange(map, createEntry(PUT_EL_NAME, en.getKey(), en.getValue()));
+				if (legacy) {
+					fireElementAdd(map.uid, en.getKey(), en.getValue(), nodeId);
+				}
 			}
 		}
 
 		@Override
 		public void onRemove(DMap map, Object key) {
-			ElementRemoveEvent event = new ElementRemoveEvent();
-			event.setUid(map.getUid());
-			event.setKey(typesConverter.toString(key));
-			eventBus.fire(event);
+			addChange(map, createEntry(REMOVE_EL_NAME, key, null));
+			if (isLegacyReplicationNeeded()) {
+				ElementRemoveEvent event = new ElementRemoveEvent();
+				event.setUid(map.uid);
+				event.setKey(typesConverter.toString(key));
+				event.setOrigin(nodeId);
+				eventBus.fire(event);
+			}
 		}
 	};
+	// started when the first map is created
+	private Timer timer = null;
 
 	public static final ClusterMapFactory get() {
 		if (instance == null) {
@@ -90,15 +143,20 @@ public class ClusterMapFactory {
 	public <K, V> Map<K, V> createMap(final String uid, final Class<K> keyClass, final Class<V> valueClass,
 									  final String... params) {
 
+		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> new DMap<K, V>(uid, this.mapListener, keyClass, valueClass));
+		startReplication();
+
+		String requestId = UUID.randomUUID().toString();
+		map.replication.expectSnapshot(requestId);
+
 		NewMapCreatedEvent event = new NewMapCreatedEvent();
 		event.setUid(uid);
 		event.setKeyClass(keyClass);
 		event.setValueClass(valueClass);
 		event.setParams(params);
+		event.setRequestId(requestId);
 		eventBus.fire(event);
 
-		DMap<K, V> map = maps.computeIfAbsent(uid, (u) -> new DMap<K, V>(uid, this.mapListener, keyClass, valueClass));
-
 		return map;
 	}
 
@@ -107,11 +165,182 @@ public class ClusterMapFactory {
 			MapDestroyEvent event = new MapDestroyEvent();
 			event.setUid(((DMap) map).getUid());
 
+			flushDelta((DMap) map);
 			eventBus.fire(event);
 			this.maps.remove(((DMap) map).getUid(), map);
 		}
 	}
 
+	/**
+	 * Sends all collected changes of maps to other nodes.
+	 */
+	public void flushDeltas() {
+		for (DMap map : maps.values()) {
+			flushDelta(map);
+		}
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		for (DMap map : maps.values()) {
+			final String prefix = "Map " + map.uid + " ";
+			final ReplicationState state = map.replication;
+			list.add(compName, prefix + "size", map.size(), Level.FINE);
+			list.add(compName, prefix + "replication lag [ms]", state.lastReplicationLag, Level.FINE);
+			list.add(compName, prefix + "max replication lag [ms]", state.maxReplicationLag.getAndSet(0), Level.FINER);
+			list.add(compName, prefix + "deltas sent", state.deltasSent.sum(), Level.FINER);
+			list.add(compName, prefix + "deltas received", state.deltasReceived.sum(), Level.FINER);
+			list.add(compName, prefix + "lost deltas", state.lostDeltas.sum(), Level.FINER);
+			list.add(compName, prefix + "snapshots sent", state.snapshotsSent.sum(), Level.FINER);
+			list.add(compName, prefix + "snapshots received", state.snapshotsReceived.sum(), Level.FINER);
+			list.add(compName, prefix + "divergences detected", state.divergencesDetected.sum(), Level.FINER);
+		}
+	}
+
+	String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Sets names of other cluster nodes connected to this node.
+	 */
+	public void setClusterNodes(Collection<String> nodes) {
+		Set<String> disconnected = new HashSet<>(clusterNodes);
+		disconnected.removeAll(nodes);
+		boolean connected = !clusterNodes.containsAll(nodes);
+		clusterNodes.addAll(nodes);
+		clusterNodes.removeAll(disconnected);
+		// node may be restarted with a different version
+		deltaNodes.removeAll(disconnected);
+		if (connected) {
+			announceDeltaSupport();
+		}
+	}
+
+	/**
+	 * Checks if changes need to be sent also as separate events, as some of connected cluster nodes did not announce
+	 * support of delta replication.
+	 */
+	boolean isLegacyReplicationNeeded() {
+		return !deltaNodes.containsAll(clusterNodes);
+	}
+
+	private void announceDeltaSupport() {
+		DeltaReplicationSupportedEvent event = new DeltaReplicationSupportedEvent();
+		event.setNode(DNSResolverFactory.getInstance().getDefaultHost());
+		eventBus.fire(event);
+	}
+
+	private void fireElementAdd(String uid, Object key, Object value, String origin) {
+		ElementAddEvent event = new ElementAddEvent();
+		event.setUid(uid);
+		event.setKey(typesConverter.toString(key));
+		event.setValue(typesConverter.toString(value));
+		event.setOrigin(origin);
+		eventBus.fire(event);
+	}
+
+	private synchronized void startReplication() {
+		if (timer != null) {
+			return;
+		}
+		timer = new Timer("cluster-map-replication", true);
+		timer.schedule(new ReplicationTask() {
+			@Override
+			protected void runTask() {
+				flushDeltas();
+			}
+		}, DELTA_FLUSH_INTERVAL, DELTA_FLUSH_INTERVAL);
+		timer.schedule(new ReplicationTask() {
+			@Override
+			protected void runTask() {
+				sendChecksums();
+				// announced periodically as the announcement may be sent before the remote node is ready
+				announceDeltaSupport();
+			}
+		}, CHECKSUM_INTERVAL, CHECKSUM_INTERVAL);
+	}
+
+	synchronized Timer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Calculates checksum of content of the map, which does not depend on order of entries.
+	 */
+	long checksum(DMap<?, ?> map) {
+		long result = 0;
+		for (Map.Entry<?, ?> e : map.map.entrySet()) {
+			long h = typesConverter.toString(e.getKey()).hashCode() * 31L +
+					typesConverter.toString(e.getValue()).hashCode();
+			// mixing of bits, so sum of hashes of similar entries does not cancel out
+			h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+			h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+			result += h ^ (h >>> 33);
+		}
+		return result;
+	}
+
+	private void addChange(DMap map, Element change) {
+		if (map.replication.addChange(change) >= DELTA_MAX_SIZE) {
+			flushDelta(map);
+		}
+	}
+
+	private Element createEntry(String name, Object key, Object value) {
+		Element entry = new Element(name);
+		entry.setAttribute(KEY_ATT, XMLUtils.escape(typesConverter.toString(key)));
+		if (value != null) {
+			entry.setAttribute(VALUE_ATT, XMLUtils.escape(typesConverter.toString(value)));
+		}
+		return entry;
+	}
+
+	private Object getEntryKey(DMap map, Element entry) {
+		return typesConverter.convert(XMLUtils.unescape(entry.getAttributeStaticStr(KEY_ATT)), map.keyClass);
+	}
+
+	private Object getEntryValue(DMap map, Element entry) {
+		return typesConverter.convert(XMLUtils.unescape(entry.getAttributeStaticStr(VALUE_ATT)), map.valueClass);
+	}
+
+	private void flushDelta(DMap map) {
+		final ReplicationState state = map.replication;
+		synchronized (state) {
+			ElementsDeltaEvent event = state.takeDelta(map.uid, nodeId);
+			if (event != null) {
+				eventBus.fire(event);
+			}
+		}
+	}
+
+	private void requestSnapshot(DMap map, String target) {
+		String requestId = UUID.randomUUID().toString();
+		map.replication.expectSnapshot(requestId);
+
+		MapSnapshotRequestEvent event = new MapSnapshotRequestEvent();
+		event.setUid(map.uid);
+		event.setRequestId(requestId);
+		event.setTarget(target);
+		eventBus.fire(event);
+	}
+
+	private void sendChecksums() {
+		for (DMap map : maps.values()) {
+			flushDelta(map);
+			MapChecksumEvent event = new MapChecksumEvent();
+			event.setUid(map.uid);
+			event.setOrigin(nodeId);
+			event.setSize(map.size());
+			event.setChecksum(checksum(map));
+			eventBus.fire(event);
+		}
+	}
+
+	private void sendSnapshot(DMap map, String requestId) {
+		map.replication.snapshotsSent.increment();
+		getTimer().schedule(new SnapshotTask(map, requestId, map.map.entrySet().iterator(), 0), 0);
+	}
+
 	private void fireOnMapCreated(Map map, String uid, String... parameters) {
 		MapCreatedEvent event = new MapCreatedEvent(map, uid, parameters);
 		eventBus.fire(event);
@@ -134,8 +363,128 @@ public class ClusterMapFactory {
 		return this.maps.get(uid);
 	}
 
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onElementsDelta(ElementsDeltaEvent event) {
+		final String uid = event.getUid();
+		final DMap map = this.maps.get(uid);
+
+		if (map == null) {
+			log.log(Level.FINE, "No map '" + uid + "' created on this node! Ignoring ElementsDelta event.");
+			return;
+		}
+
+		final ReplicationState state = map.replication;
+		if (!state.updateRemoteVersion(event.getOrigin(), event.getVersion())) {
+			log.log(Level.FINE, "Lost delta batches of map '" + uid + "' from node " + event.getOrigin() +
+					", requesting snapshot.");
+			if (!state.isSnapshotExpected(SNAPSHOT_TIMEOUT)) {
+				requestSnapshot(map, event.getOrigin());
+			}
+		}
+		state.deltasReceived.increment();
+
+		List<Element> changes = event.getChanges() == null ? null : event.getChanges().getChildren();
+		if (changes != null) {
+			for (Element change : changes) {
+				switch (change.getName()) {
+					case PUT_EL_NAME:
+						Object key = getEntryKey(map, change);
+						state.keyChanged(key);
+						map.putNoEvent(key, getEntryValue(map, change));
+						break;
+					case REMOVE_EL_NAME:
+						key = getEntryKey(map, change);
+						state.keyChanged(key);
+						map.removeNoEvent(key);
+						break;
+					case CLEAR_EL_NAME:
+						map.clearNoEvent();
+						state.mapCleared();
+						break;
+					default:
+						log.log(Level.FINE, "Unknown change of map '" + uid + "': " + change);
+						break;
+				}
+			}
+		}
+		state.updateReplicationLag(Math.max(0, System.currentTimeMillis() - event.getTimestamp()));
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapChecksum(MapChecksumEvent event) {
+		final String uid = event.getUid();
+		final DMap map = this.maps.get(uid);
+		if (map == null) {
+			return;
+		}
+
+		final ReplicationState state = map.replication;
+		boolean matches = map.size() == event.getSize() && checksum(map) == event.getChecksum();
+		// only one node of each pair requests snapshot, so they do not exchange their content
+		if (state.checksumCompared(event.getOrigin(), matches) >= CHECKSUM_MISMATCHES_LIMIT &&
+				nodeId.compareTo(event.getOrigin()) > 0 && !state.isSnapshotExpected(SNAPSHOT_TIMEOUT)) {
+			log.log(Level.FINE, "Content of map '" + uid + "' differs from content on node " + event.getOrigin() +
+					", requesting snapshot.");
+			state.divergencesDetected.increment();
+			state.checksumCompared(event.getOrigin(), true);
+			requestSnapshot(map, event.getOrigin());
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapSnapshotChunk(MapSnapshotChunkEvent event) {
+		final String uid = event.getUid();
+		final DMap map = this.maps.get(uid);
+		if (map == null) {
+			return;
+		}
+
+		final ReplicationState state = map.replication;
+		if (!state.acceptSnapshotChunk(event.getRequestId(), event.getOrigin(), event.getChunk())) {
+			return;
+		}
+		List<Element> entries = event.getEntries() == null ? null : event.getEntries().getChildren();
+		if (entries != null) {
+			for (Element entry : entries) {
+				Object key = getEntryKey(map, entry);
+				if (state.snapshotKeyReceived(key)) {
+					map.putNoEvent(key, getEntryValue(map, entry));
+				}
+			}
+		}
+		if (event.isLast()) {
+			Set<Object> keys = state.completeSnapshot();
+			if (keys != null) {
+				map.map.keySet().retainAll(keys);
+				log.log(Level.FINEST, "Received snapshot of map '" + uid + "' from node " + event.getOrigin());
+			}
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onMapSnapshotRequest(MapSnapshotRequestEvent event) {
+		if (event.getTarget() != null && !nodeId.equals(event.getTarget())) {
+			return;
+		}
+		final DMap map = this.maps.get(event.getUid());
+		if (map != null) {
+			sendSnapshot(map, event.getRequestId());
+		}
+	}
+
+	@HandleEvent(filter = HandleEvent.Type.remote)
+	void onDeltaReplicationSupported(DeltaReplicationSupportedEvent event) {
+		if (event.getNode() != null) {
+			deltaNodes.add(event.getNode());
+		}
+	}
+
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapClear(MapClearEvent event) {
+		if (event.getOrigin() != null) {
+			// sent by node which also sends this change in delta
+			return;
+		}
 		final String uid = event.getUid();
 		DMap map = this.maps.get(uid);
 		if (map == null) {
@@ -156,6 +505,10 @@ public class ClusterMapFactory {
 
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapElementAdd(ElementAddEvent event) {
+		if (event.getOrigin() != null) {
+			// sent by node which also sends this change in delta
+			return;
+		}
 		final String uid = event.getUid();
 		final DMap map = this.maps.get(uid);
 
@@ -175,6 +528,10 @@ public class ClusterMapFactory {
 
 	@HandleEvent(filter = HandleEvent.Type.remote)
 	void onMapElementRemove(ElementRemoveEvent event) {
+		if (event.getOrigin() != null) {
+			// sent by node which also sends this change in delta
+			return;
+		}
 		final String uid = event.getUid();
 		DMap map = this.maps.get(uid);
 
@@ -199,10 +556,34 @@ public class ClusterMapFactory {
 
 			DMap map = new DMap(uid, mapListener, keyClass, valueClass);
 			maps.put(uid, map);
+			startReplication();
 			fireOnMapCreated(map, uid, parameters);
 		} else {
-			DMap map = this.maps.get(uid);
-			mapListener.onPutAll(map, map);
+			DMap<?, ?> map = this.maps.get(uid);
+			if (event.getRequestId() != null) {
+				if (!map.isEmpty()) {
+					sendSnapshot(map, event.getRequestId());
+				}
+			} else {
+				// node which does not support snapshots
+				for (Map.Entry<?, ?> en : map.map.entrySet()) {
+					fireElementAdd(uid, en.getKey(), en.getValue(), null);
+				}
+			}
+		}
+	}
+
+	public static class DeltaReplicationSupportedEvent
+			implements Serializable {
+
+		private String node;
+
+		public String getNode() {
+			return node;
+		}
+
+		public void setNode(String node) {
+			this.node = node;
 		}
 	}
 
@@ -210,6 +591,11 @@ public class ClusterMapFactory {
 			implements Serializable {
 
 		private String key;
+		/**
+		 * Id of the node which sent this change also in delta, <code>null</code> if sent by node without delta
+		 * replication or as a response to the creation of a map
+		 */
+		private String origin;
 		private String uid;
 		private String value;
 
@@ -221,6 +607,14 @@ public class ClusterMapFactory {
 			this.key = key;
 		}
 
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -238,10 +632,61 @@ public class ClusterMapFactory {
 		}
 	}
 
+	public static class ElementsDeltaEvent
+			implements Serializable {
+
+		private Element changes;
+		private String origin;
+		private long timestamp;
+		private String uid;
+		private long version;
+
+		public Element getChanges() {
+			return changes;
+		}
+
+		public void setChanges(Element changes) {
+			this.changes = changes;
+		}
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public void setTimestamp(long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public void setVersion(long version) {
+			this.version = version;
+		}
+	}
+
 	public static class ElementRemoveEvent
 			implements Serializable {
 
 		private String key;
+		private String origin;
 		private String uid;
 
 		public String getKey() {
@@ -252,6 +697,14 @@ public class ClusterMapFactory {
 			this.key = key;
 		}
 
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -264,8 +717,58 @@ public class ClusterMapFactory {
 	public static class MapClearEvent
 			implements Serializable {
 
+		private String origin;
+		private String uid;
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
+	public static class MapChecksumEvent
+			implements Serializable {
+
+		private long checksum;
+		private String origin;
+		private int size;
 		private String uid;
 
+		public long getChecksum() {
+			return checksum;
+		}
+
+		public void setChecksum(long checksum) {
+			this.checksum = checksum;
+		}
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public void setSize(int size) {
+			this.size = size;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -289,11 +792,103 @@ public class ClusterMapFactory {
 		}
 	}
 
+	public static class MapSnapshotChunkEvent
+			implements Serializable {
+
+		private int chunk;
+		private Element entries;
+		private boolean last;
+		private String origin;
+		private String requestId;
+		private String uid;
+
+		public int getChunk() {
+			return chunk;
+		}
+
+		public void setChunk(int chunk) {
+			this.chunk = chunk;
+		}
+
+		public Element getEntries() {
+			return entries;
+		}
+
+		public void setEntries(Element entries) {
+			this.entries = entries;
+		}
+
+		public boolean isLast() {
+			return last;
+		}
+
+		public void setLast(boolean last) {
+			this.last = last;
+		}
+
+		public String getOrigin() {
+			return origin;
+		}
+
+		public void setOrigin(String origin) {
+			this.origin = origin;
+		}
+
+		public String getRequestId() {
+			return requestId;
+		}
+
+		public void setRequestId(String requestId) {
+			this.requestId = requestId;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
+	public static class MapSnapshotRequestEvent
+			implements Serializable {
+
+		private String requestId;
+		private String target;
+		private String uid;
+
+		public String getRequestId() {
+			return requestId;
+		}
+
+		public void setRequestId(String requestId) {
+			this.requestId = requestId;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		public void setTarget(String target) {
+			this.target = target;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+	}
+
 	public static class NewMapCreatedEvent
 			implements Serializable {
 
 		private Class keyClass;
 		private String[] params;
+		private String requestId;
 		private String uid;
 		private Class valueClass;
 
@@ -313,6 +908,14 @@ public class ClusterMapFactory {
 			this.params = params;
 		}
 
+		public String getRequestId() {
+			return requestId;
+		}
+
+		public void setRequestId(String requestId) {
+			this.requestId = requestId;
+		}
+
 		public String getUid() {
 			return uid;
 		}
@@ -331,4 +934,62 @@ public class ClusterMapFactory {
 
 	}
 
+	private abstract class ReplicationTask
+			extends TimerTask {
+
+		@Override
+		public void run() {
+			try {
+				runTask();
+			} catch (Throwable ex) {
+				// exception would cancel the timer
+				log.log(Level.WARNING, "Error during replication of distributed maps", ex);
+			}
+		}
+
+		protected abstract void runTask();
+	}
+
+	private class SnapshotTask
+			extends ReplicationTask {
+
+		private final int chunk;
+		private final Iterator<Map.Entry<?, ?>> iterator;
+		private final DMap<?, ?> map;
+		private final String requestId;
+
+		private SnapshotTask(DMap map, String requestId, Iterator iterator, int chunk) {
+			this.map = map;
+			this.requestId = requestId;
+			this.iterator = iterator;
+			this.chunk = chunk;
+		}
+
+		@Override
+		protected void runTask() {
+			if (maps.get(map.uid) != map) {
+				return;
+			}
+			Element entries = new Element("entries");
+			for (int i = 0; i < SNAPSHOT_CHUNK_SIZE && iterator.hasNext(); i++) {
+				Map.Entry<?, ?> e = iterator.next();
+				Element entry = createEntry(ENTRY_EL_NAME, e.getKey(), e.getValue());
+				entries.addChild(entry);
+			}
+
+			MapSnapshotChunkEvent event = new MapSnapshotChunkEvent();
+			event.setUid(map.uid);
+			event.setRequestId(requestId);
+			event.setOrigin(nodeId);
+			event.setChunk(chunk);
+			event.setLast(!iterator.hasNext());
+			event.setEntries(entries);
+			eventBus.fire(event);
+
+			if (!event.isLast()) {
+				getTimer().schedule(new SnapshotTask(map, requestId, iterator, chunk + 1), SNAPSHOT_CHUNK_DELAY);
+			}
+		}
+	}
+
 }
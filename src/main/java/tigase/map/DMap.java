@@ -28,6 +28,7 @@ class DMap<K, V>
 	final Class<K> keyClass;
 	final DMapListener listener;
 	final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<K, V>();
+	final ReplicationState replication = new ReplicationState();
 	final String uid;
 	final Class<V> valueClass;
 
@@ -0,0 +1,217 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.map;
+
+import tigase.xml.Element;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replication state of a single distributed map: changes waiting to be sent as a delta batch, versions of delta
+ * batches received from other nodes, snapshot being received and replication statistics.
+ */
+class ReplicationState {
+
+	final LongAdder deltasReceived = new LongAdder();
+	final LongAdder deltasSent = new LongAdder();
+	final LongAdder divergencesDetected = new LongAdder();
+	final LongAdder lostDeltas = new LongAdder();
+	final AtomicLong maxReplicationLag = new AtomicLong();
+	final LongAdder snapshotsReceived = new LongAdder();
+	final LongAdder snapshotsSent = new LongAdder();
+	volatile long lastReplicationLag = 0;
+
+	private final Map<String, Integer> checksumMismatches = new ConcurrentHashMap<>();
+	private final List<Element> pendingChanges = new ArrayList<>();
+	private final Map<String, Long> remoteVersions = new ConcurrentHashMap<>();
+	private Set<Object> changedDuringSnapshot = null;
+	private long firstPendingTimestamp = 0;
+	private int nextSnapshotChunk = 0;
+	private long snapshotActivity = 0;
+	private Set<Object> snapshotKeys = null;
+	private String snapshotRequestId = null;
+	private String snapshotSource = null;
+	private long version = 0;
+
+	/**
+	 * Adds change to the pending delta batch.
+	 *
+	 * @return number of pending changes
+	 */
+	synchronized int addChange(Element change) {
+		if (pendingChanges.isEmpty()) {
+			firstPendingTimestamp = System.currentTimeMillis();
+		}
+		pendingChanges.add(change);
+		return pendingChanges.size();
+	}
+
+	/**
+	 * Creates event with all pending changes and the next version of delta batch. Caller should fire the event while
+	 * holding lock on this instance, so batches are sent in order of their versions.
+	 *
+	 * @return event or <code>null</code> if there are no pending changes
+	 */
+	ClusterMapFactory.ElementsDeltaEvent takeDelta(String uid, String origin) {
+		if (pendingChanges.isEmpty()) {
+			return null;
+		}
+		Element changes = new Element("changes");
+		for (Element change : pendingChanges) {
+			changes.addChild(change);
+		}
+		pendingChanges.clear();
+
+		ClusterMapFactory.ElementsDeltaEvent event = new ClusterMapFactory.ElementsDeltaEvent();
+		event.setUid(uid);
+		event.setOrigin(origin);
+		event.setVersion(++version);
+		event.setTimestamp(firstPendingTimestamp);
+		event.setChanges(changes);
+		deltasSent.increment();
+		return event;
+	}
+
+	/**
+	 * Records version of delta batch received from other node.
+	 *
+	 * @return <code>false</code> if previous batches from this node were lost
+	 */
+	boolean updateRemoteVersion(String origin, long version) {
+		Long last = remoteVersions.put(origin, version);
+		if (last != null && version != last + 1) {
+			lostDeltas.add(Math.max(1, version - last - 1));
+			return false;
+		}
+		return true;
+	}
+
+	void updateReplicationLag(long lag) {
+		lastReplicationLag = lag;
+		maxReplicationLag.accumulateAndGet(lag, Math::max);
+	}
+
+	/**
+	 * Records result of checksum comparison with other node.
+	 *
+	 * @return number of consecutive mismatches of checksums of this node
+	 */
+	int checksumCompared(String origin, boolean matches) {
+		if (matches) {
+			checksumMismatches.remove(origin);
+			return 0;
+		}
+		return checksumMismatches.merge(origin, 1, Integer::sum);
+	}
+
+	synchronized void expectSnapshot(String requestId) {
+		snapshotRequestId = requestId;
+		snapshotSource = null;
+		snapshotKeys = null;
+		changedDuringSnapshot = null;
+		nextSnapshotChunk = 0;
+		snapshotActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * Checks if this node waits for a snapshot. Request is abandoned if no chunk was received within given time, as
+	 * there may be no node able to respond to it.
+	 */
+	synchronized boolean isSnapshotExpected(long timeout) {
+		return snapshotRequestId != null && System.currentTimeMillis() - snapshotActivity < timeout;
+	}
+
+	/**
+	 * Checks if chunk of snapshot should be applied. Only chunks of the snapshot requested by this node and sent by
+	 * the first node which responded are accepted, in order.
+	 */
+	synchronized boolean acceptSnapshotChunk(String requestId, String origin, int chunk) {
+		if (snapshotRequestId == null || !snapshotRequestId.equals(requestId)) {
+			return false;
+		}
+		if (snapshotSource == null) {
+			if (chunk != 0) {
+				return false;
+			}
+			snapshotSource = origin;
+			snapshotKeys = new HashSet<>();
+			changedDuringSnapshot = new HashSet<>();
+		} else if (!snapshotSource.equals(origin)) {
+			return false;
+		}
+		if (chunk != nextSnapshotChunk) {
+			// chunk was lost, snapshot is incomplete
+			expectSnapshot(null);
+			return false;
+		}
+		nextSnapshotChunk++;
+		snapshotActivity = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * Marks key as received in the snapshot.
+	 *
+	 * @return <code>false</code> if key was changed by a delta batch after the snapshot transfer started, so value
+	 * from the snapshot is outdated
+	 */
+	synchronized boolean snapshotKeyReceived(Object key) {
+		if (snapshotKeys == null) {
+			return false;
+		}
+		snapshotKeys.add(key);
+		return !changedDuringSnapshot.contains(key);
+	}
+
+	synchronized void keyChanged(Object key) {
+		if (changedDuringSnapshot != null) {
+			changedDuringSnapshot.add(key);
+		}
+	}
+
+	synchronized void mapCleared() {
+		if (changedDuringSnapshot != null) {
+			// snapshot was created before the map was cleared
+			expectSnapshot(null);
+		}
+	}
+
+	/**
+	 * Completes snapshot transfer.
+	 *
+	 * @return keys which should be kept in the map, or <code>null</code> if there is no snapshot in progress
+	 */
+	synchronized Set<Object> completeSnapshot() {
+		if (snapshotKeys == null) {
+			return null;
+		}
+		Set<Object> result = snapshotKeys;
+		result.addAll(changedDuringSnapshot);
+		expectSnapshot(null);
+		snapshotsReceived.increment();
+		return result;
+	}
+
+}
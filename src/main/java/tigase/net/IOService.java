@@ -89,10 +89,12 @@ public abstract class IOService<RefObject>
 
 	private static final Logger log = Logger.getLogger(IOService.class.getName());
 	private static final long MAX_ALLOWED_EMPTY_CALLS = 1000;
+	private static final ByteBufferPool pool = ByteBufferPool.getInstance();
+	private static final int DEFAULT_CHAR_BUFFER_SIZE = 2048;
 
 	private final ReentrantLock readInProgress = new ReentrantLock();
 	private final ReentrantLock writeInProgress = new ReentrantLock();
-	protected CharBuffer cb = CharBuffer.allocate(2048);
+	protected CharBuffer cb = null;
 	protected CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
 	protected CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
 	/**
@@ -115,6 +117,7 @@ public abstract class IOService<RefObject>
 	private Certificate peerCertificate;
 	private long[] rdData = new long[60];
 	private RefObject refObject = null;
+	private boolean releaseReadBuffers = false;
 
 	// properties from block below should not be used without proper knowledge
 	// ----- BEGIN ---------------------------------------------------------------
@@ -174,8 +177,7 @@ public abstract class IOService<RefObject>
 			throw e;
 		}
 		socketInputSize = socketIO.getSocketChannel().socket().getReceiveBufferSize();
-		socketInput = ByteBuffer.allocate(socketInputSize);
-		socketInput.order(byteOrder());
+		acquireInputBuffer();
 
 		Socket sock = socketIO.getSocketChannel().socket();
 
@@ -201,6 +203,9 @@ public abstract class IOService<RefObject>
 					if ((receivedPackets() > 0) && (serviceListener != null)) {
 						serviceListener.packetsReady(this);
 					}    // end of if (receivedPackets.size() > 0)
+					if (releaseReadBuffers) {
+						releaseReadBuffers();
+					}
 				} finally {
 					readInProgress.unlock();
 					if (!isConnected()) {
@@ -248,6 +253,14 @@ public abstract class IOService<RefObject>
 				log.log(Level.FINEST, "Socket: " + socketIO + ", Exception while stopping service: " + connectionId, e);
 			}
 		} finally {
+			// buffers cannot be released if forceStop() was called during reading as they may still be used
+			if (!readInProgress.isHeldByCurrentThread() && readInProgress.tryLock()) {
+				try {
+					releaseReadBuffers();
+				} finally {
+					readInProgress.unlock();
+				}
+			}
 			if (serviceListener != null) {
 				if (log.isLoggable(Level.FINER)) {
 					log.log(Level.FINER, "Calling stop on the listener: {0}", serviceListener);
@@ -459,6 +472,26 @@ public abstract class IOService<RefObject>
 		return socketIO.waitingToSendSize();
 	}
 
+	/**
+	 * Returns number of bytes of buffers used for reading which are kept by the connection.
+	 */
+	public long getRetainedBufferBytes() {
+		long result = 0;
+		ByteBuffer input = socketInput;
+		if (input != null) {
+			result += input.capacity();
+		}
+		CharBuffer chars = cb;
+		if (chars != null) {
+			result += chars.capacity() * 2;
+		}
+		IOInterface io = socketIO;
+		if (io != null) {
+			result += io.getRetainedBufferBytes();
+		}
+		return result;
+	}
+
 	public long getBuffOverflow(boolean reset) {
 		return socketIO.getBuffOverflow(reset);
 	}
@@ -607,6 +640,31 @@ public abstract class IOService<RefObject>
 		this.bufferLimit = bufferLimit;
 	}
 
+	/**
+	 * Releases read buffers of the connection if there is no read in progress. Used to reduce memory used by idle
+	 * connections.
+	 *
+	 * @return <code>true</code> if any buffer was released
+	 */
+	public boolean releaseIdleBuffers() {
+		if (!readInProgress.tryLock()) {
+			return false;
+		}
+		try {
+			return releaseReadBuffers();
+		} finally {
+			readInProgress.unlock();
+		}
+	}
+
+	/**
+	 * Enables returning of read buffers to the buffer pool after all received data was processed, which reduces
+	 * memory used by idle connections.
+	 */
+	public void setReleaseReadBuffers(boolean releaseReadBuffers) {
+		this.releaseReadBuffers = releaseReadBuffers;
+	}
+
 	public void setIOServiceListener(IOServiceListener<IOService<RefObject>> sl) {
 		this.serviceListener = sl;
 	}
@@ -667,6 +725,10 @@ public abstract class IOService<RefObject>
 			log.log(Level.FINEST, "Socket: " + socketIO, thr);
 		}
 		try {
+			if (socketInput == null) {
+				acquireInputBuffer();
+			}
+
 			ByteBuffer tmpBuffer = socketIO.read(socketInput);
 
 			if (socketIO.bytesRead() > 0) {
@@ -718,18 +780,22 @@ public abstract class IOService<RefObject>
 		// call() which has concurrent call protection.
 		// synchronized (socketIO) {
 		try {
+			if (socketInput == null) {
+				acquireInputBuffer();
+			}
 
 			// resizeInputBuffer();
 			// Maybe we can shrink the input buffer??
-			if ((socketInput.capacity() > socketInputSize) && (socketInput.remaining() == socketInput.capacity())) {
+			if ((socketInput.capacity() > ByteBufferPool.capacityFor(socketInputSize)) &&
+					(socketInput.remaining() == socketInput.capacity())) {
 
 				// Yes, looks like we can
 				if (log.isLoggable(Level.FINE)) {
 					log.log(Level.FINE, "Socket: {0}, Resizing socketInput down to {1} bytes.",
 							new Object[]{socketIO, socketInputSize});
 				}
-				socketInput = ByteBuffer.allocate(socketInputSize);
-				socketInput.order(byteOrder());
+				pool.release(socketInput);
+				acquireInputBuffer();
 				cb = CharBuffer.allocate(socketInputSize * 4);
 			}
 
@@ -789,7 +855,9 @@ public abstract class IOService<RefObject>
 					// log.finer("cb.position()=" + cb.position());
 					// }
 					// tmpBuffer.flip();
-					if (cb.capacity() < tmpBuffer.remaining() * 4) {
+					if (cb == null) {
+						cb = CharBuffer.allocate(Math.max(DEFAULT_CHAR_BUFFER_SIZE, tmpBuffer.remaining() * 4));
+					} else if (cb.capacity() < tmpBuffer.remaining() * 4) {
 						if (log.isLoggable(Level.FINEST)) {
 							log.log(Level.FINEST, "Socket: {0}, resizing character buffer to: {1}",
 									new Object[]{socketIO, tmpBuffer.remaining()});
@@ -1038,7 +1106,7 @@ public abstract class IOService<RefObject>
 	}
 
 	protected boolean isInputBufferEmpty() {
-		return (socketInput != null) && (socketInput.remaining() == socketInput.capacity());
+		return (socketInput == null) || (socketInput.remaining() == socketInput.capacity());
 	}
 
 	protected IOInterface getIO() {
@@ -1069,10 +1137,11 @@ public abstract class IOService<RefObject>
 				log.log(Level.FINE, "Socket: {0}, Resizing socketInput to {1} bytes.", new Object[]{socketIO, newSize});
 			}
 
-			ByteBuffer b = ByteBuffer.allocate(newSize);
+			ByteBuffer b = pool.acquire(newSize);
 
 			b.order(byteOrder());
 			b.put(socketInput);
+			pool.release(socketInput);
 			socketInput = b;
 		} else {
 
@@ -1106,6 +1175,39 @@ public abstract class IOService<RefObject>
 		}
 	}
 
+	private void acquireInputBuffer() {
+		socketInput = pool.acquire(socketInputSize);
+		socketInput.order(byteOrder());
+	}
+
+	/**
+	 * Returns read buffers without any pending data to the buffer pool and drops character buffer used for decoding.
+	 * Buffers will be acquired again on the next read. Needs to be called with <code>readInProgress</code> lock held.
+	 *
+	 * @return <code>true</code> if any buffer was released
+	 */
+	private boolean releaseReadBuffers() {
+		// TLS layer may read data during writing, so no write may be in progress
+		if (writeInProgress.isHeldByCurrentThread() || !writeInProgress.tryLock()) {
+			return false;
+		}
+		try {
+			long retained = getRetainedBufferBytes();
+			if ((socketInput != null) && (socketInput.position() == 0) &&
+					(socketInput.limit() == socketInput.capacity())) {
+				pool.release(socketInput);
+				socketInput = null;
+			}
+			cb = null;
+			if (socketIO != null) {
+				socketIO.releaseBuffers();
+			}
+			return getRetainedBufferBytes() < retained;
+		} finally {
+			writeInProgress.unlock();
+		}
+	}
+
 	private void setLastTransferTime() {
 		lastTransferTime = System.currentTimeMillis();
 	}
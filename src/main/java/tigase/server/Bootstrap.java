@@ -26,6 +26,7 @@ import tigase.conf.LoggingBean;
 import tigase.db.beans.DataSourceBean;
 import tigase.db.beans.MDPoolBean;
 import tigase.eventbus.EventBusFactory;
+import tigase.io.ByteBufferPool;
 import tigase.kernel.DefaultTypesConverter;
 import tigase.kernel.KernelException;
 import tigase.kernel.beans.Autostart;
@@ -34,6 +35,7 @@ import tigase.kernel.beans.selector.ServerBeanSelector;
 import tigase.kernel.core.BeanConfig;
 import tigase.kernel.core.DependencyGrapher;
 import tigase.kernel.core.Kernel;
+import tigase.kernel.core.ParallelBeanInitializer;
 import tigase.net.ConnectionOpenThread;
 import tigase.osgi.ModulesManagerImpl;
 import tigase.server.monitor.MonitorRuntime;
@@ -48,7 +50,9 @@ import tigase.xmpp.jid.BareJID;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,6 +67,8 @@ import static tigase.conf.ConfiguratorAbstract.LOGGING_KEY;
  */
 public class Bootstrap {
 
+	public static final String PARALLEL_BEAN_INITIALIZATION_PROP_KEY = "parallel-bean-initialization";
+
 	private static final Logger log = Logger.getLogger(Bootstrap.class.getCanonicalName());
 
 	private final Kernel kernel;
@@ -70,6 +76,8 @@ public class Bootstrap {
 	private ConfigHolder config = new ConfigHolder();
 	// Common logging setup
 	private Map<String, String> loggingSetup = new LinkedHashMap<String, String>(10);
+	private long phaseStart = System.nanoTime();
+	private final Map<String, Long> startupPhases = new LinkedHashMap<>();
 
 	public Bootstrap() {
 		kernel = new Kernel("root");
@@ -93,17 +101,19 @@ public class Bootstrap {
 	}
 
 	public void init(String[] args) throws ConfigReader.ConfigException, IOException {
+		phaseStart = System.nanoTime();
 		config.loadConfiguration(args);
 		configureLogManager();
+		startupPhaseCompleted("configuration loading");
 	}
 
-	private void initializeAutostartBeans(Kernel kernel) {
+	private void initializeAutostartBeans(Kernel kernel, List<BeanConfig> beansToInitialize) {
 		log.config("Starting 'autostart' beans in kernel " + kernel.getName());
 		for (BeanConfig bc : kernel.getDependencyManager().getBeanConfigs()) {
 			if (Kernel.class.isAssignableFrom(bc.getClazz())) {
 				Kernel sk = kernel.getInstance(bc.getBeanName());
 				if (sk != kernel) {
-					initializeAutostartBeans(sk);
+					initializeAutostartBeans(sk, beansToInitialize);
 					continue;
 				}
 			}
@@ -117,7 +127,11 @@ public class Bootstrap {
 			if ((bc.getState() == BeanConfig.State.registered || bc.getState() == BeanConfig.State.initialized) &&
 					autostart != null) {
 				log.config("Autostarting bean " + bc);
-				kernel.getInstance(bc.getBeanName());
+				if (beansToInitialize != null) {
+					beansToInitialize.add(bc);
+				} else {
+					kernel.getInstance(bc.getBeanName());
+				}
 			}
 		}
 	}
@@ -214,6 +228,45 @@ public class Bootstrap {
 		return defaults;
 	}
 
+	private void logStartupReport(ClassUtilBean classUtilBean) {
+		StringBuilder sb = new StringBuilder("Startup phases: ");
+		long total = 0;
+		for (Map.Entry<String, Long> e : startupPhases.entrySet()) {
+			total += e.getValue();
+			sb.append(e.getKey()).append(": ").append(e.getValue()).append("ms");
+			if ("classes loading".equals(e.getKey())) {
+				sb.append(" (")
+						.append(classUtilBean.getAllClasses().size())
+						.append(" classes, ")
+						.append(classUtilBean.getIndexedPathsCount())
+						.append(" jars loaded using index of beans, ")
+						.append(classUtilBean.getScannedPathsCount())
+						.append(" jars and directories scanned)");
+			}
+			sb.append(", ");
+		}
+		sb.append("total: ").append(total).append("ms; JVM uptime: ");
+		sb.append(ManagementFactory.getRuntimeMXBean().getUptime()).append("ms, loaded classes: ");
+		sb.append(ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+		log.info(sb.toString());
+	}
+
+	private static boolean isEnabled(Object value) {
+		if (value instanceof ConfigReader.Variable) {
+			value = ((ConfigReader.Variable) value).calculateValue();
+		}
+		if (value instanceof String) {
+			return Boolean.parseBoolean((String) value);
+		}
+		return value instanceof Boolean && (Boolean) value;
+	}
+
+	private void startupPhaseCompleted(String phase) {
+		long now = System.nanoTime();
+		startupPhases.put(phase, TimeUnit.NANOSECONDS.toMillis(now - phaseStart));
+		phaseStart = now;
+	}
+
 	public void setProperties(Map<String, Object> props) {
 		this.config.setProperties(props);
 	}
@@ -247,18 +300,10 @@ public class Bootstrap {
 
 	public void start() {
 		initializeDnsResolver();
-		Object clusterMode = config.getProperties()
-				.getOrDefault("cluster-mode", config.getProperties().getOrDefault("--cluster-mode", Boolean.FALSE));
-		if (clusterMode instanceof ConfigReader.Variable) {
-			clusterMode = ((ConfigReader.Variable) clusterMode).calculateValue();
-			if (clusterMode == null) {
-				clusterMode = Boolean.FALSE;
-			}
-		}
-		if (clusterMode instanceof String) {
-			clusterMode = Boolean.parseBoolean((String) clusterMode);
-		}
-		if ((Boolean) clusterMode) {
+		boolean clusterMode = isEnabled(config.getProperties()
+												.getOrDefault("cluster-mode",
+															  config.getProperties().getOrDefault("--cluster-mode", false)));
+		if (clusterMode) {
 			System.setProperty("tigase.cache", "false");
 			log.log(Level.WARNING, "Tigase cache turned off");
 		}
@@ -278,8 +323,8 @@ public class Bootstrap {
 			}
 		}
 
+		ClassUtilBean classUtilBean = null;
 		try {
-			ClassUtilBean classUtilBean = null;
 			if (XMPPServer.isOSGi()) {
 				classUtilBean = (ClassUtilBean) Class.forName("tigase.osgi.util.ClassUtilBean").newInstance();
 			} else {
@@ -291,6 +336,7 @@ public class Bootstrap {
 		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
 			throw new RuntimeException(e);
 		}
+		startupPhaseCompleted("classes loading");
 
 		// register default types converter and properties bean configurator
 		kernel.registerBean(DefaultTypesConverter.class).exportable().exec();
@@ -309,6 +355,9 @@ public class Bootstrap {
 		kernel.registerBean(RosterFactory.Bean.class).setPinned(true).exec();
 		kernel.getInstance(RosterFactory.Bean.class);
 
+		kernel.registerBean(ByteBufferPool.Bean.class).setPinned(true).exec();
+		kernel.getInstance(ByteBufferPool.Bean.class);
+
 		// if null then we register global subbeans
 		configurator.registerBeans(null, null, config.getProperties());
 
@@ -316,6 +365,7 @@ public class Bootstrap {
 		dg.setKernel(kernel);
 
 		log.log(Level.CONFIG, dg.getDependencyGraph());
+		startupPhaseCompleted("beans registration");
 
 		// this is called to make sure that data sources are properly initialized
 		if (ServerBeanSelector.getConfigType(kernel) != ConfigTypeEnum.SetupMode) {
@@ -324,9 +374,34 @@ public class Bootstrap {
 				throw new KernelException("Failed to initialize data sources!");
 			}
 		}
+		startupPhaseCompleted("data sources initialization");
+
+		ParallelBeanInitializer parallelInitializer = null;
+		if (isEnabled(config.getProperties().getOrDefault(PARALLEL_BEAN_INITIALIZATION_PROP_KEY, Boolean.FALSE))) {
+			log.info("Using parallel initialization of beans");
+			parallelInitializer = new ParallelBeanInitializer();
+		}
+		try {
+			startBeans(parallelInitializer, configurator);
+		} finally {
+			if (parallelInitializer != null) {
+				parallelInitializer.shutdown();
+			}
+		}
+
+		log.log(Level.CONFIG, dg.getInitializationReport());
+		logStartupReport(classUtilBean);
+	}
+
+	private void startBeans(ParallelBeanInitializer parallelInitializer, DSLBeanConfigurator configurator) {
+		if (parallelInitializer != null) {
+			parallelInitializer.initialize(
+					Collections.singletonList(kernel.getDependencyManager().getBeanConfig("message-router")));
+		}
 		MessageRouter mr = kernel.getInstance("message-router");
 		log.info("Starting MessageRouter");
 		mr.start();
+		startupPhaseCompleted("message router start");
 
 //		StringBuilder sb = new StringBuilder("\n======");
 //		sb.append("\n");
@@ -358,7 +433,14 @@ public class Bootstrap {
 
 		MonitorRuntime.getMonitorRuntime().addShutdownHook(shutdownHook);
 
-		initializeAutostartBeans(kernel);
+		if (parallelInitializer != null) {
+			List<BeanConfig> beansToInitialize = new ArrayList<>();
+			initializeAutostartBeans(kernel, beansToInitialize);
+			parallelInitializer.initialize(beansToInitialize);
+		} else {
+			initializeAutostartBeans(kernel, null);
+		}
+		startupPhaseCompleted("autostart beans initialization");
 	}
 
 	public void stop() {
@@ -28,8 +28,10 @@ import tigase.kernel.core.Kernel;
 import tigase.net.*;
 import tigase.server.script.CommandIfc;
 import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.stats.Histogram;
 import tigase.stats.StatisticsList;
 import tigase.util.common.TimerTask;
+import tigase.util.common.TimingWheel;
 import tigase.util.repository.DataTypes;
 import tigase.xml.Element;
 import tigase.xmpp.StreamError;
@@ -117,6 +119,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			new Element("ping", new String[]{"xmlns"}, new String[]{"urn:xmpp:ping"})}, new String[]{"type", "id"},
 															 new String[]{"get", "tigase-ping"});
 	private static final Logger log = Logger.getLogger(ConnectionManager.class.getName());
+	// 4096 ticks of 1 second, rotation of the wheel is longer than default watchdog timeout
+	private static final int WATCHDOG_WHEEL_SLOTS = 4096;
+	private static final long WATCHDOG_WHEEL_TICK = SECOND;
 	public enum LIMIT_ACTION {
 		DISCONNECT,
 		DROP_PACKETS
@@ -166,6 +171,9 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	@ConfigField(desc = "Flash cross domain policy file path", alias = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_KEY)
 	private String flashCrossDomainPolicyFile = XMPPIOService.CROSS_DOMAIN_POLICY_FILE_PROP_VAL;
 	private String flassCrossDomainPolicy = null;
+	@ConfigField(desc = "Time of inactivity after which read buffers of connection are released, 0 disables releasing", alias = "idle-buffers-release-time")
+	private long idleBuffersReleaseTime = 0;
+	private long idleBuffersReleased = 0;
 	private IOServiceStatisticsGetter ioStatsGetter = new IOServiceStatisticsGetter();
 	@ConfigField(desc = "Limit of bytes per minute for connection")
 	private long last_minute_bin_limit = LAST_MINUTE_BIN_LIMIT_PROP_VAL;
@@ -175,6 +183,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long maxInactivityTime = getMaxInactiveTime();
 	@ConfigField(desc = "Limit of size for network buffer for connection", alias = "net-buffer-limit")
 	private int net_buffer_limit = 0;
+	private long retainedBufferBytes = 0;
 	private Set<ConnectionListenerImpl> pending_open = Collections.synchronizedSet(
 			new HashSet<ConnectionListenerImpl>());
 	@Inject
@@ -189,12 +198,22 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	private long total_bin_limit = TOTAL_BIN_LIMIT_PROP_VAL;
 	@ConfigField(desc = "Limit of total number of packets per connection")
 	private long total_packets_limit = TOTAL_PACKETS_LIMIT_PROP_VAL;
+	@ConfigField(desc = "Release read buffers of connections to the buffer pool when all received data was processed")
+	private boolean releaseReadBuffers = false;
 	private LinkedList<Map<String, Object>> waitingTasks = new LinkedList<Map<String, Object>>();
 	private Watchdog watchdog = null;
+	private long watchdogExpirationsLast = 0;
+	private long watchdogExpirationsPerSecond = 0;
 	private long watchdogRuns = 0;
 	private long watchdogStopped = 0;
 	private long watchdogTests = 0;
+	@ConfigField(desc = "Use timing wheel in watchdog to visit only connections which were inactive for watchdog timeout", alias = "watchdog-timing-wheel")
+	private boolean watchdogTimingWheel = false;
+	private TimingWheel<IO> watchdogWheel = null;
 	private boolean white_char_ack = WHITE_CHAR_ACK_PROP_VAL;
+	@ConfigField(desc = "Size of buffer in bytes for writing waiting packets in batches, 0 disables batching")
+	private int writeBatchSize = 0;
+	private final Histogram writeBatchHistogram = new Histogram("Write batch size", null, 8, Level.FINE);
 
 	@ConfigField(desc = "Action taken if XMPP limit is exceeded")
 	private LIMIT_ACTION xmppLimitAction = LIMIT_ACTION.DISCONNECT;
@@ -286,6 +305,18 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		return true;
 	}
 
+	@Override
+	public synchronized void everySecond() {
+		super.everySecond();
+
+		TimingWheel<IO> wheel = watchdogWheel;
+		if (wheel != null) {
+			long expirations = wheel.getExpirations();
+			watchdogExpirationsPerSecond = expirations - watchdogExpirationsLast;
+			watchdogExpirationsLast = expirations;
+		}
+	}
+
 	@Override
 	public synchronized void everyMinute() {
 		super.everyMinute();
@@ -300,6 +331,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 		services_size = tmp;
 		doForAllServices(ioStatsGetter);
+		retainedBufferBytes = ioStatsGetter.getAndResetRetainedBufferBytes();
 	}
 
 	@Override
@@ -445,6 +477,11 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		services.put(id, service);
 		++services_size;
 
+		TimingWheel<IO> wheel = watchdogWheel;
+		if (wheel != null) {
+			wheel.schedule(service, System.currentTimeMillis() + Math.min(watchdogTimeout, maxInactivityTime));
+		}
+
 		if (enableServiceConnectedTimeout(service)) {
 			ServiceConnectedTimer startTimer = new ServiceConnectedTimer(service);
 			addTimerTask(startTimer, serviceConnectedTimeout, TimeUnit.SECONDS);
@@ -465,6 +502,11 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 
 		ServiceConnectedTimer.cancel(service);
 
+		TimingWheel<IO> wheel = watchdogWheel;
+		if (wheel != null) {
+			wheel.cancel(service);
+		}
+
 		// synchronized(service) {
 		String id = getUniqueId(service);
 
@@ -652,6 +694,21 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		list.add(getName(), "Watchdog runs", watchdogRuns, Level.FINER);
 		list.add(getName(), "Watchdog tests", watchdogTests, Level.FINE);
 		list.add(getName(), "Watchdog stopped", watchdogStopped, Level.FINE);
+		TimingWheel<IO> wheel = watchdogWheel;
+		if (wheel != null) {
+			list.add(getName(), "Watchdog wheel occupancy", wheel.size(), Level.FINE);
+			list.add(getName(), "Watchdog wheel expirations", wheel.getExpirations(), Level.FINER);
+			list.add(getName(), "Watchdog wheel expirations/sec", watchdogExpirationsPerSecond, Level.FINE);
+		}
+		if (writeBatchSize > 0) {
+			writeBatchHistogram.getStatistics(getName(), list);
+		}
+		list.add(getName(), "Retained buffer bytes", retainedBufferBytes, Level.FINE);
+		list.add(getName(), "Retained buffer bytes per connection",
+				 services_size > 0 ? retainedBufferBytes / services_size : 0, Level.FINE);
+		if (idleBuffersReleaseTime > 0) {
+			list.add(getName(), "Idle buffers released", idleBuffersReleased, Level.FINE);
+		}
 		for (XMPPIOProcessor proc : processors) {
 			proc.getStatistics(list);
 		}
@@ -778,6 +835,16 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 	}
 
 	protected void setupWatchdogThread() {
+		if (watchdogTimingWheel) {
+			long now = System.currentTimeMillis();
+			TimingWheel<IO> wheel = new TimingWheel<>(WATCHDOG_WHEEL_SLOTS, WATCHDOG_WHEEL_TICK, now);
+			for (IO service : services.values()) {
+				wheel.schedule(service, now + Math.min(watchdogTimeout, maxInactivityTime));
+			}
+			watchdogWheel = wheel;
+		} else {
+			watchdogWheel = null;
+		}
 		watchdog = newWatchdog();
 		watchdog.setName("Watchdog - " + getName());
 		watchdog.setDaemon(true);
@@ -1200,6 +1267,8 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			IO serv = getXMPPIOServiceInstance();
 			serv.setSslContextContainer(sslContextContainer);
 			serv.setBufferLimit(net_buffer_limit);
+			serv.setWriteBatching(writeBatchSize, writeBatchHistogram);
+			serv.setReleaseReadBuffers(releaseReadBuffers);
 			serv.setCertificateContainer(certificateContainer);
 
 			((XMPPDomBuilderHandler) serv.getSessionData().get(DOM_HANDLER)).setElementsLimit(elements_number_limit);
@@ -1338,6 +1407,7 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			implements ServiceChecker<IO> {
 
 		private StatisticsList list = new StatisticsList(Level.ALL);
+		private long retainedBufferBytes = 0;
 
 		@Override
 		public synchronized void check(IO service) {
@@ -1347,11 +1417,25 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			service.getPacketsReceived(true);
 			service.getPacketsSent(true);
 
+			// releasing buffers of idle connections, they will be acquired again on the next read
+			if (idleBuffersReleaseTime > 0 &&
+					(System.currentTimeMillis() - service.getLastTransferTime()) >= idleBuffersReleaseTime &&
+					service.releaseIdleBuffers()) {
+				++idleBuffersReleased;
+			}
+			retainedBufferBytes += service.getRetainedBufferBytes();
+
 			// service.getStatistics(list, true);
 			// bytesReceived += list.getValue("socketio", "Bytes received", -1l);
 			// bytesSent += list.getValue("socketio", "Bytes sent", -1l);
 			// socketOverflow += list.getValue("socketio", "Buffers overflow", -1l);
 		}
+
+		public synchronized long getAndResetRetainedBufferBytes() {
+			long result = retainedBufferBytes;
+			retainedBufferBytes = 0;
+			return result;
+		}
 	}
 
 	/**
@@ -1368,12 +1452,20 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 		public void run() {
 			while (!shutdown) {
 				try {
+					TimingWheel<IO> wheel = watchdogWheel;
 
-					// Sleep...
-					Thread.sleep(watchdogDelay);
-					++watchdogRuns;
+					if (wheel != null) {
+						Thread.sleep(wheel.getTickDuration());
+						++watchdogRuns;
 
-					executeWatchdog();
+						executeWatchdogWheel(wheel);
+					} else {
+						// Sleep...
+						Thread.sleep(watchdogDelay);
+						++watchdogRuns;
+
+						executeWatchdog();
+					}
 				} catch (InterruptedException e) {    /* Do nothing here */
 				}
 			}
@@ -1408,77 +1500,105 @@ public abstract class ConnectionManager<IO extends XMPPIOService<?>>
 			doForAllServices(new ServiceChecker<IO>() {
 				@Override
 				public void check(final XMPPIOService service) {
-					try {
-						if (null != service) {
-							long sinceLastTransfer = getDurationSinceLastTransfer(service);
-							if (log.isLoggable(Level.FINEST)) {
-								log.log(Level.FINEST,
-										"Testing service: {0}, sinceLastTransfer: {1}, maxInactivityTime: {2}, watchdogTimeout: {3}, watchdogDelay: {4}, watchdogPingType: {5} ",
-										new Object[]{service, sinceLastTransfer, maxInactivityTime,
-													 watchdogTimeout, watchdogDelay, watchdogPingType});
-							}
-							if (sinceLastTransfer >= maxInactivityTime) {
-
-								// Stop the service if max keep-alive time is exceeded
-								// for non-active connections.
-								if (log.isLoggable(Level.INFO)) {
-									log.log(Level.INFO,
-											"{0}: Max inactive time exceeded, stopping: {1} ( sinceLastTransfer: {2}, maxInactivityTime: {3}, watchdogTimeout: {4}, watchdogDelay: {5}, watchdogPingType: {6} )",
-											new Object[]{getName(), service, sinceLastTransfer,
-														 maxInactivityTime, watchdogTimeout, watchdogDelay,
-														 watchdogPingType});
-								}
-								++watchdogStopped;
-								service.forceStop();
-							} else {
-								if (sinceLastTransfer >= (watchdogTimeout)) {
-
-									/** At least once every configured timings check if the
-									 * connection is still alive with the use of configured
-									 * ping type. */
-									switch (watchdogPingType) {
-										case XMPP:
-											pingPacket = Iq.packetInstance(pingElement.clone(), JID.jidInstanceNS(
-													(String) service.getSessionData().get(XMPPIOService.HOSTNAME_KEY)),
-																		   JID.jidInstanceNS(service.getUserJid()));
-											if (log.isLoggable(Level.FINEST)) {
-												log.log(Level.FINEST, "{0}, sending XMPP ping {1}",
-														new Object[]{service, pingPacket});
-											}
-											if (!writePacketToSocket((IO) service, pingPacket)) {
-												// writing failed, stopp service
-												++watchdogStopped;
-												service.forceStop();
-											}
-											break;
-
-										case WHITESPACE:
-											if (log.isLoggable(Level.FINEST)) {
-												log.log(Level.FINEST, "Sending whitespace ping for service {0}",
-														new Object[]{service});
-											}
-											service.writeRawData(" ");
-											break;
-									}
-									++watchdogTests;
-								}
-							}
+					checkService(service);
+				}
+			});
+		}
+
+		/**
+		 * Visits only connections which deadlines expired in the timing wheel. Deadline of connection is calculated
+		 * from its last activity, so activity on the connection does not require any rescheduling and connection is
+		 * rescheduled only if it was active since it was added to the wheel.
+		 */
+		private void executeWatchdogWheel(TimingWheel<IO> wheel) {
+			final long now = System.currentTimeMillis();
+			final long checkTime = Math.min(watchdogTimeout, maxInactivityTime);
+			for (IO service : wheel.advance(now)) {
+				String id = getUniqueId(service);
+				if (id == null || services.get(id) != service) {
+					continue;
+				}
+				long sinceLastTransfer = getDurationSinceLastTransfer(service);
+				if (sinceLastTransfer < checkTime) {
+					wheel.schedule(service, now + checkTime - sinceLastTransfer);
+				} else {
+					// scheduling before the check, as connection stopped by the check is removed from the wheel
+					wheel.schedule(service, now + watchdogDelay);
+					checkService(service);
+				}
+			}
+		}
+
+		private void checkService(final XMPPIOService service) {
+			try {
+				if (null != service) {
+					long sinceLastTransfer = getDurationSinceLastTransfer(service);
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST,
+								"Testing service: {0}, sinceLastTransfer: {1}, maxInactivityTime: {2}, watchdogTimeout: {3}, watchdogDelay: {4}, watchdogPingType: {5} ",
+								new Object[]{service, sinceLastTransfer, maxInactivityTime,
+											 watchdogTimeout, watchdogDelay, watchdogPingType});
+					}
+					if (sinceLastTransfer >= maxInactivityTime) {
+
+						// Stop the service if max keep-alive time is exceeded
+						// for non-active connections.
+						if (log.isLoggable(Level.INFO)) {
+							log.log(Level.INFO,
+									"{0}: Max inactive time exceeded, stopping: {1} ( sinceLastTransfer: {2}, maxInactivityTime: {3}, watchdogTimeout: {4}, watchdogDelay: {5}, watchdogPingType: {6} )",
+									new Object[]{getName(), service, sinceLastTransfer,
+												 maxInactivityTime, watchdogTimeout, watchdogDelay,
+												 watchdogPingType});
 						}
-					} catch (IOException e) {
-
-						// Close the service
-						try {
-							if (service != null) {
-								log.info(getName() + "Found dead connection, stopping: " + service);
-								++watchdogStopped;
-								service.forceStop();
+						++watchdogStopped;
+						service.forceStop();
+					} else {
+						if (sinceLastTransfer >= (watchdogTimeout)) {
+
+							/** At least once every configured timings check if the
+							 * connection is still alive with the use of configured
+							 * ping type. */
+							switch (watchdogPingType) {
+								case XMPP:
+									pingPacket = Iq.packetInstance(pingElement.clone(), JID.jidInstanceNS(
+											(String) service.getSessionData().get(XMPPIOService.HOSTNAME_KEY)),
+																   JID.jidInstanceNS(service.getUserJid()));
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "{0}, sending XMPP ping {1}",
+												new Object[]{service, pingPacket});
+									}
+									if (!writePacketToSocket((IO) service, pingPacket)) {
+										// writing failed, stopp service
+										++watchdogStopped;
+										service.forceStop();
+									}
+									break;
+
+								case WHITESPACE:
+									if (log.isLoggable(Level.FINEST)) {
+										log.log(Level.FINEST, "Sending whitespace ping for service {0}",
+												new Object[]{service});
+									}
+									service.writeRawData(" ");
+									break;
 							}
-						} catch (Exception ignore) {
-							// Do nothing here as we expect Exception to be thrown here...
+							++watchdogTests;
 						}
 					}
 				}
-			});
+			} catch (IOException e) {
+
+				// Close the service
+				try {
+					if (service != null) {
+						log.info(getName() + "Found dead connection, stopping: " + service);
+						++watchdogStopped;
+						service.forceStop();
+					}
+				} catch (Exception ignore) {
+					// Do nothing here as we expect Exception to be thrown here...
+				}
+			}
 		}
 	}
 
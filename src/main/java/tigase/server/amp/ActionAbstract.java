@@ -27,7 +27,6 @@ import tigase.server.Packet;
 import tigase.xml.Element;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.PacketErrorTypeException;
-import tigase.xmpp.impl.roster.RosterAbstract;
 import tigase.xmpp.impl.roster.RosterElement;
 import tigase.xmpp.impl.roster.RosterFlat;
 import tigase.xmpp.jid.BareJID;
@@ -142,13 +141,9 @@ public abstract class ActionAbstract
 		}
 
 		try {
-			String roster_str = user_repository.getData(user.getBareJID(), RosterAbstract.ROSTER);
-
-			if (roster_str != null) {
-				Map<BareJID, RosterElement> roster = new LinkedHashMap<BareJID, RosterElement>();
-
-				RosterFlat.parseRosterUtil(roster_str, roster, null);
+			Map<BareJID, RosterElement> roster = new LinkedHashMap<BareJID, RosterElement>();
 
+			if (RosterFlat.loadRosterUtil(user_repository, user.getBareJID(), roster)) {
 				RosterElement re = roster.get(contact.getBareJID());
 
 				if (re != null) {
@@ -77,6 +77,11 @@ public class JDBCMsgRepository
 	private String MSGS_LIST_MESSAGES = "{ call Tig_OfflineMessages_ListMessages(?) }";
 	private boolean initialized = false;
 
+	@Override
+	public RepositoryExecutor getExecutor(BareJID user) {
+		return data_repo.getExecutor(user);
+	}
+
 	@Override
 	public void setDataSource(DataRepository data_repo) {
 		try {
@@ -307,6 +312,11 @@ public class JDBCMsgRepository
 		return loadMessagesToJID(session, delete, null);
 	}
 
+	@Override
+	public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+		return loadMessagesToJID(to.getBareJID(), delete, null);
+	}
+
 	private final ReentrantReadWriteLock locks[] = IntStream.range(0, 128)
 			.mapToObj(i -> new ReentrantReadWriteLock())
 			.toArray(ReentrantReadWriteLock[]::new);
@@ -320,15 +330,20 @@ public class JDBCMsgRepository
 
 	public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete,
 											OfflineMessagesProcessor proc) throws UserNotFoundException {
+		try {
+			return loadMessagesToJID(session.getBareJID(), delete, proc);
+		} catch (NotAuthorizedException ex) {
+			log.log(Level.WARNING, "Session not authorized yet!", ex);
+		}
+		return null;
+	}
+
+	private Queue<Element> loadMessagesToJID(BareJID to, boolean delete, OfflineMessagesProcessor proc) {
 		Queue<Element> result = null;
-		BareJID to = null;
 
-		ReentrantReadWriteLock.WriteLock lock = null;
+		ReentrantReadWriteLock.WriteLock lock = getLock(to).writeLock();
+		lock.lock();
 		try {
-			to = session.getBareJID();
-			lock = getLock(to).writeLock();
-			lock.lock();
-
 			ResultSet rs = null;
 			PreparedStatement select_to_jid_st = data_repo.getPreparedStatement(to, MSGS_GET_MESSAGES);
 
@@ -358,12 +373,8 @@ public class JDBCMsgRepository
 			}
 		} catch (SQLException e) {
 			log.log(Level.WARNING, "Problem getting offline messages for user: " + to, e);
-		} catch (NotAuthorizedException ex) {
-			log.log(Level.WARNING, "Session not authorized yet!", ex);
 		} finally {
-			if (lock != null) {
-				lock.unlock();
-			}
+			lock.unlock();
 		}
 
 		return result;
@@ -306,6 +306,13 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return null;
 		}
 
+		@Override
+		public RepositoryExecutor getExecutor(BareJID user) {
+			MsgRepositoryIfc repo = (user == null) ? null : getRepository(user.getDomain());
+
+			return (repo != null) ? repo.getExecutor(user) : MsgRepositoryIfc.super.getExecutor(user);
+		}
+
 		@Override
 		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete)
 				throws UserNotFoundException {
@@ -319,6 +326,11 @@ public abstract class MsgRepository<T, S extends DataSource>
 			return result;
 		}
 
+		@Override
+		public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+			return getRepository(to.getDomain()).loadMessagesToJID(to, delete);
+		}
+
 		@Override
 		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 				throws UserNotFoundException {
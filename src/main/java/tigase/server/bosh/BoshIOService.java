@@ -184,6 +184,12 @@ public class BoshIOService
 		return null;
 	}
 
+	@Override
+	protected boolean isWriteBatchingSupported() {
+		// HTTP headers are added to the body in writeRawData()
+		return false;
+	}
+
 	@Override
 	public void writeRawData(String data) throws IOException {
 		if ((data != null) && data.startsWith("<body")) {
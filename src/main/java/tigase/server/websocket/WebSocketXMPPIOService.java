@@ -17,6 +17,7 @@
  */
 package tigase.server.websocket;
 
+import tigase.io.ByteBufferPool;
 import tigase.server.Packet;
 import tigase.xmpp.XMPPIOService;
 
@@ -43,6 +44,7 @@ public class WebSocketXMPPIOService<RefObject>
 	private static final String BAD_REQUEST = "HTTP/1.0 400 Bad request\r\n\r\n";
 	private static final String CONNECTION_KEY = "Connection";
 	private static final Logger log = Logger.getLogger(WebSocketXMPPIOService.class.getCanonicalName());
+	private static final ByteBufferPool pool = ByteBufferPool.getInstance();
 
 	private static final String CLOSE_EL = "close";
 	private static final String OPEN_EL = "open";
@@ -158,86 +160,93 @@ public class WebSocketXMPPIOService<RefObject>
 			return null;
 		}
 
-		// handling partialy decoded frame
-		if (partialData != null) {
-			ByteBuffer oldtmp = cb;
-			cb = ByteBuffer.allocate(partialData.length + oldtmp.remaining());
-			cb.order(oldtmp.order());
-			cb.put(partialData);
-			cb.put(oldtmp);
-			cb.flip();
-			oldtmp.clear();
-			partialData = null;
-		}
+		// temporary buffers acquired from the pool, released after data is decoded
+		ByteBuffer joined = null;
+		ByteBuffer tmp = null;
+		try {
+			// handling partialy decoded frame
+			if (partialData != null) {
+				ByteBuffer oldtmp = cb;
+				joined = pool.acquire(partialData.length + oldtmp.remaining());
+				cb = joined;
+				cb.order(oldtmp.order());
+				cb.put(partialData);
+				cb.put(oldtmp);
+				cb.flip();
+				oldtmp.clear();
+				partialData = null;
+			}
 
-		if (state != State.handshaking) {
+			if (state != State.handshaking) {
 
-			// data needs to be decoded fully not just first frame!!
-			ByteBuffer tmp = ByteBuffer.allocate(cb.remaining());
-			// here we got buffer overflow
-			ByteBuffer decoded = null;
-			while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
-				//decoded = decodeFrame(cb);
-				if (decoded != null && decoded.hasRemaining()) {
-					tmp.put(decoded);
+				// data needs to be decoded fully not just first frame!!
+				tmp = pool.acquire(cb.remaining());
+				// here we got buffer overflow
+				ByteBuffer decoded = null;
+				while (cb.hasRemaining() && (decoded = decodeFrame(cb)) != null) {
+					//decoded = decodeFrame(cb);
+					if (decoded != null && decoded.hasRemaining()) {
+						tmp.put(decoded);
+					}
 				}
-			}
 
-			// handling data which were not decoded - not complete data
-			if (cb.hasRemaining()) {
-				partialData = new byte[cb.remaining()];
-				cb.get(partialData);
-			}
+				// handling data which were not decoded - not complete data
+				if (cb.hasRemaining()) {
+					partialData = new byte[cb.remaining()];
+					cb.get(partialData);
+				}
 
-			// compact buffer after reading all frames
-			cb.compact();
+				// compact buffer after reading all frames
+				cb.compact();
 
-			if (tmp.capacity() > 0) {
 				tmp.flip();
+				cb = tmp;
+			}
+			if (started) {
+				return decode(cb);
 			}
-			cb = tmp;
-		}
-		if (started) {
-			return decode(cb);
-		}
 
-		if (!cb.hasRemaining()) {
-			return null;
-		}
+			if (!cb.hasRemaining()) {
+				return null;
+			}
 
-		try {
+			try {
 /*			if (!started && (cb.get(0) != (byte) 'G')) {
 				started = true;
 
 				return decode(cb);
 			}*/
 
-			int remaining = cb.remaining();
-			byte[] buf = new byte[remaining];
-
-			cb.get(buf, 0, remaining);
-			//pos += read;
-			cb.compact();
-			int pos = remaining;
-			if ((pos > 100) && (((buf[pos - 1] == '\n') && (buf[pos - 1] == buf[pos - 3])) ||
-					((buf[pos - 9] == '\n') && (buf[pos - 9] == buf[pos - 11])))) {
-				started = true;
-				processWebSocketHandshake(buf);
-				//websocket = true;
-				if (protocol != null) {
-					state = State.handshaked;
+				int remaining = cb.remaining();
+				byte[] buf = new byte[remaining];
+
+				cb.get(buf, 0, remaining);
+				//pos += read;
+				cb.compact();
+				int pos = remaining;
+				if ((pos > 100) && (((buf[pos - 1] == '\n') && (buf[pos - 1] == buf[pos - 3])) ||
+						((buf[pos - 9] == '\n') && (buf[pos - 9] == buf[pos - 11])))) {
+					started = true;
+					processWebSocketHandshake(buf);
+					//websocket = true;
+					if (protocol != null) {
+						state = State.handshaked;
+					}
+				} else {
+					partialData = buf;
 				}
-			} else {
-				partialData = buf;
-			}
-		} catch (Exception ex) {
-			if (log.isLoggable(Level.FINE)) {
-				log.log(Level.FINE, "exception processing websocket handshake", ex);
+			} catch (Exception ex) {
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "exception processing websocket handshake", ex);
+				}
+				this.forceStop();
 			}
-			this.forceStop();
-		}
 
-		return null;
+			return null;
+		} finally {
+			pool.release(tmp);
+			pool.release(joined);
+		}
 	}
 
 	/**
@@ -343,6 +352,12 @@ public class WebSocketXMPPIOService<RefObject>
 		return i;
 	}
 
+	@Override
+	protected boolean isWriteBatchingSupported() {
+		// each stanza needs to be sent in a separate WebSocket frame
+		return false;
+	}
+
 	@Override
 	protected void writeBytes(ByteBuffer data) {
 		super.writeBytes(data);
@@ -433,7 +448,7 @@ public class WebSocketXMPPIOService<RefObject>
 			oldTmpBuffer.clear();
 			partialCharacterBytes = null;
 		}
-		if (cb.capacity() < tmpBuffer.remaining() * 4) {
+		if (cb == null || cb.capacity() < tmpBuffer.remaining() * 4) {
 			cb = CharBuffer.allocate(tmpBuffer.remaining() * 4);
 		}
 
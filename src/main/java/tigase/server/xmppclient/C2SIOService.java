@@ -157,8 +157,12 @@ public class C2SIOService<RefObject>
 					break;
 			}
 		}
-		log.log(Level.FINER, "Tried Not found SSL/TLS handshake, bb: {0}, contents: {1} , cb: {2}",
-				new String[]{String.valueOf(buffer), Arrays.toString(buffer.array()), String.valueOf(cb.array())});
+		if (log.isLoggable(Level.FINER)) {
+			// buffer acquired from the pool may be a direct buffer without a backing array
+			log.log(Level.FINER, "Tried Not found SSL/TLS handshake, bb: {0}, contents: {1} , cb: {2}",
+					new String[]{String.valueOf(buffer), buffer.hasArray() ? Arrays.toString(buffer.array()) : "",
+								 String.valueOf(cb.array())});
+		}
 		return false;
 	}
 
@@ -23,7 +23,6 @@ import tigase.net.ConnectionType;
 import tigase.net.SocketType;
 import tigase.server.Packet;
 import tigase.util.dns.DNSEntry;
-import tigase.util.dns.DNSResolverFactory;
 import tigase.xmpp.Authorization;
 import tigase.xmpp.PacketErrorTypeException;
 
@@ -32,6 +31,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -57,6 +57,7 @@ public class CIDConnections {
 	 * (SessionID, dbKey) pairs
 	 */
 	private Map<String, String> dbKeys = new ConcurrentSkipListMap<String, String>();
+	private S2SDNSResolver dnsResolver = null;
 	private long firstWaitingTime = 0;
 	private S2SConnectionHandlerIfc<S2SIOService> handler = null;
 	private Set<S2SConnection> incoming = new ConcurrentSkipListSet<S2SConnection>();
@@ -81,6 +82,7 @@ public class CIDConnections {
 		this.cid = cid;
 		this.handler = handler;
 		this.connectionsOpenerService = handler.getConnectionOpenerService();
+		this.dnsResolver = handler.getDNSResolver();
 		this.connectionSelector = selector;
 		this.max_in_conns = maxInConns;
 		this.max_out_conns = maxOutConns;
@@ -376,45 +378,45 @@ public class CIDConnections {
 	}
 
 	public void sendHandshakingOnly(final Packet verify_req) {
-		connectionsOpenerService.schedule(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					// using additional domain name mapping to allow usage of intermediate server
-					String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
-
-					DNSEntry dns_entry = DNSResolverFactory.getInstance().getHostSRV_Entry(serverName);
-
-					boolean hasIPv6 = Stream.concat(incoming.stream(), outgoing.stream())
-							.filter(conn -> conn.isConnected())
-							.filter(conn -> conn.getIPAddress().contains(":"))
-							.findFirst()
-							.isPresent();
-
-					String[] ips = dns_entry.getIps();
-					if (!hasIPv6) {
-						ips = Arrays.stream(ips).filter(ip -> !ip.contains(":")).toArray(String[]::new);
-					}
+		connectionsOpenerService.schedule(() -> {
+			// using additional domain name mapping to allow usage of intermediate server
+			String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
 
-					String ip = ips.length == 1 ? ips[0] : ips[random.nextInt(ips.length)];
+			whenResolved(serverName, (dns_entries, error) -> {
+				if (error != null) {
+					log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost(), error);
+					return;
+				}
 
-					S2SConnection s2s_conn = new S2SConnection(handler, ip);
+				DNSEntry dns_entry = S2SDNSResolver.selectEntry(dns_entries);
 
-					s2s_conn.addControlPacket(verify_req);
+				boolean hasIPv6 = Stream.concat(incoming.stream(), outgoing.stream())
+						.filter(conn -> conn.isConnected())
+						.filter(conn -> conn.getIPAddress().contains(":"))
+						.findFirst()
+						.isPresent();
 
-					Map<String, Object> port_props = new TreeMap<String, Object>();
-					port_props.put(S2SIOService.CERT_REQUIRED_DOMAIN, serverName);
+				String[] ips = dns_entry.getIps();
+				if (!hasIPv6) {
+					ips = Arrays.stream(ips).filter(ip -> !ip.contains(":")).toArray(String[]::new);
+				}
 
-					port_props.put(S2SIOService.HANDSHAKING_ONLY_KEY, S2SIOService.HANDSHAKING_ONLY_KEY);
+				String ip = ips.length == 1 ? ips[0] : ips[random.nextInt(ips.length)];
 
-					// it looks like we are sending verify requests only on handshaking-only
-					// connection so there is only one domain for verification
-					port_props.put(S2SIOService.HANDSHAKING_DOMAIN_KEY, verify_req.getStanzaTo().toString());
-					initNewConnection(ip, dns_entry.getPort(), s2s_conn, port_props);
-				} catch (UnknownHostException ex) {
-					log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost(), ex);
-				}
-			}
+				S2SConnection s2s_conn = new S2SConnection(handler, ip);
+
+				s2s_conn.addControlPacket(verify_req);
+
+				Map<String, Object> port_props = new TreeMap<String, Object>();
+				port_props.put(S2SIOService.CERT_REQUIRED_DOMAIN, serverName);
+
+				port_props.put(S2SIOService.HANDSHAKING_ONLY_KEY, S2SIOService.HANDSHAKING_ONLY_KEY);
+
+				// it looks like we are sending verify requests only on handshaking-only
+				// connection so there is only one domain for verification
+				port_props.put(S2SIOService.HANDSHAKING_DOMAIN_KEY, verify_req.getStanzaTo().toString());
+				initNewConnection(ip, dns_entry.getPort(), s2s_conn, port_props);
+			});
 		}, 0, TimeUnit.MILLISECONDS);
 	}
 
@@ -488,18 +490,13 @@ public class CIDConnections {
 			connectionsOpenerService.schedule(new Runnable() {
 				@Override
 				public void run() {
-					boolean result = false;
-
 					try {
 						if (log.isLoggable(Level.FINEST)) {
 							log.log(Level.FINEST, "Running scheduled task for openning a new connection for: {0}", cid);
 						}
-						result = openOutgoingConnections();
+						openOutgoingConnections();
 					} catch (Exception e) {
 						log.log(Level.WARNING, "uncaughtException in the connection opening thread: ", e);
-					} finally {
-					}
-					if (!result) {
 						outgoingOpenInProgress.set(false);
 					}
 				}
@@ -550,101 +547,161 @@ public class CIDConnections {
 		handler.initNewConnection(port_props);
 	}
 
-	private boolean openOutgoingConnections() {
-		boolean result = false;
+	private void openOutgoingConnections() {
+		// Check whether all active connections are still active
+		for (S2SConnection out_conn : outgoing) {
+			if (!out_conn.isConnected()) {
+				outgoing.remove(out_conn);
+				if (log.isLoggable(Level.FINEST)) {
+					log.log(Level.FINEST, "Removing inactive connection: {0}", out_conn);
+				}
+			}
+		}
+		if (firstWaitingTime + max_waiting_time <= System.currentTimeMillis()) {
+			sendPacketsBack();
+			firstWaitingTime = 0;
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "S2S Timeout expired, sending back: {0}", waitingPackets);
+			}
+			outgoingOpenInProgress.set(false);
 
-		try {
+			return;
+		}
 
-			// Check whether all active connections are still active
-			for (S2SConnection out_conn : outgoing) {
-				if (!out_conn.isConnected()) {
-					outgoing.remove(out_conn);
-					if (log.isLoggable(Level.FINEST)) {
-						log.log(Level.FINEST, "Removing inactive connection: {0}", out_conn);
-					}
-				}
+		int all_outgoing = outgoing.size() + outgoing_handshaking.size();
+
+		if (all_outgoing >= max_out_conns) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Exceeded max number of outgoing connections, not doing anything: {0}",
+						all_outgoing);
 			}
-			if (firstWaitingTime + max_waiting_time <= System.currentTimeMillis()) {
+			outgoingOpenInProgress.set(false);
+
+			return;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Checking DNS for host: {0} for: {1}", new Object[]{cid.getRemoteHost(), cid});
+		}
+
+		// During TTS automated tests we send ping for 200 non-existen domains. On some
+		// configurations DNS check for 200 non-existen domains takes forever, so here we
+		// have a shortcut to speed the test up.
+		// To be sure we do this only for vhosts without a '.' character which are used
+		// during TTS tests.
+		if (testMode) {
+			if (cid.getRemoteHost().startsWith("vhost-") && !cid.getRemoteHost().contains(".")) {
+				UnknownHostException ex = new UnknownHostException(cid.getRemoteHost());
+				log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost() + ", for: " + cid, ex);
 				sendPacketsBack();
-				firstWaitingTime = 0;
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "S2S Timeout expired, sending back: {0}", waitingPackets);
-				}
+				outgoingOpenInProgress.set(false);
 
-				return result;
+				return;
 			}
+		}
 
-			int all_outgoing = outgoing.size() + outgoing_handshaking.size();
+		// using additional domain name mapping to allow usage of intermediate server
+		String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
 
-			if (all_outgoing >= max_out_conns) {
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "Exceeded max number of outgoing connections, not doing anything: {0}",
-							all_outgoing);
-				}
+		// Check DNS entries, connections are opened when domain is resolved
+		whenResolved(serverName, (dns_entries, error) -> {
+			boolean result = false;
 
-				return result;
+			try {
+				if (error != null) {
+					if (error instanceof UnknownHostException) {
+						throw (UnknownHostException) error;
+					}
+					throw new UnknownHostException(serverName);
+				}
+				result = openOutgoingConnections(serverName, dns_entries);
+			} catch (UnknownHostException ex) {
+				log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost() + ", for: " + cid, ex);
+				sendPacketsBack();
+			} catch (Exception ex) {
+				log.log(Level.WARNING, "uncaughtException in the connection opening thread: ", ex);
 			}
-			if (log.isLoggable(Level.FINEST)) {
-				log.log(Level.FINEST, "Checking DNS for host: {0} for: {1}", new Object[]{cid.getRemoteHost(), cid});
+			if (!result) {
+				outgoingOpenInProgress.set(false);
 			}
+		});
+	}
 
-			// During TTS automated tests we send ping for 200 non-existen domains. On some
-			// configurations DNS check for 200 non-existen domains takes forever, so here we
-			// have a shortcut to speed the test up.
-			// To be sure we do this only for vhosts without a '.' character which are used
-			// during TTS tests.
-			if (testMode) {
-				if (cid.getRemoteHost().startsWith("vhost-") && !cid.getRemoteHost().contains(".")) {
-					throw new UnknownHostException(cid.getRemoteHost());
+	private boolean openOutgoingConnections(String serverName, DNSEntry[] dns_entries) throws UnknownHostException {
+		boolean result = false;
+		int all_outgoing = outgoing.size() + outgoing_handshaking.size();
+
+		// Candidates are ordered so that each SRV target gets a connection before any of them gets
+		// another one. This way connections are attempted in parallel to all targets and a single
+		// unreachable target does not take all allowed outgoing connections.
+		List<DNSEntry> entries = new ArrayList<>();
+		List<String> ips = new ArrayList<>();
+		for (int i = 0, added = 1; added > 0; i++) {
+			added = 0;
+			for (DNSEntry dNSEntry : dns_entries) {
+				if (i < dNSEntry.getIps().length) {
+					entries.add(dNSEntry);
+					ips.add(dNSEntry.getIps()[i]);
+					added++;
 				}
 			}
+		}
 
-			// using additional domain name mapping to allow usage of intermediate server
-			String serverName = handler.getServerNameForDomain(cid.getRemoteHost());
-
-			// Check DNS entries
-			DNSEntry[] dns_entries = DNSResolverFactory.getInstance().getHostSRV_Entries(serverName);
+		// Activate 'missing' connections
+		for (int i = 0; i < max_out_conns_per_ip; i++) {
+			for (int j = 0; j < ips.size(); j++) {
+				String ip = ips.get(j);
 
-			// Activate 'missing' connections
-			for (DNSEntry dNSEntry : dns_entries) {
-				for (String ip : dNSEntry.getIps()) {
-					int openForIP = getOpenForIP(ip);
-
-					for (int i = openForIP; i < max_out_conns_per_ip; i++) {
-						if (ip.equals("127.0.0.1")) {
-
-							// DNS misconfiguration for the remote server (icq.jabber.cz for
-							// example)
-							// Now we assume: UnknownHostException
-							if (log.isLoggable(Level.INFO)) {
-								log.log(Level.INFO, "DNS misconfiguration for domain: {0}, for: {1}",
-										new Object[]{cid.getRemoteHost(), cid});
-							}
+				if (getOpenForIP(ip) > i) {
+					continue;
+				}
+				if (ip.equals("127.0.0.1")) {
+
+					// DNS misconfiguration for the remote server (icq.jabber.cz for
+					// example)
+					// Now we assume: UnknownHostException
+					if (log.isLoggable(Level.INFO)) {
+						log.log(Level.INFO, "DNS misconfiguration for domain: {0}, for: {1}",
+								new Object[]{cid.getRemoteHost(), cid});
+					}
 
-							throw new UnknownHostException("DNS misconfiguration for domain: " + cid.getRemoteHost());
-						}
+					throw new UnknownHostException("DNS misconfiguration for domain: " + cid.getRemoteHost());
+				}
 
-						// Create a new connection
-						S2SConnection s2s_conn = new S2SConnection(handler, ip);
-						Map<String, Object> port_props = new TreeMap<String, Object>();
-						port_props.put(S2SIOService.CERT_REQUIRED_DOMAIN, serverName);
+				// Create a new connection
+				S2SConnection s2s_conn = new S2SConnection(handler, ip);
+				Map<String, Object> port_props = new TreeMap<String, Object>();
+				port_props.put(S2SIOService.CERT_REQUIRED_DOMAIN, serverName);
 
-						initNewConnection(ip, dNSEntry.getPort(), s2s_conn, port_props);
-						result = true;
-						if (++all_outgoing >= max_out_conns) {
-							return result;
-						}
-					}
+				initNewConnection(ip, entries.get(j).getPort(), s2s_conn, port_props);
+				result = true;
+				if (++all_outgoing >= max_out_conns) {
+					return result;
 				}
 			}
-		} catch (UnknownHostException ex) {
-			log.log(Level.INFO, "Remote host not found: " + cid.getRemoteHost() + ", for: " + cid, ex);
-			sendPacketsBack();
 		}
 
 		return result;
 	}
 
+	/**
+	 * Executes action when SRV entries of the server are resolved. If entries are not cached, action is executed
+	 * by connections opener service after DNS lookup is finished, so the current thread is not blocked.
+	 */
+	private void whenResolved(String serverName, BiConsumer<DNSEntry[], Throwable> action) {
+		CompletableFuture<DNSEntry[]> future = dnsResolver.resolve(serverName);
+		BiConsumer<DNSEntry[], Throwable> callback = (entries, error) -> {
+			if (error instanceof CompletionException) {
+				error = error.getCause();
+			}
+			action.accept(entries, error);
+		};
+		if (future.isDone()) {
+			future.whenComplete(callback);
+		} else {
+			future.whenCompleteAsync(callback, connectionsOpenerService);
+		}
+	}
+
 	private void sendPacketsBack() {
 		Packet p = null;
 
@@ -660,7 +717,8 @@ public class CIDConnections {
 	}
 
 	@Bean(name = "cidConnectionsOpenerService", parent = S2SConnectionManager.class, active = true)
-	public static class CIDConnectionsOpenerService {
+	public static class CIDConnectionsOpenerService
+			implements Executor {
 
 		// TODO: #1195 - estimate proper default value
 		@ConfigField(desc = "Numer of threads for opening outgoing connections")
@@ -677,6 +735,11 @@ public class CIDConnections {
 			}
 		}
 
+		@Override
+		public void execute(Runnable r) {
+			outgoingOpenTasks.execute(r);
+		}
+
 		public void schedule(Runnable r, long delay, TimeUnit unit) {
 			outgoingOpenTasks.schedule(r, delay, unit);
 		}
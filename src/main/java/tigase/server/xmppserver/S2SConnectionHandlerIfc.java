@@ -51,6 +51,13 @@ public interface S2SConnectionHandlerIfc<IO extends XMPPIOService<?>> {
 
 	CIDConnections.CIDConnectionsOpenerService getConnectionOpenerService();
 
+	/**
+	 * Returns resolver used for resolving addresses of remote servers
+	 *
+	 * @return instance of {@link S2SDNSResolver}
+	 */
+	S2SDNSResolver getDNSResolver();
+
 	BareJID getDefHostName();
 
 	/**
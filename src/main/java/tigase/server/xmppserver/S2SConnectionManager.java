@@ -103,6 +103,8 @@ public class S2SConnectionManager
 	// ~--- fields ---------------------------------------------------------------
 	@Inject
 	private S2SConnectionSelector connSelector;
+	@Inject
+	private S2SDNSResolver dnsResolver;
 	/**
 	 * Holds list of manually entered mappings which provide substitutions for domains matching pattens with names of
 	 * servers to which we should connect.
@@ -510,6 +512,11 @@ public class S2SConnectionManager
 		return cidConnectionsOpenerService;
 	}
 
+	@Override
+	public S2SDNSResolver getDNSResolver() {
+		return dnsResolver;
+	}
+
 	@Override
 	public String getDiscoCategoryType() {
 		return "s2s";
@@ -610,6 +617,7 @@ public class S2SConnectionManager
 		for (S2SProcessor processor : processors) {
 			((StatisticsProviderIfc)processor).getStatistics(getName(), list);
 		}
+		dnsResolver.getStatistics(getName(), list);
 	}
 
 	@Override
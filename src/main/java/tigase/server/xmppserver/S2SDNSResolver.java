@@ -0,0 +1,238 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppserver;
+
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.stats.StatisticsList;
+import tigase.stats.StatisticsProviderIfc;
+import tigase.util.dns.DNSEntry;
+import tigase.util.dns.DNSResolverFactory;
+
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resolves SRV entries of remote servers for outgoing S2S connections.
+ * <br>
+ * Lookups are executed by a separate pool of threads, so threads opening outgoing connections are not blocked while
+ * waiting for DNS server. Results are cached for the time to live reported by the resolver (limited by
+ * <code>min-ttl</code> and <code>max-ttl</code>) and failures are cached for <code>negative-ttl</code>, so packets to
+ * non-existent domains do not cause a lookup each time. Concurrent requests for the same domain share a single lookup.
+ */
+@Bean(name = "s2sDnsResolver", parent = S2SConnectionManager.class, active = true)
+public class S2SDNSResolver
+		implements UnregisterAware, StatisticsProviderIfc {
+
+	private static final Logger log = Logger.getLogger(S2SDNSResolver.class.getName());
+	private static final long CLEANUP_INTERVAL = 60 * 1000;
+	private static final Random random = new Random();
+
+	private final Map<String, CachedEntry> cache = new ConcurrentHashMap<>();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong lookupTime = new AtomicLong();
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong maxLookupTime = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private volatile long nextCleanup = System.currentTimeMillis() + CLEANUP_INTERVAL;
+	@ConfigField(desc = "Maximal time for which resolved DNS entries are cached", alias = "max-ttl")
+	private Duration maxTtl = Duration.ofHours(1);
+	@ConfigField(desc = "Minimal time for which resolved DNS entries are cached", alias = "min-ttl")
+	private Duration minTtl = Duration.ofMinutes(1);
+	@ConfigField(desc = "Time for which failure of DNS resolution is cached", alias = "negative-ttl")
+	private Duration negativeTtl = Duration.ofMinutes(5);
+	@ConfigField(desc = "Number of threads used for DNS lookups", alias = "threads")
+	private int threads = 4;
+	private ExecutorService executor = createExecutor(threads);
+
+	/**
+	 * Selects one of SRV entries following rules of RFC 2782: entry is selected from entries with the lowest
+	 * priority, randomly with probability proportional to its weight.
+	 *
+	 * @param entries entries to select from
+	 *
+	 * @return selected entry
+	 */
+	public static DNSEntry selectEntry(DNSEntry[] entries) {
+		int priority = Integer.MAX_VALUE;
+		int totalWeight = 0;
+		for (DNSEntry entry : entries) {
+			if (entry.getPriority() < priority) {
+				priority = entry.getPriority();
+				totalWeight = 0;
+			}
+			if (entry.getPriority() == priority) {
+				totalWeight += Math.max(entry.getWeight(), 0);
+			}
+		}
+		int selected = totalWeight > 0 ? random.nextInt(totalWeight) : 0;
+		for (DNSEntry entry : entries) {
+			if (entry.getPriority() == priority) {
+				selected -= Math.max(entry.getWeight(), 0);
+				if (selected < 0 || totalWeight == 0) {
+					return entry;
+				}
+			}
+		}
+		return entries[0];
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		AtomicInteger counter = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "s2s-dns-resolver-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Resolves SRV entries for the domain. Returned future is already completed if result for the domain was
+	 * cached.
+	 *
+	 * @param domain name of the domain to resolve
+	 *
+	 * @return future completed with entries for the domain or with {@link UnknownHostException} if domain could not
+	 * be resolved
+	 */
+	public CompletableFuture<DNSEntry[]> resolve(String domain) {
+		while (true) {
+			CachedEntry cached = cache.get(domain);
+			if (cached != null) {
+				if (!cached.future.isDone()) {
+					coalesced.incrementAndGet();
+					return cached.future;
+				}
+				if (cached.expires > System.currentTimeMillis()) {
+					if (cached.future.isCompletedExceptionally()) {
+						negativeHits.incrementAndGet();
+					} else {
+						hits.incrementAndGet();
+					}
+					return cached.future;
+				}
+			}
+
+			CachedEntry lookup = new CachedEntry();
+			if (cached == null ? cache.putIfAbsent(domain, lookup) == null : cache.replace(domain, cached, lookup)) {
+				executor.execute(() -> lookup(domain, lookup));
+				return lookup.future;
+			}
+		}
+	}
+
+	public void setThreads(int threads) {
+		if (this.threads != threads) {
+			this.threads = threads;
+			ExecutorService oldExecutor = executor;
+			executor = createExecutor(threads);
+			oldExecutor.shutdown();
+		}
+	}
+
+	@Override
+	public void beforeUnregister() {
+		executor.shutdown();
+	}
+
+	@Override
+	public void getStatistics(String compName, StatisticsList list) {
+		long lookups = this.lookups.get();
+		list.add(compName, "DNS cache hits", hits.get(), Level.FINE);
+		list.add(compName, "DNS cache negative hits", negativeHits.get(), Level.FINE);
+		list.add(compName, "DNS lookups", lookups, Level.FINE);
+		list.add(compName, "DNS lookups failed", failures.get(), Level.FINE);
+		list.add(compName, "DNS lookups coalesced", coalesced.get(), Level.FINER);
+		list.add(compName, "DNS cache size", cache.size(), Level.FINER);
+		list.add(compName, "DNS average lookup time [ms]", lookups == 0 ? 0 : lookupTime.get() / lookups / 1000000,
+				 Level.FINE);
+		list.add(compName, "DNS max lookup time [ms]", maxLookupTime.get() / 1000000, Level.FINE);
+	}
+
+	protected DNSEntry[] getHostSRV_Entries(String domain) throws UnknownHostException {
+		return DNSResolverFactory.getInstance().getHostSRV_Entries(domain);
+	}
+
+	private void lookup(String domain, CachedEntry lookup) {
+		long start = System.nanoTime();
+		try {
+			DNSEntry[] entries = getHostSRV_Entries(domain);
+			if (entries == null || entries.length == 0) {
+				throw new UnknownHostException(domain);
+			}
+			long ttl = Long.MAX_VALUE;
+			for (DNSEntry entry : entries) {
+				ttl = Math.min(ttl, entry.getTtl());
+			}
+			ttl = Math.max(minTtl.toMillis(), Math.min(maxTtl.toMillis(), ttl));
+			lookup.expires = System.currentTimeMillis() + ttl;
+			lookup.future.complete(entries);
+		} catch (UnknownHostException ex) {
+			failures.incrementAndGet();
+			lookup.expires = System.currentTimeMillis() + negativeTtl.toMillis();
+			lookup.future.completeExceptionally(ex);
+		} catch (Throwable ex) {
+			// not caching unexpected failures
+			log.log(Level.WARNING, "Could not resolve domain: " + domain, ex);
+			failures.incrementAndGet();
+			lookup.future.completeExceptionally(ex);
+		} finally {
+			long time = System.nanoTime() - start;
+			lookups.incrementAndGet();
+			lookupTime.addAndGet(time);
+			maxLookupTime.accumulateAndGet(time, Math::max);
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "Domain {0} resolved in {1}ms", new Object[]{domain, time / 1000000});
+			}
+		}
+		removeExpired();
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		if (now < nextCleanup) {
+			return;
+		}
+		nextCleanup = now + CLEANUP_INTERVAL;
+		for (Map.Entry<String, CachedEntry> e : cache.entrySet()) {
+			if (e.getValue().future.isDone() && e.getValue().expires <= now) {
+				cache.remove(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private static class CachedEntry {
+
+		private final CompletableFuture<DNSEntry[]> future = new CompletableFuture<>();
+		private volatile long expires = 0;
+
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.server.Packet;
+import tigase.xmpp.XMPPException;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Allows processors to suspend processing of a packet until an asynchronous operation (ie. a call to a repository
+ * made with {@link tigase.db.RepositoryExecutor}) completes, without holding a processing thread. When the operation
+ * completes, {@link Resumer} is called by the thread which processes packets of the session for the processor and
+ * packets added by it to the queue of results are sent as if they were results of the processor.
+ * <br>
+ * Other packets of the same session may be processed by the processor before processing of the suspended packet is
+ * resumed, but packets sent to the connection of the session are held until the resumer results are sent.
+ * Operation should not access the session, as it is executed outside of the processing threads.
+ */
+public interface PacketSuspender {
+
+	/**
+	 * Instance which waits for the operation to complete and calls {@link Resumer} in the calling thread, to be used
+	 * if processor is not running within the session manager.
+	 */
+	PacketSuspender SYNCHRONOUS = new Synchronous();
+
+	/**
+	 * Suspends processing of the packet until the stage completes.
+	 *
+	 * @param processor processor which processing is suspended
+	 * @param packet packet which processing is suspended
+	 * @param session user session of the packet, may be <code>null</code>
+	 * @param results queue of results of the processor, used only if processing is not suspended
+	 * @param stage asynchronous operation
+	 * @param resumer called when operation completes
+	 */
+	<T> void suspend(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection session, Queue<Packet> results,
+					 CompletionStage<T> stage, Resumer<T> resumer);
+
+	@FunctionalInterface
+	interface Resumer<T> {
+
+		/**
+		 * Called when operation completes.
+		 *
+		 * @param result result of the operation, <code>null</code> if it failed
+		 * @param error exception thrown by the operation or <code>null</code>
+		 * @param results queue for results of processing
+		 */
+		void resume(T result, Throwable error, Queue<Packet> results) throws XMPPException;
+
+	}
+
+	class Synchronous
+			implements PacketSuspender {
+
+		private static final Logger log = Logger.getLogger(Synchronous.class.getCanonicalName());
+
+		@Override
+		public <T> void suspend(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection session,
+								Queue<Packet> results, CompletionStage<T> stage, Resumer<T> resumer) {
+			T result = null;
+			Throwable error = null;
+			try {
+				result = stage.toCompletableFuture().get();
+			} catch (ExecutionException | CompletionException ex) {
+				error = ex.getCause();
+			} catch (InterruptedException ex) {
+				error = ex;
+			}
+			try {
+				resumer.resume(result, error, results);
+			} catch (XMPPException ex) {
+				log.log(Level.WARNING, "Exception during packet processing: " + packet.toStringSecure(), ex);
+			}
+		}
+	}
+}
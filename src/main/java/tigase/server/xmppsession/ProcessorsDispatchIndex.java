@@ -0,0 +1,170 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable index of processors built from element paths and namespaces returned by {@link
+ * XMPPProcessorIfc#supElementNamePaths()} and {@link XMPPProcessorIfc#supNamespaces()}. It allows to find processors
+ * which may handle a packet without calling <code>canHandle()</code> on every registered processor.
+ * <br>
+ * Index is only a filter - <code>canHandle()</code> still needs to be called on each returned processor as it checks
+ * stanza types and exact matching. Processors which override <code>canHandle()</code> with custom logic or which
+ * support all paths are always returned.
+ */
+public class ProcessorsDispatchIndex {
+
+	private static final Logger log = Logger.getLogger(ProcessorsDispatchIndex.class.getName());
+
+	private final XMPPProcessorIfc[] generic;
+	private final Map<String, Node> roots = new HashMap<>();
+
+	public static ProcessorsDispatchIndex build(Collection<XMPPProcessorIfc> processors) {
+		return new ProcessorsDispatchIndex(processors);
+	}
+
+	protected static boolean hasCustomCanHandle(XMPPProcessorIfc processor) {
+		try {
+			Method method = processor.getClass()
+					.getMethod("canHandle", Packet.class, XMPPResourceConnection.class);
+			return method.getDeclaringClass() != XMPPProcessor.class;
+		} catch (NoSuchMethodException ex) {
+			return true;
+		}
+	}
+
+	private static boolean isIndexable(String[][] paths, String[] xmlnss) {
+		if (xmlnss == null || xmlnss.length < paths.length) {
+			return false;
+		}
+		for (String[] path : paths) {
+			if (path == null || path.length == 0) {
+				return false;
+			}
+			for (String name : path) {
+				if (name == null || "*".equals(name)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private ProcessorsDispatchIndex(Collection<XMPPProcessorIfc> processors) {
+		List<XMPPProcessorIfc> genericList = new ArrayList<>();
+
+		for (XMPPProcessorIfc processor : processors) {
+			if (hasCustomCanHandle(processor)) {
+				genericList.add(processor);
+				continue;
+			}
+
+			String[][] paths = processor.supElementNamePaths();
+
+			if (paths == null) {
+				// default implementation of canHandle() will never accept any packet
+				continue;
+			}
+
+			String[] xmlnss = processor.supNamespaces();
+
+			if (!isIndexable(paths, xmlnss)) {
+				genericList.add(processor);
+				continue;
+			}
+
+			for (int i = 0; i < paths.length; i++) {
+				Node node = roots.computeIfAbsent(paths[i][0], name -> new Node());
+
+				for (int j = 1; j < paths[i].length; j++) {
+					node = node.children.computeIfAbsent(paths[i][j], name -> new Node());
+				}
+				List<XMPPProcessorIfc> handlers = node.handlers.computeIfAbsent(xmlnss[i], xmlns -> new ArrayList<>());
+				if (!handlers.contains(processor)) {
+					handlers.add(processor);
+				}
+			}
+		}
+		generic = genericList.toArray(new XMPPProcessorIfc[genericList.size()]);
+		if (log.isLoggable(Level.CONFIG)) {
+			log.log(Level.CONFIG, "Built processors dispatch index for {0} processors, indexed root elements: {1}, " +
+					"processors checked for every packet: {2}", new Object[]{processors.size(), roots.keySet(),
+																			  Arrays.toString(generic)});
+		}
+	}
+
+	/**
+	 * Method returns list of processors which may be able to process a packet.
+	 *
+	 * @param packet to process
+	 *
+	 * @return list of processors on which <code>canHandle()</code> should be called.
+	 */
+	public List<XMPPProcessorIfc> getCandidates(Packet packet) {
+		List<XMPPProcessorIfc> result = new ArrayList<>(generic.length + 4);
+
+		Collections.addAll(result, generic);
+
+		Element elem = packet.getElement();
+		Node root = roots.get(elem.getName());
+
+		if (root != null) {
+			collect(root, elem, result);
+		}
+		return result;
+	}
+
+	private void collect(Node node, Element elem, List<XMPPProcessorIfc> result) {
+		if (!node.handlers.isEmpty()) {
+			List<XMPPProcessorIfc> handlers = node.handlers.get(elem.getXMLNS());
+
+			if (handlers != null) {
+				for (XMPPProcessorIfc processor : handlers) {
+					if (!result.contains(processor)) {
+						result.add(processor);
+					}
+				}
+			}
+		}
+		for (Map.Entry<String, Node> e : node.children.entrySet()) {
+			// the same way as Element.findChildStaticStr(), only the first child with a name is checked
+			Element child = elem.getChildStaticStr(e.getKey());
+
+			if (child != null) {
+				collect(e.getValue(), child, result);
+			}
+		}
+	}
+
+	private static class Node {
+
+		private final Map<String, Node> children = new HashMap<>();
+		private final Map<String, List<XMPPProcessorIfc>> handlers = new HashMap<>();
+
+	}
+}
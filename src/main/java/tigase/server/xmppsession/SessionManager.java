@@ -71,10 +71,14 @@ import java.lang.reflect.Method;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,7 +96,7 @@ import static tigase.server.xmppsession.SessionManagerConfig.*;
 @ClusterModeRequired(active = false)
 public class SessionManager
 		extends AbstractMessageReceiver
-		implements Configurable, SessionManagerHandler, OnlineJidsReporter, RegistrarBean {
+		implements Configurable, SessionManagerHandler, OnlineJidsReporter, RegistrarBean, PacketSuspender {
 
 	protected static final String ADMIN_COMMAND_NODE = "http://jabber.org/protocol/admin";
 
@@ -142,6 +146,9 @@ public class SessionManager
 	 * Date of moment where daily stats was resetted.
 	 */
 	private Calendar lastDailyStatsReset = Calendar.getInstance();
+	@ConfigField(desc = "Use precomputed index of element paths to find processors for packet")
+	private boolean processorsDispatchIndex = true;
+	private volatile ProcessorsDispatchIndex processorsIndex = ProcessorsDispatchIndex.build(Collections.emptyList());
 	private int maxDailyUsersConnectionsWithinLastWeek = 0;
 	private MaxDailyCounterQueue<Integer> maxDailyUsersSessions = new MaxDailyCounterQueue<>(31);
 	private int maxIdx = 100;
@@ -166,8 +173,19 @@ public class SessionManager
 	// private long[] walkTime = new long[maxIdx];
 	// private long[] postTime = new long[maxIdx];
 	private Map<String, long[]> postTimes = new ConcurrentSkipListMap<String, long[]>();
+	@ConfigField(desc = "Nodes of user data loaded at once after authentication", alias = "prefetch-data-nodes")
+	private String[] prefetchDataNodes = new String[0];
+	@ConfigField(desc = "Time in seconds for which data loaded after authentication is used", alias = "prefetch-data-time")
+	private long prefetchDataTime = 60;
 	private Map<String, XMPPPreprocessorIfc> preProcessors = new ConcurrentHashMap<String, XMPPPreprocessorIfc>(10);
 	private Map<String, XMPPProcessorIfc> processors = new ConcurrentHashMap<String, XMPPProcessorIfc>(32);
+	private final ConcurrentHashMap<JID, HeldPackets> heldPackets = new ConcurrentHashMap<>();
+	private final AtomicInteger suspendedPackets = new AtomicInteger();
+	private final LongAdder resumedPackets = new LongAdder();
+	// updated by all processing threads, so LongAdder is used to avoid lost updates and contention
+	private final LongAdder walkCanHandleCalls = new LongAdder();
+	private final LongAdder walkPackets = new LongAdder();
+	private final LongAdder walkTime = new LongAdder();
 	@Inject(nullAllowed = true)
 	private MessageRouter router;
 	@Inject
@@ -258,6 +276,7 @@ public class SessionManager
 				}
 			}
 			processors.put(proc.id(), (XMPPProcessorIfc) proc);
+			processorsIndex = ProcessorsDispatchIndex.build(processors.values());
 			log.log(Level.CONFIG, "Added processor: {0} for plugin id: {1}",
 					new Object[]{proc.getClass().getSimpleName(), proc.id()});
 			loaded = true;
@@ -348,6 +367,9 @@ public class SessionManager
 			log.log(Level.FINEST, "handleLogin called for: {0}, conn_id: {1}", new Object[]{userId, conn});
 		}
 		registerNewSession(userId, conn);
+		if (prefetchDataNodes != null && prefetchDataNodes.length > 0) {
+			prefetchUserData(conn);
+		}
 	}
 
 	@Override
@@ -485,6 +507,7 @@ public class SessionManager
 
 		if (pt != null) {
 			p = processors.remove(plug_id);
+			processorsIndex = ProcessorsDispatchIndex.build(processors.values());
 			pt.shutdown();
 			if (p != null) {
 				allPlugins.remove(p);
@@ -666,6 +689,8 @@ public class SessionManager
 		list.add(getName(), "Total user sessions", totalUserSessions, Level.FINER);
 		list.add(getName(), "Active user connections", activeUserNumber, Level.FINER);
 		list.add(getName(), "Authentication timouts", authTimeouts, Level.INFO);
+		list.add(getName(), "Suspended packets", suspendedPackets.get(), Level.FINE);
+		list.add(getName(), "Resumed packets", resumedPackets.sum(), Level.FINE);
 		if (list.checkLevel(Level.INFO)) {
 			int totalQueuesWait = list.getValue(getName(), "Total queues wait", 0);
 			long totalQueuesOverflow = list.getValue(getName(), "Total queues overflow", 0l);
@@ -685,6 +710,14 @@ public class SessionManager
 			list.add(getName(), "Total queues wait", totalQueuesWait, Level.INFO);
 			list.add(getName(), "Total queues overflow", totalQueuesOverflow, Level.INFO);
 		}
+		if (list.checkLevel(Level.FINE)) {
+			long packets = walkPackets.sum();
+
+			list.add(getName(), "Average processors checked per packet",
+					 packets > 0 ? ((float) walkCanHandleCalls.sum() / packets) : 0f, Level.FINE);
+			list.add(getName(), "Average processors dispatch time [ns]",
+					 packets > 0 ? (walkTime.sum() / packets) : 0, Level.FINE);
+		}
 		if (list.checkLevel(Level.FINE)) {
 			for (Map.Entry tmEntry : postTimes.entrySet()) {
 
@@ -708,6 +741,36 @@ public class SessionManager
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <br>
+	 * Resumer is called by the processing thread of the processor which would process the packet, unless its queue is
+	 * full, and results are passed through output filters as results of processors are.
+	 */
+	@Override
+	public <T> void suspend(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection conn,
+							Queue<Packet> results, CompletionStage<T> stage, Resumer<T> resumer) {
+		suspendedPackets.incrementAndGet();
+		final HeldPackets held = holdPackets(conn);
+		stage.whenComplete((result, error) -> {
+			ResumedItem item = new ResumedItem(processor, packet, conn,
+											   () -> resume(packet, conn, held, result, error, resumer));
+			ProcessingThreads<ProcessorWorkerThread> pt = workerThreads.get(processor.id());
+
+			if (pt == null) {
+				pt = workerThreads.get(defPluginsThreadsPool);
+			}
+			if (pt == null || !pt.addItem(item)) {
+				// results of the operation cannot be dropped as the operation could have changed the data
+				if (log.isLoggable(Level.FINE)) {
+					log.log(Level.FINE, "Can not add resumed packet: {0} to processor: {1} internal queue full.",
+							new Object[]{packet.toStringSecure(), processor.id()});
+				}
+				item.run();
+			}
+		});
+	}
+
 	@Override
 	public boolean hasCompleteJidsInfo() {
 		return true;
@@ -866,9 +929,10 @@ public class SessionManager
 	}
 
 	protected void addOutPackets(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
-		for (XMPPPacketFilterIfc outfilter : outFilters.values()) {
-			outfilter.filter(packet, conn, naUserRepository, results);
-		}    // end of for (XMPPPostprocessorIfc postproc: postProcessors)
+		filterOutPackets(packet, conn, results);
+		if (!heldPackets.isEmpty()) {
+			holdResults(results);
+		}
 		addOutPackets(results);
 	}
 
@@ -1962,6 +2026,25 @@ public class SessionManager
 		}
 	}
 
+	/**
+	 * Loads data of configured nodes used by plugins just after authentication with a single request to the user
+	 * repository, so plugins do not need to access the repository for each key separately.
+	 */
+	protected void prefetchUserData(XMPPResourceConnection conn) {
+		String[] subnodes = new String[prefetchDataNodes.length];
+		for (int i = 0; i < subnodes.length; i++) {
+			// "/" is used to configure root node
+			subnodes[i] = "/".equals(prefetchDataNodes[i]) ? null : prefetchDataNodes[i];
+		}
+		try {
+			conn.prefetchData(subnodes, TimeUnit.SECONDS.toMillis(prefetchDataTime));
+		} catch (NotAuthorizedException ex) {
+			log.log(Level.FINEST, "Session not authorized, data not loaded for: {0}", conn);
+		} catch (TigaseDBException ex) {
+			log.log(Level.WARNING, "Could not load user data for: " + conn, ex);
+		}
+	}
+
 	protected void registerNewSession(BareJID userId, XMPPResourceConnection conn) {
 		synchronized (conn) {
 			if (conn.getSessionData(XMPPResourceConnection.CLOSING_KEY) != null) {
@@ -2254,11 +2337,80 @@ public class SessionManager
 		return processingTime;
 	}
 
+	private void filterOutPackets(Packet packet, XMPPResourceConnection conn, Queue<Packet> results) {
+		for (XMPPPacketFilterIfc outfilter : outFilters.values()) {
+			outfilter.filter(packet, conn, naUserRepository, results);
+		}    // end of for (XMPPPostprocessorIfc postproc: postProcessors)
+	}
+
+	/**
+	 * Starts holding packets sent to the connection of the session until processing suspended for the session is
+	 * resumed.
+	 */
+	private HeldPackets holdPackets(XMPPResourceConnection conn) {
+		if (conn == null) {
+			return null;
+		}
+		try {
+			return heldPackets.compute(conn.getConnectionId(), (connectionId, held) -> {
+				if (held != null && held.suspend()) {
+					return held;
+				}
+				return new HeldPackets(connectionId);
+			});
+		} catch (NoConnectionIdException ex) {
+			return null;
+		}
+	}
+
+	private void holdResults(Queue<Packet> results) {
+		for (Iterator<Packet> it = results.iterator(); it.hasNext(); ) {
+			Packet result = it.next();
+			HeldPackets held = (result.getPacketTo() != null) ? heldPackets.get(result.getPacketTo()) : null;
+
+			if (held != null && held.offer(result)) {
+				it.remove();
+			}
+		}
+	}
+
+	private <T> void resume(Packet packet, XMPPResourceConnection conn, HeldPackets held, T result, Throwable error,
+							Resumer<T> resumer) {
+		suspendedPackets.decrementAndGet();
+		resumedPackets.increment();
+
+		Queue<Packet> resumed = new ArrayDeque<>();
+		try {
+			resumer.resume(result, (error instanceof CompletionException) ? error.getCause() : error, resumed);
+		} catch (PacketErrorTypeException e) {
+			log.log(Level.INFO, "Already error packet, ignoring: {0}", packet.toStringSecure());
+		} catch (XMPPException e) {
+			log.log(Level.WARNING, "Exception during packet processing: " + packet.toStringSecure(), e);
+		} catch (RuntimeException e) {
+			log.log(Level.WARNING, "Exception during resuming packet processing: " + packet.toStringSecure(), e);
+		}
+		if (conn != null) {
+			setPermissions(conn, resumed);
+		}
+		filterOutPackets(packet, conn, resumed);
+		if (held == null) {
+			addOutPackets(resumed);
+		} else if (held.resume(resumed)) {
+			heldPackets.remove(held.connectionId, held);
+		}
+	}
+
 	private void walk(final Packet packet, final XMPPResourceConnection connection) {
+		long start = System.nanoTime();
+		Collection<XMPPProcessorIfc> candidates = processorsDispatchIndex
+												  ? processorsIndex.getCandidates(packet)
+												  : processors.values();
+		int checked = 0;
 
 		// final Element elem, final Queue<Packet> results) {
-		for (XMPPProcessorIfc proc_t : processors.values()) {
+		for (XMPPProcessorIfc proc_t : candidates) {
 			XMPPProcessorIfc processor = proc_t;
+			++checked;
 			Authorization result = processor.canHandle(packet, connection);
 
 			if (result == Authorization.AUTHORIZED) {
@@ -2290,6 +2442,9 @@ public class SessionManager
 				}
 			}
 		}    // end of for ()
+		walkCanHandleCalls.add(checked);
+		walkTime.add(System.nanoTime() - start);
+		walkPackets.increment();
 	}
 
 	private List<Element> getFeatures(XMPPResourceConnection session) {
@@ -2640,6 +2795,11 @@ public class SessionManager
 
 		@Override
 		public void process(QueueItem item) {
+			if (item instanceof ResumedItem) {
+				((ResumedItem) item).run();
+				return;
+			}
+
 			XMPPProcessorIfc processor = item.getProcessor();
 
 			try {
@@ -2664,6 +2824,71 @@ public class SessionManager
 		}
 	}
 
+	private static class ResumedItem
+			extends QueueItem
+			implements Runnable {
+
+		private final Runnable task;
+
+		private ResumedItem(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection conn, Runnable task) {
+			super(processor, packet, conn);
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+	}
+
+	/**
+	 * Packets sent to the connection while processing of some packets of the session is suspended. Held packets are
+	 * sent after results of the last resumed processing.
+	 */
+	private class HeldPackets {
+
+		private final JID connectionId;
+		private final ArrayDeque<Packet> packets = new ArrayDeque<>();
+		private boolean released = false;
+		private int suspended = 1;
+
+		private HeldPackets(JID connectionId) {
+			this.connectionId = connectionId;
+		}
+
+		private synchronized boolean offer(Packet packet) {
+			if (released) {
+				return false;
+			}
+			packets.offer(packet);
+			return true;
+		}
+
+		/**
+		 * Sends results of resumed processing and held packets, if it was the last suspended processing.
+		 *
+		 * @return <code>true</code> if packets are not held anymore
+		 */
+		private synchronized boolean resume(Queue<Packet> results) {
+			if (--suspended == 0) {
+				results.addAll(packets);
+				packets.clear();
+				released = true;
+			}
+			// packets are sent while holding the lock, so packets which were not held are not sent before them
+			addOutPackets(results);
+			return released;
+		}
+
+		private synchronized boolean suspend() {
+			if (released) {
+				return false;
+			}
+			++suspended;
+			return true;
+		}
+	}
+
 	/**
 	 * Class implements timer which will be scheduled on STREAM_CLOSED to ensure that session is properly closed, even
 	 * if STREAM_FINISHED would not be received
@@ -0,0 +1,115 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Thread safe histogram with buckets which upper bounds are powers of 2, ie. <code>0-1</code>, <code>2</code>,
+ * <code>3-4</code>, <code>5-8</code>, etc. Values greater than the upper bound of the last bucket are counted in the
+ * last bucket.
+ */
+public class Histogram {
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong count = new AtomicLong(0);
+	private final Level level;
+	private final String name;
+	private final AtomicLong sum = new AtomicLong(0);
+	private final String unit;
+
+	/**
+	 * Creates histogram.
+	 *
+	 * @param name of the histogram used as a prefix of statistics names
+	 * @param unit of measured values, may be <code>null</code>
+	 * @param bucketsNo number of buckets, ie. for 10 buckets, the last bucket will contain values greater than 256
+	 * @param level statistics level
+	 */
+	public Histogram(String name, String unit, int bucketsNo, Level level) {
+		this.name = name;
+		this.unit = unit;
+		this.level = level;
+		this.buckets = new AtomicLongArray(bucketsNo);
+	}
+
+	public void add(long value) {
+		buckets.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getAverage() {
+		long cnt = count.get();
+		return cnt == 0 ? 0 : (sum.get() / cnt);
+	}
+
+	public long[] getBuckets() {
+		long[] result = new long[buckets.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	public void getStatistics(String compName, StatisticsList list) {
+		if (!list.checkLevel(level)) {
+			return;
+		}
+
+		String suffix = unit == null ? "" : (" [" + unit + "]");
+
+		list.add(compName, name + " count", count.get(), level);
+		list.add(compName, name + " average" + suffix, getAverage(), level);
+		for (int i = 0; i < buckets.length(); i++) {
+			list.add(compName, name + " " + bucketName(i) + suffix, buckets.get(i), level);
+		}
+	}
+
+	protected int bucketIndex(long value) {
+		if (value <= 1) {
+			return 0;
+		}
+		// index of the smallest power of 2 which is greater or equal to value
+		int idx = 64 - Long.numberOfLeadingZeros(value - 1);
+		return Math.min(idx, buckets.length() - 1);
+	}
+
+	protected String bucketName(int idx) {
+		if (idx == 0) {
+			return "0-1";
+		}
+		long upper = 1L << idx;
+		long lower = (upper >> 1) + 1;
+		if (idx == buckets.length() - 1) {
+			return lower + "+";
+		}
+		return lower == upper ? String.valueOf(upper) : (lower + "-" + upper);
+	}
+
+}
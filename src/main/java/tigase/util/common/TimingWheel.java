@@ -0,0 +1,157 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hashed timing wheel keeping deadlines of items. Each item may have only one deadline, scheduling an item again
+ * replaces its previous deadline. Scheduling and cancelling are constant time operations and may be called
+ * concurrently, while {@link #advance(long)} visits only slots of ticks which elapsed since the previous call.
+ * <br>
+ * Deadlines are rounded to ticks, so an item expires up to one tick after its deadline (or one rotation later if it
+ * was scheduled for a tick being processed concurrently). Deadlines further than one rotation of the wheel are
+ * supported, but entries for them are visited once per rotation.
+ */
+public class TimingWheel<T> {
+
+	private final Map<T, Entry<T>> entries = new ConcurrentHashMap<>();
+	private final LongAdder expirations = new LongAdder();
+	private final Queue<Entry<T>>[] slots;
+	private final long tickDuration;
+	private volatile long processedTick;
+
+	@SuppressWarnings("unchecked")
+	public TimingWheel(int slotsNo, long tickDuration, long now) {
+		if (slotsNo < 1 || tickDuration < 1) {
+			throw new IllegalArgumentException("Number of slots and tick duration need to be greater than 0");
+		}
+		this.slots = new Queue[slotsNo];
+		for (int i = 0; i < slotsNo; i++) {
+			slots[i] = new ConcurrentLinkedQueue<>();
+		}
+		this.tickDuration = tickDuration;
+		this.processedTick = (now / tickDuration) - 1;
+	}
+
+	/**
+	 * Sets deadline of the item, replacing any deadline set before.
+	 */
+	public void schedule(T item, long deadline) {
+		long tick = Math.max(deadline / tickDuration, processedTick + 1);
+		Entry<T> entry = new Entry<>(item, tick);
+		Entry<T> old = entries.put(item, entry);
+		if (old != null) {
+			old.cancel();
+		}
+		slots[(int) (tick % slots.length)].offer(entry);
+	}
+
+	/**
+	 * Removes deadline of the item.
+	 *
+	 * @return <code>true</code> if item was scheduled
+	 */
+	public boolean cancel(T item) {
+		Entry<T> entry = entries.remove(item);
+		if (entry != null) {
+			entry.cancel();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the wheel to the passed time and returns items which deadlines expired. Expired items are not scheduled
+	 * anymore.
+	 */
+	public synchronized List<T> advance(long now) {
+		final long nowTick = now / tickDuration;
+		final List<T> expired = new ArrayList<>();
+		final List<Entry<T>> pending = new ArrayList<>();
+
+		// visiting each slot only once, even if wheel was not moved for more than a rotation
+		long tick = Math.max(processedTick + 1, nowTick - slots.length);
+		for (; tick < nowTick; tick++) {
+			Queue<Entry<T>> slot = slots[(int) (tick % slots.length)];
+			Entry<T> entry;
+			while ((entry = slot.poll()) != null) {
+				pending.add(entry);
+			}
+			for (Entry<T> e : pending) {
+				if (e.cancelled) {
+					continue;
+				}
+				T item = e.item;
+				if (e.tick <= tick) {
+					if (item != null && entries.remove(item, e)) {
+						expired.add(item);
+					}
+				} else {
+					slot.offer(e);
+				}
+			}
+			pending.clear();
+			processedTick = tick;
+		}
+		expirations.add(expired.size());
+		return expired;
+	}
+
+	/**
+	 * Returns number of scheduled items.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns total number of expired items.
+	 */
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	public long getTickDuration() {
+		return tickDuration;
+	}
+
+	private static class Entry<T> {
+
+		private final long tick;
+		private volatile boolean cancelled = false;
+		private volatile T item;
+
+		private Entry(T item, long tick) {
+			this.item = item;
+			this.tick = tick;
+		}
+
+		private void cancel() {
+			cancelled = true;
+			// cancelled entry may stay in the slot until it is visited, so it should not keep the item
+			item = null;
+		}
+	}
+}
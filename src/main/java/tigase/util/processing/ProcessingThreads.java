@@ -78,8 +78,16 @@ public class ProcessingThreads<E extends WorkerThread> {
 	}
 
 	public boolean addItem(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection conn) {
+		return addItem(new QueueItem(processor, packet, conn));
+	}
+
+	/**
+	 * Adds item to the queue of the same thread which processes other items of the same user (or connection).
+	 */
+	public boolean addItem(QueueItem item) {
 		boolean ret = false;
-		QueueItem item = new QueueItem(processor, packet, conn);
+		final Packet packet = item.getPacket();
+		final XMPPResourceConnection conn = item.getConn();
 
 		try {
 			if ((item.getConn() != null) && item.getConn().isAuthorized()) {
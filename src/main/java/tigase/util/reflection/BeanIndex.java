@@ -0,0 +1,134 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.reflection;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Index of classes of a single jar file or directory, which are required by the kernel and other parts of the server
+ * looking for classes using {@link ClassUtilBean#getAllClasses()}. Index is generated during compilation by {@link
+ * BeanIndexProcessor} and contains classes annotated with <code>@Bean</code> (with classes of their parents),
+ * classes annotated with <code>@Repository.Meta</code> and implementations of repositories, schema loaders and
+ * <code>XMPPProcessor</code>.
+ * <br>
+ * Each line of the index contains binary name of a class, optionally followed by <code>=</code> and comma separated
+ * list of binary names of classes set as parents in <code>@Bean</code> annotation of this class. Line starting with
+ * <code>@compiled-types=</code> contains number of top-level classes compiled together with the index, which is used
+ * to detect that the index was generated by a partial compilation.
+ */
+public class BeanIndex {
+
+	public static final String INDEX_RESOURCE = "META-INF/tigase/beans.idx";
+
+	private static final String COMPILED_TYPES_PREFIX = "@compiled-types=";
+
+	private final Map<String, Set<String>> entries = new TreeMap<>();
+	private int compiledTypes = -1;
+
+	public static BeanIndex read(InputStream in) throws IOException {
+		BeanIndex index = new BeanIndex();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			if (line.startsWith(COMPILED_TYPES_PREFIX)) {
+				try {
+					index.setCompiledTypes(Integer.parseInt(line.substring(COMPILED_TYPES_PREFIX.length()).trim()));
+				} catch (NumberFormatException ex) {
+					throw new IOException("Invalid number of compiled types in index: " + line, ex);
+				}
+				continue;
+			}
+			int idx = line.indexOf('=');
+			if (idx < 0) {
+				index.add(line, Collections.emptySet());
+			} else {
+				Set<String> parents = new TreeSet<>();
+				for (String parent : line.substring(idx + 1).split(",")) {
+					if (!parent.trim().isEmpty()) {
+						parents.add(parent.trim());
+					}
+				}
+				index.add(line.substring(0, idx).trim(), parents);
+			}
+		}
+		return index;
+	}
+
+	public void add(String className, Collection<String> parents) {
+		entries.computeIfAbsent(className, key -> new TreeSet<>()).addAll(parents);
+	}
+
+	/**
+	 * Returns number of top-level classes compiled together with the index.
+	 *
+	 * @return number of classes or <code>-1</code> if it is not known
+	 */
+	public int getCompiledTypes() {
+		return compiledTypes;
+	}
+
+	public void setCompiledTypes(int compiledTypes) {
+		this.compiledTypes = compiledTypes;
+	}
+
+	public Set<String> getClassNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	/**
+	 * Returns names of classes set as parents in <code>@Bean</code> annotation of the class.
+	 *
+	 * @return set of class names or <code>null</code> if class is not in the index
+	 */
+	public Set<String> getParents(String className) {
+		Set<String> parents = entries.get(className);
+		return parents == null ? null : Collections.unmodifiableSet(parents);
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void write(OutputStream out) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.write("# index of classes generated during compilation, do not edit\n");
+		if (compiledTypes >= 0) {
+			writer.write(COMPILED_TYPES_PREFIX + compiledTypes + "\n");
+		}
+		for (Map.Entry<String, Set<String>> e : entries.entrySet()) {
+			writer.write(e.getKey());
+			if (!e.getValue().isEmpty()) {
+				writer.write('=');
+				writer.write(String.join(",", e.getValue()));
+			}
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+}
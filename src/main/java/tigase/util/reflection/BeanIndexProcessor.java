@@ -0,0 +1,185 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.reflection;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Annotation processor generating {@link BeanIndex} of compiled classes, which allows {@link ClassUtilBean} to load
+ * only required classes instead of all classes from the classpath.
+ * <br>
+ * Processor is registered as a service, so it is used during compilation of every project depending on Tigase XMPP
+ * Server. Index is generated only for classes compiled in a single compilation, so if only some classes were
+ * recompiled (ie. by IDE) index may not contain all classes. To detect that, index contains number of top-level
+ * classes compiled together with it and {@link ClassUtilBean} scans whole jar file if it contains more classes, or
+ * if any class listed in the index is missing or has different parents.
+ */
+@SupportedAnnotationTypes("*")
+public class BeanIndexProcessor
+		extends AbstractProcessor {
+
+	private static final String BEAN_ANNOTATION = "tigase.kernel.beans.Bean";
+	private static final String[] INDEXED_ANNOTATIONS = {BEAN_ANNOTATION, "tigase.db.Repository.Meta"};
+	private static final String[] INDEXED_SUPERTYPES = {"tigase.db.Repository", "tigase.db.util.SchemaLoader",
+														"tigase.xmpp.XMPPProcessor"};
+
+	private final BeanIndex index = new BeanIndex();
+	private int compiledTypes = 0;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			if (!index.isEmpty()) {
+				index.setCompiledTypes(compiledTypes);
+				writeIndex();
+			}
+			return false;
+		}
+
+		List<TypeElement> supertypes = new ArrayList<>();
+		for (String name : INDEXED_SUPERTYPES) {
+			TypeElement type = processingEnv.getElementUtils().getTypeElement(name);
+			if (type != null) {
+				supertypes.add(type);
+			}
+		}
+
+		for (Element element : roundEnv.getRootElements()) {
+			if (element instanceof TypeElement) {
+				compiledTypes++;
+				processType((TypeElement) element, supertypes);
+			}
+		}
+		return false;
+	}
+
+	private static AnnotationMirror findAnnotation(Element element, String annotationName) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+			if (annotation.getQualifiedName().contentEquals(annotationName)) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks for annotation on the class or on its superclasses, as annotations of beans are inherited.
+	 */
+	private static AnnotationMirror findInheritedAnnotation(TypeElement type, String annotationName) {
+		TypeElement current = type;
+		while (current != null) {
+			AnnotationMirror mirror = findAnnotation(current, annotationName);
+			if (mirror != null) {
+				return mirror;
+			}
+			TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED
+					  ? (TypeElement) ((DeclaredType) superclass).asElement()
+					  : null;
+		}
+		return null;
+	}
+
+	private void addParents(AnnotationMirror bean, Set<String> parents) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : bean.getElementValues()
+				.entrySet()) {
+			String name = e.getKey().getSimpleName().toString();
+			Object value = e.getValue().getValue();
+			if ("parent".equals(name)) {
+				addParent(value, parents);
+			} else if ("parents".equals(name) && value instanceof List) {
+				for (Object item : (List<?>) value) {
+					addParent(((AnnotationValue) item).getValue(), parents);
+				}
+			}
+		}
+	}
+
+	private void addParent(Object value, Set<String> parents) {
+		if (value instanceof DeclaredType) {
+			TypeElement parent = (TypeElement) ((DeclaredType) value).asElement();
+			if (!parent.getQualifiedName().contentEquals(Object.class.getName())) {
+				parents.add(processingEnv.getElementUtils().getBinaryName(parent).toString());
+			}
+		}
+	}
+
+	private boolean isIndexed(TypeElement type, List<TypeElement> supertypes) {
+		for (String annotation : INDEXED_ANNOTATIONS) {
+			if (findInheritedAnnotation(type, annotation) != null) {
+				return true;
+			}
+		}
+		TypeMirror erasure = processingEnv.getTypeUtils().erasure(type.asType());
+		for (TypeElement supertype : supertypes) {
+			if (processingEnv.getTypeUtils().isSubtype(erasure, processingEnv.getTypeUtils().erasure(supertype.asType()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void processType(TypeElement type, List<TypeElement> supertypes) {
+		if (type.getKind() != ElementKind.ANNOTATION_TYPE && isIndexed(type, supertypes)) {
+			Set<String> parents = new TreeSet<>();
+			AnnotationMirror bean = findInheritedAnnotation(type, BEAN_ANNOTATION);
+			if (bean != null) {
+				addParents(bean, parents);
+			}
+			index.add(processingEnv.getElementUtils().getBinaryName(type).toString(), parents);
+		}
+		for (Element enclosed : type.getEnclosedElements()) {
+			if (enclosed instanceof TypeElement) {
+				processType((TypeElement) enclosed, supertypes);
+			}
+		}
+	}
+
+	private void writeIndex() {
+		try {
+			FileObject file = processingEnv.getFiler()
+					.createResource(StandardLocation.CLASS_OUTPUT, "", BeanIndex.INDEX_RESOURCE);
+			try (OutputStream out = file.openOutputStream()) {
+				index.write(out);
+			}
+		} catch (IOException ex) {
+			processingEnv.getMessager()
+					.printMessage(Diagnostic.Kind.WARNING, "Could not write index of beans: " + ex.getMessage());
+		}
+	}
+
+}
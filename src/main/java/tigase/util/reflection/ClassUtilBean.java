@@ -17,13 +17,17 @@
  */
 package tigase.util.reflection;
 
+import tigase.kernel.beans.Bean;
 import tigase.util.ClassComparator;
 import tigase.util.ClassUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -47,6 +51,8 @@ public class ClassUtilBean {
 	private static ClassUtilBean instance;
 	private static Logger log = Logger.getLogger(ClassUtilBean.class.getCanonicalName());
 	protected HashSet<Class<?>> classes = new HashSet<>();
+	private int indexedPaths = 0;
+	private int scannedPaths = 0;
 
 	public static List<String> getPackagesToSkip(String[] packagesToSkip) {
 		if (packagesToSkip == null) {
@@ -87,7 +93,7 @@ public class ClassUtilBean {
 					return true;
 				};
 			}
-			classes.addAll(ClassUtil.getClassesFromClassPath(filter));
+			classes.addAll(getClassesFromClassPath(filter));
 			// support for handling debugging test cases started by Maven Surefire Plugin
 			// as without it Tigase Kernel is not able to see annotated beans
 			classes.addAll(getClassesFromSurefireClassLoader());
@@ -99,10 +105,166 @@ public class ClassUtilBean {
 		}
 	}
 
+	/**
+	 * Returns number of jar files from which classes were loaded using {@link BeanIndex} instead of scanning all
+	 * classes.
+	 */
+	public int getIndexedPathsCount() {
+		return indexedPaths;
+	}
+
+	/**
+	 * Returns number of jar files and directories which were scanned for classes.
+	 */
+	public int getScannedPathsCount() {
+		return scannedPaths;
+	}
+
+	/**
+	 * Loads classes from jar file using index of beans stored in it.
+	 *
+	 * @return set of classes or <code>null</code> if there is no index in the jar file or index is outdated
+	 */
+	protected Set<Class<?>> getClassesFromIndex(File file, Predicate<String> filter) throws IOException {
+		BeanIndex index;
+		try (JarFile jar = new JarFile(file)) {
+			JarEntry entry = jar.getJarEntry(BeanIndex.INDEX_RESOURCE);
+			if (entry == null) {
+				return null;
+			}
+			try (InputStream in = jar.getInputStream(entry)) {
+				index = BeanIndex.read(in);
+			}
+			if (index.getCompiledTypes() >= 0) {
+				int types = countTopLevelClasses(jar);
+				if (types > index.getCompiledTypes()) {
+					log.log(Level.WARNING,
+							"Index of beans in {0} is incomplete, it was generated for {1} of {2} classes",
+							new Object[]{file, index.getCompiledTypes(), types});
+					return null;
+				}
+			}
+		}
+
+		ClassLoader loader = ClassUtilBean.class.getClassLoader();
+		Set<Class<?>> result = new HashSet<>();
+		for (String className : index.getClassNames()) {
+			if (!filter.test(className)) {
+				continue;
+			}
+			Class<?> cls;
+			try {
+				cls = loader.loadClass(className);
+			} catch (ClassNotFoundException | NoClassDefFoundError ex) {
+				log.log(Level.WARNING, "Index of beans in {0} is outdated, class {1} not found",
+						new Object[]{file, className});
+				return null;
+			}
+			Set<String> parents = getBeanParents(cls);
+			if (parents != null && !index.getParents(className).equals(parents)) {
+				log.log(Level.WARNING, "Index of beans in {0} is outdated, parents of class {1} changed",
+						new Object[]{file, className});
+				return null;
+			}
+			result.add(cls);
+		}
+		return result;
+	}
+
+	private static int countTopLevelClasses(JarFile jar) {
+		int count = 0;
+		Enumeration<JarEntry> entries = jar.entries();
+		while (entries.hasMoreElements()) {
+			String name = entries.nextElement().getName();
+			if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.indexOf('$') >= 0) {
+				continue;
+			}
+			String simpleName = name.substring(name.lastIndexOf('/') + 1);
+			if (simpleName.equals("package-info.class") || simpleName.equals("module-info.class")) {
+				continue;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	private static Set<String> getBeanParents(Class<?> cls) {
+		Set<String> parents = new TreeSet<>();
+		try {
+			Bean bean = cls.getAnnotation(Bean.class);
+			if (bean != null) {
+				if (bean.parent() != Object.class) {
+					parents.add(bean.parent().getName());
+				}
+				for (Class<?> parent : bean.parents()) {
+					parents.add(parent.getName());
+				}
+			}
+		} catch (TypeNotPresentException ex) {
+			// class of a parent is not available, so it will not be possible to verify index
+			return null;
+		}
+		return parents;
+	}
+
+	/**
+	 * Loads classes from classpath. Classes from jar files containing {@link BeanIndex} are loaded using this index,
+	 * other jar files and directories are scanned and all classes found in them are loaded.
+	 */
+	private Set<Class<?>> getClassesFromClassPath(Predicate<String> filter) throws IOException, ClassNotFoundException {
+		Set<Class<?>> result = new HashSet<>();
+		List<File> toScan = new ArrayList<>();
+		StringTokenizer stok = new StringTokenizer(System.getProperty("java.class.path"), File.pathSeparator, false);
+		while (stok.hasMoreTokens()) {
+			File file = new File(stok.nextToken());
+			if (!file.exists()) {
+				continue;
+			}
+			Set<Class<?>> indexed = file.isFile() ? getClassesFromIndex(file, filter) : null;
+			if (indexed == null) {
+				toScan.add(file);
+			} else {
+				log.log(Level.CONFIG, "Loaded {0} classes from index of beans in {1}",
+						new Object[]{indexed.size(), file});
+				result.addAll(indexed);
+				indexedPaths++;
+			}
+		}
+
+		if (indexedPaths == 0) {
+			result.addAll(ClassUtil.getClassesFromClassPath(filter));
+		} else {
+			ClassLoader loader = ClassUtilBean.class.getClassLoader();
+			for (File file : toScan) {
+				Set<String> classNames = file.isDirectory()
+										 ? ClassUtil.getClassNamesFromDir(file)
+										 : ClassUtil.getClassNamesFromJar(file);
+				for (String className : classNames) {
+					if (filter.test(className)) {
+						loadClass(loader, className).ifPresent(result::add);
+					}
+				}
+			}
+		}
+		scannedPaths += toScan.size();
+		return result;
+	}
+
 	public Set<Class<?>> getAllClasses() {
 		return Collections.unmodifiableSet(classes);
 	}
 
+	private static Optional<Class<?>> loadClass(ClassLoader loader, String className) {
+		try {
+			return Optional.of(loader.loadClass(className));
+		} catch (UnsupportedClassVersionError ex) {
+			log.log(Level.WARNING, "Class: " + className + " compiled using newer JDK version. Please upgrade your JDK!");
+		} catch (Throwable ex) {
+			log.log(Level.FINEST, "Could not load class " + className, ex);
+		}
+		return Optional.empty();
+	}
+
 	private Set<Class<?>> getClassesFromSurefireClassLoader() {
 		Set<Class<?>> classes_set = new TreeSet<Class<?>>(new ClassComparator());
 		String classpath = System.getProperty("surefire.test.class.path");
@@ -0,0 +1,370 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Priority queue with the same semantics as {@link PriorityQueueRelaxed} but without any shared monitor. Each priority
+ * is backed by a bounded multi-producer, multi-consumer ring buffer and consumers waiting in {@link #take()} are parked
+ * and woken up by producers only when there is a thread actually waiting.
+ * <br>
+ * Capacity of each ring buffer is rounded up to the nearest power of 2, so the queue may accept slightly more elements
+ * than requested with <code>maxSize</code>.
+ */
+public class PriorityQueueLockFree<E>
+		extends PriorityQueueAbstract<E> {
+
+	private static final long PUT_PARK_MAX_NANOS = 1000000;
+	private static final long PUT_PARK_MIN_NANOS = 1000;
+
+	private volatile RingBuffer<E>[] qs = null;
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+	public PriorityQueueLockFree() {
+	}
+
+	protected PriorityQueueLockFree(int maxPriority, int maxSize) {
+		init(maxPriority, maxSize);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public final void init(int maxPriority, int maxSize) {
+		RingBuffer<E>[] queues = new RingBuffer[maxPriority];
+
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new RingBuffer<E>(maxSize);
+		}
+		qs = queues;
+	}
+
+	@Override
+	public boolean offer(E element, int priority) {
+		while (true) {
+			RingBuffer<E>[] queues = qs;
+
+			checkPriority(queues, priority);
+			int i = priority;
+			for (; i < queues.length; i++) {
+				RingBuffer<E> queue = queues[i];
+
+				if (!queue.enterProducer()) {
+					// queues were replaced by setMaxSize(), so we need to start again with the new ones
+					break;
+				}
+				try {
+					// same as in PriorityQueueRelaxed, if queue for this priority is full
+					// we try to put element to queue with lower priority
+					if (queue.offer(element)) {
+						signalWaiter();
+						return true;
+					}
+				} finally {
+					queue.exitProducer();
+				}
+			}
+			if (i == queues.length) {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public void put(E element, int priority) throws InterruptedException {
+		checkPriority(qs, priority);
+
+		long parkNanos = PUT_PARK_MIN_NANOS;
+
+		while (true) {
+			// reading qs in the loop as the queue may be replaced by setMaxSize()
+			RingBuffer<E> queue = qs[priority];
+
+			if (queue.enterProducer()) {
+				try {
+					if (queue.offer(element)) {
+						break;
+					}
+				} finally {
+					queue.exitProducer();
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				LockSupport.parkNanos(this, parkNanos);
+				parkNanos = Math.min(parkNanos * 2, PUT_PARK_MAX_NANOS);
+			}
+		}
+		signalWaiter();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized void setMaxSize(int maxSize) {
+		RingBuffer<E>[] oldQueues = qs;
+		RingBuffer<E>[] newQueues = new RingBuffer[oldQueues.length];
+
+		for (int i = 0; i < oldQueues.length; i++) {
+			RingBuffer<E> newQueue = new RingBuffer<E>(maxSize);
+
+			// We don't want to lose or reorder any data, so the old queue is not drained
+			// but kept and checked by consumers before the new one. It is unlinked by
+			// consumers when it is empty and no producer can add anything to it.
+			newQueue.previous = oldQueues[i];
+			newQueues[i] = newQueue;
+		}
+		qs = newQueues;
+
+		// producers which see the old queue as retired will retry with the new queues
+		for (int i = 0; i < oldQueues.length; i++) {
+			oldQueues[i].retire();
+		}
+		signalWaiter();
+	}
+
+	@Override
+	public int[] size() {
+		RingBuffer<E>[] queues = qs;
+		int[] result = new int[queues.length];
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = queues[i].size();
+		}
+
+		return result;
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		final Thread current = Thread.currentThread();
+
+		while (true) {
+			E e = poll();
+
+			if (e != null) {
+				return e;
+			}
+
+			// thread needs to be registered as a waiter before checking queues once again,
+			// otherwise producer could add element and miss this thread while it is going to park
+			waiters.offer(current);
+			e = poll();
+			if (e == null) {
+				LockSupport.park(this);
+			}
+			if (!waiters.remove(current) && e != null) {
+				// we were woken up by producer but we already have an element, so we need
+				// to pass this signal to other waiting thread
+				signalWaiter();
+			}
+			if (e != null) {
+				return e;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	@Override
+	public int totalSize() {
+		RingBuffer<E>[] queues = qs;
+		int result = 0;
+
+		for (int i = 0; i < queues.length; i++) {
+			result += queues[i].size();
+		}
+
+		return result;
+	}
+
+	private void checkPriority(RingBuffer<E>[] queues, int priority) {
+		if ((priority < 0) || (queues.length <= priority)) {
+			throw new IllegalArgumentException("parameter priority must be " + "between 0 and " + (queues.length - 1));
+		}
+	}
+
+	private E poll() {
+		RingBuffer<E>[] queues = qs;
+
+		for (int i = 0; i < queues.length; i++) {
+			E e = queues[i].poll();
+
+			if (e != null) {
+				return e;
+			}
+		}
+
+		return null;
+	}
+
+	private void signalWaiter() {
+		if (!waiters.isEmpty()) {
+			Thread waiter = waiters.poll();
+
+			if (waiter != null) {
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+
+	/**
+	 * Bounded MPMC ring buffer based on the algorithm by Dmitry Vyukov. Each slot has a sequence number which tells
+	 * producers and consumers if the slot is ready to be written or read, so the only contended operations are CAS
+	 * operations on <code>tail</code> (producers) and <code>head</code> (consumers).
+	 * <br>
+	 * Producers register in <code>producers</code> before adding an element, so after the buffer is retired it is
+	 * possible to tell when no more elements can be added to it.
+	 */
+	static final class RingBuffer<E> {
+
+		private final AtomicReferenceArray<E> buffer;
+		private final int capacity;
+		private final AtomicLong head = new AtomicLong(0);
+		private final int mask;
+		private final AtomicInteger producers = new AtomicInteger(0);
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong(0);
+		volatile RingBuffer<E> previous = null;
+		private volatile boolean retired = false;
+
+		RingBuffer(int maxSize) {
+			int size = 1;
+
+			while (size < maxSize) {
+				size <<= 1;
+			}
+			capacity = size;
+			mask = size - 1;
+			buffer = new AtomicReferenceArray<E>(size);
+			sequences = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++) {
+				sequences.set(i, i);
+			}
+		}
+
+		int capacity() {
+			return capacity;
+		}
+
+		/**
+		 * Registers producer which is going to add an element. Returns <code>false</code> if the buffer was retired and
+		 * elements should be added to the buffer which replaced it.
+		 */
+		boolean enterProducer() {
+			producers.incrementAndGet();
+			if (retired) {
+				producers.decrementAndGet();
+				return false;
+			}
+			return true;
+		}
+
+		void exitProducer() {
+			producers.decrementAndGet();
+		}
+
+		void retire() {
+			retired = true;
+		}
+
+		boolean offer(E element) {
+			long pos = tail.get();
+
+			while (true) {
+				int idx = (int) (pos & mask);
+				long diff = sequences.get(idx) - pos;
+
+				if (diff == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						buffer.lazySet(idx, element);
+						sequences.set(idx, pos + 1);
+						return true;
+					}
+					pos = tail.get();
+				} else if (diff < 0) {
+					return false;
+				} else {
+					pos = tail.get();
+				}
+			}
+		}
+
+		E poll() {
+			RingBuffer<E> prev = previous;
+
+			if (prev != null) {
+				E e = prev.poll();
+
+				if (e != null) {
+					return e;
+				}
+				if (prev.isDrained()) {
+					previous = null;
+				}
+			}
+
+			long pos = head.get();
+
+			while (true) {
+				int idx = (int) (pos & mask);
+				long diff = sequences.get(idx) - (pos + 1);
+
+				if (diff == 0) {
+					if (head.compareAndSet(pos, pos + 1)) {
+						E e = buffer.get(idx);
+
+						buffer.lazySet(idx, null);
+						sequences.set(idx, pos + mask + 1);
+						return e;
+					}
+					pos = head.get();
+				} else if (diff < 0) {
+					return null;
+				} else {
+					pos = head.get();
+				}
+			}
+		}
+
+		/**
+		 * Checks if the buffer is retired, empty and no producer is able to add an element to it anymore. Order of
+		 * checks matters, as a producer registered before the buffer was retired may still be adding an element.
+		 */
+		private boolean isDrained() {
+			return retired && producers.get() == 0 && previous == null && tail.get() == head.get();
+		}
+
+		int size() {
+			RingBuffer<E> prev = previous;
+			long size = tail.get() - head.get();
+
+			if (prev != null) {
+				size += prev.size();
+			}
+
+			return (int) Math.max(0, Math.min(size, Integer.MAX_VALUE));
+		}
+
+	}
+}
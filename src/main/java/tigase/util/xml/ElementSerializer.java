@@ -0,0 +1,241 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.xml;
+
+import tigase.xml.Element;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializer writing {@link Element} tree directly as UTF-8 encoded bytes to a {@link ByteBuffer} without creating
+ * intermediate <code>String</code> for the whole element and without using <code>CharsetEncoder</code>.
+ * <br>
+ * Attribute values and character data are kept by <code>Element</code> in the escaped form, so they are written as they
+ * are - exactly as <code>Element.toString()</code> does. Elements with mixed content (both character data and children)
+ * are written using <code>Element.toString()</code> as only this way preserves order of the content.
+ * <br>
+ * When there is no more space in the buffer {@link Output#flush(ByteBuffer)} is called to get a buffer with free space,
+ * so the same instance may be used to write elements to a socket, an <code>OutputStream</code> or to a growing buffer.
+ */
+public class ElementSerializer {
+
+	private static final int MIN_FREE_SPACE = 4;
+
+	private ByteBuffer buffer;
+	private final Output output;
+
+	/**
+	 * Returns bytes of UTF-8 encoded element.
+	 */
+	public static byte[] toBytes(Element elem) {
+		ByteBuffer buffer = toByteBuffer(elem);
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+	/**
+	 * Returns flipped buffer (ready to read) containing UTF-8 encoded element.
+	 */
+	public static ByteBuffer toByteBuffer(Element elem) {
+		return toByteBuffer(elem, ByteBuffer.allocate(256));
+	}
+
+	/**
+	 * Returns flipped buffer (ready to read) containing UTF-8 encoded element. Element is written to the passed buffer
+	 * (after clearing it) and a larger buffer is returned only if the element does not fit in it.
+	 */
+	public static ByteBuffer toByteBuffer(Element elem, ByteBuffer buffer) {
+		buffer.clear();
+		try {
+			buffer = new ElementSerializer(buffer, ElementSerializer::grow).write(elem).getBuffer();
+			buffer.flip();
+			return buffer;
+		} catch (IOException ex) {
+			// this should not happen as we are not writing to any stream
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Writes UTF-8 encoded element to the output stream.
+	 */
+	public static void write(Element elem, OutputStream out) throws IOException {
+		ElementSerializer serializer = new ElementSerializer(ByteBuffer.allocate(1024), buffer -> {
+			out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+			buffer.clear();
+			return buffer;
+		});
+		serializer.write(elem).flush();
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer) {
+		ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+		buffer.flip();
+		newBuffer.put(buffer);
+		return newBuffer;
+	}
+
+	/**
+	 * Creates serializer.
+	 *
+	 * @param buffer in which data will be written, it needs to be in the <em>write</em> mode.
+	 * @param output called when the buffer is full
+	 */
+	public ElementSerializer(ByteBuffer buffer, Output output) {
+		this.buffer = buffer;
+		this.output = output;
+	}
+
+	/**
+	 * Passes current buffer to {@link Output#flush(ByteBuffer)} if it contains any data.
+	 */
+	public ElementSerializer flush() throws IOException {
+		if (buffer.position() > 0) {
+			buffer = output.flush(buffer);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns current buffer in which data was written.
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public ElementSerializer write(Element elem) throws IOException {
+		String cdata = elem.getCData();
+		List<Element> children = elem.getChildren();
+		boolean hasChildren = children != null && !children.isEmpty();
+		boolean hasCData = cdata != null && !cdata.isEmpty();
+
+		if (hasChildren && hasCData) {
+			writeString(elem.toString());
+			return this;
+		}
+
+		String name = elem.getName();
+
+		writeByte('<');
+		writeString(name);
+
+		Map<String, String> attributes = elem.getAttributes();
+
+		if (attributes != null) {
+			for (Map.Entry<String, String> e : attributes.entrySet()) {
+				writeByte(' ');
+				writeString(e.getKey());
+				writeByte('=');
+				writeByte('"');
+				writeString(e.getValue());
+				writeByte('"');
+			}
+		}
+		if (hasChildren) {
+			writeByte('>');
+			for (Element child : children) {
+				// the same as in Element.toString(), let's be safe and skip null children
+				if (child != null) {
+					write(child);
+				}
+			}
+			writeEndTag(name);
+		} else if (hasCData) {
+			writeByte('>');
+			writeString(cdata);
+			writeEndTag(name);
+		} else {
+			writeByte('/');
+			writeByte('>');
+		}
+		return this;
+	}
+
+	/**
+	 * Writes UTF-8 encoded string. Unpaired surrogates are replaced with <code>'?'</code>.
+	 */
+	public ElementSerializer writeString(String str) throws IOException {
+		final int len = str.length();
+
+		for (int i = 0; i < len; i++) {
+			char c = str.charAt(i);
+
+			if (buffer.remaining() < MIN_FREE_SPACE) {
+				buffer = output.flush(buffer);
+			}
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				int cp = -1;
+
+				if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+					cp = Character.toCodePoint(c, str.charAt(++i));
+				}
+				if (cp < 0) {
+					buffer.put((byte) '?');
+				} else {
+					buffer.put((byte) (0xF0 | (cp >> 18)));
+					buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+					buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+					buffer.put((byte) (0x80 | (cp & 0x3F)));
+				}
+			} else {
+				buffer.put((byte) (0xE0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return this;
+	}
+
+	private void writeByte(char c) throws IOException {
+		if (!buffer.hasRemaining()) {
+			buffer = output.flush(buffer);
+		}
+		buffer.put((byte) c);
+	}
+
+	private void writeEndTag(String name) throws IOException {
+		writeByte('<');
+		writeByte('/');
+		writeString(name);
+		writeByte('>');
+	}
+
+	/**
+	 * Interface called by serializer when buffer is full.
+	 */
+	@FunctionalInterface
+	public interface Output {
+
+		/**
+		 * Method should consume data from the buffer (which is in the <em>write</em> mode) and return a buffer in the
+		 * <em>write</em> mode with at least 4 bytes of free space.
+		 */
+		ByteBuffer flush(ByteBuffer buffer) throws IOException;
+
+	}
+}
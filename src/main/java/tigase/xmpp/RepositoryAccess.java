@@ -62,6 +62,10 @@ public abstract class RepositoryAccess {
 	 * Handle to user repository - permanent data base for storing user data.
 	 */
 	private UserRepository repo = null;
+	/**
+	 * Data of user nodes loaded at once with <code>prefetchData()</code>.
+	 */
+	private volatile UserDataCache prefetchedData = null;
 
 	/**
 	 * Creates a new <code>RepositoryAccess</code> instance.
@@ -83,6 +87,10 @@ public abstract class RepositoryAccess {
 		}
 		try {
 			repo.addDataList(getBareJID(), subnode, key, list);
+			UserDataCache data = prefetchedData;
+			if (data != null) {
+				data.addValues(subnode, key, list);
+			}
 		} catch (UserNotFoundException e) {
 			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
 
@@ -105,6 +113,41 @@ public abstract class RepositoryAccess {
 
 	public void logout() throws NotAuthorizedException {
 		authState = Authorization.NOT_AUTHORIZED;
+		prefetchedData = null;
+	}
+
+	/**
+	 * Loads all pairs <code>(key, value)</code> stored in given nodes with a single request to the repository, if the
+	 * repository supports it. Calls to <code>getData</code>, <code>getDataList</code>, <code>getDataMap</code> and
+	 * <code>getDataKeys</code> for these nodes are then served from loaded data, and changes made with this session
+	 * are written to the repository and to loaded data. Loaded data is dropped after given time, as changes made
+	 * outside of this session (ie. by other sessions of the user) are not visible in it.
+	 *
+	 * @param subnodes an array of node paths to load, <code>null</code> denotes root node.
+	 * @param time a <code>long</code> value of time in milliseconds for which loaded data is used.
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 */
+	public void prefetchData(String[] subnodes, long time) throws NotAuthorizedException, TigaseDBException {
+		if (is_anonymous) {
+			return;
+		}
+		if (!isAuthorized()) {
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
+		}
+		try {
+			long start = System.currentTimeMillis();
+			Map<String, Map<String, String[]>> data = repo.getDataLists(getBareJID(), subnodes);
+
+			if (data != null) {
+				prefetchedData = new UserDataCache(data, start + time);
+			}
+		} catch (UserNotFoundException e) {
+			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
+
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG, e);
+		}    // end of try-catch
 	}
 
 	public void queryAuth(Map<String, Object> authProps) throws TigaseDBException {
@@ -148,6 +191,10 @@ public abstract class RepositoryAccess {
 	public void removeData(String subnode, String key) throws NotAuthorizedException, TigaseDBException {
 		try {
 			repo.removeData(getBareJID(), subnode, key);
+			UserDataCache data = prefetchedData;
+			if (data != null) {
+				data.removeKey(subnode, key);
+			}
 		} catch (UserNotFoundException e) {
 			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
 
@@ -178,6 +225,10 @@ public abstract class RepositoryAccess {
 		}
 		try {
 			repo.removeSubnode(getBareJID(), subnode);
+			UserDataCache data = prefetchedData;
+			if (data != null) {
+				data.removeNodes(subnode);
+			}
 		} catch (UserNotFoundException e) {
 			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
 
@@ -261,6 +312,12 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		Map<String, String[]> node = getPrefetchedNode(subnode);
+		if (node != null) {
+			String[] values = node.get(key);
+
+			return ((values == null) || (values.length == 0) || (values[0] == null)) ? def : values[0];
+		}
 		try {
 			return repo.getData(getBareJID(), subnode, key, def);
 		} catch (UserNotFoundException e) {
@@ -275,6 +332,45 @@ public abstract class RepositoryAccess {
 		// return null;
 	}
 
+	/**
+	 * This method retrieves all pairs <code>(key, value)</code> stored in given node. It is the same as calling
+	 * <code>getData(String, String, String)</code> for each key returned by <code>getDataKeys(String)</code>, but
+	 * repository may retrieve all of them at once.
+	 *
+	 * @param subnode a <code>String</code> value is path to node where pairs <code>(key, value)</code> are stored.
+	 *
+	 * @return a <code>Map</code> of all pairs found in given node, empty if there was no data.
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 * @see #setData(String, String, String)
+	 */
+	public Map<String, String> getDataMap(String subnode) throws NotAuthorizedException, TigaseDBException {
+		if (is_anonymous) {
+			return Collections.emptyMap();
+		}
+		if (!isAuthorized()) {
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
+		}
+		Map<String, String[]> node = getPrefetchedNode(subnode);
+		if (node != null) {
+			Map<String, String> results = new HashMap<>();
+			for (Map.Entry<String, String[]> e : node.entrySet()) {
+				String[] values = e.getValue();
+				results.put(e.getKey(), values[values.length - 1]);
+			}
+
+			return results;
+		}
+		try {
+			return repo.getDataMap(getBareJID(), subnode);
+		} catch (UserNotFoundException e) {
+			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
+
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG, e);
+		}    // end of try-catch
+	}
+
 	/**
 	 * This method retrieves list of all direct subnodes for given node. It works in similar way as <code>ls</code> unix
 	 * command or <code>dir</code> under DOS/Windows systems.
@@ -330,6 +426,10 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		Map<String, String[]> node = getPrefetchedNode(subnode);
+		if (node != null) {
+			return node.isEmpty() ? null : node.keySet().toArray(new String[node.size()]);
+		}
 		try {
 			return repo.getKeys(getBareJID(), subnode);
 		} catch (UserNotFoundException e) {
@@ -366,6 +466,12 @@ public abstract class RepositoryAccess {
 		if (!isAuthorized()) {
 			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG);
 		}
+		Map<String, String[]> node = getPrefetchedNode(subnode);
+		if (node != null) {
+			String[] values = node.get(key);
+
+			return (values == null) ? null : values.clone();
+		}
 		try {
 			return repo.getDataList(getBareJID(), subnode, key);
 		} catch (UserNotFoundException e) {
@@ -468,6 +574,10 @@ public abstract class RepositoryAccess {
 	public void setData(String subnode, String key, String value) throws NotAuthorizedException, TigaseDBException {
 		try {
 			repo.setData(getBareJID(), subnode, key, value);
+			UserDataCache data = prefetchedData;
+			if (data != null) {
+				data.setValues(subnode, key, (value == null) ? null : new String[]{value});
+			}
 		} catch (UserNotFoundException e) {
 			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
 
@@ -478,6 +588,34 @@ public abstract class RepositoryAccess {
 		}    // end of try-catch
 	}
 
+	/**
+	 * This method stores all pairs <code>(key, value)</code> of given map in given node. It is the same as calling
+	 * <code>setData(String, String, String)</code> for each entry of the map, but repository may store all of them at
+	 * once.
+	 *
+	 * @param subnode a <code>String</code> value pointing to specific subnode in user reposiotry where data have to be
+	 * stored.
+	 * @param data a <code>Map</code> of data keys and values to be stored.
+	 *
+	 * @throws NotAuthorizedException is thrown when session has not been authorized yet and there is no access to
+	 * permanent storage.
+	 * @throws TigaseDBException if any of values was not stored.
+	 * @see #setData(String, String, String)
+	 */
+	public void setDataMap(String subnode, Map<String, String> data) throws NotAuthorizedException, TigaseDBException {
+		try {
+			repo.setDataMap(getBareJID(), subnode, data);
+			UserDataCache cache = prefetchedData;
+			if (cache != null) {
+				data.forEach((key, value) -> cache.setValues(subnode, key, (value == null) ? null : new String[]{value}));
+			}
+		} catch (UserNotFoundException e) {
+			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
+
+			throw new NotAuthorizedException(NO_ACCESS_TO_REP_MSG, e);
+		}    // end of try-catch
+	}
+
 	/**
 	 * This method allows to store list of values under one key ID reference. It is often necessary to keep set of
 	 * values which can be refered by one key. As an example might be list of groups for specific buddy in roster. There
@@ -502,6 +640,10 @@ public abstract class RepositoryAccess {
 		}
 		try {
 			repo.setDataList(getBareJID(), subnode, key, list);
+			UserDataCache data = prefetchedData;
+			if (data != null) {
+				data.setValues(subnode, key, list);
+			}
 		} catch (UserNotFoundException e) {
 			log.log(Level.FINEST, "Problem accessing reposiotry: ", e);
 
@@ -611,6 +753,22 @@ public abstract class RepositoryAccess {
 		return base + "/" + subnode;
 	}
 
+	/**
+	 * Returns data of the node loaded with <code>prefetchData()</code> or <code>null</code> if node was not loaded or
+	 * loaded data expired.
+	 */
+	private Map<String, String[]> getPrefetchedNode(String subnode) {
+		UserDataCache data = prefetchedData;
+		if (data == null) {
+			return null;
+		}
+		if (data.isExpired(System.currentTimeMillis())) {
+			prefetchedData = null;
+			return null;
+		}
+		return data.getNode(subnode);
+	}
+
 	private boolean isLoginAllowed() throws AuthorizationException {
 		if (isAuthorized()) {
 			throw new AuthorizationException("User session already authenticated. " +
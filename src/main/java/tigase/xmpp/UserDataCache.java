@@ -0,0 +1,126 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data of user repository nodes loaded at once for a session, with values of each key of a node as returned by
+ * <code>UserRepository.getDataList()</code>. Only nodes which were loaded are kept and they are valid until the time
+ * of expiration.
+ */
+class UserDataCache {
+
+	private final long expiresAt;
+	private final Map<String, Map<String, String[]>> nodes = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns node path in a form used as a key of the cache, <code>null</code> (root node) is converted to an empty
+	 * string.
+	 */
+	static String normalize(String subnode) {
+		if (subnode == null) {
+			return "";
+		}
+		StringTokenizer strtok = new StringTokenizer(subnode, "/", false);
+		StringBuilder sb = new StringBuilder(subnode.length());
+		while (strtok.hasMoreTokens()) {
+			if (sb.length() > 0) {
+				sb.append('/');
+			}
+			sb.append(strtok.nextToken());
+		}
+		return sb.toString();
+	}
+
+	UserDataCache(Map<String, Map<String, String[]>> data, long expiresAt) {
+		this.expiresAt = expiresAt;
+		for (Map.Entry<String, Map<String, String[]>> e : data.entrySet()) {
+			nodes.put(normalize(e.getKey()), new ConcurrentHashMap<>(e.getValue()));
+		}
+	}
+
+	boolean isExpired(long now) {
+		return now >= expiresAt;
+	}
+
+	/**
+	 * Returns values of all keys of the node or <code>null</code> if node was not loaded.
+	 */
+	Map<String, String[]> getNode(String subnode) {
+		return nodes.get(normalize(subnode));
+	}
+
+	/**
+	 * Replaces values of the key, if node was loaded. Passing <code>null</code> drops whole node as its state is not
+	 * known.
+	 */
+	void setValues(String subnode, String key, String[] values) {
+		if (values == null) {
+			nodes.remove(normalize(subnode));
+			return;
+		}
+		Map<String, String[]> node = getNode(subnode);
+		if (node != null) {
+			if (values.length == 0) {
+				node.remove(key);
+			} else {
+				node.put(key, values.clone());
+			}
+		}
+	}
+
+	void addValues(String subnode, String key, String[] values) {
+		if (values == null) {
+			nodes.remove(normalize(subnode));
+			return;
+		}
+		Map<String, String[]> node = getNode(subnode);
+		if (node != null && values.length > 0) {
+			node.merge(key, values.clone(), (oldValues, newValues) -> {
+				String[] result = new String[oldValues.length + newValues.length];
+				System.arraycopy(oldValues, 0, result, 0, oldValues.length);
+				System.arraycopy(newValues, 0, result, oldValues.length, newValues.length);
+				return result;
+			});
+		}
+	}
+
+	void removeKey(String subnode, String key) {
+		Map<String, String[]> node = getNode(subnode);
+		if (node != null) {
+			node.remove(key);
+		}
+	}
+
+	/**
+	 * Drops the node and all its subnodes.
+	 */
+	void removeNodes(String subnode) {
+		String path = normalize(subnode);
+		if (path.isEmpty()) {
+			nodes.clear();
+		} else {
+			String prefix = path + "/";
+			nodes.keySet().removeIf(node -> node.equals(path) || node.startsWith(prefix));
+		}
+	}
+
+}
@@ -21,17 +21,17 @@ import tigase.net.IOService;
 import tigase.server.ConnectionManager;
 import tigase.server.Packet;
 import tigase.server.xmppclient.XMPPIOProcessor;
+import tigase.stats.Histogram;
 import tigase.util.StringUtilities;
 import tigase.util.stringprep.TigaseStringprepException;
+import tigase.util.xml.ElementSerializer;
 import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Queue;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -68,7 +68,27 @@ public class XMPPIOService<RefObject>
 
 	public static final String STREAM_CLOSING = "stream-closing";
 
+	public static final int WRITE_BATCH_MIN_SIZE = 1024;
+
 	private static final Logger log = Logger.getLogger(XMPPIOService.class.getName());
+	// buffers used for batched writes are shared between services handled by the same thread
+	private static final ThreadLocal<ByteBuffer> writeBatchBuffer = new ThreadLocal<>();
+	private static final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<>();
+	private static final int WRITE_BUFFER_MAX_REUSED_SIZE = 64 * 1024;
+	/**
+	 * Keeps information if class overrides {@link #writeRawData(String)}, ie. to wrap data in protocol frames, and
+	 * data cannot be written directly to the socket.
+	 */
+	private static final ClassValue<Boolean> writeRawDataOverridden = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			try {
+				return type.getMethod("writeRawData", String.class).getDeclaringClass() != XMPPIOService.class;
+			} catch (NoSuchMethodException ex) {
+				return true;
+			}
+		}
+	};
 
 	public ReentrantLock writeInProgress = new ReentrantLock();
 	protected SimpleParser parser = SingletonFactory.getParserInstance();
@@ -99,6 +119,8 @@ public class XMPPIOService<RefObject>
 	 */
 	private ConcurrentLinkedQueue<Packet> waitingPackets = new ConcurrentLinkedQueue<Packet>();
 	private boolean white_char_ack = false;
+	private Histogram writeBatchHistogram = null;
+	private int writeBatchSize = 0;
 	private String xmlns = null;
 	private boolean xmpp_ack = false;
 
@@ -221,6 +243,42 @@ public class XMPPIOService<RefObject>
 
 	@Override
 	public void processWaitingPackets() throws IOException {
+		if (writeBatchSize > 0 && isDirectWriteSupported()) {
+			processWaitingPacketsBatched();
+		} else {
+			processWaitingPacketsOneByOne();
+		}
+
+		// notify io processors that all waiting packets were sent
+		if (processors != null) {
+			for (XMPPIOProcessor processor : processors) {
+				processor.packetsSent(this);
+			}
+		}
+	}
+
+	/**
+	 * Enables batched writing of waiting packets. All waiting packets are encoded into a single buffer of
+	 * <code>batchSize</code> bytes which is written to the socket when it is full or when there are no more packets
+	 * waiting.
+	 *
+	 * @param batchSize size of the buffer in bytes, <code>0</code> disables batching
+	 * @param histogram for collecting number of packets written in a single batch, may be <code>null</code>
+	 */
+	public void setWriteBatching(int batchSize, Histogram histogram) {
+		this.writeBatchSize = batchSize > 0 ? Math.max(batchSize, WRITE_BATCH_MIN_SIZE) : 0;
+		this.writeBatchHistogram = histogram;
+	}
+
+	/**
+	 * Method returns <code>true</code> if waiting packets may be written in batches. Implementations which need to wrap
+	 * each packet separately, ie. in protocol frames, should return <code>false</code>.
+	 */
+	protected boolean isWriteBatchingSupported() {
+		return true;
+	}
+
+	protected void processWaitingPacketsOneByOne() throws IOException {
 		Packet packet = null;
 
 		// int cnt = 0;
@@ -233,7 +291,12 @@ public class XMPPIOService<RefObject>
 			if (log.isLoggable(Level.FINEST)) {
 				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
 			}
-			writeRawData(packet.getElement().toString());
+			if (isDirectWriteSupported()) {
+				// there is no need to wrap packet data, so we can skip creation of String and encoding it
+				writeElement(packet.getElement());
+			} else {
+				writeRawData(packet.getElement().toString());
+			}
 
 			// and after sending it we should remove it to minimalize chances of lost packets
 			waitingPackets.poll();
@@ -242,13 +305,96 @@ public class XMPPIOService<RefObject>
 				log.log(Level.FINEST, "{0}, SENT: {1}", new Object[]{toString(), packet.getElement().toString()});
 			}
 		}    // end of while (packet = waitingPackets.poll() != null)
+	}
 
-		// notify io processors that all waiting packets were sent
-		if (processors != null) {
-			for (XMPPIOProcessor processor : processors) {
-				processor.packetsSent(this);
+	private boolean isDirectWriteSupported() {
+		return isWriteBatchingSupported() && !writeRawDataOverridden.get(getClass());
+	}
+
+	private void writeElement(Element elem) {
+		ByteBuffer buffer = writeBuffer.get();
+
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(WRITE_BATCH_MIN_SIZE);
+		}
+		buffer = ElementSerializer.toByteBuffer(elem, buffer);
+		writeBytes(buffer);
+		// socket keeps reference to data which was not written yet, so the buffer cannot be reused
+		if (buffer.hasRemaining() || buffer.capacity() > WRITE_BUFFER_MAX_REUSED_SIZE) {
+			writeBuffer.remove();
+		} else {
+			writeBuffer.set(buffer);
+		}
+	}
+
+	protected void processWaitingPacketsBatched() throws IOException {
+		ByteBuffer buffer = writeBatchBuffer.get();
+
+		if (buffer == null || buffer.capacity() < writeBatchSize) {
+			buffer = ByteBuffer.allocate(writeBatchSize);
+			writeBatchBuffer.set(buffer);
+		}
+		buffer.clear();
+
+		// number of packets which data was put into the buffer but was not written yet
+		int[] batched = new int[1];
+		ElementSerializer serializer = new ElementSerializer(buffer, full -> {
+			ByteBuffer next = flushWriteBatch(full, batched[0]);
+			batched[0] = 0;
+			return next;
+		});
+		Iterator<Packet> it = waitingPackets.iterator();
+
+		// we should only iterate over packets now, and poll them after their data is written
+		while (it.hasNext() && isConnected()) {
+			Packet packet = it.next();
+
+			if (log.isLoggable(Level.FINEST)) {
+				log.log(Level.FINEST, "{0}, Sending packet: {1}", new Object[]{toString(), packet});
+			}
+
+			serializer.write(packet.getElement());
+			++batched[0];
+		}
+		if (serializer.getBuffer().position() > 0) {
+			flushWriteBatch(serializer.getBuffer(), batched[0]);
+		}
+	}
+
+	private ByteBuffer flushWriteBatch(ByteBuffer buffer, int packets) {
+		buffer.flip();
+		if (!isConnected()) {
+			// connection was stopped during writing of previous batch, packets which were not written
+			// are kept in the queue and will be handled as undelivered
+			buffer.clear();
+			return buffer;
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "{0}, Writing batch of {1} packets, {2} bytes",
+					new Object[]{toString(), packets, buffer.remaining()});
+		}
+		writeBytes(buffer);
+
+		// and after sending it we should remove it to minimalize chances of lost packets,
+		// if writing failed the connection is stopped and packets stay in the queue
+		if (isConnected()) {
+			for (int i = 0; i < packets; i++) {
+				waitingPackets.poll();
 			}
+			if (writeBatchHistogram != null && packets > 0) {
+				writeBatchHistogram.add(packets);
+			}
+		}
+
+		if (buffer.hasRemaining()) {
+			// socket was not able to write all data and keeps reference to this buffer
+			// to send it later, so we cannot reuse it
+			buffer = ByteBuffer.allocate(writeBatchSize);
+			writeBatchBuffer.set(buffer);
+		} else {
+			buffer.clear();
 		}
+		return buffer;
 	}
 
 	@Override
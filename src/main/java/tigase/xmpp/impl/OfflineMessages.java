@@ -19,8 +19,10 @@ package tigase.xmpp.impl;
 
 import tigase.db.MsgRepositoryIfc;
 import tigase.db.NonAuthUserRepository;
+import tigase.db.RepositoryExecutor;
 import tigase.db.TigaseDBException;
 import tigase.db.UserNotFoundException;
+import tigase.db.UserRepository;
 import tigase.kernel.beans.Bean;
 import tigase.kernel.beans.Inject;
 import tigase.kernel.beans.config.ConfigField;
@@ -28,6 +30,7 @@ import tigase.osgi.ModulesManagerImpl;
 import tigase.server.Iq;
 import tigase.server.Packet;
 import tigase.server.amp.db.MsgRepository;
+import tigase.server.xmppsession.PacketSuspender;
 import tigase.server.xmppsession.SessionManager;
 import tigase.util.dns.DNSResolverFactory;
 import tigase.util.stringprep.TigaseStringprepException;
@@ -36,10 +39,12 @@ import tigase.xml.Element;
 import tigase.xml.SimpleParser;
 import tigase.xml.SingletonFactory;
 import tigase.xmpp.*;
+import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -122,6 +127,10 @@ public class OfflineMessages
 	private String msgRepoCls = null;
 	@Inject(nullAllowed = true)
 	private List<Notifier> notifiers;
+	@Inject(nullAllowed = true)
+	private PacketSuspender packetSuspender;
+	@Inject(nullAllowed = true)
+	private UserRepository userRepository;
 	@ConfigField(desc = "Store offline messages with mathing paths", alias = MSG_OFFLINE_STORAGE_PATHS)
 	private ElementMatcher[] offlineStorageMatchers = new ElementMatcher[0];
 
@@ -199,23 +208,41 @@ public class OfflineMessages
 		switch (packet.getElemName()) {
 			case tigase.server.Presence.ELEM_NAME:
 				if (loadOfflineMessages(packet, conn)) {
-					try {
-						OfflineMsgRepositoryIfc msg_repo = getMsgRepoImpl(repo, conn);
-						Queue<Packet> packets = restorePacketForOffLineUser(conn, msg_repo);
+					OfflineMsgRepositoryIfc msg_repo = getMsgRepoImpl(repo, conn);
+					// only messages are loaded by the repository executor, without blocking processing thread and
+					// without access to the session, and they are sent by the processing thread of the session
+					final JID jid = conn.getJID();
+					CompletionStage<Queue<Element>> stage = msg_repo.getExecutor(jid.getBareJID())
+							.submit("OfflineMessages.loadMessagesToJID", () -> msg_repo.loadMessagesToJID(jid, true));
+
+					getPacketSuspender().suspend(this, packet, conn, results, stage, (elems, error, queue) -> {
+						if (error != null) {
+							if (error instanceof UserNotFoundException) {
+								log.info("Something wrong, DB problem, cannot load offline messages. " + error);
+							} else {
+								log.log(Level.WARNING, "Could not load offline messages for " + conn, error);
+							}
+							return;
+						}
+
+						Queue<Packet> packets = restorePackets(conn, elems);
 
 						if (packets != null) {
 							if (log.isLoggable(Level.FINER)) {
 								log.finer("Sending off-line messages: " + packets.size());
 							}
-							results.addAll(packets);
+							// messages are sent directly to the connection, so they are delivered before messages
+							// held while they were loaded
+							for (Packet p : packets) {
+								p.setPacketTo(conn.getConnectionId());
+							}
+							queue.addAll(packets);
 
 							if (!packets.isEmpty()) {
-								notifyOfflineMessagesRetrieved(conn, results);
+								notifyOfflineMessagesRetrieved(conn, queue);
 							}
 						}    // end of if (packets != null)
-					} catch (UserNotFoundException e) {
-						log.info("Something wrong, DB problem, cannot load offline messages. " + e);
-					}      // end of try-catch
+					});
 				}
 				break;
 			case Iq.ELEM_NAME:
@@ -301,8 +328,22 @@ public class OfflineMessages
 	public Queue<Packet> restorePacketForOffLineUser(XMPPResourceConnection conn,
 													 tigase.db.OfflineMsgRepositoryIfc repo)
 			throws UserNotFoundException, NotAuthorizedException {
-		Queue<Element> elems = repo.loadMessagesToJID(conn, true);
+		return restorePackets(conn, repo.loadMessagesToJID(conn, true));
+	}
 
+	/**
+	 * Method creates packets from elements loaded from offline storage and sorts them by the time when they were
+	 * stored.
+	 *
+	 * @param conn user session which keeps all the user session data and also gives an access to the user's repository
+	 * data.
+	 * @param elems elements loaded from offline storage
+	 *
+	 * @return a {@link Queue} of {@link Packet} objects or <code>null</code> if <code>elems</code> is
+	 * <code>null</code>.
+	 */
+	protected Queue<Packet> restorePackets(XMPPResourceConnection conn, Queue<Element> elems)
+			throws NotAuthorizedException {
 		if (elems != null) {
 			LinkedList<Packet> pacs = new LinkedList<Packet>();
 			Element elem = null;
@@ -453,6 +494,10 @@ public class OfflineMessages
 		}
 	}
 
+	protected PacketSuspender getPacketSuspender() {
+		return (packetSuspender != null) ? packetSuspender : PacketSuspender.SYNCHRONOUS;
+	}
+
 	/**
 	 * Method determines whether packet sent to offline user should be stored in offline storage or not
 	 */
@@ -759,27 +804,22 @@ public class OfflineMessages
 			throw new UnsupportedOperationException("Not supported yet.");
 		}
 
+		@Override
+		public RepositoryExecutor getExecutor(BareJID user) {
+			// messages are stored in the user repository
+			return (userRepository != null) ? userRepository.getExecutor(user) : RepositoryExecutor.getDefault();
+		}
+
 		@Override
 		public Queue<Element> loadMessagesToJID(XMPPResourceConnection session, boolean delete)
 				throws UserNotFoundException {
 			try {
-				DomBuilderHandler domHandler = new DomBuilderHandler();
 				String[] msgs = session.getOfflineDataList(ID, "messages");
 
 				if ((msgs != null) && (msgs.length > 0)) {
 					session.removeOfflineData(ID, "messages");
 
-					StringBuilder sb = new StringBuilder();
-
-					for (String msg : msgs) {
-						sb.append(msg);
-					}
-
-					char[] data = sb.toString().toCharArray();
-
-					parser.parse(domHandler, data, 0, data.length);
-
-					return domHandler.getParsedElements();
+					return parseMessages(msgs);
 				}    // end of while (elem = elems.poll() != null)
 			} catch (NotAuthorizedException ex) {
 				log.info("User not authrized to retrieve offline messages, " +
@@ -793,12 +833,52 @@ public class OfflineMessages
 			return null;
 		}
 
+		@Override
+		public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+			if (userRepository == null) {
+				log.log(Level.WARNING, "No user repository, cannot load offline messages for {0}", to);
+				return null;
+			}
+			try {
+				final String node = NonAuthUserRepository.OFFLINE_DATA_NODE + "/" + ID;
+				String[] msgs = userRepository.getDataList(to.getBareJID(), node, "messages");
+
+				if ((msgs != null) && (msgs.length > 0)) {
+					if (delete) {
+						userRepository.removeData(to.getBareJID(), node, "messages");
+					}
+					return parseMessages(msgs);
+				}
+			} catch (UserNotFoundException ex) {
+				throw ex;
+			} catch (TigaseDBException ex) {
+				log.warning("Error accessing database for offline message: " + ex);
+			}
+
+			return null;
+		}
+
 		@Override
 		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 				throws UserNotFoundException {
 			repo.addOfflineDataList(to.getBareJID(), ID, "messages", new String[]{msg.toString()});
 			return true;
 		}
+
+		private Queue<Element> parseMessages(String[] msgs) {
+			DomBuilderHandler domHandler = new DomBuilderHandler();
+			StringBuilder sb = new StringBuilder();
+
+			for (String msg : msgs) {
+				sb.append(msg);
+			}
+
+			char[] data = sb.toString().toCharArray();
+
+			parser.parse(domHandler, data, 0, data.length);
+
+			return domHandler.getParsedElements();
+		}
 	}
 
 }    // OfflineMessages
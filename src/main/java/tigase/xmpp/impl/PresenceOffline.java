@@ -58,8 +58,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static tigase.xmpp.impl.roster.RosterAbstract.ROSTER;
-
 @Id(PresenceOffline.ID)
 @Handles({@Handle(path = {PresenceAbstract.PRESENCE_ELEMENT_NAME}, xmlns = PresenceAbstract.CLIENT_XMLNS),
 		  @Handle(path = {Iq.ELEM_NAME, Iq.QUERY_NAME}, xmlns = RosterAbstract.XMLNS)})
@@ -337,20 +335,17 @@ public class PresenceOffline
 		}
 
 		if (roster == null) {
-			String rosterString = null;
+			Map<BareJID, RosterElement> loaded = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
 			try {
-				rosterString = userRepository.getData(owner, ROSTER);
+				if (RosterFlat.loadRosterUtil(userRepository, owner, loaded)) {
+					roster = loaded;
+					if (log.isLoggable(Level.FINEST)) {
+						log.log(Level.FINEST, "Loaded roster from DB: {0}", roster);
+					}
+				}
 			} catch (TigaseDBException ex) {
 				log.log(Level.WARNING, "Problem reading roster from DB: ", ex);
 			}
-
-			if (rosterString != null) {
-				roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
-				RosterFlat.parseRosterUtil(rosterString, roster, null);
-				if (log.isLoggable(Level.FINEST)) {
-					log.log(Level.FINEST, "Loaded roster from DB: {0}", roster);
-				}
-			}
 		}
 
 		if (roster != null) {
@@ -106,11 +106,8 @@ public class IgnoreFromUnknownFilter
 	}
 
 	protected Map<BareJID, RosterElement> getRoster(BareJID jid) throws TigaseDBException {
-		String tmp = userRepository.getData(jid, "roster");
 		Map<BareJID, RosterElement> roster = new HashMap<BareJID, RosterElement>();
-		if (tmp != null) {
-			RosterFlat.parseRosterUtil(tmp, roster, null);
-		}
+		RosterFlat.loadRosterUtil(userRepository, jid, roster);
 		return roster;
 	}
 }
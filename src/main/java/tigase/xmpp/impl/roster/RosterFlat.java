@@ -18,6 +18,7 @@
 package tigase.xmpp.impl.roster;
 
 import tigase.db.TigaseDBException;
+import tigase.db.UserRepository;
 import tigase.server.PolicyViolationException;
 import tigase.xml.DomBuilderHandler;
 import tigase.xml.Element;
@@ -66,6 +67,52 @@ public class RosterFlat
 		return false;
 	}
 
+	/**
+	 * Loads roster of the user directly from the repository, without a need of user session, using format of the
+	 * configured roster implementation.
+	 *
+	 * @return <code>false</code> if there was no roster stored for the user
+	 */
+	public static boolean loadRosterUtil(UserRepository repo, BareJID user, Map<BareJID, RosterElement> roster)
+			throws TigaseDBException {
+		if (RosterFactory.getRosterImplementation(true) instanceof RosterPerItem) {
+			return RosterPerItem.loadRosterItemsUtil(repo, user, roster);
+		}
+
+		String roster_str = repo.getData(user, ROSTER);
+
+		if (roster_str == null) {
+			return false;
+		}
+		parseRosterUtil(roster_str, roster, null);
+		return true;
+	}
+
+	/**
+	 * Stores change of the item with given JID in roster of the user loaded by
+	 * {@link #loadRosterUtil(UserRepository, BareJID, Map)}, without a need of user session, using format of the
+	 * configured roster implementation.
+	 *
+	 * @param roster roster of the user with the item added, modified or removed
+	 * @param jid JID of the changed item
+	 */
+	public static void saveRosterItemUtil(UserRepository repo, BareJID user, Map<BareJID, RosterElement> roster,
+										  BareJID jid) throws TigaseDBException {
+		if (RosterFactory.getRosterImplementation(true) instanceof RosterPerItem) {
+			RosterPerItem.saveRosterItemUtil(repo, user, roster, jid);
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder(200 * roster.size());
+
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent()) {
+				sb.append(relem.getRosterElement().toString());
+			}
+		}
+		repo.setData(user, ROSTER, sb.toString());
+	}
+
 	public static boolean parseRosterUtil(String roster_str, Map<BareJID, RosterElement> roster,
 										  XMPPResourceConnection session) {
 		boolean result = false;
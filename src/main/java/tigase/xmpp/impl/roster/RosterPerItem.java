@@ -0,0 +1,169 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import tigase.db.TigaseDBException;
+import tigase.db.UserRepository;
+import tigase.xmpp.NotAuthorizedException;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Roster implementation which stores each roster item as a separate record in <code>roster-items</code> node of the
+ * user repository with bare JID of the contact used as a key. Only modified items are written and removed items are
+ * deleted, instead of rewriting whole roster on every change as {@link RosterFlat} does.
+ * <br>
+ * All items are retrieved at once when roster is loaded. Roster stored by {@link RosterFlat} is migrated to items
+ * when it is found during loading of the roster.
+ */
+public class RosterPerItem
+		extends RosterFlat {
+
+	public static final String ROSTER_ITEMS = "roster-items";
+
+	private static final Logger log = Logger.getLogger(RosterPerItem.class.getName());
+
+	/**
+	 * Loads roster of the user stored by {@link RosterPerItem} (or by {@link RosterFlat} if it was not migrated yet)
+	 * without a need of user session.
+	 *
+	 * @return <code>false</code> if there was no roster stored for the user
+	 */
+	public static boolean loadRosterItemsUtil(UserRepository repo, BareJID user, Map<BareJID, RosterElement> roster)
+			throws TigaseDBException {
+		Map<String, String> items = repo.getDataMap(user, ROSTER_ITEMS);
+		for (String item : items.values()) {
+			if (item != null) {
+				parseRosterUtil(item, roster, null);
+			}
+		}
+		String roster_str = repo.getData(user, ROSTER);
+		if (roster_str != null) {
+			parseRosterUtil(roster_str, roster, null);
+		}
+		return !items.isEmpty() || roster_str != null;
+	}
+
+	/**
+	 * Stores change of the item with given JID in roster of the user loaded by
+	 * {@link #loadRosterItemsUtil(UserRepository, BareJID, Map)} without a need of user session. If the user roster
+	 * was not migrated to items yet, it is migrated.
+	 *
+	 * @param roster roster of the user with the item added, modified or removed
+	 * @param jid JID of the changed item
+	 */
+	public static void saveRosterItemUtil(UserRepository repo, BareJID user, Map<BareJID, RosterElement> roster,
+										  BareJID jid) throws TigaseDBException {
+		if (repo.getData(user, ROSTER) != null) {
+			// roster is removed only if all items were stored
+			repo.setDataMap(user, ROSTER_ITEMS, toItems(roster));
+			repo.removeData(user, ROSTER);
+		} else {
+			RosterElement relem = roster.get(jid);
+			if (relem != null) {
+				repo.setData(user, ROSTER_ITEMS, jid.toString(), relem.getRosterElement().toString());
+			}
+		}
+		if (!roster.containsKey(jid)) {
+			repo.removeData(user, ROSTER_ITEMS, jid.toString());
+		}
+	}
+
+	private static Map<String, String> toItems(Map<BareJID, RosterElement> roster) {
+		Map<String, String> items = new HashMap<>();
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent()) {
+				items.put(relem.getJid().getBareJID().toString(), relem.getRosterElement().toString());
+			}
+		}
+		return items;
+	}
+
+	@Override
+	public Map<BareJID, RosterElement> loadUserRoster(XMPPResourceConnection session)
+			throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = new ConcurrentHashMap<BareJID, RosterElement>(100, 0.25f, 1);
+
+		session.putCommonSessionData(ROSTER, roster);
+
+		Map<String, String> items = session.getDataMap(ROSTER_ITEMS);
+		boolean modified = false;
+
+		for (String item : items.values()) {
+			if (item != null) {
+				modified |= parseRoster(item, roster, session);
+			}
+		}
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "Loaded user {1} roster items: {0}", new Object[]{items, session.getjid()});
+		}
+
+		// roster stored by RosterFlat, if it exists it was saved after items so it overrides them
+		String roster_str = session.getData(null, ROSTER, null);
+
+		if ((roster_str != null) && !roster_str.isEmpty()) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Migrating user {0} roster to roster items", session.getjid());
+			}
+			parseRoster(roster_str, roster, session);
+			// roster is removed only if all items were stored
+			session.setDataMap(ROSTER_ITEMS, toItems(roster));
+			session.removeData(null, ROSTER);
+		} else if (modified) {
+			saveUserRoster(session);
+		}
+
+		return roster;
+	}
+
+	@Override
+	public boolean removeBuddy(XMPPResourceConnection session, JID jid)
+			throws NotAuthorizedException, TigaseDBException {
+		session.removeData(ROSTER_ITEMS, jid.getBareJID().toString());
+		return super.removeBuddy(session, jid);
+	}
+
+	@Override
+	protected void saveUserRoster(XMPPResourceConnection session) throws NotAuthorizedException, TigaseDBException {
+		Map<BareJID, RosterElement> roster = getUserRoster(session);
+
+		for (RosterElement relem : roster.values()) {
+			if (relem.isPersistent() && relem.isModified()) {
+				saveRosterItem(session, relem);
+			}
+		}
+	}
+
+	private void saveRosterItem(XMPPResourceConnection session, RosterElement relem)
+			throws NotAuthorizedException, TigaseDBException {
+		String item = relem.getRosterElement().toString();
+
+		if (log.isLoggable(Level.FINEST)) {
+			log.log(Level.FINEST, "{0} | Saving user roster item: {1}",
+					new Object[]{session.getBareJID(), item});
+		}
+		session.setData(ROSTER_ITEMS, relem.getJid().getBareJID().toString(), item);
+	}
+}
@@ -0,0 +1,469 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam.embedded;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Single segment file of the archive of an owner containing messages archived within one time period.
+ * <br>
+ * Each record consists of its length, CRC32 checksum, payload and its length once again, so the file may be read in
+ * both directions. Payload contains timestamp, id, JID of the other party and the message itself. Records are stored
+ * in order of their timestamps.
+ * <br>
+ * Every {@link #INDEX_INTERVAL}-th record is added to the sparse index, so locating a record with a given timestamp or
+ * a given position requires reading at most {@link #INDEX_INTERVAL} record headers. Sparse index with number of
+ * records and number of messages exchanged with each JID is stored in a separate summary file, so it is not required
+ * to read the segment file to open it.
+ * <br>
+ * Instances are not thread-safe, access is synchronized by {@link OwnerArchive}.
+ */
+class ArchivePartition {
+
+	static final int FIRST_RECORD_OFFSET = 4;
+	static final int INDEX_INTERVAL = 64;
+
+	private static final Logger log = Logger.getLogger(ArchivePartition.class.getCanonicalName());
+
+	private static final int MAGIC = 0x544d4131;
+	private static final int SUMMARY_MAGIC = 0x544d4931;
+	// length, crc and trailing length
+	private static final int RECORD_OVERHEAD = 12;
+	// timestamp, id, length of JID
+	private static final int PAYLOAD_HEADER = 26;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String SUMMARY_SUFFIX = ".idx";
+
+	private final long duration;
+	private final Path file;
+	private final long start;
+	private final Map<String, Integer> withCounts = new HashMap<>();
+	private FileChannel channel;
+	private int count = 0;
+	private boolean dirty = false;
+	private long[] indexOffsets = new long[16];
+	private int indexSize = 0;
+	private long[] indexTimestamps = new long[16];
+	private long lastTimestamp = Long.MIN_VALUE;
+	private long lastWrite;
+	private MappedByteBuffer mapped;
+	private long size = FIRST_RECORD_OFFSET;
+
+	static ArchivePartition create(Path directory, long start, long duration) throws IOException {
+		ArchivePartition partition = new ArchivePartition(directory.resolve(fileName(start, duration)), start,
+														  duration);
+		partition.channel = FileChannel.open(partition.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		writeFully(partition.channel, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+		partition.dirty = true;
+		return partition;
+	}
+
+	/**
+	 * Opens existing partition using its summary file if it is up to date or by reading the segment file otherwise.
+	 *
+	 * @return partition or <code>null</code> if file is not a partition file
+	 */
+	static ArchivePartition open(Path file) throws IOException {
+		long[] range = parseFileName(file.getFileName().toString());
+		if (range == null) {
+			return null;
+		}
+		ArchivePartition partition = new ArchivePartition(file, range[0], range[1]);
+		if (!partition.loadSummary()) {
+			partition.scan();
+		}
+		return partition;
+	}
+
+	/**
+	 * Removes files of partitions which contain only messages older than <code>cutoff</code> without reading them.
+	 *
+	 * @return number of removed partitions
+	 */
+	static int dropBefore(Path directory, long cutoff) throws IOException {
+		int dropped = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				long[] range = parseFileName(file.getFileName().toString());
+				if (range != null && range[0] + range[1] <= cutoff) {
+					Files.deleteIfExists(summaryFile(file));
+					Files.delete(file);
+					dropped++;
+				}
+			}
+		}
+		return dropped;
+	}
+
+	static boolean isSegmentFile(Path file) {
+		return parseFileName(file.getFileName().toString()) != null;
+	}
+
+	static String bareJid(String jid) {
+		int idx = jid.indexOf('/');
+		return idx < 0 ? jid : jid.substring(0, idx);
+	}
+
+	private static String fileName(long start, long duration) {
+		return String.format("%016d-%d%s", start, duration, SEGMENT_SUFFIX);
+	}
+
+	private static long[] parseFileName(String name) {
+		if (!name.endsWith(SEGMENT_SUFFIX)) {
+			return null;
+		}
+		int idx = name.indexOf('-');
+		if (idx < 0) {
+			return null;
+		}
+		try {
+			return new long[]{Long.parseLong(name.substring(0, idx)),
+							  Long.parseLong(name.substring(idx + 1, name.length() - SEGMENT_SUFFIX.length()))};
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	private static Path summaryFile(Path file) {
+		String name = file.getFileName().toString();
+		return file.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + SUMMARY_SUFFIX);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			position += channel.write(buf, position);
+		}
+	}
+
+	private ArchivePartition(Path file, long start, long duration) {
+		this.file = file;
+		this.start = start;
+		this.duration = duration;
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	long getEnd() {
+		return start + duration;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+	boolean contains(long timestamp) {
+		return timestamp >= start && timestamp < start + duration;
+	}
+
+	/**
+	 * Returns number of records exchanged with the bare JID.
+	 */
+	int getCount(String bareJid) {
+		return withCounts.getOrDefault(bareJid, 0);
+	}
+
+	void append(long timestamp, UUID id, String with, byte[] message) throws IOException {
+		byte[] withBytes = with.getBytes(StandardCharsets.UTF_8);
+		int length = PAYLOAD_HEADER + withBytes.length + message.length;
+		ByteBuffer buf = ByteBuffer.allocate(RECORD_OVERHEAD + length);
+		buf.putInt(length).putInt(0);
+		buf.putLong(timestamp).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+		buf.putShort((short) withBytes.length).put(withBytes).put(message);
+		buf.putInt(length);
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 8, length);
+		buf.putInt(4, (int) crc.getValue());
+		buf.flip();
+
+		if (channel == null) {
+			channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		}
+		writeFully(channel, buf, size);
+		addRecord(size, timestamp, with, RECORD_OVERHEAD + length);
+		lastWrite = System.currentTimeMillis();
+		dirty = true;
+	}
+
+	/**
+	 * Returns read-only buffer mapping the whole partition file.
+	 */
+	synchronized ByteBuffer buffer() throws IOException {
+		if (mapped == null || mapped.capacity() < size) {
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+				mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+		}
+		return mapped;
+	}
+
+	/**
+	 * Returns offset of the first record with timestamp equal or greater than the timestamp and its position in the
+	 * partition as the first and second element of the array.
+	 */
+	long[] seek(ByteBuffer buf, long timestamp) {
+		int idx = Arrays.binarySearch(indexTimestamps, 0, indexSize, timestamp);
+		if (idx < 0) {
+			idx = -idx - 1;
+		}
+		// there may be more records with the same timestamp before the found one
+		while (idx > 0 && (idx >= indexSize || indexTimestamps[idx] >= timestamp)) {
+			idx--;
+		}
+		long offset = indexSize == 0 ? FIRST_RECORD_OFFSET : indexOffsets[idx];
+		int ordinal = idx * INDEX_INTERVAL;
+		while (ordinal < count && timestamp(buf, offset) < timestamp) {
+			offset = next(buf, offset);
+			ordinal++;
+		}
+		return new long[]{offset, ordinal};
+	}
+
+	/**
+	 * Returns offset of the record at the position.
+	 */
+	long offsetOf(ByteBuffer buf, int ordinal) {
+		if (ordinal >= count) {
+			return size;
+		}
+		int idx = ordinal / INDEX_INTERVAL;
+		long offset = indexOffsets[idx];
+		for (int i = idx * INDEX_INTERVAL; i < ordinal; i++) {
+			offset = next(buf, offset);
+		}
+		return offset;
+	}
+
+	static long next(ByteBuffer buf, long offset) {
+		return offset + RECORD_OVERHEAD + buf.getInt((int) offset);
+	}
+
+	static long previous(ByteBuffer buf, long offset) {
+		return offset - RECORD_OVERHEAD - buf.getInt((int) offset - 4);
+	}
+
+	static long timestamp(ByteBuffer buf, long offset) {
+		return buf.getLong((int) offset + 8);
+	}
+
+	static boolean hasId(ByteBuffer buf, long offset, UUID id) {
+		return buf.getLong((int) offset + 16) == id.getMostSignificantBits() &&
+				buf.getLong((int) offset + 24) == id.getLeastSignificantBits();
+	}
+
+	static String with(ByteBuffer buf, long offset) {
+		int pos = (int) offset + 8 + PAYLOAD_HEADER;
+		byte[] bytes = new byte[buf.getShort(pos - 2) & 0xffff];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buf.get(pos + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static ArchiveRecord read(ByteBuffer buf, long offset) {
+		int pos = (int) offset;
+		int length = buf.getInt(pos);
+		long timestamp = buf.getLong(pos + 8);
+		UUID id = new UUID(buf.getLong(pos + 16), buf.getLong(pos + 24));
+		int withLength = buf.getShort(pos + 8 + PAYLOAD_HEADER - 2) & 0xffff;
+		ByteBuffer data = buf.duplicate();
+		data.position(pos + 8 + PAYLOAD_HEADER);
+		byte[] withBytes = new byte[withLength];
+		data.get(withBytes);
+		byte[] message = new byte[length - PAYLOAD_HEADER - withLength];
+		data.get(message);
+		return new ArchiveRecord(timestamp, id, new String(withBytes, StandardCharsets.UTF_8), message);
+	}
+
+	/**
+	 * Closes file used for writing if it was not used since given time.
+	 */
+	void closeIfIdle(long idleSince) throws IOException {
+		if (channel != null && lastWrite < idleSince) {
+			close();
+		}
+	}
+
+	/**
+	 * Closes file used for writing and stores summary of the partition.
+	 */
+	void close() throws IOException {
+		if (channel != null) {
+			channel.force(false);
+			channel.close();
+			channel = null;
+		}
+		if (dirty) {
+			writeSummary();
+			dirty = false;
+		}
+	}
+
+	void delete() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		mapped = null;
+		Files.deleteIfExists(summaryFile(file));
+		Files.deleteIfExists(file);
+	}
+
+	@Override
+	public String toString() {
+		return file.getFileName().toString();
+	}
+
+	private void addRecord(long offset, long timestamp, String with, int length) {
+		if (count % INDEX_INTERVAL == 0) {
+			if (indexSize == indexOffsets.length) {
+				indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+				indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+			}
+			indexOffsets[indexSize] = offset;
+			indexTimestamps[indexSize] = timestamp;
+			indexSize++;
+		}
+		withCounts.merge(bareJid(with), 1, Integer::sum);
+		count++;
+		lastTimestamp = timestamp;
+		size = offset + length;
+	}
+
+	private void writeSummary() throws IOException {
+		Path summary = summaryFile(file);
+		Path tmp = summary.resolveSibling(summary.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(SUMMARY_MAGIC);
+			out.writeLong(size);
+			out.writeInt(count);
+			out.writeLong(lastTimestamp);
+			out.writeInt(indexSize);
+			for (int i = 0; i < indexSize; i++) {
+				out.writeLong(indexTimestamps[i]);
+				out.writeLong(indexOffsets[i]);
+			}
+			out.writeInt(withCounts.size());
+			for (Map.Entry<String, Integer> e : withCounts.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue());
+			}
+		}
+		Files.move(tmp, summary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private boolean loadSummary() throws IOException {
+		Path summary = summaryFile(file);
+		if (!Files.exists(summary)) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(summary)))) {
+			if (in.readInt() != SUMMARY_MAGIC || in.readLong() != Files.size(file)) {
+				return false;
+			}
+			size = Files.size(file);
+			count = in.readInt();
+			lastTimestamp = in.readLong();
+			indexSize = in.readInt();
+			indexOffsets = new long[Math.max(16, indexSize)];
+			indexTimestamps = new long[indexOffsets.length];
+			for (int i = 0; i < indexSize; i++) {
+				indexTimestamps[i] = in.readLong();
+				indexOffsets[i] = in.readLong();
+			}
+			int withs = in.readInt();
+			for (int i = 0; i < withs; i++) {
+				withCounts.put(in.readUTF(), in.readInt());
+			}
+			return true;
+		} catch (EOFException ex) {
+			log.log(Level.FINE, "Summary of " + file + " is incomplete", ex);
+			return false;
+		}
+	}
+
+	private void scan() throws IOException {
+		long fileSize = Files.size(file);
+		long valid = FIRST_RECORD_OFFSET;
+		if (fileSize >= FIRST_RECORD_OFFSET) {
+			ByteBuffer buf;
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+				buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+			}
+			if (buf.getInt(0) != MAGIC) {
+				throw new IOException("File " + file + " is not a valid archive partition");
+			}
+			CRC32 crc = new CRC32();
+			while (valid + RECORD_OVERHEAD + PAYLOAD_HEADER <= fileSize) {
+				int length = buf.getInt((int) valid);
+				if (length < PAYLOAD_HEADER || valid + RECORD_OVERHEAD + length > fileSize ||
+						buf.getInt((int) (valid + 8 + length)) != length) {
+					break;
+				}
+				ByteBuffer payload = buf.duplicate();
+				payload.position((int) valid + 8).limit((int) valid + 8 + length);
+				crc.reset();
+				crc.update(payload);
+				if ((int) crc.getValue() != buf.getInt((int) valid + 4)) {
+					break;
+				}
+				addRecord(valid, timestamp(buf, valid), with(buf, valid), RECORD_OVERHEAD + length);
+				valid += RECORD_OVERHEAD + length;
+			}
+		}
+		if (valid != fileSize) {
+			log.log(Level.WARNING, "Archive partition {0} ends with incomplete record at {1}, truncating",
+					new Object[]{file, valid});
+			try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				if (fileSize < FIRST_RECORD_OFFSET) {
+					writeFully(ch, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+				}
+				ch.truncate(valid);
+				ch.force(true);
+			}
+		}
+		size = valid;
+		dirty = true;
+	}
+
+}
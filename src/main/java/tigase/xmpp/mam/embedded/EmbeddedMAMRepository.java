@@ -0,0 +1,297 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam.embedded;
+
+import tigase.component.exceptions.ComponentException;
+import tigase.component.exceptions.RepositoryException;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.UnregisterAware;
+import tigase.kernel.beans.config.ConfigField;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+import tigase.xmpp.mam.MAMRepository;
+import tigase.xmpp.mam.Query;
+import tigase.xmpp.mam.QueryImpl;
+import tigase.xmpp.rsm.RSM;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of <code>MAMRepository</code> storing messages in files instead of SQL database.
+ * <br>
+ * Messages of each owner are stored in a separate directory in files containing messages archived within a single
+ * time period (one day by default). Each file has a sparse index of timestamps and positions of messages and id of each
+ * message contains its timestamp, so paging using <code>after</code>, <code>before</code> or <code>index</code> does
+ * not require reading messages preceding the returned page. Files are read using memory mapping. Messages older than
+ * configured retention period are removed by removing whole files.
+ * <br>
+ * Owner of the archive is a bare JID of the questioner, so it is suitable for archives of users. Archives of
+ * components should override {@link #getOwner(Query)}.
+ */
+public class EmbeddedMAMRepository
+		implements MAMRepository<Query, EmbeddedMAMRepository.Item>, Initializable, UnregisterAware {
+
+	private static final Logger log = Logger.getLogger(EmbeddedMAMRepository.class.getCanonicalName());
+
+	private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+	private final Map<BareJID, OwnerArchive> archives = new ConcurrentHashMap<>();
+	@ConfigField(desc = "Directory for archived messages", alias = "directory")
+	private String directory = "mam-archive";
+	private ScheduledExecutorService executor;
+	@ConfigField(desc = "Period of time covered by a single file of archive", alias = "partition-duration")
+	private Duration partitionDuration = Duration.ofDays(1);
+	@ConfigField(desc = "Period after which messages are removed from archive", alias = "retention")
+	private Duration retention = null;
+
+	public EmbeddedMAMRepository() {
+	}
+
+	public EmbeddedMAMRepository(String directory, Duration partitionDuration, Duration retention) {
+		this.directory = directory;
+		this.partitionDuration = partitionDuration;
+		this.retention = retention;
+	}
+
+	/**
+	 * Stores message in the archive of the owner.
+	 *
+	 * @param owner owner of the archive
+	 * @param with JID of the other party
+	 * @param timestamp time of archiving, if it is older than the time of the last message stored in the archive of
+	 * the owner then it is replaced with the time of the last message
+	 * @param message message to store
+	 *
+	 * @return id of the archived message
+	 */
+	public String archiveMessage(BareJID owner, JID with, Date timestamp, Element message) throws RepositoryException {
+		try {
+			return getArchive(owner).append(timestamp.getTime(), with.toString(),
+											message.toString().getBytes(StandardCharsets.UTF_8)).id.toString();
+		} catch (IOException | UncheckedIOException ex) {
+			throw new RepositoryException("Could not archive message for " + owner, ex);
+		}
+	}
+
+	@Override
+	public void queryItems(Query query, ItemHandler<Query, Item> itemHandler)
+			throws RepositoryException, ComponentException {
+		RSM rsm = query.getRsm();
+		String with = query.getWith() == null ? null : query.getWith().toString();
+		try {
+			OwnerArchive.Page page = getArchive(getOwner(query)).query(
+					query.getStart() == null ? null : query.getStart().getTime(),
+					query.getEnd() == null ? null : query.getEnd().getTime(), with, rsm.getAfter(), rsm.getBefore(),
+					rsm.hasBefore() && rsm.getBefore() == null, rsm.getIndex(), rsm.getMax(),
+					record -> itemHandler.itemFound(query, new Item(record)));
+			rsm.setResults(page.count, page.index);
+		} catch (IllegalArgumentException ex) {
+			throw new ComponentException(Authorization.ITEM_NOT_FOUND, ex.getMessage(), ex);
+		} catch (IOException | UncheckedIOException ex) {
+			throw new RepositoryException("Could not query archive of " + getOwner(query), ex);
+		}
+	}
+
+	/**
+	 * Removes messages archived before the given time. Messages are removed by removing whole files, so some of
+	 * messages older than the given time may be kept.
+	 *
+	 * @return number of removed files
+	 */
+	public int removeItems(BareJID owner, Date before) throws RepositoryException {
+		try {
+			int[] dropped = new int[1];
+			archives.compute(owner, (jid, archive) -> {
+				try {
+					if (archive != null) {
+						dropped[0] = archive.dropBefore(before.getTime());
+					} else if (Files.isDirectory(getDirectory(owner))) {
+						dropped[0] = ArchivePartition.dropBefore(getDirectory(owner), before.getTime());
+					}
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+				return archive;
+			});
+			return dropped[0];
+		} catch (UncheckedIOException ex) {
+			throw new RepositoryException("Could not remove messages of " + owner, ex);
+		}
+	}
+
+	@Override
+	public Query newQuery() {
+		return new QueryImpl();
+	}
+
+	@Override
+	public void initialize() {
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "mam-archive-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::closeIdle, 1, 1, TimeUnit.MINUTES);
+		executor.scheduleWithFixedDelay(this::removeExpired, 1, 60, TimeUnit.MINUTES);
+	}
+
+	@Override
+	public void beforeUnregister() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+		for (OwnerArchive archive : archives.values()) {
+			try {
+				archive.close();
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Could not close archive", ex);
+			}
+		}
+		archives.clear();
+	}
+
+	protected BareJID getOwner(Query query) {
+		return query.getQuestionerJID().getBareJID();
+	}
+
+	protected void removeExpired() {
+		if (retention == null || retention.isZero()) {
+			return;
+		}
+		Date before = new Date(System.currentTimeMillis() - retention.toMillis());
+		Path root = Paths.get(directory);
+		if (!Files.isDirectory(root)) {
+			return;
+		}
+		int dropped = 0;
+		try (DirectoryStream<Path> buckets = Files.newDirectoryStream(root)) {
+			for (Path bucket : buckets) {
+				if (!Files.isDirectory(bucket)) {
+					continue;
+				}
+				try (DirectoryStream<Path> owners = Files.newDirectoryStream(bucket)) {
+					for (Path dir : owners) {
+						dropped += removeItems(
+								BareJID.bareJIDInstanceNS(URLDecoder.decode(dir.getFileName().toString(), "UTF-8")),
+								before);
+					}
+				}
+			}
+		} catch (IOException | RepositoryException ex) {
+			log.log(Level.WARNING, "Could not remove expired messages from archive " + root, ex);
+		}
+		log.log(Level.FINE, "Removed {0} files of archived messages before {1}", new Object[]{dropped, before});
+	}
+
+	private void closeIdle() {
+		long idleSince = System.currentTimeMillis() - IDLE_TIMEOUT;
+		for (OwnerArchive archive : archives.values()) {
+			try {
+				archive.closeIfIdle(idleSince);
+			} catch (IOException ex) {
+				log.log(Level.WARNING, "Could not close archive", ex);
+			}
+		}
+	}
+
+	private OwnerArchive getArchive(BareJID owner) {
+		return archives.computeIfAbsent(owner, jid -> {
+			try {
+				return OwnerArchive.open(getDirectory(jid), partitionDuration.toMillis());
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		});
+	}
+
+	private Path getDirectory(BareJID owner) {
+		try {
+			String name = URLEncoder.encode(owner.toString(), "UTF-8");
+			return Paths.get(directory, String.format("%02x", owner.hashCode() & 0xff), name);
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	public static class Item
+			implements MAMRepository.Item {
+
+		private final String id;
+		private final byte[] data;
+		private final Date timestamp;
+		private final String with;
+		private Element message;
+
+		private Item(ArchiveRecord record) {
+			this.id = record.id.toString();
+			this.timestamp = new Date(record.timestamp);
+			this.with = record.with;
+			this.data = record.message;
+		}
+
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public Element getMessage() {
+			if (message == null) {
+				SimpleParser parser = SingletonFactory.getParserInstance();
+				DomBuilderHandler domHandler = new DomBuilderHandler();
+				char[] chars = new String(data, StandardCharsets.UTF_8).toCharArray();
+				parser.parse(domHandler, chars, 0, chars.length);
+				message = domHandler.getParsedElements().poll();
+			}
+			return message;
+		}
+
+		@Override
+		public Date getTimestamp() {
+			return timestamp;
+		}
+
+		public String getWith() {
+			return with;
+		}
+	}
+
+}
@@ -0,0 +1,454 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam.embedded;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Archive of messages of a single owner split into time partitions ({@link ArchivePartition}).
+ * <br>
+ * Messages are stored in order of their timestamps. Timestamp of a message older than the last archived message is
+ * replaced with timestamp of the last message, so order of the archive is always the order of archiving. Timestamp is
+ * encoded in the id of each message, so position of a message with a given id is found using sparse index of the
+ * partition without reading any earlier messages.
+ */
+class OwnerArchive {
+
+	private final Path directory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final long partitionDuration;
+	private final List<ArchivePartition> partitions = new ArrayList<>();
+	private long lastTimestamp = Long.MIN_VALUE;
+	private int sequence = 0;
+
+	static OwnerArchive open(Path directory, long partitionDuration) throws IOException {
+		OwnerArchive archive = new OwnerArchive(directory, partitionDuration);
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for (Path file : stream) {
+					ArchivePartition partition = ArchivePartition.open(file);
+					if (partition == null) {
+						continue;
+					}
+					if (partition.getCount() == 0) {
+						partition.delete();
+					} else {
+						archive.partitions.add(partition);
+					}
+				}
+			}
+		}
+		archive.partitions.sort(Comparator.comparingLong(ArchivePartition::getStart));
+		if (!archive.partitions.isEmpty()) {
+			archive.lastTimestamp = archive.partitions.get(archive.partitions.size() - 1).getLastTimestamp();
+		}
+		return archive;
+	}
+
+	/**
+	 * Creates id of a message with timestamp encoded in the same way as in UUID version 7.
+	 */
+	static UUID createId(long timestamp, int sequence) {
+		long msb = (timestamp << 16) | 0x7000 | (sequence & 0x0fff);
+		long lsb = (ThreadLocalRandom.current().nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+
+	private OwnerArchive(Path directory, long partitionDuration) {
+		this.directory = directory;
+		this.partitionDuration = partitionDuration;
+	}
+
+	/**
+	 * Appends message to the archive.
+	 *
+	 * @return archived message (without message payload)
+	 */
+	ArchiveRecord append(long timestamp, String with, byte[] message) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (timestamp <= lastTimestamp) {
+				timestamp = lastTimestamp;
+				sequence++;
+			} else {
+				sequence = 0;
+			}
+			ArchivePartition partition = partitions.isEmpty() ? null : partitions.get(partitions.size() - 1);
+			if (partition == null || !partition.contains(timestamp)) {
+				if (partition != null) {
+					partition.close();
+				}
+				Files.createDirectories(directory);
+				long start = timestamp - Math.floorMod(timestamp, partitionDuration);
+				partition = ArchivePartition.create(directory, start, partitionDuration);
+				partitions.add(partition);
+			}
+			UUID id = createId(timestamp, sequence);
+			partition.append(timestamp, id, with, message);
+			lastTimestamp = timestamp;
+			return new ArchiveRecord(timestamp, id, with, null);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Executes query passing found messages to the consumer.
+	 *
+	 * @param start timestamp of the oldest message or <code>null</code>
+	 * @param end timestamp of the newest message or <code>null</code>
+	 * @param with JID of the other party (bare or full) or <code>null</code>
+	 * @param after id of message after which results should start or <code>null</code>
+	 * @param before id of message before which results should end or <code>null</code>
+	 * @param last <code>true</code> if last page of results should be returned
+	 * @param index number of messages to skip (used if <code>after</code> and <code>before</code> are not set)
+	 * @param max maximal number of returned messages
+	 *
+	 * @return page containing number of all messages matching the query and index of the first returned message
+	 *
+	 * @throws IllegalArgumentException if message with id passed in <code>after</code> or <code>before</code> was not
+	 * found
+	 */
+	Page query(Long start, Long end, String with, String after, String before, boolean last, Integer index, int max,
+			   Consumer<ArchiveRecord> consumer) throws IOException {
+		lock.readLock().lock();
+		try {
+			Cursor cursor = new Cursor(with);
+			if (partitions.isEmpty()) {
+				if (after != null || before != null) {
+					throw new IllegalArgumentException("Item not found");
+				}
+				return new Page(0, 0);
+			}
+			Position rangeStart = start == null ? cursor.first() : cursor.seek(start);
+			Position rangeEnd = end == null ? cursor.end() : cursor.seek(end + 1);
+			if (rangeEnd.compareTo(rangeStart) < 0) {
+				rangeEnd = rangeStart;
+			}
+			int count = cursor.count(rangeStart, rangeEnd);
+
+			if (after != null) {
+				Position from = cursor.next(cursor.locate(after));
+				if (from.compareTo(rangeStart) < 0) {
+					from = rangeStart;
+				}
+				cursor.forward(from, rangeEnd, max, consumer);
+				return new Page(count, cursor.count(rangeStart, from));
+			}
+			if (before != null || last) {
+				Position to = before == null ? rangeEnd : cursor.locate(before);
+				if (to.compareTo(rangeEnd) > 0) {
+					to = rangeEnd;
+				}
+				List<Position> found = cursor.backward(to, rangeStart, max);
+				Position from = found.isEmpty() ? rangeStart : found.get(0);
+				for (Position pos : found) {
+					consumer.accept(cursor.read(pos));
+				}
+				return new Page(count, cursor.count(rangeStart, from));
+			}
+			int skip = index == null ? 0 : Math.min(Math.max(index, 0), count);
+			Position from = cursor.skip(rangeStart, skip);
+			cursor.forward(from, rangeEnd, max, consumer);
+			return new Page(count, skip);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes partitions containing only messages older than <code>cutoff</code>.
+	 *
+	 * @return number of removed partitions
+	 */
+	int dropBefore(long cutoff) throws IOException {
+		lock.writeLock().lock();
+		try {
+			int dropped = 0;
+			for (Iterator<ArchivePartition> it = partitions.iterator(); it.hasNext(); ) {
+				ArchivePartition partition = it.next();
+				if (partition.getEnd() <= cutoff) {
+					partition.delete();
+					it.remove();
+					dropped++;
+				}
+			}
+			return dropped;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void closeIfIdle(long idleSince) throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (!partitions.isEmpty()) {
+				partitions.get(partitions.size() - 1).closeIfIdle(idleSince);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			for (ArchivePartition partition : partitions) {
+				partition.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	List<ArchivePartition> getPartitions() {
+		return Collections.unmodifiableList(partitions);
+	}
+
+	static class Page {
+
+		final int count;
+		final int index;
+
+		Page(int count, int index) {
+			this.count = count;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * Position of a record in the archive. Position equal to the number of records in the partition points after the
+	 * last record of the partition and is used only for the last partition.
+	 */
+	private static class Position
+			implements Comparable<Position> {
+
+		private final long offset;
+		private final int ordinal;
+		private final int partition;
+
+		private Position(int partition, long offset, int ordinal) {
+			this.partition = partition;
+			this.offset = offset;
+			this.ordinal = ordinal;
+		}
+
+		@Override
+		public int compareTo(Position o) {
+			int result = Integer.compare(partition, o.partition);
+			return result != 0 ? result : Integer.compare(ordinal, o.ordinal);
+		}
+	}
+
+	/**
+	 * Navigates over records of partitions, used only while holding the read lock.
+	 */
+	private class Cursor {
+
+		private final ByteBuffer[] buffers = new ByteBuffer[partitions.size()];
+		private final String with;
+		private final boolean withResource;
+
+		private Cursor(String with) {
+			this.with = with;
+			this.withResource = with != null && with.indexOf('/') >= 0;
+		}
+
+		private Position first() {
+			return new Position(0, ArchivePartition.FIRST_RECORD_OFFSET, 0);
+		}
+
+		private Position end() {
+			ArchivePartition partition = partitions.get(partitions.size() - 1);
+			return new Position(partitions.size() - 1, partition.getSize(), partition.getCount());
+		}
+
+		private Position normalize(int idx, long offset, int ordinal) {
+			if (ordinal >= partitions.get(idx).getCount() && idx < partitions.size() - 1) {
+				return new Position(idx + 1, ArchivePartition.FIRST_RECORD_OFFSET, 0);
+			}
+			return new Position(idx, offset, ordinal);
+		}
+
+		private Position seek(long timestamp) throws IOException {
+			for (int i = 0; i < partitions.size(); i++) {
+				ArchivePartition partition = partitions.get(i);
+				if (partition.getEnd() > timestamp) {
+					long[] result = partition.seek(buffer(i), timestamp);
+					return normalize(i, result[0], (int) result[1]);
+				}
+			}
+			return end();
+		}
+
+		private Position next(Position pos) throws IOException {
+			return normalize(pos.partition, ArchivePartition.next(buffer(pos.partition), pos.offset), pos.ordinal + 1);
+		}
+
+		private Position previous(Position pos) throws IOException {
+			int idx = pos.partition;
+			long offset = pos.offset;
+			int ordinal = pos.ordinal;
+			if (ordinal == 0) {
+				idx--;
+				offset = partitions.get(idx).getSize();
+				ordinal = partitions.get(idx).getCount();
+			}
+			return new Position(idx, ArchivePartition.previous(buffer(idx), offset), ordinal - 1);
+		}
+
+		private Position locate(String id) throws IOException {
+			UUID uuid;
+			try {
+				uuid = UUID.fromString(id);
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException("Item " + id + " not found", ex);
+			}
+			long timestamp = uuid.getMostSignificantBits() >>> 16;
+			for (int i = 0; i < partitions.size(); i++) {
+				ArchivePartition partition = partitions.get(i);
+				if (!partition.contains(timestamp)) {
+					continue;
+				}
+				ByteBuffer buf = buffer(i);
+				long[] result = partition.seek(buf, timestamp);
+				long offset = result[0];
+				for (int ordinal = (int) result[1]; ordinal < partition.getCount() &&
+						ArchivePartition.timestamp(buf, offset) == timestamp; ordinal++) {
+					if (ArchivePartition.hasId(buf, offset, uuid)) {
+						return new Position(i, offset, ordinal);
+					}
+					offset = ArchivePartition.next(buf, offset);
+				}
+			}
+			throw new IllegalArgumentException("Item " + id + " not found");
+		}
+
+		private boolean matches(Position pos) throws IOException {
+			if (with == null) {
+				return true;
+			}
+			String recordWith = ArchivePartition.with(buffer(pos.partition), pos.offset);
+			return with.equals(withResource ? recordWith : ArchivePartition.bareJid(recordWith));
+		}
+
+		/**
+		 * Counts matching records in the range, reading only records of partially covered partitions.
+		 */
+		private int count(Position from, Position to) throws IOException {
+			int count = 0;
+			for (int i = from.partition; i <= to.partition && from.compareTo(to) < 0; i++) {
+				ArchivePartition partition = partitions.get(i);
+				int first = i == from.partition ? from.ordinal : 0;
+				int last = i == to.partition ? to.ordinal : partition.getCount();
+				if (with == null) {
+					count += last - first;
+				} else if (first == 0 && last == partition.getCount() && !withResource) {
+					count += partition.getCount(with);
+				} else {
+					Position pos = i == from.partition ? from : new Position(i, ArchivePartition.FIRST_RECORD_OFFSET, 0);
+					for (int ordinal = first; ordinal < last; ordinal++) {
+						if (matches(pos)) {
+							count++;
+						}
+						pos = new Position(i, ArchivePartition.next(buffer(i), pos.offset), ordinal + 1);
+					}
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Returns position of the first matching record after skipping <code>skip</code> matching records.
+		 */
+		private Position skip(Position from, int skip) throws IOException {
+			Position pos = from;
+			while (skip > 0 && pos.compareTo(end()) < 0) {
+				ArchivePartition partition = partitions.get(pos.partition);
+				int remaining = partition.getCount() - pos.ordinal;
+				if (with == null) {
+					int ordinal = pos.ordinal + Math.min(skip, remaining);
+					skip -= ordinal - pos.ordinal;
+					pos = normalize(pos.partition, partition.offsetOf(buffer(pos.partition), ordinal), ordinal);
+				} else if (pos.ordinal == 0 && !withResource && partition.getCount(with) <= skip &&
+						pos.partition < partitions.size() - 1) {
+					skip -= partition.getCount(with);
+					pos = new Position(pos.partition + 1, ArchivePartition.FIRST_RECORD_OFFSET, 0);
+				} else {
+					if (matches(pos)) {
+						skip--;
+					}
+					pos = next(pos);
+				}
+			}
+			while (with != null && pos.compareTo(end()) < 0 && !matches(pos)) {
+				pos = next(pos);
+			}
+			return pos;
+		}
+
+		private void forward(Position from, Position to, int max, Consumer<ArchiveRecord> consumer)
+				throws IOException {
+			int found = 0;
+			for (Position pos = from; found < max && pos.compareTo(to) < 0; pos = next(pos)) {
+				if (matches(pos)) {
+					consumer.accept(read(pos));
+					found++;
+				}
+			}
+		}
+
+		private List<Position> backward(Position from, Position to, int max) throws IOException {
+			List<Position> found = new ArrayList<>();
+			for (Position pos = from; found.size() < max && pos.compareTo(to) > 0; ) {
+				pos = previous(pos);
+				if (matches(pos)) {
+					found.add(pos);
+				}
+			}
+			Collections.reverse(found);
+			return found;
+		}
+
+		private ArchiveRecord read(Position pos) throws IOException {
+			return ArchivePartition.read(buffer(pos.partition), pos.offset);
+		}
+
+		private ByteBuffer buffer(int idx) throws IOException {
+			if (buffers[idx] == null) {
+				buffers[idx] = partitions.get(idx).buffer();
+			}
+			return buffers[idx];
+		}
+	}
+
+}
@@ -20,7 +20,7 @@ package tigase.auth.credentials.entries;
 import org.junit.Test;
 import tigase.xmpp.jid.BareJID;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class ScramCredentialsEntryTest {
 
@@ -50,4 +50,44 @@ public class ScramCredentialsEntryTest {
 		assertTrue(entry.verifyPlainPassword(testPassword));
 	}
 
+	@Test
+	public void testKeysCache() throws Exception {
+		BareJID user = BareJID.bareJIDInstanceNS("user@domain");
+		PlainCredentialsEntry plain = new PlainCredentialsEntry("some-password-do-protect");
+
+		ScramKeysCache keysCache = new ScramKeysCache();
+		assertNotSame(keysCache.getOrCreate(user, "SHA1", plain), keysCache.getOrCreate(user, "SHA1", plain));
+
+		keysCache.configure(10, 60 * 1000);
+		ScramCredentialsEntry entry = keysCache.getOrCreate(user, "SHA1", plain);
+		assertSame(entry, keysCache.getOrCreate(user, "SHA1", plain));
+		assertSame(entry.getClientKey(), keysCache.getOrCreate(user, "SHA1", plain).getClientKey());
+		assertNotSame(entry, keysCache.getOrCreate(user, "SHA1", new PlainCredentialsEntry("other-password")));
+		assertNotSame(entry, keysCache.getOrCreate(BareJID.bareJIDInstanceNS("user-2@domain"), "SHA1", plain));
+		assertNotSame(entry, new ScramKeysCache().getOrCreate(user, "SHA1", plain));
+
+		assertFalse(entry.verifyPlainPassword("wrong-password"));
+		assertFalse(entry.verifyPlainPassword("wrong-password"));
+		assertTrue(entry.verifyPlainPassword("some-password-do-protect"));
+		assertTrue(entry.verifyPlainPassword("some-password-do-protect"));
+	}
+
+	@Test
+	public void testDecoderUsesKeysCache() {
+		String testPassword = "some-password-do-protect";
+		BareJID user = BareJID.bareJIDInstanceNS("user@domain");
+		String encPassword = "s=a526P5eUQMim7g==,i=4096,p=lMVlJo/obJ9xI7P9+vZdbwrHjoA=";
+
+		ScramKeysCache keysCache = new ScramKeysCache();
+		keysCache.configure(10, 60 * 1000);
+		ScramCredentialsEntry.Decoder decoder = new ScramCredentialsEntry.Decoder("SHA1");
+		decoder.setKeysCache(keysCache);
+		ScramCredentialsEntry entry = (ScramCredentialsEntry) decoder.decode(user, encPassword);
+
+		assertFalse(keysCache.isVerified(entry, testPassword));
+		assertTrue(entry.verifyPlainPassword(testPassword));
+		assertTrue(keysCache.isVerified(entry, testPassword));
+		assertFalse(keysCache.isVerified(entry, "wrong-password"));
+	}
+
 }
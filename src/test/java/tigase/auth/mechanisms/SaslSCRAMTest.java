@@ -23,8 +23,10 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import tigase.TestLogger;
 import tigase.auth.callbacks.*;
+import tigase.tests.Benchmark;
 import tigase.util.Base64;
 
+import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.NameCallback;
@@ -100,6 +102,48 @@ public class SaslSCRAMTest
 		}
 	}
 
+	@Test
+	public void testServerFirstMessageWithKeys() throws UnsupportedEncodingException {
+		final byte[] CFM = "n,,n=user,r=fyko+d2lbbFgONRv9qkxdawL".getBytes("UTF-8");
+		final byte[] CSM = "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=".getBytes("UTF-8");
+		final byte[] SSM = "v=rmF9pqV8S7suAoZWja4dJRkFsKQ=".getBytes("UTF-8");
+
+		TestCallbackHandler h = new TestCallbackHandler();
+		h.setProvideKeys(true);
+		SaslSCRAM m = create("QSXCR+Q6sek8bf92", "3rfcNHYJY1ZVvWVs7j", "pencil", h);
+		try {
+			m.evaluateResponse(CFM);
+			Assert.assertArrayEquals(SSM, m.evaluateResponse(CSM));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+		assertTrue(m.isComplete());
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testLoginsPerSecond() throws Exception {
+		final byte[] CFM = "n,,n=user,r=fyko+d2lbbFgONRv9qkxdawL".getBytes("UTF-8");
+		final byte[] CSM = "c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,p=v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=".getBytes("UTF-8");
+
+		// single thread is used, so results are logins per second per core
+		Benchmark benchmark = new Benchmark("SCRAM logins", 2000);
+		for (boolean provideKeys : new boolean[]{false, true}) {
+			TestCallbackHandler h = new TestCallbackHandler();
+			h.setProvideKeys(provideKeys);
+			benchmark.add(provideKeys ? "cached keys" : "PBKDF2 on each login", iterations -> {
+				for (int i = 0; i < iterations; i++) {
+					SaslSCRAM m = create("QSXCR+Q6sek8bf92", "3rfcNHYJY1ZVvWVs7j", "pencil", h);
+					m.evaluateResponse(CFM);
+					m.evaluateResponse(CSM);
+					assertTrue(m.isComplete());
+				}
+			});
+		}
+		benchmark.run();
+	}
+
 	@Test
 	public void testHmac() {
 		SaslSCRAM m = create("QSXCR+Q6sek8bf92", "3rfcNHYJY1ZVvWVs7j", "pencil");
@@ -243,10 +287,14 @@ public class SaslSCRAMTest
 
 		private String authorizedId;
 		private byte[] bindingData;
+		private byte[] clientKey;
 		private int iterations = 4096;
 		private String name;
 		private String password;
+		private boolean provideKeys = false;
 		private String salt;
+		private byte[] saltedPassword;
+		private byte[] serverKey;
 
 		public TestCallbackHandler() {
 			this("user@domain.com");
@@ -301,6 +349,13 @@ public class SaslSCRAMTest
 			return iterations;
 		}
 
+		/**
+		 * Enables calculation of salted password and keys only once, as it is done by cached credentials.
+		 */
+		public void setProvideKeys(boolean provideKeys) {
+			this.provideKeys = provideKeys;
+		}
+
 		public void setIterations(int iterations) {
 			this.iterations = iterations;
 		}
@@ -318,8 +373,20 @@ public class SaslSCRAMTest
 					((PBKDIterationsCallback) callback).setInterations(iterations);
 				} else if (callback instanceof SaltedPasswordCallback) {
 					try {
+						if (provideKeys && saltedPassword != null) {
+							((SaltedPasswordCallback) callback).setSaltedPassword(saltedPassword);
+							((SaltedPasswordCallback) callback).setKeys(clientKey, serverKey);
+							continue;
+						}
 						byte[] r = AbstractSaslSCRAM.hi("SHA1", password.getBytes("UTF-8"), Base64.decode(salt), iterations);
 						((SaltedPasswordCallback) callback).setSaltedPassword(r);
+						if (provideKeys) {
+							SecretKeySpec key = new SecretKeySpec(r, "HmacSHA1");
+							saltedPassword = r;
+							clientKey = AbstractSaslSCRAM.hmac(key, AbstractSaslSCRAM.DEFAULT_CLIENT_KEY);
+							serverKey = AbstractSaslSCRAM.hmac(key, AbstractSaslSCRAM.DEFAULT_SERVER_KEY);
+							((SaltedPasswordCallback) callback).setKeys(clientKey, serverKey);
+						}
 					} catch (Exception e) {
 						throw new RuntimeException(e);
 					}
@@ -0,0 +1,214 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Test;
+import tigase.TestLogger;
+import tigase.cluster.api.ClusterConnectionSelectorIfc;
+import tigase.server.Packet;
+import tigase.server.Priority;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPIOService;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+import static tigase.cluster.ClusterConnectionSelector.CLUSTER_SYS_CONNECTIONS_PER_NODE_PROP_KEY;
+
+public class AdaptiveClusterConnectionSelectorTest {
+
+	private static final Logger log = TestLogger.getLogger(AdaptiveClusterConnectionSelectorTest.class);
+
+	private static Packet createPacket(String from, int seq) throws Exception {
+		Element el = new Element("message", new String[]{"from", "to", "id"},
+								 new String[]{from, "juliet@example.com", String.valueOf(seq)});
+		return Packet.packetInstance(el);
+	}
+
+	private static <T extends ClusterConnectionSelectorIfc> T createSelector(T selector) {
+		selector.setClusterConnectionHandler(packet -> packet.getStanzaFrom().toString().hashCode());
+		Map<String, Object> props = new HashMap<>();
+		props.put(CLUSTER_SYS_CONNECTIONS_PER_NODE_PROP_KEY, 1);
+		selector.setProperties(props);
+		return selector;
+	}
+
+	@Test
+	public void testStickyAssignment() throws Exception {
+		AdaptiveClusterConnectionSelector selector = createSelector(new AdaptiveClusterConnectionSelector());
+		ClusterConnection conn = new ClusterConnection("test");
+		assertNull(selector.selectConnection(createPacket("romeo@example.com/1", 0), conn));
+
+		SimulatedIOService sys = new SimulatedIOService();
+		SimulatedIOService serv1 = new SimulatedIOService();
+		SimulatedIOService serv2 = new SimulatedIOService();
+		conn.addConn(sys);
+		conn.addConn(serv1);
+		conn.addConn(serv2);
+
+		Packet p = createPacket("romeo@example.com/1", 1);
+		XMPPIOService<Object> selected = selector.selectConnection(p, conn);
+		assertSame(serv1, selected);
+		selected.addPacketToSend(p);
+
+		// connection with packets of the user is used even if other connection is less loaded
+		p = createPacket("romeo@example.com/1", 2);
+		assertSame(serv1, selector.selectConnection(p, conn));
+		serv1.addPacketToSend(p);
+
+		// other users are sent over the least loaded connection
+		assertSame(serv2, selector.selectConnection(createPacket("juliet@example.com/1", 1), conn));
+
+		p = createPacket("romeo@example.com/1", 3);
+		p.setPriority(Priority.CLUSTER);
+		assertSame(sys, selector.selectConnection(p, conn));
+
+		// packets are written slowly, so the connection has high write latency and bucket may be moved
+		Thread.sleep(50);
+		serv1.drain(Integer.MAX_VALUE, null);
+		assertTrue(serv1.isIdle());
+		assertTrue(serv1.getWriteLatency() > serv2.getWriteLatency());
+		assertSame(serv2, selector.selectConnection(createPacket("romeo@example.com/1", 4), conn));
+
+		conn.removeConn(serv2);
+		assertSame(serv1, selector.selectConnection(createPacket("romeo@example.com/1", 5), conn));
+	}
+
+	@Test
+	public void testLoadSimulation() throws Exception {
+		SimulationResult hashed = simulate(createSelector(new ClusterConnectionSelector()));
+		SimulationResult adaptive = simulate(createSelector(new AdaptiveClusterConnectionSelector()));
+
+		log.log(Level.INFO, "hash based selector: {0}, adaptive selector: {1}", new Object[]{hashed, adaptive});
+
+		assertTrue(adaptive.orderKept);
+		assertTrue(adaptive.coldAvgWait * 2 < hashed.coldAvgWait);
+		assertTrue(adaptive.coldMaxWait < hashed.coldMaxWait);
+	}
+
+	/**
+	 * Simulates traffic of a single hot user, which alone exceeds capacity of a single connection, and many users
+	 * sending packets occasionally. Each connection writes limited number of packets in each tick.
+	 */
+	private SimulationResult simulate(ClusterConnectionSelectorIfc selector) throws Exception {
+		final int links = 5;
+		final int ticks = 300;
+		final int capacity = 15;
+		final int hotPackets = 20;
+		final int coldUsers = 100;
+		final String hotUser = "hot@example.com/res";
+
+		Random random = new Random(1234);
+		ClusterConnection conn = new ClusterConnection("test");
+		List<SimulatedIOService> servs = new ArrayList<>();
+		for (int i = 0; i < links; i++) {
+			SimulatedIOService serv = new SimulatedIOService();
+			servs.add(serv);
+			conn.addConn(serv);
+		}
+
+		Map<String, Integer> sent = new HashMap<>();
+		Map<String, Integer> written = new HashMap<>();
+		Map<Packet, Integer> sentTick = new IdentityHashMap<>();
+		SimulationResult result = new SimulationResult();
+		long coldWait = 0;
+		long coldWritten = 0;
+
+		for (int tick = 0; tick < ticks; tick++) {
+			List<String> senders = new ArrayList<>();
+			for (int i = 0; i < hotPackets; i++) {
+				senders.add(hotUser);
+			}
+			for (int i = 0; i < coldUsers; i++) {
+				if (random.nextInt(5) == 0) {
+					senders.add("cold-" + i + "@example.com/res");
+				}
+			}
+			for (String user : senders) {
+				int seq = sent.merge(user, 1, Integer::sum);
+				Packet p = createPacket(user, seq);
+				sentTick.put(p, tick);
+				selector.selectConnection(p, conn).addPacketToSend(p);
+			}
+
+			List<Packet> packets = new ArrayList<>();
+			for (SimulatedIOService serv : servs) {
+				serv.drain(capacity, packets);
+			}
+			for (Packet p : packets) {
+				String user = p.getStanzaFrom().toString();
+				int seq = Integer.parseInt(p.getStanzaId());
+				Integer last = written.put(user, seq);
+				if (last != null && last + 1 != seq) {
+					result.orderKept = false;
+				}
+				if (!user.equals(hotUser)) {
+					int wait = tick - sentTick.remove(p);
+					coldWait += wait;
+					coldWritten++;
+					result.coldMaxWait = Math.max(result.coldMaxWait, wait);
+				}
+			}
+		}
+		result.coldAvgWait = ((double) coldWait) / coldWritten;
+		return result;
+	}
+
+	private static class SimulationResult {
+
+		double coldAvgWait = 0;
+		int coldMaxWait = 0;
+		boolean orderKept = true;
+
+		@Override
+		public String toString() {
+			return "average wait of other users: " + coldAvgWait + ", max wait: " + coldMaxWait + ", order kept: " +
+					orderKept;
+		}
+	}
+
+	private static class SimulatedIOService
+			extends ClusterIOService {
+
+		/**
+		 * Simulates writing of waiting packets to the socket.
+		 */
+		void drain(int maxPackets, List<Packet> written) {
+			Packet p;
+			for (int i = 0; i < maxPackets && (p = getWaitingPackets().poll()) != null; i++) {
+				if (written != null) {
+					written.add(p);
+				}
+			}
+			packetsWritten();
+		}
+
+		@Override
+		public boolean waitingToSend() {
+			return false;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return 0;
+		}
+	}
+
+}
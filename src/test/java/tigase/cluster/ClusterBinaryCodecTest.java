@@ -0,0 +1,228 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.TestLogger;
+import tigase.cluster.api.ClusterElement;
+import tigase.server.Packet;
+import tigase.util.xml.ElementSerializer;
+import tigase.xml.DomBuilderHandler;
+import tigase.xml.Element;
+import tigase.xml.SimpleParser;
+import tigase.xml.SingletonFactory;
+import tigase.xml.XMLUtils;
+import tigase.xmpp.StanzaType;
+import tigase.xmpp.jid.JID;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ClusterBinaryCodecTest {
+
+	private static final Logger log = TestLogger.getLogger(ClusterBinaryCodecTest.class);
+
+	private static Element createForward(int i) {
+		JID from = JID.jidInstanceNS("sess-man@node1.example.com");
+		JID to = JID.jidInstanceNS("sess-man@node2.example.com");
+		ClusterElement clel = ClusterElement.createClusterMethodCall(from, to, StanzaType.set,
+																	 "sess-man-packet-forward-sm-cmd",
+																	 Collections.singletonMap("packet-from",
+																							  "c2s@node1.example.com/192.168.0.1_5222_10.0.0." +
+																									  i));
+		Element message = new Element("message", new String[]{"xmlns", "type", "id", "to", "from"},
+									  new String[]{"jabber:client", "chat", "msg-" + i, "juliet" + i + "@example.com",
+												   "romeo" + i + "@example.net/orchard"});
+		message.addChild(new Element("body", XMLUtils.escape("Żółć & <gęś> - wherefore art thou? " + i), null, null));
+		message.addChild(new Element("active", new String[]{"xmlns"},
+									 new String[]{"http://jabber.org/protocol/chatstates"}));
+		clel.addDataPacket(message);
+		return clel.getClusterElement("cl-" + i);
+	}
+
+	private static void assertElementEquals(Element expected, Element actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getAttributes() == null ? null : new HashMap<>(expected.getAttributes()),
+					 actual.getAttributes() == null ? null : new HashMap<>(actual.getAttributes()));
+		assertEquals(expected.getCData(), actual.getCData());
+		List<Element> expectedChildren = expected.getChildren();
+		List<Element> actualChildren = actual.getChildren();
+		assertEquals(expectedChildren == null ? 0 : expectedChildren.size(),
+					 actualChildren == null ? 0 : actualChildren.size());
+		for (int i = 0; expectedChildren != null && i < expectedChildren.size(); i++) {
+			assertElementEquals(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		int firstSize = 0;
+		for (int i = 0; i < 3; i++) {
+			Element elem = createForward(i);
+			ByteBuffer frame = encoder.encode(elem);
+			if (i == 0) {
+				firstSize = frame.remaining();
+			} else {
+				// names and node addresses are sent as dictionary references
+				assertTrue(frame.remaining() < firstSize);
+			}
+			decoder.append(frame);
+
+			ClusterBinaryCodec.Frame decoded = decoder.next();
+			assertNotNull(decoded);
+			assertNull(decoded.xml);
+			assertElementEquals(elem, decoded.element);
+			assertNull(decoder.next());
+		}
+		assertEquals(encoder.getDictionarySize(), decoder.getDictionarySize());
+		assertEquals(0, decoder.getPendingBytes());
+	}
+
+	@Test
+	public void testPartialFrames() throws IOException {
+		ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+
+		ByteBuffer first = encoder.encode(createForward(1));
+		ByteBuffer second = ClusterBinaryCodec.encodeXml("</stream:stream>");
+		ByteBuffer data = ByteBuffer.allocate(first.remaining() + second.remaining());
+		data.put(first).put(second).flip();
+
+		int frames = 0;
+		while (data.hasRemaining()) {
+			decoder.append(ByteBuffer.wrap(new byte[]{data.get()}));
+			ClusterBinaryCodec.Frame frame = decoder.next();
+			if (frame == null) {
+				continue;
+			}
+			if (++frames == 1) {
+				assertElementEquals(createForward(1), frame.element);
+			} else {
+				assertEquals("</stream:stream>", frame.xml);
+			}
+		}
+		assertEquals(2, frames);
+	}
+
+	@Test
+	public void testMaxFrameLength() throws IOException {
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+		decoder.setMaxFrameLength(64);
+
+		decoder.append(ClusterBinaryCodec.encodeXml("</stream:stream>"));
+		assertEquals("</stream:stream>", decoder.next().xml);
+
+		// frame is rejected as soon as its length is received
+		ByteBuffer length = ByteBuffer.allocate(5);
+		ClusterBinaryCodec.writeVarInt(length, 1024 * 1024);
+		length.flip();
+		decoder.append(length);
+		try {
+			decoder.next();
+			fail("frame exceeding limit should be rejected");
+		} catch (IOException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMixedContent() throws IOException {
+		Element message = new Element("message", new String[]{"to"}, new String[]{"juliet@example.com"});
+		Element p = new Element("p", "Some ", null, null);
+		p.addChild(new Element("b", "bold", null, null));
+		p.addCData(" text");
+		message.addChild(p);
+
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+		decoder.append(new ClusterBinaryCodec.Encoder().encode(message));
+		ClusterBinaryCodec.Frame frame = decoder.next();
+		assertNull(frame.element);
+		assertEquals(message.toString(), frame.xml);
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownReference() throws IOException {
+		ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+		decoder.append(ByteBuffer.wrap(new byte[]{2, ClusterBinaryCodec.FRAME_ELEMENT, 5}));
+		decoder.next();
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testPerformance() throws Exception {
+		Element[] elements = new Element[100];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = createForward(i);
+		}
+		int iterations = 500000;
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		SimpleParser parser = SingletonFactory.getParserInstance();
+
+		for (int round = 0; round < 3; round++) {
+			DomBuilderHandler domHandler = new DomBuilderHandler();
+			long bytes = 0;
+			long cpu = bean.getCurrentThreadCpuTime();
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				byte[] data = ElementSerializer.toBytes(elements[i % elements.length]);
+				bytes += data.length;
+				char[] chars = new String(data, StandardCharsets.UTF_8).toCharArray();
+				parser.parse(domHandler, chars, 0, chars.length);
+				Packet.packetInstance(domHandler.getParsedElements().poll());
+			}
+			long xmlTime = System.nanoTime() - start;
+			long xmlCpu = bean.getCurrentThreadCpuTime() - cpu;
+			long xmlBytes = bytes;
+
+			ClusterBinaryCodec.Encoder encoder = new ClusterBinaryCodec.Encoder();
+			ClusterBinaryCodec.Decoder decoder = new ClusterBinaryCodec.Decoder();
+			bytes = 0;
+			cpu = bean.getCurrentThreadCpuTime();
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				ByteBuffer data = encoder.encode(elements[i % elements.length]);
+				bytes += data.remaining();
+				decoder.append(data);
+				Packet.packetInstance(decoder.next().element);
+			}
+			long binaryTime = System.nanoTime() - start;
+			long binaryCpu = bean.getCurrentThreadCpuTime() - cpu;
+
+			log.log(Level.INFO, "XML: {0} packets/s, {1}ns CPU per packet, {2} bytes per packet; binary: {3} " +
+								"packets/s, {4}ns CPU per packet, {5} bytes per packet",
+					new Object[]{(iterations * 1000000000L) / xmlTime, xmlCpu / iterations, xmlBytes / iterations,
+								 (iterations * 1000000000L) / binaryTime, binaryCpu / iterations,
+								 bytes / iterations});
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPIOService;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterIOServiceTest {
+
+	@Test
+	public void testBatchedWritesWithoutBinaryFormat() throws Exception {
+		List<Integer> writes = new ArrayList<>();
+		ClusterIOService service = new ClusterIOService() {
+			@Override
+			public boolean isConnected() {
+				return true;
+			}
+
+			@Override
+			protected void writeBytes(ByteBuffer data) {
+				writes.add(data.remaining());
+				data.position(data.limit());
+			}
+		};
+		service.setWriteBatching(XMPPIOService.WRITE_BATCH_MIN_SIZE, null);
+
+		for (int i = 0; i < 10; i++) {
+			Element iq = new Element("iq", new String[]{"from", "to", "id"},
+									 new String[]{"sess-man@node1", "sess-man@node2", "id-" + i});
+			service.addPacketToSend(Packet.packetInstance(iq));
+		}
+		service.processWaitingPackets();
+
+		// all packets fit in a single batch
+		assertEquals(1, writes.size());
+		assertTrue(service.getWaitingPackets().isEmpty());
+	}
+
+}
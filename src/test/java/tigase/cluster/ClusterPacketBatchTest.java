@@ -0,0 +1,87 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class ClusterPacketBatchTest {
+
+	@Test
+	public void testSinglePacketIsNotWrapped() throws Exception {
+		ClusterPacketBatch batch = new ClusterPacketBatch(10);
+		Packet packet = createPacket("1", "sess-man@node2.example.com");
+		assertFalse(batch.add(packet));
+		assertSame(packet, batch.drain());
+		assertNull(batch.drain());
+		assertEquals(0, batch.getAndResetBytesSaved());
+	}
+
+	@Test
+	public void testDrainAndUnwrap() throws Exception {
+		ClusterPacketBatch batch = new ClusterPacketBatch(3);
+		assertFalse(batch.add(createPacket("1", "sess-man@node2.example.com")));
+		assertFalse(batch.add(createPacket("2", "cl-comp@node2.example.com")));
+		assertTrue(batch.add(createPacket("3", "sess-man@node2.example.com")));
+
+		Packet packet = batch.drain();
+		assertTrue(batch.isEmpty());
+		assertTrue(ClusterPacketBatch.isBatch(packet));
+		assertEquals(3, packet.getElement().getChildren().size());
+		for (Element child : packet.getElement().getChildren()) {
+			assertNull(child.getAttributeStaticStr("from"));
+		}
+		assertNotNull(packet.getElement().getChildren().get(1).getAttributeStaticStr("to"));
+		assertTrue(batch.getAndResetBytesSaved() > 0);
+		assertEquals(0, batch.getAndResetBytesSaved());
+
+		Queue<Packet> packets = ClusterPacketBatch.unwrap(Packet.packetInstance(packet.getElement()));
+		assertEquals(3, packets.size());
+		String[] ids = {"1", "2", "3"};
+		String[] to = {"sess-man@node2.example.com", "cl-comp@node2.example.com", "sess-man@node2.example.com"};
+		for (int i = 0; i < ids.length; i++) {
+			Packet unwrapped = packets.poll();
+			assertEquals(ids[i], unwrapped.getStanzaId());
+			assertEquals(JID.jidInstance("sess-man@node1.example.com"), unwrapped.getStanzaFrom());
+			assertEquals(JID.jidInstance(to[i]), unwrapped.getStanzaTo());
+		}
+	}
+
+	@Test
+	public void testTakeAll() throws Exception {
+		ClusterPacketBatch batch = new ClusterPacketBatch(10);
+		batch.add(createPacket("1", "sess-man@node2.example.com"));
+		batch.add(createPacket("2", "sess-man@node2.example.com"));
+		assertEquals(2, batch.takeAll().size());
+		assertTrue(batch.isEmpty());
+	}
+
+	private Packet createPacket(String id, String to) throws Exception {
+		Element el = new Element("cluster", new String[]{"from", "to", "id", "type", "xmlns"},
+								 new String[]{"sess-man@node1.example.com", to, id, "set", "tigase:cluster"});
+		el.addChild(new Element("control"));
+		return Packet.packetInstance(el);
+	}
+
+}
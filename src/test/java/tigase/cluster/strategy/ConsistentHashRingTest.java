@@ -0,0 +1,76 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingTest {
+
+	private final List<JID> nodes = Arrays.asList(JID.jidInstanceNS("sess-man@node1"),
+												  JID.jidInstanceNS("sess-man@node2"),
+												  JID.jidInstanceNS("sess-man@node3"),
+												  JID.jidInstanceNS("sess-man@node4"));
+
+	@Test
+	public void testOwners() {
+		ConsistentHashRing ring = new ConsistentHashRing(64);
+		BareJID user = BareJID.bareJIDInstanceNS("user1@example.com");
+		assertTrue(ring.getOwners(user, 2).isEmpty());
+
+		ring.setNodes(nodes);
+		List<JID> owners = ring.getOwners(user, 2);
+		assertEquals(2, owners.size());
+		assertNotEquals(owners.get(0), owners.get(1));
+		assertEquals(owners, ring.getOwners(user, 2));
+		assertTrue(ring.isOwner(owners.get(1), user, 2));
+		assertEquals(4, ring.getOwners(user, 10).size());
+	}
+
+	@Test
+	public void testDistributionAndRebalancing() {
+		ConsistentHashRing ring = new ConsistentHashRing(64);
+		ring.setNodes(nodes);
+
+		Map<BareJID, JID> owners = new HashMap<>();
+		Map<JID, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 10000; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user" + i + "@example.com");
+			JID owner = ring.getOwners(user, 1).get(0);
+			owners.put(user, owner);
+			counts.merge(owner, 1, Integer::sum);
+		}
+		for (JID node : nodes) {
+			assertTrue("node " + node + " owns " + counts.get(node) + " users", counts.get(node) > 1500);
+		}
+
+		// only users of removed node should change their owner
+		ring.setNodes(nodes.subList(0, 3));
+		owners.forEach((user, owner) -> {
+			if (!owner.equals(nodes.get(3))) {
+				assertEquals(owner, ring.getOwners(user, 1).get(0));
+			}
+		});
+	}
+
+}
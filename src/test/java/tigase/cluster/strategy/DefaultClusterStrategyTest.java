@@ -86,8 +86,11 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 		assertEquals(null, strategy.getNodesForPacketForward(sm.getComponentId(), null, packet));
 	}
 
-	private class DummyClusterController implements ClusterControllerIfc {
+	protected class DummyClusterController implements ClusterControllerIfc {
 
+		// data and target nodes of forwarded packets
+		protected final List<Map<String, String>> forwardedData = new ArrayList<>();
+		protected final List<List<JID>> forwardedTo = new ArrayList<>();
 		private List<String> nodes = new ArrayList<>();
 
 		@Override
@@ -148,7 +151,8 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 		@Override
 		public void sendToNodes(String command, Map<String, String> data, Element packet, JID fromNode,
 								Set<JID> visitedNodes, JID... toNodes) {
-
+			forwardedData.add(data);
+			forwardedTo.add(Arrays.asList(toNodes));
 		}
 
 		@Override
@@ -157,9 +161,11 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 		}
 	}
 
-	private class DummySessionManagerClustered
+	protected class DummySessionManagerClustered
 			implements SessionManagerClusteredIfc {
 
+		private final JID componentId = JID.jidInstanceNS("sess-man@" + UUID.randomUUID().toString());
+
 		@Override
 		public boolean fastAddOutPacket(Packet packet) {
 			return false;
@@ -197,7 +203,7 @@ public class DefaultClusterStrategyTest extends AbstractKernelTestCase {
 
 		@Override
 		public JID getComponentId() {
-			return JID.jidInstanceNS("sess-man@" + UUID.randomUUID().toString());
+			return componentId;
 		}
 
 		@Override
@@ -0,0 +1,161 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SessionDirectoryClusteringStrategyTest
+		extends DefaultClusterStrategyTest {
+
+	private DummyClusterController cluster;
+	private JID local;
+	private JID node1;
+	private JID node2;
+	private ConsistentHashRing ring;
+	private JID sender;
+	private SessionDirectoryClusteringStrategy strategy;
+
+	@Before
+	public void setUpStrategy() throws Exception {
+		strategy = getInstance(SessionDirectoryClusteringStrategy.class);
+		cluster = getInstance(DummyClusterController.class);
+		local = getInstance(DummySessionManagerClustered.class).getComponentId();
+		ring = (ConsistentHashRing) getField("ring");
+		sender = JID.jidInstanceNS("sender@remote.com/res-1");
+		node1 = JID.jidInstance("sess-man", "node-1");
+		node2 = JID.jidInstance("sess-man", "node-2");
+	}
+
+	@Test
+	public void testBroadcastWhileDirectorySyncing() throws Exception {
+		connectNodes();
+		BareJID user = findUser(true);
+		addRemoteSession(JID.jidInstanceNS(user, "res-1"), node2);
+
+		assertTrue(strategy.processPacket(createMessage(user), null));
+		assertEquals(1, cluster.forwardedTo.size());
+		assertEquals(1, cluster.forwardedTo.get(0).size());
+		Map<String, String> data = cluster.forwardedData.get(0);
+		assertTrue(data == null || !data.containsKey("directory-routing"));
+
+		// packet visits each node in turn, as with the default strategy
+		JID first = cluster.forwardedTo.get(0).get(0);
+		List<JID> next = strategy.getNodesForPacketForward(local, new HashSet<>(Collections.singleton(first)),
+														   createMessage(user));
+		assertEquals(1, next.size());
+		assertNotEquals(first, next.get(0));
+	}
+
+	@Test
+	public void testPacketSentToNodeWithSession() throws Exception {
+		connectNodes();
+		setField("directorySyncTime", 0L);
+		BareJID user = findUser(true);
+		addRemoteSession(JID.jidInstanceNS(user, "res-1"), node2);
+
+		assertTrue(strategy.processPacket(createMessage(user), null));
+		assertEquals(Collections.singletonList(Collections.singletonList(node2)), cluster.forwardedTo);
+		assertEquals("direct", cluster.forwardedData.get(0).get("directory-routing"));
+
+		// user without sessions is processed locally as offline
+		assertFalse(strategy.processPacket(createMessage(findUser(true, user)), null));
+		assertEquals(1, cluster.forwardedTo.size());
+	}
+
+	@Test
+	public void testPacketSentToOwnerOfUser() throws Exception {
+		connectNodes();
+		setField("directorySyncTime", 0L);
+		BareJID user = findUser(false);
+		JID owner = ring.getOwners(user, 2).get(0);
+
+		assertTrue(strategy.processPacket(createMessage(user), null));
+		assertEquals(Collections.singletonList(Collections.singletonList(owner)), cluster.forwardedTo);
+		assertEquals("relay", cluster.forwardedData.get(0).get("directory-routing"));
+	}
+
+	@Test
+	public void testOwnerRelaysPacketToNodeWithSession() throws Exception {
+		connectNodes();
+		setField("directorySyncTime", 0L);
+		BareJID user = findUser(true);
+		addRemoteSession(JID.jidInstanceNS(user, "res-1"), node2);
+
+		Map<String, String> data = new LinkedHashMap<>();
+		data.put("directory-routing", "relay");
+		Set<JID> visited = new HashSet<>(Arrays.asList(node1, local));
+		assertTrue(strategy.sendToNextNode(node1, visited, data, createMessage(user)));
+		assertEquals(Collections.singletonList(Collections.singletonList(node2)), cluster.forwardedTo);
+		assertEquals("direct", cluster.forwardedData.get(0).get("directory-routing"));
+	}
+
+	private void connectNodes() {
+		DummySessionManagerClustered sm = getInstance(DummySessionManagerClustered.class);
+		for (JID node : Arrays.asList(node1, node2)) {
+			sm.nodeConnected(node.getDomain());
+			strategy.nodeConnected(node);
+		}
+	}
+
+	private void addRemoteSession(JID jid, JID node) {
+		ConnectionRecord rec = new ConnectionRecord();
+		rec.setRecordFields(node, jid, UUID.randomUUID().toString(),
+							JID.jidInstanceNS("c2s@" + node.getDomain() + "/" + UUID.randomUUID()));
+		strategy.handleRemoteUserConnected(rec);
+	}
+
+	private Packet createMessage(BareJID user) throws Exception {
+		return Packet.packetInstance(new Element("message").withAttribute("type", "chat"), sender,
+									 JID.jidInstance(user));
+	}
+
+	/**
+	 * Finds a user for which this node is or is not one of owners in the directory.
+	 */
+	private BareJID findUser(boolean owned, BareJID... excluded) {
+		for (int i = 0; ; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("user-" + i + "@example.com");
+			if (ring.isOwner(local, user, 2) == owned && !Arrays.asList(excluded).contains(user)) {
+				return user;
+			}
+		}
+	}
+
+	private Object getField(String name) throws Exception {
+		Field field = SessionDirectoryClusteringStrategy.class.getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(strategy);
+	}
+
+	private void setField(String name, Object value) throws Exception {
+		Field field = SessionDirectoryClusteringStrategy.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(strategy, value);
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.cluster.strategy;
+
+import org.junit.Test;
+import tigase.xmpp.jid.JID;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class SessionDirectoryTest {
+
+	private final JID node1 = JID.jidInstanceNS("sess-man@node1");
+	private final JID node2 = JID.jidInstanceNS("sess-man@node2");
+
+	@Test
+	public void testSessions() {
+		SessionDirectory directory = new SessionDirectory();
+		directory.add(JID.jidInstanceNS("user1@example.com/res1"), node1);
+		directory.add(JID.jidInstanceNS("user1@example.com/res2"), node2);
+		directory.add(JID.jidInstanceNS("user2@example.com/res1"), node2);
+
+		assertEquals(new HashSet<>(Arrays.asList(node1, node2)),
+					 directory.getNodes(JID.jidInstanceNS("user1@example.com")));
+		assertEquals(Collections.singleton(node1), directory.getNodes(JID.jidInstanceNS("user1@example.com/res1")));
+		assertEquals(new HashSet<>(Arrays.asList(node1, node2)),
+					 directory.getNodes(JID.jidInstanceNS("user1@example.com/res3")));
+
+		// session with the same resource was created on other node
+		directory.remove(JID.jidInstanceNS("user1@example.com/res2"), node1);
+		assertEquals(Collections.singleton(node2), directory.getNodes(JID.jidInstanceNS("user1@example.com/res2")));
+
+		directory.removeNode(node2);
+		assertEquals(Collections.singleton(node1), directory.getNodes(JID.jidInstanceNS("user1@example.com")));
+		assertEquals(Collections.emptySet(), directory.getNodes(JID.jidInstanceNS("user2@example.com")));
+		assertEquals(1, directory.size());
+
+		directory.retainUsers(user -> !user.getLocalpart().equals("user1"));
+		assertEquals(0, directory.size());
+	}
+
+}
@@ -69,6 +69,34 @@ public abstract class AbstractUserRepositoryTest<DS extends DataSource> extends
 		repo.removeUser(user);
 	}
 
+	@Test
+	public void testNodesRemovedAndRecreated() throws TigaseDBException {
+		BareJID user = BareJID.bareJIDInstanceNS("user-nodes", "domain");
+		if (repo.userExists(user)) {
+			repo.removeUser(user);
+		}
+		repo.addUser(user);
+		String path = "node1/node2/node3/node4/node5/node6";
+		repo.setData(user, path, "key", "value");
+		repo.setData(user, "node1/node2", "key", "value2");
+		Assert.assertEquals("value", repo.getData(user, path, "key"));
+		Assert.assertEquals("value", repo.getData(user, "/" + path + "/", "key"));
+		Assert.assertEquals("value2", repo.getData(user, "node1/node2", "key"));
+
+		repo.removeSubnode(user, "node1/node2/node3");
+		Assert.assertNull(repo.getData(user, path, "key"));
+		Assert.assertEquals("value2", repo.getData(user, "node1/node2", "key"));
+
+		repo.setData(user, path, "key", "value3");
+		Assert.assertEquals("value3", repo.getData(user, path, "key"));
+
+		repo.removeUser(user);
+		repo.addUser(user);
+		Assert.assertNull(repo.getData(user, path, "key"));
+		Assert.assertNull(repo.getData(user, "node1/node2", "key"));
+		repo.removeUser(user);
+	}
+
 	@Test
 	public void testGetData() throws InterruptedException {
 
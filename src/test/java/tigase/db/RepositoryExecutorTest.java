@@ -0,0 +1,90 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RepositoryExecutorTest {
+
+	private RepositoryExecutor executor;
+
+	@Before
+	public void setUp() {
+		executor = new RepositoryExecutor("test-executor", 1, 1);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testSubmit() throws Exception {
+		assertEquals("result", executor.submit("test", () -> "result").get(5, TimeUnit.SECONDS));
+
+		CompletableFuture<String> failed = executor.submit("test", () -> {
+			throw new UserNotFoundException("user not found");
+		});
+		try {
+			failed.get(5, TimeUnit.SECONDS);
+			fail("call should fail");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof UserNotFoundException);
+		}
+
+		assertEquals(2, executor.getHistogram("test").getCount());
+		assertNull(executor.getHistogram("other"));
+	}
+
+	@Test
+	public void testRejectWhenQueueIsFull() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<Boolean> running = executor.submit("test", () -> {
+			started.countDown();
+			return release.await(5, TimeUnit.SECONDS);
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		CompletableFuture<Boolean> queued = executor.submit("test", () -> true);
+		CompletableFuture<Boolean> rejected = executor.submit("test", () -> true);
+
+		assertTrue(rejected.isCompletedExceptionally());
+		assertEquals(1, executor.getRejected());
+		assertEquals(1, executor.getQueueSize());
+
+		release.countDown();
+		assertTrue(running.get(5, TimeUnit.SECONDS));
+		assertTrue(queued.get(5, TimeUnit.SECONDS));
+		try {
+			rejected.get();
+			fail("call should be rejected");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof TigaseDBException);
+		}
+	}
+
+}
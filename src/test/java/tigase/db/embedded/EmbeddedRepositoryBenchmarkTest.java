@@ -0,0 +1,159 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.db.*;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares throughput and latency of the embedded store with the JDBC repository passed as
+ * <code>testDbUri</code>. As it takes a while, it is executed only if <code>-Dbenchmark=true</code> is passed, ie.
+ * <pre>mvn test -Dtest=EmbeddedRepositoryBenchmarkTest -Dbenchmark=true -DtestDbUri="jdbc:derby:derby_test;create=true"</pre>
+ */
+public class EmbeddedRepositoryBenchmarkTest
+		extends AbstractDataSourceTestCase<DataSource> {
+
+	private static final Logger log = Logger.getLogger(EmbeddedRepositoryBenchmarkTest.class.getCanonicalName());
+
+	private static final int ITEMS = 20;
+	private static final int OPERATIONS = 20000;
+	private static final int THREADS = 8;
+	private static final int USERS = 500;
+	private static final int WRITES_PERCENT = 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void loadSchema() throws DBInitException {
+		Assume.assumeTrue("Benchmark not enabled", Boolean.getBoolean("benchmark"));
+		Assume.assumeTrue("Benchmark requires JDBC URI", uri.startsWith("jdbc:"));
+		loadSchema(Schema.SERVER_SCHEMA_ID, "8.0.0", Collections.emptySet());
+	}
+
+	@Test
+	public void testBenchmark() throws Exception {
+		UserRepository jdbcRepo = DataSourceHelper.getDefaultClass(UserRepository.class, uri).newInstance();
+		((DataSourceAware) jdbcRepo).setDataSource(getDataSource());
+		Result jdbc = run(jdbcRepo);
+
+		EmbeddedDataSource dataSource = new EmbeddedDataSource();
+		dataSource.initialize(EmbeddedDataSource.SCHEME + folder.getRoot().getAbsolutePath());
+		EmbeddedRepository embeddedRepo = new EmbeddedRepository();
+		embeddedRepo.setDataSource(dataSource);
+		Result embedded;
+		try {
+			embedded = run(embeddedRepo);
+		} finally {
+			dataSource.getStore().close();
+		}
+
+		log.log(Level.INFO, "{0}: {1}\nembedded: {2}", new Object[]{uri, jdbc, embedded});
+		Assert.assertEquals(OPERATIONS, jdbc.latencies.length);
+		Assert.assertEquals(OPERATIONS, embedded.latencies.length);
+	}
+
+	private Result run(UserRepository repo) throws Exception {
+		List<BareJID> users = new ArrayList<>();
+		for (int i = 0; i < USERS; i++) {
+			BareJID user = BareJID.bareJIDInstanceNS("bench-" + i, "domain");
+			if (repo.userExists(user)) {
+				repo.removeUser(user);
+			}
+			repo.addUser(user);
+			for (int j = 0; j < ITEMS; j++) {
+				repo.setData(user, "roster/item-" + j, "name", "Item " + j);
+			}
+			users.add(user);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<long[]>> futures = new ArrayList<>();
+			long start = System.nanoTime();
+			for (int t = 0; t < THREADS; t++) {
+				final Random random = new Random(t);
+				futures.add(executor.submit(() -> {
+					long[] latencies = new long[OPERATIONS / THREADS];
+					for (int i = 0; i < latencies.length; i++) {
+						BareJID user = users.get(random.nextInt(USERS));
+						String node = "roster/item-" + random.nextInt(ITEMS);
+						long opStart = System.nanoTime();
+						if (random.nextInt(100) < WRITES_PERCENT) {
+							repo.setData(user, node, "name", "Item " + i);
+						} else {
+							Assert.assertNotNull(repo.getData(user, node, "name"));
+						}
+						latencies[i] = System.nanoTime() - opStart;
+					}
+					return latencies;
+				}));
+			}
+			long[] all = new long[0];
+			for (Future<long[]> future : futures) {
+				long[] latencies = future.get();
+				int offset = all.length;
+				all = Arrays.copyOf(all, offset + latencies.length);
+				System.arraycopy(latencies, 0, all, offset, latencies.length);
+			}
+			Result result = new Result(System.nanoTime() - start, all);
+
+			for (BareJID user : users) {
+				repo.removeUser(user);
+			}
+			return result;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static class Result {
+
+		private final long duration;
+		private final long[] latencies;
+
+		private Result(long duration, long[] latencies) {
+			this.duration = duration;
+			this.latencies = latencies;
+			Arrays.sort(latencies);
+		}
+
+		private double percentile(double percentile) {
+			return latencies[(int) Math.min(latencies.length - 1, latencies.length * percentile)] / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%.0f ops/s, latency p50: %.1f us, p99: %.1f us, max: %.1f us",
+								 latencies.length * 1e9 / duration, percentile(0.5), percentile(0.99),
+								 percentile(1.0));
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.ClassRule;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import tigase.db.AbstractUserRepositoryTest;
+
+import java.io.IOException;
+
+/**
+ * Runs tests of <code>UserRepository</code> against embedded store, ie. with
+ * <code>-DtestDbUri=embedded://target/embedded_test</code>
+ */
+public class EmbeddedRepositoryTest
+		extends AbstractUserRepositoryTest<EmbeddedDataSource> {
+
+	@ClassRule
+	public static TestRule rule = new TestRule() {
+		@Override
+		public Statement apply(Statement stmnt, Description d) {
+			if (uri == null || !uri.startsWith(EmbeddedDataSource.SCHEME)) {
+				return new Statement() {
+					@Override
+					public void evaluate() throws Throwable {
+						Assume.assumeTrue("Ignored due to not passed DB URI!", false);
+					}
+				};
+			}
+			return stmnt;
+		}
+	};
+
+	@After
+	public void closeStore() throws IOException {
+		// every test opens the same directory
+		getDataSource().getStore().close();
+	}
+
+}
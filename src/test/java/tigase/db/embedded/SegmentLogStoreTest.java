@@ -0,0 +1,236 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.embedded;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.db.UserExistsException;
+import tigase.db.UserNotFoundException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testNodes() throws Exception {
+		try (SegmentLogStore store = open(1024 * 1024)) {
+			store.addUser("user@domain");
+			store.put("user@domain", "/a/b/", "key", new String[]{"value"});
+			store.put("user@domain", "a", "key", new String[]{"value2"});
+			store.put("user@domain", "a/c", "key", new String[]{"value3"});
+			store.put("user@domain", null, "key", new String[]{"root"});
+
+			assertArrayEquals(new String[]{"value"}, store.get("user@domain", "a/b", "key"));
+			assertArrayEquals(new String[]{"root"}, store.get("user@domain", "", "key"));
+			assertArrayEquals(new String[]{"a"}, store.getSubnodes("user@domain", null));
+			assertArrayEquals(new String[]{"b", "c"}, store.getSubnodes("user@domain", "a"));
+			assertNull(store.getSubnodes("user@domain", "a/b"));
+
+			store.addValues("user@domain", "a/b", "key", new String[]{"value4"});
+			assertArrayEquals(new String[]{"value", "value4"}, store.get("user@domain", "a/b", "key"));
+
+			store.removeNode("user@domain", "a/b");
+			assertNull(store.get("user@domain", "a/b", "key"));
+			assertArrayEquals(new String[]{"c"}, store.getSubnodes("user@domain", "a"));
+
+			store.remove("user@domain", "a", "key");
+			assertNull(store.getKeys("user@domain", "a"));
+			assertArrayEquals(new String[]{"value3"}, store.get("user@domain", "a/c", "key"));
+
+			try {
+				store.addUser("user@domain");
+				fail("User should already exist");
+			} catch (UserExistsException ex) {
+				// expected
+			}
+			store.removeUser("user@domain");
+			try {
+				store.get("user@domain", "a/c", "key");
+				fail("User should not exist");
+			} catch (UserNotFoundException ex) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testRecovery() throws Exception {
+		long uid;
+		try (SegmentLogStore store = open(1024)) {
+			for (int i = 0; i < 20; i++) {
+				store.addUser("user-" + i + "@domain");
+				store.put("user-" + i + "@domain", "roster", "item", new String[]{"value-" + i});
+			}
+			store.removeUser("user-3@domain");
+			store.removeNode("user-4@domain", "roster");
+			store.put("user-5@domain", "roster", "item", new String[]{"changed"});
+			uid = store.getUserUid("user-6@domain");
+			assertTrue(store.getSegmentsCount() > 1);
+		}
+
+		try (SegmentLogStore store = open(1024)) {
+			assertEquals(19, store.getUsersCount());
+			assertFalse(store.userExists("user-3@domain"));
+			assertNull(store.get("user-4@domain", "roster", "item"));
+			assertArrayEquals(new String[]{"changed"}, store.get("user-5@domain", "roster", "item"));
+			assertArrayEquals(new String[]{"value-19"}, store.get("user-19@domain", "roster", "item"));
+			assertEquals(uid, store.getUserUid("user-6@domain"));
+			store.addUser("user-20@domain");
+			assertTrue(store.getUserUid("user-20@domain") > uid);
+		}
+	}
+
+	@Test
+	public void testTornWriteRecovery() throws Exception {
+		try (SegmentLogStore store = open(1024 * 1024)) {
+			store.addUser("user@domain");
+			store.put("user@domain", "roster", "item1", new String[]{"value1"});
+			store.put("user@domain", "roster", "item2", new String[]{"value2"});
+		}
+
+		// simulate crash in the middle of writing the last record
+		Path segment = segments().get(0);
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			file.setLength(file.length() - 3);
+		}
+
+		try (SegmentLogStore store = open(1024 * 1024)) {
+			assertArrayEquals(new String[]{"value1"}, store.get("user@domain", "roster", "item1"));
+			assertNull(store.get("user@domain", "roster", "item2"));
+			store.put("user@domain", "roster", "item3", new String[]{"value3"});
+		}
+
+		try (SegmentLogStore store = open(1024 * 1024)) {
+			assertArrayEquals(new String[]{"value1"}, store.get("user@domain", "roster", "item1"));
+			assertArrayEquals(new String[]{"value3"}, store.get("user@domain", "roster", "item3"));
+		}
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		try (SegmentLogStore store = open(1024)) {
+			for (int i = 0; i < 10; i++) {
+				store.addUser("user-" + i + "@domain");
+			}
+			for (int round = 0; round < 20; round++) {
+				for (int i = 0; i < 10; i++) {
+					store.put("user-" + i + "@domain", "roster", "item", new String[]{"value-" + round});
+				}
+			}
+			store.removeUser("user-0@domain");
+			int segmentsBefore = store.getSegmentsCount();
+			long sizeBefore = store.getSize();
+
+			store.compact();
+
+			assertEquals(1, store.getCompactionsCount());
+			assertTrue(store.getSegmentsCount() < segmentsBefore);
+			assertTrue(store.getSize() < sizeBefore);
+			assertEquals(store.getSegmentsCount(), segments().size());
+			assertArrayEquals(new String[]{"value-19"}, store.get("user-5@domain", "roster", "item"));
+
+			// index must point to compacted segment
+			store.put("user-6@domain", "roster", "item", new String[]{"after"});
+			assertArrayEquals(new String[]{"value-19"}, store.get("user-7@domain", "roster", "item"));
+		}
+
+		try (SegmentLogStore store = open(1024)) {
+			assertEquals(9, store.getUsersCount());
+			assertFalse(store.userExists("user-0@domain"));
+			assertArrayEquals(new String[]{"after"}, store.get("user-6@domain", "roster", "item"));
+			assertArrayEquals(new String[]{"value-19"}, store.get("user-9@domain", "roster", "item"));
+		}
+	}
+
+	@Test
+	public void testCrashDuringCompaction() throws Exception {
+		Path backup = folder.newFolder("backup").toPath();
+		List<Path> backedUp;
+		try (SegmentLogStore store = open(1024)) {
+			for (int i = 0; i < 10; i++) {
+				store.addUser("user-" + i + "@domain");
+				store.put("user-" + i + "@domain", "roster", "item", new String[]{"value-" + i});
+			}
+			for (int round = 0; round < 20; round++) {
+				store.put("user-2@domain", "roster", "other", new String[]{"value-" + round});
+			}
+			// removals are written to other segment than removed records
+			store.removeUser("user-0@domain");
+			store.remove("user-1@domain", "roster", "item");
+			for (int round = 20; round < 40; round++) {
+				store.put("user-2@domain", "roster", "other", new String[]{"value-" + round});
+			}
+			assertTrue(store.getSegmentsCount() > 2);
+
+			// segments removed by compaction are kept to simulate crash right after compacted segment was moved
+			backedUp = segments();
+			for (Path segment : backedUp) {
+				Files.copy(segment, backup.resolve(segment.getFileName()));
+			}
+			store.compact();
+			assertTrue(store.getSegmentsCount() < backedUp.size());
+		}
+		for (Path segment : backedUp) {
+			if (!Files.exists(segment)) {
+				Files.copy(backup.resolve(segment.getFileName()), segment);
+			}
+		}
+
+		try (SegmentLogStore store = open(1024)) {
+			assertEquals(9, store.getUsersCount());
+			assertFalse(store.userExists("user-0@domain"));
+			assertNull(store.get("user-1@domain", "roster", "item"));
+			assertArrayEquals(new String[]{"value-39"}, store.get("user-2@domain", "roster", "other"));
+			assertArrayEquals(new String[]{"value-9"}, store.get("user-9@domain", "roster", "item"));
+			assertEquals(store.getSegmentsCount(), segments().size());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testExclusiveAccess() throws Exception {
+		try (SegmentLogStore store = open(1024)) {
+			open(1024).close();
+		}
+	}
+
+	private SegmentLogStore open(long segmentSize) throws IOException {
+		return new SegmentLogStore(folder.getRoot().toPath().resolve("store"), segmentSize, 0.5, false);
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> stream = Files.list(folder.getRoot().toPath().resolve("store"))) {
+			return stream.filter(p -> p.getFileName().toString().endsWith(".log"))
+					.sorted(Comparator.naturalOrder())
+					.collect(Collectors.toList());
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NodePathCacheTest {
+
+	@Test
+	public void testNormalize() {
+		assertEquals("", NodePathCache.normalize(null));
+		assertEquals("", NodePathCache.normalize("/"));
+		assertEquals("privacy", NodePathCache.normalize("privacy"));
+		assertEquals("privacy/list", NodePathCache.normalize("/privacy//list/"));
+	}
+
+	@Test
+	public void testRemoveSubtree() {
+		NodePathCache cache = new NodePathCache(10, 60 * 1000);
+		long version = cache.getVersion();
+		cache.put(1, "", 10, version);
+		cache.put(1, "privacy", 11, version);
+		cache.put(1, "privacy/list", 12, version);
+		cache.put(1, "privacy-x", 13, version);
+		cache.put(2, "privacy", 21, version);
+
+		assertEquals(Long.valueOf(12), cache.get(1, "privacy/list"));
+		assertNull(cache.get(1, "roster"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		cache.removeSubtree(1, "privacy");
+		assertNull(cache.peek(1, "privacy"));
+		assertNull(cache.peek(1, "privacy/list"));
+		assertEquals(Long.valueOf(10), cache.peek(1, ""));
+		assertEquals(Long.valueOf(13), cache.peek(1, "privacy-x"));
+		assertEquals(Long.valueOf(21), cache.peek(2, "privacy"));
+
+		cache.removeUser(2);
+		assertNull(cache.peek(2, "privacy"));
+	}
+
+	@Test
+	public void testPutAfterRemoval() {
+		NodePathCache cache = new NodePathCache(10, 60 * 1000);
+		// identifier resolved before the node was removed is not cached
+		long version = cache.getVersion();
+		cache.removeSubtree(1, "privacy");
+		cache.put(1, "privacy", 11, version);
+		assertNull(cache.peek(1, "privacy"));
+
+		cache.put(1, "privacy", 12, cache.getVersion());
+		assertEquals(Long.valueOf(12), cache.peek(1, "privacy"));
+	}
+}
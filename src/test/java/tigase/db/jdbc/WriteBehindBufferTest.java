@@ -0,0 +1,155 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.db.jdbc;
+
+import org.junit.Test;
+import tigase.xmpp.jid.BareJID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindBufferTest {
+
+	private final BareJID user1 = BareJID.bareJIDInstanceNS("user1@example.com");
+	private final BareJID user2 = BareJID.bareJIDInstanceNS("user2@example.com");
+
+	@Test
+	public void testCoalescing() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(10);
+		assertTrue(buffer.put(user1, 1, "activity", "last", "1"));
+		assertTrue(buffer.put(user1, 1, "/activity/", "last", "2"));
+		assertTrue(buffer.put(user1, 1, "activity", "other", "3"));
+		assertTrue(buffer.put(user2, 2, "activity", "last", "4"));
+		assertEquals(3, buffer.size());
+		assertEquals(1, buffer.getCoalesced());
+
+		assertEquals("2", buffer.get(user1, "activity", "last").value);
+		assertNull(buffer.get(user1, "roster", "last"));
+
+		assertTrue(buffer.put(user1, 1, "activity", "last", null));
+		assertTrue(buffer.get(user1, "activity", "last").isRemoval());
+	}
+
+	@Test
+	public void testBounded() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(2);
+		assertTrue(buffer.put(user1, 1, null, "key1", "1"));
+		assertTrue(buffer.put(user1, 1, null, "key2", "2"));
+		assertTrue(buffer.isFull());
+		assertFalse(buffer.put(user1, 1, null, "key3", "3"));
+		// updates of pending keys are still accepted
+		assertTrue(buffer.put(user1, 1, null, "key1", "4"));
+		assertEquals(2, buffer.size());
+	}
+
+	@Test
+	public void testFlush() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(10);
+		buffer.put(user1, 1, "activity", "last", "1");
+		buffer.put(user2, 2, "activity", "last", "2");
+
+		List<WriteBehindBuffer.Write> written = new ArrayList<>();
+		buffer.flush(user1, writes -> {
+			written.addAll(writes);
+			return Collections.emptyList();
+		});
+		assertEquals(1, written.size());
+		assertEquals(user1, written.get(0).user);
+		assertFalse(buffer.hasPending(user1));
+		assertTrue(buffer.hasPending(user2));
+
+		// update replaced while written is kept in the buffer
+		buffer.flush(null, writes -> {
+			written.addAll(writes);
+			buffer.put(user2, 2, "activity", "last", "3");
+			return Collections.emptyList();
+		});
+		assertEquals(2, written.size());
+		assertEquals("3", buffer.get(user2, "activity", "last").value);
+		assertEquals(1, buffer.size());
+		assertEquals(2, buffer.getFlushed());
+	}
+
+	@Test
+	public void testRetryAfterFailure() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(10);
+		buffer.put(user1, 1, "activity", "last", "1");
+		buffer.put(user2, 2, "activity", "last", "2");
+
+		try {
+			buffer.flush(null, writes -> {
+				throw new RuntimeException("database not available");
+			});
+			fail("exception should be thrown");
+		} catch (RuntimeException ex) {
+			// expected
+		}
+		assertEquals(2, buffer.size());
+		assertEquals(2, buffer.getFailed());
+		assertEquals(0, buffer.getFlushed());
+
+		// failed update of user2 is replaced by a newer one while it is written
+		buffer.flush(null, writes -> {
+			buffer.put(user2, 2, "activity", "last", "3");
+			return new ArrayList<>(writes);
+		});
+		assertEquals(2, buffer.size());
+		assertEquals("1", buffer.get(user1, "activity", "last").value);
+		assertEquals("3", buffer.get(user2, "activity", "last").value);
+
+		List<WriteBehindBuffer.Write> written = new ArrayList<>();
+		buffer.flush(null, writes -> {
+			written.addAll(writes);
+			return Collections.emptyList();
+		});
+		assertEquals(2, written.size());
+		assertEquals(0, buffer.size());
+		assertEquals(2, buffer.getFlushed());
+		assertEquals(4, buffer.getFailed());
+	}
+
+	@Test
+	public void testRetryDelay() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(10, 60 * 1000, 10 * 60 * 1000);
+		buffer.put(user1, 1, "activity", "last", "1");
+
+		buffer.flushPending(writes -> new ArrayList<>(writes));
+		assertEquals(1, buffer.size());
+
+		// retry is delayed after failure
+		List<WriteBehindBuffer.Write> written = new ArrayList<>();
+		buffer.flushPending(writes -> {
+			written.addAll(writes);
+			return Collections.emptyList();
+		});
+		assertTrue(written.isEmpty());
+		assertEquals(1, buffer.size());
+
+		// but explicit flush is not delayed
+		buffer.flush(user1, writes -> {
+			written.addAll(writes);
+			return Collections.emptyList();
+		});
+		assertEquals(1, written.size());
+		assertEquals(0, buffer.size());
+	}
+
+}
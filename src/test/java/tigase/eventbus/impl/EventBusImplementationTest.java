@@ -266,6 +266,66 @@ public class EventBusImplementationTest {
 															 Event12.class.getSimpleName()).size());
 	}
 
+	@Test
+	public void testResolvedListenersCache() {
+		final Object resp[] = new Object[]{null, null};
+
+		Collection<AbstractHandler> handlers = eventBus.getResolvedListenersForEvent(new Event12());
+		Assert.assertTrue(handlers.isEmpty());
+		Assert.assertSame(handlers, eventBus.getResolvedListenersForEvent(new Event12()));
+
+		EventListener<Event1> l0 = e -> resp[0] = e;
+		eventBus.addListener(Event1.class, l0);
+		Assert.assertEquals(1, eventBus.getResolvedListenersForEvent(new Event12()).size());
+
+		eventBus.fire(new Event12());
+		Assert.assertTrue(resp[0] instanceof Event12);
+
+		eventBus.addListener(Event12.class.getPackage().getName(), Event12.class.getSimpleName(),
+							 (EventListener<Element>) e -> resp[1] = e);
+		Assert.assertEquals(2, eventBus.getResolvedListenersForEvent(new Event12()).size());
+		Assert.assertEquals(1, eventBus.getResolvedListenersForEvent(
+				new Element("tigase.eventbus.impl.Event12")).size());
+
+		eventBus.removeListener(l0);
+		Arrays.fill(resp, null);
+		eventBus.fire(new Event12());
+		Assert.assertNull(resp[0]);
+		Assert.assertTrue(resp[1] instanceof Element);
+	}
+
+	@Test
+	public void testInlineHandler() {
+		final Thread[] threads = new Thread[2];
+		eventBus.setExecutor(command -> {
+			Thread thread = new Thread(command);
+			thread.start();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Assert.fail(e.getMessage());
+			}
+		});
+
+		Object consumer = new Object() {
+			@HandleEvent(inline = true)
+			public void inline(Event1 e) {
+				threads[0] = Thread.currentThread();
+			}
+
+			@HandleEvent
+			public void executor(Event1 e) {
+				threads[1] = Thread.currentThread();
+			}
+		};
+		eventBus.registerAll(consumer);
+		eventBus.fire(new Event1());
+
+		Assert.assertSame(Thread.currentThread(), threads[0]);
+		Assert.assertNotNull(threads[1]);
+		Assert.assertNotSame(Thread.currentThread(), threads[1]);
+	}
+
 	@Test
 	public void testRegisterAll() throws Exception {
 		final Consumer c = new Consumer();
@@ -0,0 +1,123 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.eventbus.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.Benchmark;
+import tigase.xml.Element;
+import tigase.xmpp.jid.JID;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class MethodHandleEventBusSerializerTest {
+
+	private static Event1 createEvent() {
+		Event1 eo = new Event1();
+		eo.setJid(JID.jidInstanceNS("a@b.c/d"));
+		eo.setTransientField("123");
+		eo.setV1("message <&>");
+		eo.setV2(9898);
+		eo.setElementField(new Element("x", "v", new String[]{"a"}, new String[]{"b"}));
+		eo.setStrArrField(new String[]{"ala", "m,a", "kota"});
+		eo.setSetField(new HashSet<>(Arrays.asList("test123")));
+		return eo;
+	}
+
+	private static void assertEvent(Event1 ed) {
+		Assert.assertNotNull(ed);
+		Assert.assertEquals(JID.jidInstanceNS("a@b.c/d"), ed.getJid());
+		Assert.assertNull(ed.getTransientField());
+		Assert.assertEquals("message <&>", ed.getV1());
+		Assert.assertEquals(9898, ed.getV2());
+		Assert.assertEquals(new Element("x", "v", new String[]{"a"}, new String[]{"b"}), ed.getElementField());
+		Assert.assertArrayEquals(new String[]{"ala", "m,a", "kota"}, ed.getStrArrField());
+		Assert.assertEquals(new HashSet<>(Arrays.asList("test123")), ed.getSetField());
+	}
+
+	@Test
+	public void testSameAsReflective() {
+		Event1 eo = createEvent();
+		Element expected = new EventBusSerializer().serialize(eo);
+		Element actual = new MethodHandleEventBusSerializer().serialize(eo);
+
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void testDeserialize() {
+		MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
+
+		Element ex = serializer.serialize(createEvent());
+		assertEvent(serializer.deserialize(ex));
+
+		// decoding of data produced by reflective serializer
+		assertEvent(serializer.deserialize(new EventBusSerializer().serialize(createEvent())));
+		// decoding of data produced by this serializer by reflective serializer
+		assertEvent(new EventBusSerializer().deserialize(ex));
+	}
+
+	@Test
+	public void testCompact() {
+		MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
+
+		Element ex = serializer.serialize(createEvent(), true);
+		Assert.assertTrue(MethodHandleEventBusSerializer.isCompact(ex));
+		Assert.assertEquals("9898", ex.getAttributeStaticStr("v2"));
+		Assert.assertNull(ex.getChild("v2"));
+		Assert.assertNotNull(ex.getChild("elementField"));
+		assertEvent(serializer.deserialize(ex));
+
+		ex.setAttribute("remote", "true");
+		Element expanded = serializer.expand(ex);
+		Assert.assertFalse(MethodHandleEventBusSerializer.isCompact(expanded));
+		Assert.assertEquals("true", expanded.getAttributeStaticStr("remote"));
+		assertEvent(new EventBusSerializer().deserialize(expanded));
+	}
+
+	@Test
+	public void testUnknownClass() {
+		MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
+		Assert.assertNull(serializer.deserialize(new Element("tigase.eventbus.impl.NotExistingEvent")));
+		Assert.assertNull(serializer.deserialize(new Element("tigase.eventbus.impl.NotExistingEvent")));
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testThroughput() throws Exception {
+		EventBusSerializer reflective = new EventBusSerializer();
+		MethodHandleEventBusSerializer serializer = new MethodHandleEventBusSerializer();
+		Event1 event = createEvent();
+
+		new Benchmark("Event serialization", 200000).add("EventBusSerializer", iterations -> {
+			for (int i = 0; i < iterations; i++) {
+				Assert.assertNotNull(reflective.deserialize(reflective.serialize(event)));
+			}
+		}).add("MethodHandleEventBusSerializer", iterations -> {
+			for (int i = 0; i < iterations; i++) {
+				Assert.assertNotNull(serializer.deserialize(serializer.serialize(event)));
+			}
+		}).add("MethodHandleEventBusSerializer (compact)", iterations -> {
+			for (int i = 0; i < iterations; i++) {
+				Assert.assertNotNull(serializer.deserialize(serializer.serialize(event, true)));
+			}
+		}).run();
+	}
+}
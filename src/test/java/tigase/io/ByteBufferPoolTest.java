@@ -0,0 +1,135 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+
+	@Test
+	public void testCapacityFor() {
+		assertEquals(ByteBufferPool.MIN_CLASS_SIZE, ByteBufferPool.capacityFor(0));
+		assertEquals(ByteBufferPool.MIN_CLASS_SIZE, ByteBufferPool.capacityFor(512));
+		assertEquals(1024, ByteBufferPool.capacityFor(513));
+		assertEquals(16384, ByteBufferPool.capacityFor(16384));
+		assertEquals(32768, ByteBufferPool.capacityFor(16709));
+		assertEquals(ByteBufferPool.MAX_CLASS_SIZE + 1, ByteBufferPool.capacityFor(ByteBufferPool.MAX_CLASS_SIZE + 1));
+	}
+
+	@Test
+	public void testAcquireRelease() {
+		ByteBufferPool pool = new ByteBufferPool(1024 * 1024, false);
+
+		ByteBuffer buf1 = pool.acquire(1000);
+		assertEquals(1024, buf1.capacity());
+		assertEquals(1, pool.getMisses());
+		assertEquals(1024, pool.getOutstandingBytes());
+
+		buf1.order(ByteOrder.LITTLE_ENDIAN);
+		buf1.put(new byte[]{1, 2, 3});
+		pool.release(buf1);
+		assertEquals(0, pool.getOutstandingBytes());
+		assertEquals(1024, pool.getPooledBytes());
+
+		ByteBuffer buf2 = pool.acquire(600);
+		assertSame(buf1, buf2);
+		assertEquals(1, pool.getHits());
+		assertEquals(0, buf2.position());
+		assertEquals(buf2.capacity(), buf2.limit());
+		assertEquals(ByteOrder.BIG_ENDIAN, buf2.order());
+		assertEquals(0, pool.getPooledBytes());
+
+		ByteBuffer buf3 = pool.acquire(600);
+		assertNotSame(buf2, buf3);
+		assertEquals(2, pool.getMisses());
+		assertEquals(2048, pool.getOutstandingBytes());
+	}
+
+	@Test
+	public void testNotPooledBuffers() {
+		ByteBufferPool pool = new ByteBufferPool(1024 * 1024, false);
+
+		pool.release(ByteBuffer.allocate(1024).asReadOnlyBuffer());
+		pool.release(ByteBuffer.allocate(1000));
+		pool.release(ByteBuffer.allocateDirect(1024));
+		pool.release(null);
+		assertEquals(0, pool.getPooledBytes());
+
+		long outstanding = pool.getOutstandingBytes();
+		ByteBuffer big = pool.acquire(ByteBufferPool.MAX_CLASS_SIZE + 1);
+		pool.release(big);
+		assertEquals(0, pool.getPooledBytes());
+		assertEquals(outstanding, pool.getOutstandingBytes());
+	}
+
+	@Test
+	public void testDiscard() {
+		ByteBufferPool pool = new ByteBufferPool(1024 * 1024, false);
+
+		ByteBuffer buf = pool.acquire(1000);
+		pool.discard(buf);
+		pool.discard(null);
+		assertEquals(0, pool.getOutstandingBytes());
+		assertEquals(0, pool.getPooledBytes());
+		assertNotSame(buf, pool.acquire(1000));
+	}
+
+	@Test
+	public void testConfigure() {
+		ByteBufferPool pool = new ByteBufferPool(1024 * 1024, false);
+		ByteBuffer heap = pool.acquire(1000);
+		pool.release(pool.acquire(512));
+		assertEquals(512, pool.getPooledBytes());
+
+		pool.configure(1024 * 1024, true);
+		assertTrue(pool.isDirect());
+		assertEquals(0, pool.getPooledBytes());
+
+		ByteBuffer direct = pool.acquire(1000);
+		assertTrue(direct.isDirect());
+
+		// buffers acquired before change are not pooled anymore
+		pool.release(heap);
+		assertEquals(0, pool.getPooledBytes());
+		pool.release(direct);
+		assertEquals(1024, pool.getPooledBytes());
+		assertEquals(0, pool.getOutstandingBytes());
+	}
+
+	@Test
+	public void testMaxSize() {
+		ByteBufferPool pool = new ByteBufferPool(0, false);
+		ByteBuffer buf = pool.acquire(512);
+		pool.release(buf);
+		assertEquals(0, pool.getPooledBytes());
+		assertNotSame(buf, pool.acquire(512));
+
+		// only one buffer kept for each size class if pool is small
+		pool = new ByteBufferPool(1, false);
+		ByteBuffer buf1 = pool.acquire(512);
+		ByteBuffer buf2 = pool.acquire(512);
+		pool.release(buf1);
+		pool.release(buf2);
+		assertEquals(512, pool.getPooledBytes());
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.io;
+
+import org.junit.Test;
+import tigase.stats.StatisticsList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class ZLibIOTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		MemoryIO writerIO = new MemoryIO();
+		MemoryIO readerIO = new MemoryIO();
+		ZLibIO writer = new ZLibIO(writerIO, 6);
+		ZLibIO reader = new ZLibIO(readerIO, 6);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			sb.append("<message to='user").append(i).append("@example.com'><body>test</body></message>");
+		}
+		String[] stanzas = {"<stream:stream>", sb.toString(), "<presence/>"};
+
+		for (String stanza : stanzas) {
+			writer.write(ByteBuffer.wrap(stanza.getBytes(StandardCharsets.UTF_8)));
+			ByteBuffer compressed = writerIO.written.poll();
+			assertNotNull(compressed);
+			assertTrue(compressed.remaining() < stanza.length() || stanza.length() < 64);
+
+			readerIO.toRead = compressed;
+			ByteBuffer decompressed = reader.read(ByteBuffer.allocate(16));
+			byte[] data = new byte[decompressed.remaining()];
+			decompressed.get(data);
+			decompressed.clear();
+			assertEquals(stanza, new String(data, StandardCharsets.UTF_8));
+		}
+
+		assertTrue(reader.getRetainedBufferBytes() > 0);
+		reader.releaseBuffers();
+		assertEquals(0, reader.getRetainedBufferBytes());
+	}
+
+	@Test(expected = IOException.class)
+	public void testBufferLimit() throws IOException {
+		MemoryIO writerIO = new MemoryIO();
+		MemoryIO readerIO = new MemoryIO();
+		ZLibIO writer = new ZLibIO(writerIO, 6);
+		ZLibIO reader = new ZLibIO(readerIO, 6);
+		reader.setIOListener(bufferSize -> bufferSize <= 4096);
+
+		writer.write(ByteBuffer.wrap(new byte[64 * 1024]));
+		readerIO.toRead = writerIO.written.poll();
+		reader.read(ByteBuffer.allocate(16));
+	}
+
+	private static class MemoryIO
+			implements IOInterface {
+
+		private final Queue<ByteBuffer> written = new ArrayDeque<>();
+		private int bytesRead = 0;
+		private ByteBuffer toRead = null;
+
+		@Override
+		public int bytesRead() {
+			return bytesRead;
+		}
+
+		@Override
+		public boolean checkCapabilities(String caps) {
+			return false;
+		}
+
+		@Override
+		public int getInputPacketSize() throws IOException {
+			return 0;
+		}
+
+		@Override
+		public SocketChannel getSocketChannel() {
+			return null;
+		}
+
+		@Override
+		public void getStatistics(StatisticsList list, boolean reset) {
+		}
+
+		@Override
+		public long getBytesSent(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesSent() {
+			return 0;
+		}
+
+		@Override
+		public long getBytesReceived(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBytesReceived() {
+			return 0;
+		}
+
+		@Override
+		public long getBuffOverflow(boolean reset) {
+			return 0;
+		}
+
+		@Override
+		public long getTotalBuffOverflow() {
+			return 0;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public boolean isRemoteAddress(String addr) {
+			return false;
+		}
+
+		@Override
+		public ByteBuffer read(ByteBuffer buff) throws IOException {
+			ByteBuffer result = toRead;
+			toRead = null;
+			bytesRead = result == null ? 0 : result.remaining();
+			return result;
+		}
+
+		@Override
+		public void stop() throws IOException {
+		}
+
+		@Override
+		public boolean waitingToSend() {
+			return false;
+		}
+
+		@Override
+		public int waitingToSendSize() {
+			return 0;
+		}
+
+		@Override
+		public int write(ByteBuffer buff) throws IOException {
+			if (buff == null) {
+				return 0;
+			}
+			ByteBuffer copy = ByteBuffer.allocate(buff.remaining());
+			copy.put(buff);
+			copy.flip();
+			written.offer(copy);
+			return copy.remaining();
+		}
+
+		@Override
+		public void setLogId(String logId) {
+		}
+	}
+}
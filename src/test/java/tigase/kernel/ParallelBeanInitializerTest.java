@@ -0,0 +1,192 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.kernel;
+
+import org.junit.Assert;
+import org.junit.Test;
+import tigase.TestLogger;
+import tigase.kernel.beans.Bean;
+import tigase.kernel.beans.Initializable;
+import tigase.kernel.beans.Inject;
+import tigase.kernel.core.BeanConfig;
+import tigase.kernel.core.DependencyGrapher;
+import tigase.kernel.core.Kernel;
+import tigase.kernel.core.ParallelBeanInitializer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ParallelBeanInitializerTest {
+
+	private static final Logger log = TestLogger.getLogger(ParallelBeanInitializerTest.class);
+
+	private static final long INIT_TIME = 200;
+
+	@Test
+	public void testParallelInitialization() {
+		Kernel k = new Kernel("root");
+		k.registerBean(A.class).exec();
+		k.registerBean(B.class).exec();
+		k.registerBean(C.class).exec();
+
+		ParallelBeanInitializer initializer = new ParallelBeanInitializer();
+		try {
+			initializer.initialize(Collections.singletonList(k.getDependencyManager().getBeanConfig("a")));
+		} finally {
+			initializer.shutdown();
+		}
+
+		A a = k.getInstance(A.class);
+		Assert.assertSame(k.getInstance(B.class), a.b);
+		Assert.assertSame(k.getInstance(C.class), a.c);
+
+		// independent dependencies should be initialized at the same time
+		Assert.assertTrue(a.b.started < a.c.finished && a.c.started < a.b.finished);
+		// dependent bean should be initialized after its dependencies
+		Assert.assertTrue(a.started >= a.b.finished && a.started >= a.c.finished);
+
+		long initB = k.getDependencyManager().getBeanConfig("b").getInitializationTime();
+		long initA = k.getDependencyManager().getBeanConfig("a").getInitializationTime();
+		Assert.assertTrue(initB >= TimeUnit.MILLISECONDS.toNanos(INIT_TIME));
+		// time spent waiting for dependencies should not be included
+		Assert.assertTrue(initA >= 0 && initA < TimeUnit.MILLISECONDS.toNanos(INIT_TIME));
+
+		String report = new DependencyGrapher(k).getInitializationReport();
+		log.log(Level.FINE, report);
+		Assert.assertTrue(report.contains("root.b (" + B.class.getName() + ")"));
+	}
+
+	@Test
+	public void testSequentialInitializationTime() {
+		Kernel k = new Kernel("root");
+		k.registerBean(A.class).exec();
+		k.registerBean(B.class).exec();
+		k.registerBean(C.class).exec();
+
+		A a = k.getInstance(A.class);
+		Assert.assertTrue(a.b.finished <= a.c.started || a.c.finished <= a.b.started);
+
+		BeanConfig bc = k.getDependencyManager().getBeanConfig("a");
+		Assert.assertTrue(bc.getInitializationTime() >= 0 &&
+								  bc.getInitializationTime() < TimeUnit.MILLISECONDS.toNanos(INIT_TIME));
+	}
+
+	@Test
+	public void testFailureReporting() {
+		Kernel k = new Kernel("root");
+		k.registerBean(B.class).exec();
+		k.registerBean(Failing1.class).exec();
+		k.registerBean(Failing2.class).exec();
+
+		ParallelBeanInitializer initializer = new ParallelBeanInitializer();
+		try {
+			initializer.initialize(Arrays.asList(k.getDependencyManager().getBeanConfig("failing2"),
+												 k.getDependencyManager().getBeanConfig("b"),
+												 k.getDependencyManager().getBeanConfig("failing1")));
+			Assert.fail("Initialization should fail");
+		} catch (KernelException ex) {
+			Assert.assertEquals("failing2", getRootCause(ex).getMessage());
+			Assert.assertEquals(1, ex.getSuppressed().length);
+			Assert.assertEquals("failing1", getRootCause(ex.getSuppressed()[0]).getMessage());
+		} finally {
+			initializer.shutdown();
+		}
+
+		Assert.assertEquals(BeanConfig.State.initialized, k.getDependencyManager().getBeanConfig("b").getState());
+		Assert.assertEquals(BeanConfig.State.registered,
+							k.getDependencyManager().getBeanConfig("failing1").getState());
+	}
+
+	private static Throwable getRootCause(Throwable ex) {
+		while (ex.getCause() != null) {
+			ex = ex.getCause();
+		}
+		return ex;
+	}
+
+	public static abstract class SlowBean
+			implements Initializable {
+
+		long finished;
+		long started;
+
+		@Override
+		public void initialize() {
+			started = System.nanoTime();
+			try {
+				Thread.sleep(INIT_TIME);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			finished = System.nanoTime();
+		}
+	}
+
+	@Bean(name = "a", active = true)
+	public static class A
+			implements Initializable {
+
+		@Inject
+		B b;
+		@Inject
+		C c;
+		long started;
+
+		@Override
+		public void initialize() {
+			started = System.nanoTime();
+		}
+	}
+
+	@Bean(name = "b", active = true)
+	public static class B
+			extends SlowBean {
+
+	}
+
+	@Bean(name = "c", active = true)
+	public static class C
+			extends SlowBean {
+
+	}
+
+	public static abstract class FailingBean
+			implements Initializable {
+
+		@Override
+		public void initialize() {
+			throw new RuntimeException(getClass().getAnnotation(Bean.class).name());
+		}
+	}
+
+	@Bean(name = "failing1", active = true)
+	public static class Failing1
+			extends FailingBean {
+
+	}
+
+	@Bean(name = "failing2", active = true)
+	public static class Failing2
+			extends FailingBean {
+
+	}
+
+}
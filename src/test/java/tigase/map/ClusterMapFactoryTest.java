@@ -22,8 +22,13 @@ import org.junit.Test;
 import tigase.eventbus.EventBus;
 import tigase.eventbus.EventListener;
 import tigase.eventbus.impl.EventBusImplementation;
+import tigase.xml.Element;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ClusterMapFactoryTest {
 
@@ -86,14 +91,16 @@ public class ClusterMapFactoryTest {
 
 		final Map<String, String> map = factory.createMap("test", String.class, String.class);
 
-		eventBus.addListener(ClusterMapFactory.ElementAddEvent.class,
-							 new EventListener<ClusterMapFactory.ElementAddEvent>() {
+		eventBus.addListener(ClusterMapFactory.ElementsDeltaEvent.class,
+							 new EventListener<ClusterMapFactory.ElementsDeltaEvent>() {
 								 @Override
-								 public void onEvent(ClusterMapFactory.ElementAddEvent event) {
+								 public void onEvent(ClusterMapFactory.ElementsDeltaEvent event) {
 									 received[0] = true;
-									 Assert.assertEquals("kluczyk", event.getKey());
-									 Assert.assertEquals("wartosc", event.getValue());
+									 Element put = event.getChanges().getChildren().get(0);
+									 Assert.assertEquals("kluczyk", put.getAttributeStaticStr("k"));
+									 Assert.assertEquals("wartosc", put.getAttributeStaticStr("v"));
 									 Assert.assertEquals(((DMap) map).getUid(), event.getUid());
+									 Assert.assertEquals(1, event.getVersion());
 								 }
 							 });
 
@@ -183,4 +190,186 @@ public class ClusterMapFactoryTest {
 		Thread.sleep(100);
 		Assert.assertTrue(received[0]);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testDeltaReplication() throws Exception {
+		final ClusterMapFactory factory1 = createFactory();
+		final ClusterMapFactory factory2 = createFactory();
+		final int[] deltas = new int[]{0};
+		factory1.getEventBus()
+				.addListener(ClusterMapFactory.ElementsDeltaEvent.class,
+							 (ClusterMapFactory.ElementsDeltaEvent event) -> {
+								 deltas[0]++;
+								 factory2.onElementsDelta(event);
+							 });
+
+		final Map<String, String> map1 = factory1.createMap("delta", String.class, String.class);
+		final Map<String, String> map2 = factory2.createMap("delta", String.class, String.class);
+
+		map1.put("a", "1");
+		map1.put("b", "2, <3> & 4");
+		map1.put("c", "3");
+		map1.remove("a");
+		factory1.flushDeltas();
+
+		waitFor(() -> map2.size() == 2);
+		Assert.assertEquals(1, deltas[0]);
+		Assert.assertEquals("2, <3> & 4", map2.get("b"));
+		Assert.assertEquals("3", map2.get("c"));
+		Assert.assertNull(map2.get("a"));
+
+		map1.clear();
+		map1.put("d", "4");
+		factory1.flushDeltas();
+		waitFor(() -> map2.size() == 1);
+		Assert.assertEquals("4", map2.get("d"));
+		Assert.assertEquals(factory1.checksum((DMap) map1), factory2.checksum((DMap) map2));
+	}
+
+	@Test
+	public void testSnapshotTransfer() throws Exception {
+		final ClusterMapFactory factory1 = createFactory();
+		final ClusterMapFactory factory2 = createFactory();
+		final int[] chunks = new int[]{0};
+		factory1.getEventBus()
+				.addListener(ClusterMapFactory.MapSnapshotChunkEvent.class,
+							 (ClusterMapFactory.MapSnapshotChunkEvent event) -> {
+								 chunks[0]++;
+								 factory2.onMapSnapshotChunk(event);
+							 });
+		factory2.getEventBus()
+				.addListener(ClusterMapFactory.NewMapCreatedEvent.class, factory1::onNewMapCreated);
+
+		final Map<String, String> map1 = factory1.createMap("snapshot", String.class, String.class);
+		final int size = ClusterMapFactory.SNAPSHOT_CHUNK_SIZE * 2 + 10;
+		for (int i = 0; i < size; i++) {
+			map1.put("key-" + i, "value-" + i);
+		}
+
+		final Map<String, String> map2 = factory2.createMap("snapshot", String.class, String.class);
+		waitFor(() -> ((DMap) map2).replication.snapshotsReceived.sum() == 1);
+
+		Assert.assertEquals(3, chunks[0]);
+		Assert.assertEquals(new HashMap<>(map1), new HashMap<>(map2));
+	}
+
+	@Test
+	public void testChecksumDivergence() throws Exception {
+		final ClusterMapFactory factory1 = createFactory();
+		final ClusterMapFactory factory2 = createFactory();
+		// snapshot is requested by the node with greater id
+		final ClusterMapFactory source = factory1.getNodeId().compareTo(factory2.getNodeId()) < 0
+										 ? factory1
+										 : factory2;
+		final ClusterMapFactory receiver = source == factory1 ? factory2 : factory1;
+		receiver.getEventBus()
+				.addListener(ClusterMapFactory.MapSnapshotRequestEvent.class, source::onMapSnapshotRequest);
+		source.getEventBus()
+				.addListener(ClusterMapFactory.MapSnapshotChunkEvent.class, receiver::onMapSnapshotChunk);
+
+		final DMap<String, String> sourceMap = (DMap<String, String>) source.createMap("checksum", String.class,
+																					  String.class);
+		final DMap<String, String> receiverMap = (DMap<String, String>) receiver.createMap("checksum",
+																						  String.class,
+																						  String.class);
+		sourceMap.putNoEvent("a", "1");
+		sourceMap.putNoEvent("b", "2");
+		receiverMap.putNoEvent("b", "2");
+		receiverMap.putNoEvent("c", "3");
+		// snapshot requested on creation is not expected anymore
+		receiverMap.replication.expectSnapshot(null);
+
+		ClusterMapFactory.MapChecksumEvent event = new ClusterMapFactory.MapChecksumEvent();
+		event.setUid("checksum");
+		event.setOrigin(source.getNodeId());
+		event.setSize(sourceMap.size());
+		event.setChecksum(source.checksum(sourceMap));
+
+		receiver.onMapChecksum(event);
+		Thread.sleep(100);
+		Assert.assertEquals(0, receiverMap.replication.divergencesDetected.sum());
+
+		receiver.onMapChecksum(event);
+		waitFor(() -> receiverMap.replication.snapshotsReceived.sum() == 1);
+
+		Assert.assertEquals(1, receiverMap.replication.divergencesDetected.sum());
+		Assert.assertEquals(new HashMap<>(sourceMap), new HashMap<>(receiverMap));
+		Assert.assertEquals(source.checksum(sourceMap), receiver.checksum(receiverMap));
+	}
+
+	@Test
+	public void testLegacyEventsUntilDeltaSupported() throws Exception {
+		final ClusterMapFactory factory = createFactory();
+		final List<ClusterMapFactory.ElementAddEvent> added = new CopyOnWriteArrayList<>();
+		final List<ClusterMapFactory.ElementRemoveEvent> removed = new CopyOnWriteArrayList<>();
+		factory.getEventBus().addListener(ClusterMapFactory.ElementAddEvent.class, added::add);
+		factory.getEventBus().addListener(ClusterMapFactory.ElementRemoveEvent.class, removed::add);
+
+		final Map<String, String> map = factory.createMap("legacy", String.class, String.class);
+		map.put("a", "1");
+		Thread.sleep(100);
+		Assert.assertTrue("no other nodes, legacy events should not be sent", added.isEmpty());
+
+		factory.setClusterNodes(Collections.singletonList("node-2"));
+		Assert.assertTrue(factory.isLegacyReplicationNeeded());
+		map.put("b", "2");
+		map.remove("a");
+		waitFor(() -> added.size() == 1 && removed.size() == 1);
+		Assert.assertEquals("b", added.get(0).getKey());
+		Assert.assertEquals("2", added.get(0).getValue());
+		Assert.assertEquals(factory.getNodeId(), added.get(0).getOrigin());
+		Assert.assertEquals("a", removed.get(0).getKey());
+
+		ClusterMapFactory.DeltaReplicationSupportedEvent supported = new ClusterMapFactory.DeltaReplicationSupportedEvent();
+		supported.setNode("node-2");
+		factory.onDeltaReplicationSupported(supported);
+		Assert.assertFalse(factory.isLegacyReplicationNeeded());
+		map.put("c", "3");
+		Thread.sleep(100);
+		Assert.assertEquals(1, added.size());
+
+		// node restarted, possibly with an older version
+		factory.setClusterNodes(Collections.emptyList());
+		factory.setClusterNodes(Collections.singletonList("node-2"));
+		Assert.assertTrue(factory.isLegacyReplicationNeeded());
+	}
+
+	@Test
+	public void testLegacyEventsFromDeltaNodeIgnored() throws Exception {
+		final ClusterMapFactory factory = createFactory();
+		final Map<String, String> map = factory.createMap("legacy-ignored", String.class, String.class);
+
+		ClusterMapFactory.ElementAddEvent event = new ClusterMapFactory.ElementAddEvent();
+		event.setUid("legacy-ignored");
+		event.setKey("a");
+		event.setValue("1");
+		event.setOrigin("other-node-id");
+		factory.onMapElementAdd(event);
+		Assert.assertTrue(map.isEmpty());
+
+		event.setOrigin(null);
+		factory.onMapElementAdd(event);
+		Assert.assertEquals("1", map.get("a"));
+	}
+
+	@Test
+	public void testReplicationStartedWithFirstMap() throws Exception {
+		final ClusterMapFactory factory = createFactory();
+		Assert.assertNull(factory.getTimer());
+		factory.createMap("timer", String.class, String.class);
+		Assert.assertNotNull(factory.getTimer());
+	}
+
+	private ClusterMapFactory createFactory() {
+		final ClusterMapFactory factory = new ClusterMapFactory();
+		factory.setEventBus(new EventBusImplementation());
+		return factory;
+	}
+
+	private void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertTrue(condition.getAsBoolean());
+	}
+}
@@ -23,14 +23,17 @@ import org.junit.Test;
 import tigase.util.Base64;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 
 /**
  * @author andrzej
@@ -219,6 +222,35 @@ public class WebSocketHybiTest
 		impl = null;
 	}
 
+	@Test
+	public void testDecodeFramesAfterReleasingBuffers() throws Exception {
+		String input1 = "<test-data>first</test-data>";
+		String input2 = "<test-data>second</test-data>";
+		final Queue<ByteBuffer> frames = new ArrayDeque<>(
+				Arrays.asList(generateIncomingFrame(input1), generateIncomingFrame(input2)));
+		WebSocketXMPPIOService<Object> io = new WebSocketXMPPIOService<Object>(
+				new WebSocketProtocolIfc[]{impl}) {
+
+			@Override
+			protected ByteBuffer readBytes() {
+				return frames.poll();
+			}
+
+		};
+		Field protocol = WebSocketXMPPIOService.class.getDeclaredField("protocol");
+		protocol.setAccessible(true);
+		protocol.set(io, impl);
+		Field started = WebSocketXMPPIOService.class.getDeclaredField("started");
+		started.setAccessible(true);
+		started.set(io, true);
+		io.setState(WebSocketXMPPIOService.State.handshaked);
+		io.maskingKey = new byte[4];
+
+		assertEquals(input1, new String(io.readData()));
+		io.releaseIdleBuffers();
+		assertEquals(input2, new String(io.readData()));
+	}
+
 	private ByteBuffer maskFrame(ByteBuffer data) {
 		ByteBuffer tmp = ByteBuffer.allocate(1024);
 		byte[] header = new byte[2];
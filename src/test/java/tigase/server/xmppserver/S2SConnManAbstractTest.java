@@ -89,6 +89,7 @@ class S2SConnManAbstractTest
 		kernel.registerBean("eventBus").asInstance(EventBusFactory.getInstance()).exportable().exec();
 		kernel.registerBean(ConnectionManager.PortsConfigBean.class).exec();
 		kernel.registerBean(CIDConnections.CIDConnectionsOpenerService.class).exportable().exec();
+		kernel.registerBean(S2SDNSResolver.class).exportable().exec();
 		kernel.registerBean(S2SRandomSelector.class).exportable().exec();
 		kernel.registerBean(CertificateContainer.class).exportable().exec();
 		kernel.registerBean(StartTLS.class).exportable().exec();
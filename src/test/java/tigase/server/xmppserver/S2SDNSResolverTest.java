@@ -0,0 +1,115 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppserver;
+
+import org.junit.After;
+import org.junit.Test;
+import tigase.util.dns.DNSEntry;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class S2SDNSResolverTest {
+
+	private final AtomicInteger lookups = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final S2SDNSResolver resolver = new S2SDNSResolver() {
+		@Override
+		protected DNSEntry[] getHostSRV_Entries(String domain) throws UnknownHostException {
+			lookups.incrementAndGet();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				throw new IllegalStateException(ex);
+			}
+			if (domain.startsWith("unknown")) {
+				throw new UnknownHostException(domain);
+			}
+			return new DNSEntry[]{new DNSEntry(domain, "xmpp." + domain, "192.0.2.1", 5269, 3600 * 1000, 0, 0)};
+		}
+	};
+
+	@After
+	public void tearDown() {
+		resolver.beforeUnregister();
+	}
+
+	@Test
+	public void testCaching() throws Exception {
+		release.countDown();
+		DNSEntry[] entries = resolver.resolve("example.com").get(10, TimeUnit.SECONDS);
+		assertEquals("192.0.2.1", entries[0].getIp());
+
+		CompletableFuture<DNSEntry[]> cached = resolver.resolve("example.com");
+		assertTrue(cached.isDone());
+		assertArrayEquals(entries, cached.get());
+		assertEquals(1, lookups.get());
+
+		resolver.resolve("example.net").get(10, TimeUnit.SECONDS);
+		assertEquals(2, lookups.get());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		List<CompletableFuture<DNSEntry[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(resolver.resolve("example.com"));
+		}
+		assertFalse(futures.get(0).isDone());
+		release.countDown();
+		for (CompletableFuture<DNSEntry[]> future : futures) {
+			assertEquals("192.0.2.1", future.get(10, TimeUnit.SECONDS)[0].getIp());
+		}
+		assertEquals(1, lookups.get());
+	}
+
+	@Test
+	public void testNegativeCaching() throws Exception {
+		release.countDown();
+		for (int i = 0; i < 2; i++) {
+			CompletableFuture<DNSEntry[]> future = resolver.resolve("unknown.example.com");
+			try {
+				future.get(10, TimeUnit.SECONDS);
+				fail("Domain should not be resolved");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof UnknownHostException);
+			}
+		}
+		assertEquals(1, lookups.get());
+	}
+
+	@Test
+	public void testSelectEntry() {
+		DNSEntry[] entries = new DNSEntry[]{
+				new DNSEntry("example.com", "backup.example.com", "192.0.2.3", 5269, 3600 * 1000, 20, 100),
+				new DNSEntry("example.com", "xmpp1.example.com", "192.0.2.1", 5269, 3600 * 1000, 10, 0),
+				new DNSEntry("example.com", "xmpp2.example.com", "192.0.2.2", 5269, 3600 * 1000, 10, 50)};
+		for (int i = 0; i < 100; i++) {
+			assertEquals("192.0.2.2", S2SDNSResolver.selectEntry(entries).getIp());
+		}
+	}
+
+}
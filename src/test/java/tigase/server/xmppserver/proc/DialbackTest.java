@@ -303,6 +303,7 @@ public class DialbackTest
 		kernel.registerBean("eventBus").asInstance(EventBusFactory.getInstance()).exportable().exec();
 		kernel.registerBean(ConnectionManager.PortsConfigBean.class).exec();
 		kernel.registerBean(CIDConnections.CIDConnectionsOpenerService.class).exportable().exec();
+		kernel.registerBean(S2SDNSResolver.class).exportable().exec();
 		kernel.registerBean(S2SRandomSelector.class).exportable().exec();
 		kernel.registerBean(AuthenticatorSelectorManager.class).exportable().exec();
 		kernel.registerBean(DialbackImpl.class).exportable().exec();
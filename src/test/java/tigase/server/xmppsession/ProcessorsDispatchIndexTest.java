@@ -0,0 +1,154 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.NonAuthUserRepository;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.Authorization;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPProcessorIfc;
+import tigase.xmpp.XMPPResourceConnection;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ProcessorsDispatchIndexTest {
+
+	private TestProcessor custom;
+	private TestProcessor disco;
+	private ProcessorsDispatchIndex index;
+	private TestProcessor message;
+	private TestProcessor none;
+	private List<XMPPProcessorIfc> processors;
+	private TestProcessor version;
+
+	@Before
+	public void setUp() {
+		message = new TestProcessor("message", new String[][]{{"message"}, {"message", "body"}},
+									new String[]{"jabber:client", "jabber:client"});
+		version = new TestProcessor("version", new String[][]{{"iq", "query"}}, new String[]{"jabber:iq:version"});
+		disco = new TestProcessor("disco", new String[][]{{"iq", "query"}, {"iq", "query"}},
+								  new String[]{"http://jabber.org/protocol/disco#info",
+											   "http://jabber.org/protocol/disco#items"});
+		none = new TestProcessor("none", null, null);
+		custom = new TestProcessor("custom", new String[][]{{"presence"}}, new String[]{"jabber:client"}) {
+			@Override
+			public Authorization canHandle(Packet packet, XMPPResourceConnection conn) {
+				return Authorization.AUTHORIZED;
+			}
+		};
+		processors = Arrays.asList(message, version, disco, none, custom);
+		index = ProcessorsDispatchIndex.build(processors);
+	}
+
+	@Test
+	public void testCandidates() throws TigaseStringprepException {
+		Element iq = new Element("iq", new String[]{"xmlns", "type"}, new String[]{"jabber:client", "get"});
+		iq.addChild(new Element("query", new String[]{"xmlns"}, new String[]{"jabber:iq:version"}));
+		assertCandidates(Packet.packetInstance(iq), custom, version);
+
+		iq = new Element("iq", new String[]{"xmlns", "type"}, new String[]{"jabber:client", "get"});
+		iq.addChild(new Element("query", new String[]{"xmlns"}, new String[]{"http://jabber.org/protocol/disco#items"}));
+		assertCandidates(Packet.packetInstance(iq), custom, disco);
+
+		iq = new Element("iq", new String[]{"xmlns", "type"}, new String[]{"jabber:client", "get"});
+		iq.addChild(new Element("ping", new String[]{"xmlns"}, new String[]{"urn:xmpp:ping"}));
+		assertCandidates(Packet.packetInstance(iq), custom);
+
+		Element msg = new Element("message", new String[]{"xmlns"}, new String[]{"jabber:client"});
+		msg.addChild(new Element("body", "test", null, null));
+		assertCandidates(Packet.packetInstance(msg), custom, message);
+	}
+
+	@Test
+	public void testMatchesLinearScan() throws TigaseStringprepException {
+		List<Element> elements = new ArrayList<>();
+		Element iq = new Element("iq", new String[]{"xmlns", "type"}, new String[]{"jabber:client", "get"});
+		iq.addChild(new Element("query", new String[]{"xmlns"}, new String[]{"http://jabber.org/protocol/disco#info"}));
+		elements.add(iq);
+		elements.add(new Element("message", new String[]{"xmlns"}, new String[]{"jabber:client"}));
+		elements.add(new Element("presence", new String[]{"xmlns"}, new String[]{"jabber:client"}));
+
+		for (Element elem : elements) {
+			Packet packet = Packet.packetInstance(elem);
+			Set<XMPPProcessorIfc> expected = new HashSet<>();
+			for (XMPPProcessorIfc processor : processors) {
+				if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+					expected.add(processor);
+				}
+			}
+			Set<XMPPProcessorIfc> actual = new HashSet<>();
+			for (XMPPProcessorIfc processor : index.getCandidates(packet)) {
+				if (processor.canHandle(packet, null) == Authorization.AUTHORIZED) {
+					actual.add(processor);
+				}
+			}
+			assertEquals(expected, actual);
+		}
+	}
+
+	private void assertCandidates(Packet packet, XMPPProcessorIfc... expected) {
+		List<XMPPProcessorIfc> candidates = index.getCandidates(packet);
+		assertEquals(new HashSet<>(Arrays.asList(expected)), new HashSet<>(candidates));
+		assertEquals("duplicated candidates: " + candidates, expected.length, candidates.size());
+	}
+
+	private static class TestProcessor
+			extends XMPPProcessor {
+
+		private final String id;
+		private final String[][] paths;
+		private final String[] xmlnss;
+
+		TestProcessor(String id, String[][] paths, String[] xmlnss) {
+			this.id = id;
+			this.paths = paths;
+			this.xmlnss = xmlnss;
+		}
+
+		@Override
+		public String id() {
+			return id;
+		}
+
+		@Override
+		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+							Queue<Packet> results, Map<String, Object> settings) {
+		}
+
+		@Override
+		public String[][] supElementNamePaths() {
+			return paths;
+		}
+
+		@Override
+		public String[] supNamespaces() {
+			return xmlnss;
+		}
+
+		@Override
+		public String toString() {
+			return id;
+		}
+	}
+}
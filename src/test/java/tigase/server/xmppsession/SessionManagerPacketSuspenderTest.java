@@ -0,0 +1,194 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.server.xmppsession;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.NonAuthUserRepository;
+import tigase.db.TigaseDBException;
+import tigase.server.Packet;
+import tigase.util.stringprep.TigaseStringprepException;
+import tigase.xml.Element;
+import tigase.xmpp.XMPPProcessor;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.JID;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerPacketSuspenderTest
+		extends ProcessorTestCase {
+
+	private JID connId;
+	private TestProcessor processor;
+	private XMPPResourceConnection session;
+	private TestSessionManager sessionManager;
+
+	@Before
+	public void setUpSessionManager() throws Exception {
+		sessionManager = new TestSessionManager();
+		processor = new TestProcessor();
+		sessionManager.addPlugin(processor);
+		connId = JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString());
+		session = getSession(connId, JID.jidInstance("user1@example.com/res1"));
+	}
+
+	@After
+	public void stopSessionManager() throws Exception {
+		sessionManager.removePlugin(processor.id());
+		sessionManager = null;
+	}
+
+	@Test
+	public void testResumeOnProcessingThread() throws Exception {
+		CompletableFuture<String> stage = new CompletableFuture<>();
+		AtomicReference<String> resumedIn = new AtomicReference<>();
+		AtomicReference<String> resumedWith = new AtomicReference<>();
+		Packet offline = createMessage(connId, "offline");
+
+		sessionManager.suspend(processor, createPresence(), session, new ArrayDeque<>(), stage,
+							   (result, error, results) -> {
+								   resumedIn.set(Thread.currentThread().getName());
+								   resumedWith.set(result);
+								   results.offer(offline);
+							   });
+
+		// packets to the session connection are held, other packets are sent
+		Packet live = createMessage(connId, "live");
+		Packet other = createMessage(JID.jidInstance("c2s@example.com/other"), "other");
+		sessionManager.addOutPackets(live, session, new ArrayDeque<>(Arrays.asList(live, other)));
+		assertEquals(Arrays.asList(other), sessionManager.sent);
+		sessionManager.sent.clear();
+
+		new Thread(() -> stage.complete("loaded")).start();
+		waitForSent(2);
+
+		assertEquals("loaded", resumedWith.get());
+		assertTrue(resumedIn.get(), resumedIn.get().startsWith(processor.id() + "-proc-"));
+		assertEquals(Arrays.asList(offline, live), sessionManager.sent);
+
+		// packets are not held after processing was resumed
+		sessionManager.sent.clear();
+		sessionManager.addOutPackets(live, session, new ArrayDeque<>(Arrays.asList(live)));
+		assertEquals(Arrays.asList(live), sessionManager.sent);
+	}
+
+	@Test
+	public void testHoldUntilLastResumed() throws Exception {
+		CompletableFuture<String> stage1 = new CompletableFuture<>();
+		CompletableFuture<String> stage2 = new CompletableFuture<>();
+		Packet offline1 = createMessage(connId, "offline1");
+		Packet offline2 = createMessage(connId, "offline2");
+
+		sessionManager.suspend(processor, createPresence(), session, new ArrayDeque<>(), stage1,
+							   (result, error, results) -> results.offer(offline1));
+		sessionManager.suspend(processor, createPresence(), session, new ArrayDeque<>(), stage2,
+							   (result, error, results) -> results.offer(offline2));
+
+		Packet live = createMessage(connId, "live");
+		sessionManager.addOutPackets(live, session, new ArrayDeque<>(Arrays.asList(live)));
+
+		stage1.complete("loaded");
+		waitForSent(1);
+		assertEquals(Arrays.asList(offline1), sessionManager.sent);
+
+		stage2.complete("loaded");
+		waitForSent(3);
+		assertEquals(Arrays.asList(offline1, offline2, live), sessionManager.sent);
+	}
+
+	@Test
+	public void testResumeWithError() throws Exception {
+		CompletableFuture<String> stage = new CompletableFuture<>();
+		AtomicReference<Throwable> resumedWith = new AtomicReference<>();
+		Packet error = createMessage(connId, "error");
+
+		sessionManager.suspend(processor, createPresence(), null, new ArrayDeque<>(), stage,
+							   (result, ex, results) -> {
+								   resumedWith.set(ex);
+								   results.offer(error);
+							   });
+
+		TigaseDBException ex = new TigaseDBException("Queue is full");
+		stage.completeExceptionally(ex);
+		waitForSent(1);
+
+		assertSame(ex, resumedWith.get());
+		assertEquals(Arrays.asList(error), sessionManager.sent);
+	}
+
+	private Packet createMessage(JID packetTo, String body) throws TigaseStringprepException {
+		Element message = new Element("message", new String[]{"from", "to"},
+									  new String[]{"remote@example.net/res1", "user1@example.com/res1"});
+		message.addChild(new Element("body", body));
+		Packet packet = Packet.packetInstance(message);
+		packet.setPacketTo(packetTo);
+		return packet;
+	}
+
+	private Packet createPresence() throws TigaseStringprepException {
+		Packet packet = Packet.packetInstance(
+				new Element("presence", new String[]{"from"}, new String[]{"user1@example.com/res1"}));
+		packet.setPacketFrom(connId);
+		return packet;
+	}
+
+	private void waitForSent(int count) throws InterruptedException {
+		for (int i = 0; i < 500 && sessionManager.sent.size() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, sessionManager.sent.size());
+	}
+
+	private static class TestProcessor
+			extends XMPPProcessor {
+
+		@Override
+		public String id() {
+			return "test-suspend";
+		}
+
+		@Override
+		public void process(Packet packet, XMPPResourceConnection session, NonAuthUserRepository repo,
+							Queue<Packet> results, Map<String, Object> settings) {
+		}
+	}
+
+	private static class TestSessionManager
+			extends SessionManager {
+
+		private final List<Packet> sent = new CopyOnWriteArrayList<>();
+
+		@Override
+		public boolean addOutPacket(Packet packet) {
+			sent.add(packet);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.stats;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+	@Test
+	public void testBuckets() {
+		Histogram histogram = new Histogram("Batch", null, 5, Level.INFO);
+
+		for (long value : new long[]{0, 1, 2, 3, 4, 5, 8, 9, 16, 17, 1000}) {
+			histogram.add(value);
+		}
+
+		assertArrayEquals(new long[]{2, 1, 2, 2, 4}, histogram.getBuckets());
+		assertEquals(11, histogram.getCount());
+		assertEquals(1065, histogram.getSum());
+		assertEquals(96, histogram.getAverage());
+	}
+
+	@Test
+	public void testStatistics() {
+		Histogram histogram = new Histogram("Batch", "ms", 4, Level.INFO);
+		histogram.add(3);
+		histogram.add(100);
+
+		StatisticsList list = new StatisticsList(Level.INFO);
+		histogram.getStatistics("comp", list);
+
+		LinkedHashMap<String, StatRecord> stats = list.getCompStats("comp");
+		assertNotNull(stats.get("Batch count"));
+		assertEquals("2", stats.get("Batch count").getValue());
+		assertEquals("51", stats.get("Batch average [ms]").getValue());
+		assertEquals("1", stats.get("Batch 3-4 [ms]").getValue());
+		assertEquals("1", stats.get("Batch 5+ [ms]").getValue());
+		assertNull(stats.get("Batch 0-1 [ms]"));
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.tests;
+
+import tigase.TestLogger;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Simple harness used by {@link SlowTest} tests to compare throughput of alternative implementations. JMH is not a
+ * dependency of the project, so all variants are executed one after another in the same JVM for a few rounds and
+ * results of the first round should be treated as a warm-up.
+ * <br>
+ * For each variant number of operations per second and number of bytes allocated per operation by the measuring
+ * thread (if supported by the JVM) are logged.
+ */
+public class Benchmark {
+
+	private static final Logger log = TestLogger.getLogger(Benchmark.class);
+
+	private final int iterations;
+	private final String name;
+	private final Map<String, Variant> variants = new LinkedHashMap<>();
+	private int rounds = 3;
+
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates benchmark.
+	 *
+	 * @param name name of the benchmark used in logs
+	 * @param iterations number of operations executed by each variant in a single round
+	 */
+	public Benchmark(String name, int iterations) {
+		this.name = name;
+		this.iterations = iterations;
+	}
+
+	public Benchmark add(String variant, Variant body) {
+		variants.put(variant, body);
+		return this;
+	}
+
+	public Benchmark rounds(int rounds) {
+		this.rounds = rounds;
+		return this;
+	}
+
+	/**
+	 * Executes all variants and returns number of operations per second of each variant measured in the last round.
+	 */
+	public Map<String, Double> run() throws Exception {
+		Map<String, Double> result = new LinkedHashMap<>();
+		for (int round = 1; round <= rounds; round++) {
+			for (Map.Entry<String, Variant> e : variants.entrySet()) {
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				e.getValue().run(iterations);
+				long time = System.nanoTime() - start;
+				long allocatedPerOp = allocated < 0 ? -1 : (allocatedBytes() - allocated) / iterations;
+				double opsPerSecond = iterations * 1e9 / time;
+
+				log.log(Level.INFO, String.format(Locale.ROOT, "%s, round %d/%d, %s: %.0f ops/s, %d bytes allocated per op",
+												  name, round, rounds, e.getKey(), opsPerSecond, allocatedPerOp));
+				result.put(e.getKey(), opsPerSecond);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Measured code of a variant.
+	 */
+	public interface Variant {
+
+		/**
+		 * Executes <code>iterations</code> operations.
+		 */
+		void run(int iterations) throws Exception;
+
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+
+	@Test
+	public void testExpiration() {
+		TimingWheel<String> wheel = new TimingWheel<>(8, 100, 1000);
+		wheel.schedule("a", 1250);
+		wheel.schedule("b", 1500);
+		assertEquals(2, wheel.size());
+
+		assertTrue(wheel.advance(1250).isEmpty());
+		assertEquals(Collections.singletonList("a"), wheel.advance(1300));
+		assertTrue(wheel.advance(1500).isEmpty());
+		assertEquals(Collections.singletonList("b"), wheel.advance(1600));
+		assertEquals(0, wheel.size());
+		assertEquals(2, wheel.getExpirations());
+	}
+
+	@Test
+	public void testRescheduleAndCancel() {
+		TimingWheel<String> wheel = new TimingWheel<>(8, 100, 1000);
+		wheel.schedule("a", 1200);
+		wheel.schedule("b", 1200);
+		wheel.schedule("a", 1400);
+		assertTrue(wheel.cancel("b"));
+		assertFalse(wheel.cancel("c"));
+		assertEquals(1, wheel.size());
+
+		assertTrue(wheel.advance(1300).isEmpty());
+		assertEquals(Collections.singletonList("a"), wheel.advance(1500));
+	}
+
+	@Test
+	public void testDeadlinesAfterRotation() {
+		TimingWheel<String> wheel = new TimingWheel<>(4, 100, 1000);
+		// slot of this deadline is visited few times before it expires
+		wheel.schedule("a", 2050);
+		wheel.schedule("b", 1150);
+		// deadline in the past expires on the next tick
+		wheel.schedule("c", 500);
+
+		assertEquals(new HashSet<>(Arrays.asList("b", "c")), new HashSet<>(wheel.advance(1200)));
+		for (long now = 1300; now <= 2000; now += 100) {
+			assertTrue(wheel.advance(now).isEmpty());
+		}
+		// wheel not moved for more than a rotation
+		assertEquals(Collections.singletonList("a"), wheel.advance(5000));
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.reflection;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.server.MessageRouter;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BeanIndexProcessorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testProcessor() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		Assume.assumeNotNull(compiler);
+
+		File src = folder.newFolder("src", "test", "beans");
+		writeSource(new File(src, "TestBean.java"), "package test.beans;\n" + "@tigase.kernel.beans.Bean(name = \"test\", parent = tigase.kernel.core.Kernel.class, active = true)\n" +
+				"public class TestBean {\n" +
+				"  @tigase.kernel.beans.Bean(name = \"nested\", parents = {TestBean.class, tigase.kernel.core.Kernel.class}, active = true)\n" +
+				"  public static class NestedBean {}\n" + "}\n");
+		writeSource(new File(src, "InheritedBean.java"),
+					"package test.beans;\n" + "public class InheritedBean extends TestBean {}\n");
+		writeSource(new File(src, "OtherClass.java"), "package test.beans;\n" + "public class OtherClass {}\n");
+
+		File out = folder.newFolder("classes");
+		String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		int result = compiler.run(null, null, errors, "-classpath", classpath, "-d", out.getAbsolutePath(),
+								  "-processor", BeanIndexProcessor.class.getName(),
+								  new File(src, "TestBean.java").getAbsolutePath(),
+								  new File(src, "InheritedBean.java").getAbsolutePath(),
+								  new File(src, "OtherClass.java").getAbsolutePath());
+		assertEquals(errors.toString(), 0, result);
+
+		BeanIndex index;
+		try (InputStream in = new FileInputStream(new File(out, BeanIndex.INDEX_RESOURCE))) {
+			index = BeanIndex.read(in);
+		}
+		assertEquals(new TreeSet<>(Arrays.asList("test.beans.InheritedBean", "test.beans.TestBean",
+												  "test.beans.TestBean$NestedBean")), index.getClassNames());
+		assertEquals(Collections.singleton("tigase.kernel.core.Kernel"), index.getParents("test.beans.TestBean"));
+		assertEquals(Collections.singleton("tigase.kernel.core.Kernel"), index.getParents("test.beans.InheritedBean"));
+		assertEquals(new TreeSet<>(Arrays.asList("test.beans.TestBean", "tigase.kernel.core.Kernel")),
+					 index.getParents("test.beans.TestBean$NestedBean"));
+		assertEquals(3, index.getCompiledTypes());
+	}
+
+	@Test
+	public void testClassesFromIndex() throws Exception {
+		ClassUtilBean classUtilBean = new ClassUtilBean();
+
+		BeanIndex index = new BeanIndex();
+		index.add(MessageRouter.class.getName(), Collections.singleton("tigase.kernel.core.Kernel"));
+		index.add("tigase.util.reflection.BeanIndex", Collections.emptySet());
+		Set<Class<?>> classes = classUtilBean.getClassesFromIndex(createJar("valid.jar", index), name -> true);
+		assertEquals(new HashSet<>(Arrays.asList(MessageRouter.class, BeanIndex.class)), classes);
+
+		classes = classUtilBean.getClassesFromIndex(createJar("filtered.jar", index),
+													name -> !name.startsWith("tigase.server."));
+		assertEquals(Collections.singleton(BeanIndex.class), classes);
+
+		index = new BeanIndex();
+		index.add(MessageRouter.class.getName(), Collections.emptySet());
+		assertNull(classUtilBean.getClassesFromIndex(createJar("changed-parents.jar", index), name -> true));
+
+		index = new BeanIndex();
+		index.add("tigase.util.reflection.NotExisting", Collections.emptySet());
+		assertNull(classUtilBean.getClassesFromIndex(createJar("removed-class.jar", index), name -> true));
+
+		assertNull(classUtilBean.getClassesFromIndex(createJar("no-index.jar", null), name -> true));
+
+		index = new BeanIndex();
+		index.add("tigase.util.reflection.BeanIndex", Collections.emptySet());
+		index.setCompiledTypes(2);
+		assertEquals(Collections.singleton(BeanIndex.class),
+					 classUtilBean.getClassesFromIndex(createJar("complete.jar", index, "test/A.class", "test/A$1.class",
+																 "test/B.class", "test/package-info.class"),
+													   name -> true));
+		assertNull(classUtilBean.getClassesFromIndex(
+				createJar("incomplete.jar", index, "test/A.class", "test/B.class", "test/C.class"), name -> true));
+	}
+
+	private File createJar(String name, BeanIndex index, String... classFiles) throws Exception {
+		File file = new File(folder.getRoot(), name);
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+			out.putNextEntry(new JarEntry("test/"));
+			out.closeEntry();
+			for (String classFile : classFiles) {
+				out.putNextEntry(new JarEntry(classFile));
+				out.closeEntry();
+			}
+			if (index != null) {
+				out.putNextEntry(new JarEntry(BeanIndex.INDEX_RESOURCE));
+				index.write(out);
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	private void writeSource(File file, String source) throws Exception {
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
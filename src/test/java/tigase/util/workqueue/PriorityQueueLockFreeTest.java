@@ -0,0 +1,272 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.workqueue;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.Benchmark;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class PriorityQueueLockFreeTest {
+
+	@Test
+	public void testPriorityOrder() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(3, 16,
+																					  PriorityQueueLockFree.class);
+
+		assertTrue(queue.offer(20, 2));
+		assertTrue(queue.offer(10, 1));
+		assertTrue(queue.offer(0, 0));
+		assertTrue(queue.offer(21, 2));
+
+		assertArrayEquals(new int[]{1, 1, 2}, queue.size());
+		assertEquals(4, queue.totalSize());
+
+		assertEquals(0, (int) queue.take());
+		assertEquals(10, (int) queue.take());
+		assertEquals(20, (int) queue.take());
+		assertEquals(21, (int) queue.take());
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testOverflowToLowerPriority() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(2, 2,
+																					  PriorityQueueLockFree.class);
+
+		assertTrue(queue.offer(1, 0));
+		assertTrue(queue.offer(2, 0));
+		assertTrue(queue.offer(3, 0));
+		assertTrue(queue.offer(4, 1));
+		assertFalse(queue.offer(5, 0));
+		assertFalse(queue.offer(6, 1));
+
+		assertArrayEquals(new int[]{2, 2}, queue.size());
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(i, (int) queue.take());
+		}
+	}
+
+	@Test
+	public void testSetMaxSize() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(1, 4,
+																					  PriorityQueueLockFree.class);
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		assertFalse(queue.offer(4, 0));
+
+		queue.setMaxSize(8);
+		for (int i = 4; i < 12; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		assertEquals(12, queue.totalSize());
+
+		for (int i = 0; i < 12; i++) {
+			assertEquals(i, (int) queue.take());
+		}
+	}
+
+	@Test
+	public void testSetMaxSizeKeepsOrder() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(1, 4,
+																					  PriorityQueueLockFree.class);
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(queue.offer(i, 0));
+		}
+		queue.setMaxSize(2);
+		assertTrue(queue.offer(4, 0));
+		assertEquals(0, (int) queue.take());
+		queue.setMaxSize(2);
+		assertTrue(queue.offer(5, 0));
+		assertTrue(queue.offer(6, 0));
+		assertFalse(queue.offer(7, 0));
+		assertEquals(6, queue.totalSize());
+
+		for (int i = 1; i < 7; i++) {
+			assertEquals(i, (int) queue.take());
+		}
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSetMaxSizeWithStaleProducer() throws Exception {
+		PriorityQueueLockFree<Integer> queue = new PriorityQueueLockFree<>(1, 4);
+		Field field = PriorityQueueLockFree.class.getDeclaredField("qs");
+		field.setAccessible(true);
+		PriorityQueueLockFree.RingBuffer<Integer> stale = ((PriorityQueueLockFree.RingBuffer<Integer>[]) field.get(
+				queue))[0];
+
+		// producer read reference to the queue before it was replaced twice
+		assertTrue(stale.enterProducer());
+		queue.setMaxSize(8);
+		assertTrue(queue.offer(1, 0));
+		assertEquals(1, (int) queue.take());
+		queue.setMaxSize(8);
+		assertTrue(stale.offer(2));
+		stale.exitProducer();
+
+		assertFalse(stale.enterProducer());
+		assertTrue(queue.offer(3, 0));
+		assertEquals(2, (int) queue.take());
+		assertEquals(3, (int) queue.take());
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testConcurrentSetMaxSize() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(3, 64,
+																					  PriorityQueueLockFree.class);
+		int producers = 4;
+		int perProducer = 20000;
+		CountDownLatch done = new CountDownLatch(producers);
+
+		for (int p = 0; p < producers; p++) {
+			Thread producer = new Thread(() -> {
+				try {
+					for (int i = 0; i < perProducer; i++) {
+						queue.put(i, i % 3);
+					}
+				} catch (InterruptedException ex) {
+					// nothing to do
+				}
+				done.countDown();
+			});
+			producer.start();
+		}
+
+		long received = 0;
+		while (received < producers * perProducer) {
+			queue.take();
+			if (++received % 1000 == 0) {
+				queue.setMaxSize(received % 2000 == 0 ? 16 : 128);
+			}
+		}
+		done.await();
+
+		assertEquals(0, queue.totalSize());
+	}
+
+	@Test
+	public void testTakeWaitsForProducer() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(3, 16,
+																					  PriorityQueueLockFree.class);
+		List<Integer> taken = new ArrayList<>();
+		CountDownLatch latch = new CountDownLatch(1);
+		Thread consumer = new Thread(() -> {
+			try {
+				taken.add(queue.take());
+			} catch (InterruptedException ex) {
+				// nothing to do
+			}
+			latch.countDown();
+		});
+		consumer.start();
+
+		Thread.sleep(50);
+		queue.put(7, 1);
+		latch.await();
+
+		assertEquals(1, taken.size());
+		assertEquals(7, (int) taken.get(0));
+	}
+
+	@Test
+	public void testTakeInterrupted() throws InterruptedException {
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(3, 16,
+																					  PriorityQueueLockFree.class);
+		boolean[] interrupted = new boolean[1];
+		Thread consumer = new Thread(() -> {
+			try {
+				queue.take();
+			} catch (InterruptedException ex) {
+				interrupted[0] = true;
+			}
+		});
+		consumer.start();
+
+		Thread.sleep(50);
+		consumer.interrupt();
+		consumer.join(1000);
+
+		assertTrue(interrupted[0]);
+	}
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		assertEquals(4 * 10000, transfer(PriorityQueueLockFree.class, 4, 10000));
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testThroughput() throws Exception {
+		Class<? extends PriorityQueueAbstract>[] classes = new Class[]{PriorityQueueRelaxed.class,
+																		 PriorityQueueStrict.class,
+																		 PriorityQueueLockFree.class};
+		int producers = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+		Benchmark benchmark = new Benchmark("Priority queue, producers: " + producers, producers * 1000000);
+
+		for (Class<? extends PriorityQueueAbstract> cls : classes) {
+			benchmark.add(cls.getSimpleName(),
+						  iterations -> assertEquals(iterations, transfer(cls, producers, iterations / producers)));
+		}
+		benchmark.run();
+	}
+
+	private long transfer(Class<? extends PriorityQueueAbstract> cls, int producers, int perProducer)
+			throws InterruptedException {
+		// same priorities and queue size as used for component queues
+		PriorityQueueAbstract<Integer> queue = PriorityQueueAbstract.getPriorityQueue(3, 10000, cls);
+		CountDownLatch done = new CountDownLatch(producers);
+
+		for (int p = 0; p < producers; p++) {
+			Thread producer = new Thread(() -> {
+				try {
+					for (int i = 0; i < perProducer; i++) {
+						queue.put(i, i % 3);
+					}
+				} catch (InterruptedException ex) {
+					// nothing to do
+				}
+				done.countDown();
+			});
+			producer.start();
+		}
+
+		long received = 0;
+		long expected = (long) producers * perProducer;
+
+		while (received < expected) {
+			queue.take();
+			received++;
+		}
+		done.await();
+
+		return received;
+	}
+
+}
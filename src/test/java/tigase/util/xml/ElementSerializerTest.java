@@ -0,0 +1,145 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.util.xml;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import tigase.tests.Benchmark;
+import tigase.xml.Element;
+import tigase.xml.XMLUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElementSerializerTest {
+
+	private static Element createIq() {
+		Element iq = new Element("iq", new String[]{"xmlns", "type", "id", "to", "from"},
+								 new String[]{"jabber:client", "result", "disco-1", "user@example.com/res",
+											  "example.com"});
+		Element query = new Element("query", new String[]{"xmlns"},
+									new String[]{"http://jabber.org/protocol/disco#info"});
+		query.addChild(new Element("identity", new String[]{"category", "type", "name"},
+								   new String[]{"server", "im", "Tigase ver. 8.0.0"}));
+		for (String feature : new String[]{"http://jabber.org/protocol/disco#info",
+										   "http://jabber.org/protocol/disco#items", "urn:xmpp:ping",
+										   "jabber:iq:version", "urn:xmpp:mam:2"}) {
+			query.addChild(new Element("feature", new String[]{"var"}, new String[]{feature}));
+		}
+		iq.addChild(query);
+		return iq;
+	}
+
+	private static Element createMessage() {
+		Element message = new Element("message", new String[]{"xmlns", "type", "id", "to", "from"},
+									  new String[]{"jabber:client", "chat", "msg-1", "juliet@example.com",
+												   "romeo@example.net/orchard"});
+		message.addChild(new Element("body", XMLUtils.escape(
+				"Żółć & <gęś> \"jaźń\" 😀 - wherefore art thou?"), null, null));
+		message.addChild(new Element("active", new String[]{"xmlns"},
+									 new String[]{"http://jabber.org/protocol/chatstates"}));
+		return message;
+	}
+
+	private static Element createPresence() {
+		Element presence = new Element("presence", new String[]{"xmlns", "to", "from"},
+									   new String[]{"jabber:client", "juliet@example.com",
+													"romeo@example.net/orchard"});
+		presence.addChild(new Element("priority", "5", null, null));
+		presence.addChild(new Element("c", new String[]{"xmlns", "hash", "node", "ver"},
+									  new String[]{"http://jabber.org/protocol/caps", "sha-1",
+												   "https://tigase.net", "QgayPKawpkPSDYmwT/WM94uAlu0="}));
+		return presence;
+	}
+
+	@Test
+	public void testSameAsToString() {
+		for (Element elem : new Element[]{createMessage(), createPresence(), createIq(), new Element("ping"),
+										  new Element("body", "", null, null)}) {
+			assertArrayEquals(elem.toString(), elem.toString().getBytes(StandardCharsets.UTF_8),
+							  ElementSerializer.toBytes(elem));
+		}
+	}
+
+	@Test
+	public void testMixedContent() {
+		Element elem = new Element("p", "Some ", null, null);
+		elem.addChild(new Element("b", "bold", null, null));
+		elem.addCData(" text");
+		assertArrayEquals(elem.toString().getBytes(StandardCharsets.UTF_8), ElementSerializer.toBytes(elem));
+	}
+
+	@Test
+	public void testUnpairedSurrogate() {
+		Element elem = new Element("body", "a\uD83Db\uDE00", null, null);
+		assertEquals("<body>a?b?</body>", new String(ElementSerializer.toBytes(elem), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testSmallBuffer() throws IOException {
+		Element elem = createMessage();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ElementSerializer serializer = new ElementSerializer(ByteBuffer.allocate(16), buffer -> {
+			out.write(buffer.array(), 0, buffer.position());
+			buffer.clear();
+			return buffer;
+		});
+		serializer.write(elem).write(elem).flush();
+
+		byte[] expected = (elem.toString() + elem.toString()).getBytes(StandardCharsets.UTF_8);
+		assertArrayEquals(expected, out.toByteArray());
+	}
+
+	@Test
+	public void testOutputStream() throws IOException {
+		Element elem = createIq();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ElementSerializer.write(elem, out);
+		assertArrayEquals(elem.toString().getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+	@Category(tigase.tests.SlowTest.class)
+	@Test
+	public void testPerformance() throws Exception {
+		Element[] elements = new Element[]{createMessage(), createPresence(), createIq()};
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		ElementSerializer serializer = new ElementSerializer(buffer, full -> {
+			full.clear();
+			return full;
+		});
+
+		new Benchmark("Element serialization", 1000000).add("toString()", iterations -> {
+			long bytes = 0;
+			for (int i = 0; i < iterations; i++) {
+				bytes += elements[i % elements.length].toString().getBytes(StandardCharsets.UTF_8).length;
+			}
+			assertTrue(bytes > 0);
+		}).add("ElementSerializer", iterations -> {
+			for (int i = 0; i < iterations; i++) {
+				serializer.write(elements[i % elements.length]);
+			}
+		}).run();
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.db.TigaseDBException;
+import tigase.db.UserNotFoundException;
+import tigase.db.xml.XMLRepository;
+import tigase.vhosts.VHostItemImpl;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserDataPrefetchTest
+		extends ProcessorTestCase {
+
+	private final AtomicInteger reads = new AtomicInteger();
+	private final JID userJid = JID.jidInstanceNS("user1@example.com/res1");
+	private XMLRepository repository;
+	private XMPPResourceConnection session;
+
+	@Before
+	public void prepareSession() throws Exception {
+		repository = new XMLRepository() {
+			@Override
+			public synchronized String getData(BareJID user, String subnode, String key, String def)
+					throws UserNotFoundException, TigaseDBException {
+				reads.incrementAndGet();
+				return super.getData(user, subnode, key, def);
+			}
+
+			@Override
+			public Map<String, Map<String, String[]>> getDataLists(BareJID user, String[] subnodes)
+					throws UserNotFoundException, TigaseDBException {
+				Map<String, Map<String, String[]>> results = new HashMap<>();
+				for (String subnode : subnodes) {
+					Map<String, String[]> data = new HashMap<>();
+					String[] keys = getKeys(user, subnode);
+					if (keys != null) {
+						for (String key : keys) {
+							data.put(key, new String[]{super.getData(user, subnode, key, null)});
+						}
+					}
+					results.put(subnode, data);
+				}
+				return results;
+			}
+		};
+		repository.initRepository("memory://xmlRepo?autoCreateUser=true", null);
+		repository.setData(userJid.getBareJID(), "roster", "<roster/>");
+		repository.setData(userJid.getBareJID(), "privacy", "default", "list1");
+
+		session = new XMPPResourceConnection(JID.jidInstanceNS("c2s@example.com/1"), repository, repository,
+											 getSessionManagerHandler());
+		VHostItemImpl vhost = new VHostItemImpl();
+		vhost.setVHost(userJid.getDomain());
+		session.setDomain(vhost);
+		session.authorizeJID(userJid.getBareJID(), false);
+		session.setResource(userJid.getResource());
+	}
+
+	@Test
+	public void testDataServedFromPrefetchedNodes() throws Exception {
+		session.prefetchData(new String[]{"privacy", null}, 60 * 1000);
+
+		assertEquals("list1", session.getData("privacy", "default", null));
+		assertEquals("list1", session.getData("/privacy/", "default", null));
+		assertEquals("<roster/>", session.getData(null, "roster", null));
+		assertNull(session.getData("privacy", "missing", null));
+		assertArrayEquals(new String[]{"list1"}, session.getDataList("privacy", "default"));
+		assertEquals(0, reads.get());
+
+		session.getData("other", "key", null);
+		assertEquals(1, reads.get());
+	}
+
+	@Test
+	public void testWriteThrough() throws Exception {
+		session.prefetchData(new String[]{"privacy"}, 60 * 1000);
+
+		session.setData("privacy", "default", "list2");
+		session.setData("privacy", "other", "list3");
+		assertEquals("list2", session.getData("privacy", "default", null));
+		assertEquals("list3", session.getData("privacy", "other", null));
+		assertEquals(0, reads.get());
+		assertEquals("list2", repository.getData(userJid.getBareJID(), "privacy", "default"));
+
+		session.removeData("privacy", "other");
+		assertNull(session.getData("privacy", "other", null));
+
+		session.removeDataGroup("privacy");
+		reads.set(0);
+		assertNull(session.getData("privacy", "default", null));
+		assertEquals(1, reads.get());
+	}
+
+	@Test
+	public void testExpiration() throws Exception {
+		session.prefetchData(new String[]{"privacy"}, 0);
+
+		assertEquals("list1", session.getData("privacy", "default", null));
+		assertEquals(1, reads.get());
+	}
+}
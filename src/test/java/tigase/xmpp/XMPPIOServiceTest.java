@@ -0,0 +1,107 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp;
+
+import org.junit.Test;
+import tigase.server.Packet;
+import tigase.xml.Element;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class XMPPIOServiceTest {
+
+	@Test
+	public void testBatchedWriteKeepsUnsentPacketsWhenSocketFails() throws Exception {
+		FailingXMPPIOService service = new FailingXMPPIOService(2);
+		service.setWriteBatching(XMPPIOService.WRITE_BATCH_MIN_SIZE, null);
+
+		List<Packet> packets = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Packet packet = createPacket(i);
+			packets.add(packet);
+			service.addPacketToSend(packet);
+		}
+
+		service.processWaitingPackets();
+
+		// only the first batch was written before the socket failed
+		assertEquals(2, service.writes);
+		assertEquals(4, service.getWaitingPackets().size());
+		List<Packet> waiting = new ArrayList<>(service.getWaitingPackets());
+		for (int i = 0; i < waiting.size(); i++) {
+			assertSame(packets.get(i + 1), waiting.get(i));
+		}
+	}
+
+	@Test
+	public void testBatchedWriteRemovesWrittenPackets() throws Exception {
+		FailingXMPPIOService service = new FailingXMPPIOService(Integer.MAX_VALUE);
+		service.setWriteBatching(XMPPIOService.WRITE_BATCH_MIN_SIZE, null);
+
+		for (int i = 0; i < 5; i++) {
+			service.addPacketToSend(createPacket(i));
+		}
+
+		service.processWaitingPackets();
+
+		assertEquals(0, service.getWaitingPackets().size());
+	}
+
+	private static Packet createPacket(int idx) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 600; i++) {
+			sb.append('a');
+		}
+		Element message = new Element("message", new String[]{"from", "to", "id"},
+									  new String[]{"sender@example.com/res", "recipient@example.com/res", "msg-" + idx});
+		message.addChild(new Element("body", sb.toString()));
+		return Packet.packetInstance(message);
+	}
+
+	private static class FailingXMPPIOService
+			extends XMPPIOService<Object> {
+
+		private final int failOnWrite;
+		private boolean connected = true;
+		private int writes = 0;
+
+		FailingXMPPIOService(int failOnWrite) {
+			this.failOnWrite = failOnWrite;
+		}
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		protected void writeBytes(ByteBuffer data) {
+			if (++writes >= failOnWrite) {
+				// socket failure results in stopping of the connection
+				connected = false;
+				return;
+			}
+			data.position(data.limit());
+		}
+	}
+}
@@ -25,12 +25,17 @@ import tigase.db.NonAuthUserRepository;
 import tigase.db.UserNotFoundException;
 import tigase.kernel.core.Kernel;
 import tigase.server.Packet;
+import tigase.server.xmppsession.PacketSuspender;
 import tigase.xml.Element;
+import tigase.xmpp.XMPPProcessorIfc;
 import tigase.xmpp.XMPPResourceConnection;
 import tigase.xmpp.jid.BareJID;
 import tigase.xmpp.jid.JID;
 
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -42,6 +47,7 @@ public class OfflineMessagesTest
 
 	private MsgRepositoryIfcImpl msgRepo;
 	private OfflineMessagesTestImpl offlineProcessor;
+	private SimpleDateFormat stampFormat;
 
 	@Before
 	@Override
@@ -51,6 +57,8 @@ public class OfflineMessagesTest
 		offlineProcessor = getInstance(OfflineMessagesTestImpl.class);
 		offlineProcessor.msgRepo = msgRepo;
 		offlineProcessor.init(new HashMap<String, Object>());
+		stampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		stampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
 	@After
@@ -197,6 +205,70 @@ public class OfflineMessagesTest
 		assertTrue(offlineProcessor.loadOfflineMessages(packet, session1));
 	}
 
+	@Test
+	public void testProcessPresenceDeliversToSession() throws Exception {
+		BareJID userJid = BareJID.bareJIDInstance("user1@example.com");
+		JID res1 = JID.jidInstance(userJid, "res1");
+		JID connId = JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString());
+		XMPPResourceConnection session1 = getSession(connId, res1);
+
+		storeMessage(userJid, "1440810972000", "Second");
+		storeMessage(userJid, "1440810935000", "First");
+
+		Packet presence = Packet.packetInstance(new Element("presence", new String[]{"from"},
+															new String[]{res1.toString()}));
+		Queue<Packet> results = new ArrayDeque<Packet>();
+		offlineProcessor.process(presence, session1, null, results, null);
+
+		assertEquals(2, results.size());
+		Packet first = results.poll();
+		assertEquals("First", first.getElemCDataStaticStr(new String[]{"message", "body"}));
+		assertEquals(connId, first.getPacketTo());
+		assertEquals(connId, results.poll().getPacketTo());
+
+		// messages are loaded only once for the session
+		offlineProcessor.process(presence, session1, null, results, null);
+		assertTrue(results.isEmpty());
+	}
+
+	@Test
+	public void testProcessPresenceSuspended() throws Exception {
+		BareJID userJid = BareJID.bareJIDInstance("user1@example.com");
+		JID res1 = JID.jidInstance(userJid, "res1");
+		JID connId = JID.jidInstance("c2s@example.com/" + UUID.randomUUID().toString());
+		XMPPResourceConnection session1 = getSession(connId, res1);
+
+		storeMessage(userJid, "1440810935000", "First");
+
+		List<CompletionStage<?>> stages = new ArrayList<>();
+		List<PacketSuspender.Resumer<?>> resumers = new ArrayList<>();
+		offlineProcessor.suspender = new PacketSuspender() {
+			@Override
+			public <T> void suspend(XMPPProcessorIfc processor, Packet packet, XMPPResourceConnection session,
+									Queue<Packet> results, CompletionStage<T> stage, Resumer<T> resumer) {
+				assertSame(offlineProcessor, processor);
+				assertSame(session1, session);
+				stages.add(stage);
+				resumers.add(resumer);
+			}
+		};
+
+		Packet presence = Packet.packetInstance(new Element("presence", new String[]{"from"},
+															new String[]{res1.toString()}));
+		Queue<Packet> results = new ArrayDeque<Packet>();
+		offlineProcessor.process(presence, session1, null, results, null);
+		assertTrue("messages sent before they were loaded", results.isEmpty());
+		assertEquals(1, stages.size());
+
+		// repository call returns only elements, packets are created when processing is resumed
+		Queue<Element> elems = (Queue<Element>) stages.get(0).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertEquals(1, elems.size());
+
+		((PacketSuspender.Resumer<Queue<Element>>) resumers.get(0)).resume(elems, null, results);
+		assertEquals(1, results.size());
+		assertEquals(connId, results.peek().getPacketTo());
+	}
+
 	@Test
 	public void testIsAllowedForOfflineStorage() throws Exception {
 		Packet packet = Packet.packetInstance(
@@ -251,6 +323,16 @@ public class OfflineMessagesTest
 		assertTrue(offlineProcessor.isAllowedForOfflineStorage(packet));
 	}
 
+	private void storeMessage(BareJID userJid, String time, String body) throws Exception {
+		Element packetEl = new Element("message", new String[]{"type", "from", "to", "time"},
+									   new String[]{"chat", "remote-user@test.com/res1", userJid.toString(), time});
+		packetEl.addChild(new Element("body", body));
+		packetEl.addChild(new Element("delay", new String[]{"xmlns", "stamp"},
+									  new String[]{"urn:xmpp:delay", stampFormat.format(new Date(Long.parseLong(time)))}));
+		Packet packet = Packet.packetInstance(packetEl);
+		msgRepo.storeMessage(packet.getFrom(), packet.getTo(), null, packet.getElement(), null);
+	}
+
 	@Override
 	protected void registerBeans(Kernel kernel) {
 		super.registerBeans(kernel);
@@ -282,6 +364,15 @@ public class OfflineMessagesTest
 			return res;
 		}
 
+		@Override
+		public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+			Queue<Element> res = new LinkedList<Element>();
+			for (Packet pac : stored) {
+				res.add(pac.getElement());
+			}
+			return res;
+		}
+
 		@Override
 		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 				throws UserNotFoundException {
@@ -306,6 +397,12 @@ public class OfflineMessagesTest
 			extends OfflineMessages {
 
 		private MsgRepositoryIfcImpl msgRepo;
+		private PacketSuspender suspender;
+
+		@Override
+		protected PacketSuspender getPacketSuspender() {
+			return (suspender != null) ? suspender : super.getPacketSuspender();
+		}
 
 		@Override
 		protected OfflineMessages.OfflineMsgRepositoryIfc getMsgRepoImpl(NonAuthUserRepository repo,
@@ -337,6 +337,15 @@ public class PushNotificationsWithAwayTest
 			return res;
 		}
 
+		@Override
+		public Queue<Element> loadMessagesToJID(JID to, boolean delete) throws UserNotFoundException {
+			Queue<Element> res = new LinkedList<Element>();
+			for (Packet pac : stored) {
+				res.add(pac.getElement());
+			}
+			return res;
+		}
+
 		@Override
 		public boolean storeMessage(JID from, JID to, Date expired, Element msg, NonAuthUserRepository userRepo)
 				throws UserNotFoundException {
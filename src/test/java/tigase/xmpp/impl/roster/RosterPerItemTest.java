@@ -0,0 +1,125 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.impl.roster;
+
+import org.junit.Before;
+import org.junit.Test;
+import tigase.xmpp.XMPPResourceConnection;
+import tigase.xmpp.impl.ProcessorTestCase;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RosterPerItemTest
+		extends ProcessorTestCase {
+
+	private JID buddy1;
+	private JID buddy2;
+	private JID connJid;
+	private RosterPerItem roster;
+	private JID userJid;
+
+	@Before
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		roster = new RosterPerItem();
+		connJid = JID.jidInstanceNS("c2s@example.com/test-111");
+		userJid = JID.jidInstanceNS("user-1@example.com/res-1");
+		buddy1 = JID.jidInstanceNS("buddy-1@example.com");
+		buddy2 = JID.jidInstanceNS("buddy-2@example.com");
+	}
+
+	@Test
+	public void testItemsStoredSeparately() throws Exception {
+		XMPPResourceConnection sess = getSession(connJid, userJid);
+		BareJID user = userJid.getBareJID();
+
+		roster.addBuddy(sess, buddy1, "Buddy 1", null, RosterAbstract.SubscriptionType.both, null);
+		roster.addBuddy(sess, buddy2, "Buddy 2", new String[]{"Friends"}, RosterAbstract.SubscriptionType.to, null);
+
+		Map<String, String> items = getUserRepository().getDataMap(user, RosterPerItem.ROSTER_ITEMS);
+		assertEquals(2, items.size());
+		assertTrue(items.get(buddy2.toString()).contains("Friends"));
+		assertNull(getUserRepository().getData(user, RosterAbstract.ROSTER));
+
+		roster.setBuddyName(sess, buddy2, "Buddy 2 renamed");
+		items = getUserRepository().getDataMap(user, RosterPerItem.ROSTER_ITEMS);
+		assertTrue(items.get(buddy2.toString()).contains("Buddy 2 renamed"));
+
+		roster.removeBuddy(sess, buddy1);
+		items = getUserRepository().getDataMap(user, RosterPerItem.ROSTER_ITEMS);
+		assertEquals(1, items.size());
+		assertFalse(items.containsKey(buddy1.toString()));
+
+		Map<BareJID, RosterElement> loaded = new HashMap<>();
+		assertTrue(RosterPerItem.loadRosterItemsUtil(getUserRepository(), user, loaded));
+		assertEquals(1, loaded.size());
+		assertEquals("Buddy 2 renamed", loaded.get(buddy2.getBareJID()).getName());
+	}
+
+	@Test
+	public void testMigration() throws Exception {
+		BareJID user = JID.jidInstanceNS("user-2@example.com").getBareJID();
+		RosterElement relem = new RosterElement(buddy1, "Buddy 1", new String[]{"Friends"});
+		relem.setSubscription(RosterAbstract.SubscriptionType.both);
+		getUserRepository().setData(user, RosterAbstract.ROSTER, relem.getRosterElement().toString());
+
+		XMPPResourceConnection sess = getSession(connJid, JID.jidInstanceNS(user, "res-1"));
+
+		assertEquals(RosterAbstract.SubscriptionType.both, roster.getBuddySubscription(sess, buddy1));
+		assertArrayEquals(new String[]{"Friends"}, roster.getBuddyGroups(sess, buddy1));
+		assertNull(getUserRepository().getData(user, RosterAbstract.ROSTER));
+		assertTrue(getUserRepository().getDataMap(user, RosterPerItem.ROSTER_ITEMS).containsKey(buddy1.toString()));
+	}
+
+	@Test
+	public void testSaveRosterItemUtil() throws Exception {
+		BareJID user = JID.jidInstanceNS("user-3@example.com").getBareJID();
+		RosterElement relem1 = new RosterElement(buddy1, "Buddy 1", null);
+		RosterElement relem2 = new RosterElement(buddy2, "Buddy 2", null);
+		getUserRepository().setData(user, RosterAbstract.ROSTER,
+									relem1.getRosterElement().toString() + relem2.getRosterElement().toString());
+
+		// removal from not migrated roster
+		Map<BareJID, RosterElement> loaded = new HashMap<>();
+		assertTrue(RosterPerItem.loadRosterItemsUtil(getUserRepository(), user, loaded));
+		assertEquals(2, loaded.size());
+		loaded.remove(buddy1.getBareJID());
+		RosterPerItem.saveRosterItemUtil(getUserRepository(), user, loaded, buddy1.getBareJID());
+
+		assertNull(getUserRepository().getData(user, RosterAbstract.ROSTER));
+		Map<String, String> items = getUserRepository().getDataMap(user, RosterPerItem.ROSTER_ITEMS);
+		assertEquals(1, items.size());
+		assertTrue(items.containsKey(buddy2.toString()));
+
+		loaded = new HashMap<>();
+		RosterPerItem.loadRosterItemsUtil(getUserRepository(), user, loaded);
+		loaded.put(buddy1.getBareJID(), new RosterElement(buddy1, "Buddy 1 again", null));
+		RosterPerItem.saveRosterItemUtil(getUserRepository(), user, loaded, buddy1.getBareJID());
+
+		loaded = new HashMap<>();
+		RosterPerItem.loadRosterItemsUtil(getUserRepository(), user, loaded);
+		assertEquals(2, loaded.size());
+		assertEquals("Buddy 1 again", loaded.get(buddy1.getBareJID()).getName());
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Tigase XMPP Server - The instant messaging server
+ * Copyright (C) 2004 Tigase, Inc. (office@tigase.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. Look for COPYING file in the top folder.
+ * If not, see http://www.gnu.org/licenses/.
+ */
+package tigase.xmpp.mam.embedded;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tigase.component.exceptions.ComponentException;
+import tigase.xml.Element;
+import tigase.xmpp.jid.BareJID;
+import tigase.xmpp.jid.JID;
+import tigase.xmpp.mam.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedMAMRepositoryTest {
+
+	// full hour, so each partition contains 60 messages
+	private static final long BASE = 1500001200000L;
+	private static final int ITEMS = 300;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<String> ids = new ArrayList<>();
+	private final BareJID owner = BareJID.bareJIDInstanceNS("owner@example.com");
+	private EmbeddedMAMRepository repo;
+
+	@Before
+	public void setUp() throws Exception {
+		repo = createRepository();
+		// 5 partitions with 60 messages each
+		for (int i = 0; i < ITEMS; i++) {
+			JID with = i % 2 == 0 ? JID.jidInstanceNS("a@example.com/res") : JID.jidInstanceNS("b@example.com");
+			Element message = new Element("message", new Element[]{new Element("body", "Message " + i)},
+										  new String[]{"type"}, new String[]{"chat"});
+			ids.add(repo.archiveMessage(owner, with, new Date(BASE + TimeUnit.MINUTES.toMillis(i)), message));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		repo.beforeUnregister();
+	}
+
+	@Test
+	public void testPaging() throws Exception {
+		List<EmbeddedMAMRepository.Item> items = new ArrayList<>();
+		Query query = query(null, null, null, "max", "50");
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 0, 50, 1);
+		assertEquals(Integer.valueOf(ITEMS), query.getRsm().getCount());
+		assertEquals(Integer.valueOf(0), query.getRsm().getIndex());
+		assertEquals("Message 0", items.get(0).getMessage().getChild("body").getCData());
+
+		items.clear();
+		query = query(null, null, null, "max", "50", "after", ids.get(49));
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 50, 50, 1);
+		assertEquals(Integer.valueOf(50), query.getRsm().getIndex());
+
+		items.clear();
+		query = query(null, null, null, "max", "10", "before", ids.get(100));
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 90, 10, 1);
+		assertEquals(Integer.valueOf(90), query.getRsm().getIndex());
+
+		items.clear();
+		query = query(null, null, null, "max", "10", "before", null);
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 290, 10, 1);
+		assertEquals(Integer.valueOf(290), query.getRsm().getIndex());
+
+		items.clear();
+		query = query(null, null, null, "max", "10", "index", "125");
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 125, 10, 1);
+	}
+
+	@Test
+	public void testFiltering() throws Exception {
+		List<EmbeddedMAMRepository.Item> items = new ArrayList<>();
+		Query query = query(new Date(BASE + TimeUnit.MINUTES.toMillis(50)),
+							new Date(BASE + TimeUnit.MINUTES.toMillis(249)), "b@example.com", "max", "20");
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 51, 20, 2);
+		assertEquals(Integer.valueOf(100), query.getRsm().getCount());
+
+		items.clear();
+		query = query(null, null, "b@example.com", "max", "20", "index", "70");
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 141, 20, 2);
+		assertEquals(Integer.valueOf(150), query.getRsm().getCount());
+
+		items.clear();
+		query = query(null, null, "a@example.com/res", "max", "5", "after", ids.get(200));
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 202, 5, 2);
+		assertEquals(Integer.valueOf(101), query.getRsm().getIndex());
+
+		items.clear();
+		query = query(null, null, "b@example.com", "max", "5", "before", ids.get(100));
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 91, 5, 2);
+		assertEquals(Integer.valueOf(45), query.getRsm().getIndex());
+
+		try {
+			repo.queryItems(query(null, null, null, "after", UUID.randomUUID().toString()),
+							(q, item) -> items.add(item));
+			fail("Item should not be found");
+		} catch (ComponentException ex) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRetentionAndReopen() throws Exception {
+		assertEquals(2, repo.removeItems(owner, new Date(BASE + TimeUnit.MINUTES.toMillis(130))));
+		repo.beforeUnregister();
+
+		repo = createRepository();
+		List<EmbeddedMAMRepository.Item> items = new ArrayList<>();
+		Query query = query(null, null, null, "max", "10", "after", ids.get(200));
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertItems(items, 201, 10, 1);
+		assertEquals(Integer.valueOf(180), query.getRsm().getCount());
+		assertEquals(Integer.valueOf(81), query.getRsm().getIndex());
+
+		String id = repo.archiveMessage(owner, JID.jidInstanceNS("c@example.com"), new Date(BASE), new Element("message"));
+		items.clear();
+		query = query(null, null, "c@example.com", "max", "10");
+		repo.queryItems(query, (q, item) -> items.add(item));
+		assertEquals(1, items.size());
+		assertEquals(id, items.get(0).getId());
+		// timestamp should not be older than the last archived message
+		assertEquals(BASE + TimeUnit.MINUTES.toMillis(ITEMS - 1), items.get(0).getTimestamp().getTime());
+	}
+
+	private EmbeddedMAMRepository createRepository() {
+		EmbeddedMAMRepository repo = new EmbeddedMAMRepository(folder.getRoot().getAbsolutePath(),
+															   Duration.ofHours(1), null);
+		repo.initialize();
+		return repo;
+	}
+
+	/**
+	 * Creates query with RSM set containing elements with names and values passed as pairs, <code>null</code> value
+	 * creates an empty element.
+	 */
+	private Query query(Date start, Date end, String with, String... rsm) throws Exception {
+		Query query = repo.newQuery();
+		query.setQuestionerJID(JID.jidInstance(owner, "res"));
+		query.setStart(start);
+		query.setEnd(end);
+		if (with != null) {
+			query.setWith(JID.jidInstance(with));
+		}
+		Element set = new Element("set");
+		set.setXMLNS("http://jabber.org/protocol/rsm");
+		for (int i = 0; i < rsm.length; i += 2) {
+			set.addChild(rsm[i + 1] == null ? new Element(rsm[i]) : new Element(rsm[i], rsm[i + 1]));
+		}
+		Element queryEl = new Element("query");
+		queryEl.addChild(set);
+		query.getRsm().fromElement(queryEl);
+		return query;
+	}
+
+	private void assertItems(List<EmbeddedMAMRepository.Item> items, int first, int count, int step) {
+		assertEquals(count, items.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(ids.get(first + i * step), items.get(i).getId());
+		}
+	}
+
+}